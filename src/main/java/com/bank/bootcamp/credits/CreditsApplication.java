@@ -3,9 +3,11 @@ package com.bank.bootcamp.credits;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.netflix.eureka.EnableEurekaClient;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableEurekaClient
+@EnableScheduling
 public class CreditsApplication {
 
 	public static void main(String[] args) {
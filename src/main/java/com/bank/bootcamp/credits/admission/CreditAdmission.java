@@ -0,0 +1,283 @@
+package com.bank.bootcamp.credits.admission;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.exception.AdmissionRejectedException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/*
+ * Admission control of the CreditController endpoints (credits.admission.enabled=true), checked before any work:
+ *  - a token bucket per key (credit:<id>, customer:<id>) refilled at rate-limit.per-second up to rate-limit.burst,
+ *    so one card or customer cannot take the capacity of everybody else; each item of a batch takes a token of its
+ *    credit (limitItem) and is answered as rejected in the batch results when there is none;
+ *  - at most max-in-flight operations per endpoint; the next queue-capacity ones wait up to queue-timeout
+ *    for a slot, in arrival order, and the rest are rejected at once instead of piling up on the connection pool.
+ * Rejections are AdmissionRejectedExceptions, 429 with Retry-After: the bucket refill time for a rate limit,
+ * retry-after for a full endpoint. A Flux holds its slot until it terminates.
+ * Meters: credits.admission.in-flight, credits.admission.queue.depth and credits.admission.queue.wait by endpoint,
+ * credits.admission.rejections by endpoint and reason.
+ */
+@Component
+public class CreditAdmission {
+  
+  public static final String RATE_LIMIT = "rate-limit";
+  public static final String QUEUE_FULL = "queue-full";
+  public static final String QUEUE_TIMEOUT = "queue-timeout";
+  
+  private final boolean enabled;
+  private final int maxInFlight;
+  private final int queueCapacity;
+  private final Duration queueTimeout;
+  private final Duration retryAfter;
+  private final double ratePerSecond;
+  private final long burst;
+  private final MeterRegistry meterRegistry;
+  private final Cache<String, TokenBucket> buckets;
+  private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+  
+  public CreditAdmission(
+      @Value("${credits.admission.enabled:false}") boolean enabled,
+      @Value("${credits.admission.max-in-flight:64}") int maxInFlight,
+      @Value("${credits.admission.queue-capacity:128}") int queueCapacity,
+      @Value("${credits.admission.queue-timeout:100ms}") Duration queueTimeout,
+      @Value("${credits.admission.retry-after:1s}") Duration retryAfter,
+      @Value("${credits.admission.rate-limit.per-second:50}") double ratePerSecond,
+      @Value("${credits.admission.rate-limit.burst:100}") long burst,
+      @Value("${credits.admission.rate-limit.maximum-keys:100000}") long maximumKeys,
+      MeterRegistry meterRegistry) {
+    this.enabled = enabled;
+    this.maxInFlight = maxInFlight;
+    this.queueCapacity = queueCapacity;
+    this.queueTimeout = queueTimeout;
+    this.retryAfter = retryAfter;
+    this.ratePerSecond = ratePerSecond;
+    this.burst = burst;
+    this.meterRegistry = meterRegistry;
+    // an idle bucket is full again after burst / rate, forgetting it then changes nothing
+    this.buckets = Caffeine.newBuilder()
+        .maximumSize(maximumKeys)
+        .expireAfterAccess(Duration.ofMillis(Math.max(1000L, (long) Math.ceil(burst * 1000d / ratePerSecond))))
+        .build();
+  }
+  
+  public static String creditKey(String creditId) {
+    return creditId == null || creditId.isBlank() ? null : "credit:" + creditId;
+  }
+  
+  public static String customerKey(String customerId) {
+    return customerId == null || customerId.isBlank() ? null : "customer:" + customerId;
+  }
+  
+  /*
+   * key may be null (e.g. a request without creditId, left to the validation): only the endpoint limit applies then.
+   */
+  public <T> Mono<T> admit(String endpoint, String key, Supplier<Mono<T>> operation) {
+    if (!enabled)
+      return Mono.defer(operation);
+    return Mono.defer(() -> {
+      var rejection = limit(endpoint, key);
+      if (rejection != null)
+        return Mono.error(rejection);
+      var slots = endpoint(endpoint);
+      return Mono.usingWhen(slots.acquire(), slot -> operation.get(), Slot::released, (slot, e) -> slot.released(), Slot::released);
+    });
+  }
+  
+  public <T> Flux<T> admitMany(String endpoint, String key, Supplier<Flux<T>> operation) {
+    if (!enabled)
+      return Flux.defer(operation);
+    return Flux.defer(() -> {
+      var rejection = limit(endpoint, key);
+      if (rejection != null)
+        return Flux.error(rejection);
+      var slots = endpoint(endpoint);
+      return Flux.usingWhen(slots.acquire(), slot -> operation.get(), Slot::released, (slot, e) -> slot.released(), Slot::released);
+    });
+  }
+  
+  /*
+   * The bucket of each item of a batch admitted with admitMany: takes a token of the credit, returning the reason
+   * to reject the item with when there is none, null otherwise.
+   */
+  public String limitItem(String endpoint, String creditId) {
+    if (!enabled)
+      return null;
+    var rejection = limit(endpoint, creditKey(creditId));
+    return rejection == null ? null : rejection.getReason();
+  }
+  
+  private AdmissionRejectedException limit(String endpoint, String key) {
+    if (key == null)
+      return null;
+    var wait = buckets.get(key, k -> new TokenBucket()).take();
+    return wait == 0 ? null : reject(endpoint, RATE_LIMIT, Duration.ofNanos(wait));
+  }
+  
+  private AdmissionRejectedException reject(String endpoint, String reason, Duration retryAfter) {
+    Counter.builder("credits.admission.rejections")
+        .tag("endpoint", endpoint)
+        .tag("reason", reason)
+        .register(meterRegistry)
+        .increment();
+    return new AdmissionRejectedException(endpoint, reason, retryAfter);
+  }
+  
+  private Endpoint endpoint(String name) {
+    return endpoints.computeIfAbsent(name, Endpoint::new);
+  }
+  
+  private final class TokenBucket {
+    
+    private double tokens = burst;
+    private long refilled = System.nanoTime();
+    
+    /*
+     * 0 when a token was taken, otherwise the nanos until the next one.
+     */
+    private synchronized long take() {
+      var now = System.nanoTime();
+      tokens = Math.min(burst, tokens + (now - refilled) * ratePerSecond / TimeUnit.SECONDS.toNanos(1));
+      refilled = now;
+      if (tokens >= 1) {
+        tokens--;
+        return 0;
+      }
+      return Math.max(1L, (long) Math.ceil((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+    }
+  }
+  
+  /*
+   * A slot is released once, whichever of complete, error or cancel comes first.
+   */
+  private static final class Slot {
+    
+    private final Endpoint endpoint;
+    private final AtomicBoolean released = new AtomicBoolean();
+    
+    private Slot(Endpoint endpoint) {
+      this.endpoint = endpoint;
+    }
+    
+    private void release() {
+      if (released.compareAndSet(false, true))
+        endpoint.release();
+    }
+    
+    private Mono<Void> released() {
+      return Mono.fromRunnable(this::release);
+    }
+  }
+  
+  private static final class Waiter {
+    
+    private final MonoSink<Slot> sink;
+    private final Slot slot;
+    private final long queued = System.nanoTime();
+    /* set by whoever gets it first: a release handing the slot over, or the timeout/cancel */
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    
+    private Waiter(MonoSink<Slot> sink, Slot slot) {
+      this.sink = sink;
+      this.slot = slot;
+    }
+    
+    private boolean claim() {
+      return claimed.compareAndSet(false, true);
+    }
+  }
+  
+  private final class Endpoint {
+    
+    private final String name;
+    private final Queue<Waiter> queue = new ArrayDeque<>();
+    private final Timer queueWait;
+    private int inFlight;
+    
+    private Endpoint(String name) {
+      this.name = name;
+      this.queueWait = Timer.builder("credits.admission.queue.wait")
+          .tag("endpoint", name)
+          .publishPercentiles(0.5, 0.99)
+          .register(meterRegistry);
+      Gauge.builder("credits.admission.in-flight", this, Endpoint::getInFlight).tag("endpoint", name).register(meterRegistry);
+      Gauge.builder("credits.admission.queue.depth", this, Endpoint::getQueueDepth).tag("endpoint", name).register(meterRegistry);
+    }
+    
+    private synchronized double getInFlight() {
+      return inFlight;
+    }
+    
+    private synchronized double getQueueDepth() {
+      return queue.size();
+    }
+    
+    private Mono<Slot> acquire() {
+      return Mono.<Slot>create(sink -> {
+        Waiter waiter = null;
+        var granted = false;
+        synchronized (this) {
+          if (inFlight < maxInFlight) {
+            inFlight++;
+            granted = true;
+          } else if (queue.size() < queueCapacity) {
+            waiter = new Waiter(sink, new Slot(this));
+            queue.offer(waiter);
+          }
+        }
+        if (granted) {
+          sink.success(new Slot(this));
+        } else if (waiter == null) {
+          sink.error(reject(name, QUEUE_FULL, retryAfter));
+        } else {
+          var queued = waiter;
+          // a slot handed over while the waiter was being cancelled never reaches it
+          sink.onCancel(() -> {
+            if (queued.claim())
+              remove(queued);
+            else
+              queued.slot.release();
+          });
+        }
+      })
+      .timeout(queueTimeout, Mono.defer(() -> Mono.error(reject(name, QUEUE_TIMEOUT, retryAfter))));
+    }
+    
+    private synchronized void remove(Waiter waiter) {
+      queue.remove(waiter);
+    }
+    
+    /*
+     * The slot goes to the oldest waiter still waiting, or back to the endpoint.
+     */
+    private void release() {
+      Waiter next;
+      synchronized (this) {
+        do {
+          next = queue.poll();
+        } while (next != null && !next.claim());
+        if (next == null)
+          inFlight--;
+      }
+      if (next != null) {
+        queueWait.record(System.nanoTime() - next.queued, TimeUnit.NANOSECONDS);
+        next.sink.success(next.slot);
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.bank.bootcamp.credits.cache;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.dto.BalanceDTO;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/*
+ * Bounded, TTL evicted cache of balances by creditId.
+ * Entries are versioned with Credit.version so a slow read can never overwrite
+ * the balance left by a later write. Hit, miss and eviction counters are published
+ * as cache.* meters with cache=credits.balance.
+ */
+@Component
+public class BalanceCache {
+
+  private final Cache<String, CachedBalance> cache;
+  
+  public BalanceCache(
+      @Value("${credits.balance-cache.maximum-size:100000}") long maximumSize,
+      @Value("${credits.balance-cache.expire-after-write:60s}") Duration expireAfterWrite,
+      MeterRegistry meterRegistry) {
+    this.cache = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(expireAfterWrite)
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "credits.balance");
+  }
+  
+  public Mono<BalanceDTO> get(String creditId, Supplier<Mono<BalanceDTO>> loader) {
+    return Mono.defer(() -> Mono.justOrEmpty(cache.getIfPresent(creditId)))
+        .map(CachedBalance::getBalance)
+        .switchIfEmpty(Mono.defer(loader));
+  }
+  
+  public BalanceDTO getIfPresent(String creditId) {
+    var cached = cache.getIfPresent(creditId);
+    return cached == null ? null : cached.getBalance();
+  }
+  
+  public void put(Credit credit, BalanceDTO balance) {
+    if (credit.getUsed() == null)
+      return;
+    var version = credit.getVersion() == null ? -1L : credit.getVersion();
+    cache.asMap().merge(credit.getId(), new CachedBalance(version, balance),
+        (current, candidate) -> candidate.getVersion() >= current.getVersion() ? candidate : current);
+  }
+  
+  public void invalidate(String creditId) {
+    cache.invalidate(creditId);
+  }
+  
+  @Getter
+  @RequiredArgsConstructor
+  private static class CachedBalance {
+    private final long version;
+    private final BalanceDTO balance;
+  }
+}
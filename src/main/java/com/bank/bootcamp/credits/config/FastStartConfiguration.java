@@ -0,0 +1,77 @@
+package com.bank.bootcamp.credits.config;
+
+import java.util.Set;
+import org.springframework.beans.BeanUtils;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.mongo.MongoProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.data.mapping.model.FieldNamingStrategy;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.scheduling.annotation.Scheduled;
+import com.bank.bootcamp.credits.entity.ArchivedConsumptiom;
+import com.bank.bootcamp.credits.entity.ArchivedPaid;
+import com.bank.bootcamp.credits.entity.BalanceProjection;
+import com.bank.bootcamp.credits.entity.BalanceSnapshot;
+import com.bank.bootcamp.credits.entity.ChangeStreamToken;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CustomerExposure;
+import com.bank.bootcamp.credits.entity.IdempotencyRecord;
+import com.bank.bootcamp.credits.entity.LedgerRollup;
+import com.bank.bootcamp.credits.entity.LedgerRollupCheckpoint;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.entity.PortfolioExposureCheckpoint;
+import com.bank.bootcamp.credits.journal.LedgerJournal;
+
+/*
+ * The fast-start profile (with application-fast-start.properties): beans are created lazily, on the first
+ * request that needs them, except for what has to run without one: the @Scheduled jobs and the ledger journal,
+ * whose replay belongs to the start. ApplicationRunners are still created and run by Spring Boot.
+ * On MongoDB the mapping context gets its entities from DOCUMENTS instead of a classpath scan for @Document,
+ * and builds their metadata at startup.
+ */
+@Configuration
+@Profile("fast-start")
+public class FastStartConfiguration {
+  
+  /* every @Document of the entity package, FastStartConfigurationTests compares it with a scan */
+  public static final Set<Class<?>> DOCUMENTS = Set.of(ArchivedConsumptiom.class, ArchivedPaid.class, BalanceProjection.class,
+      BalanceSnapshot.class, ChangeStreamToken.class, Consumptiom.class, Credit.class, CustomerExposure.class, IdempotencyRecord.class,
+      LedgerRollup.class, LedgerRollupCheckpoint.class, Paid.class, PortfolioExposureCheckpoint.class);
+  
+  @Bean
+  public static LazyInitializationExcludeFilter eagerBackgroundBeans() {
+    return (beanName, beanDefinition, beanType) -> beanType == LedgerJournal.class || hasScheduledMethods(beanType);
+  }
+  
+  static boolean hasScheduledMethods(Class<?> beanType) {
+    return !MethodIntrospector.selectMethods(beanType,
+        (MethodIntrospector.MetadataLookup<Scheduled>) method -> AnnotatedElementUtils.findMergedAnnotation(method, Scheduled.class))
+        .isEmpty();
+  }
+  
+  /*
+   * MongoDataConfiguration's mapping context, but for the entity set.
+   */
+  @Configuration
+  @Profile("!inmemory")
+  public static class MongoMapping {
+    
+    @Bean
+    public MongoMappingContext mongoMappingContext(MongoProperties properties, MongoCustomConversions conversions) {
+      var context = new MongoMappingContext();
+      if (properties.isAutoIndexCreation() != null)
+        context.setAutoIndexCreation(properties.isAutoIndexCreation());
+      if (properties.getFieldNamingStrategy() != null)
+        context.setFieldNamingStrategy((FieldNamingStrategy) BeanUtils.instantiateClass(properties.getFieldNamingStrategy()));
+      context.setInitialEntitySet(DOCUMENTS);
+      context.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+      return context;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.bank.bootcamp.credits.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import com.bank.bootcamp.credits.repository.memory.InMemoryArchivedConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryArchivedPaidRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryBalanceProjectionRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryBalanceSnapshotRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryChangeStreamTokenRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCreditRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCustomerExposureRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryIdempotencyRecordRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryLedgerChangeStream;
+import com.bank.bootcamp.credits.repository.memory.InMemoryLedgerRollupCheckpointRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryLedgerRollupRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPortfolioExposureCheckpointRepository;
+
+/*
+ * The inmemory profile: every repository lives in the JVM heap (see InMemoryReactiveRepository) and
+ * application-inmemory.properties leaves MongoDB out, for load tests and local runs. Nothing survives a restart.
+ * Ledger inserts only feed the change stream when the balance projection listens, as its oplog is kept whole.
+ */
+@Configuration
+@Profile("inmemory")
+public class InMemoryRepositoryConfiguration {
+  
+  @Bean
+  public InMemoryLedgerChangeStream ledgerChangeStream() {
+    return new InMemoryLedgerChangeStream();
+  }
+  
+  @Bean
+  public InMemoryCreditRepository creditRepository() {
+    return new InMemoryCreditRepository();
+  }
+  
+  @Bean
+  public InMemoryConsumptiomRepository consumptiomRepository(InMemoryLedgerChangeStream ledgerChangeStream,
+      @Value("${credits.balance-projection.enabled:false}") boolean balanceProjection) {
+    return balanceProjection ? new InMemoryConsumptiomRepository(ledgerChangeStream) : new InMemoryConsumptiomRepository();
+  }
+  
+  @Bean
+  public InMemoryPaidRepository paidRepository(InMemoryLedgerChangeStream ledgerChangeStream,
+      @Value("${credits.balance-projection.enabled:false}") boolean balanceProjection) {
+    return balanceProjection ? new InMemoryPaidRepository(ledgerChangeStream) : new InMemoryPaidRepository();
+  }
+  
+  @Bean
+  public InMemoryBalanceSnapshotRepository balanceSnapshotRepository() {
+    return new InMemoryBalanceSnapshotRepository();
+  }
+  
+  @Bean
+  public InMemoryIdempotencyRecordRepository idempotencyRecordRepository() {
+    return new InMemoryIdempotencyRecordRepository();
+  }
+  
+  @Bean
+  public InMemoryBalanceProjectionRepository balanceProjectionRepository() {
+    return new InMemoryBalanceProjectionRepository();
+  }
+  
+  @Bean
+  public InMemoryChangeStreamTokenRepository changeStreamTokenRepository() {
+    return new InMemoryChangeStreamTokenRepository();
+  }
+  
+  @Bean
+  public InMemoryLedgerRollupRepository ledgerRollupRepository() {
+    return new InMemoryLedgerRollupRepository();
+  }
+  
+  @Bean
+  public InMemoryLedgerRollupCheckpointRepository ledgerRollupCheckpointRepository() {
+    return new InMemoryLedgerRollupCheckpointRepository();
+  }
+  
+  @Bean
+  public InMemoryArchivedConsumptiomRepository archivedConsumptiomRepository() {
+    return new InMemoryArchivedConsumptiomRepository();
+  }
+  
+  @Bean
+  public InMemoryArchivedPaidRepository archivedPaidRepository() {
+    return new InMemoryArchivedPaidRepository();
+  }
+  
+  @Bean
+  public InMemoryCustomerExposureRepository customerExposureRepository() {
+    return new InMemoryCustomerExposureRepository();
+  }
+  
+  @Bean
+  public InMemoryPortfolioExposureCheckpointRepository portfolioExposureCheckpointRepository() {
+    return new InMemoryPortfolioExposureCheckpointRepository();
+  }
+}
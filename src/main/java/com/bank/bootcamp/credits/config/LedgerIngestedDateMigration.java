@@ -0,0 +1,66 @@
+package com.bank.bootcamp.credits.config;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import org.bson.Document;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.Fields;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Paid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * Sets the ingestedDate of the movements written by earlier versions to their business date, the date their
+ * snapshots and projections were checkpointed on. Only movements without one are updated, so it is safe to rerun
+ * and to run from several nodes at once; the marker in Migrations skips the scans afterwards.
+ * A snapshot would leave out the movements without ingestedDate, so it blocks the start like MoneyMigration.
+ */
+@Slf4j
+@Component
+@Profile("!inmemory")
+@RequiredArgsConstructor
+public class LedgerIngestedDateMigration implements SmartInitializingSingleton {
+  
+  public static final String ID = "ledger-ingested-date";
+  public static final Map<Class<?>, String> DATE_FIELDS = Map.of(
+      Consumptiom.class, "registerDate",
+      Paid.class, "createdDate");
+  private static final Duration TIMEOUT = Duration.ofMinutes(30);
+  
+  private final ReactiveMongoTemplate mongoTemplate;
+  
+  @Override
+  public void afterSingletonsInstantiated() {
+    migrate().block(TIMEOUT);
+    log.info("Ledger ingestedDate migration finished");
+  }
+  
+  public Mono<Void> migrate() {
+    return mongoTemplate.exists(Query.query(Criteria.where("_id").is(ID)), MoneyMigration.COLLECTION)
+        .filter(applied -> !applied)
+        .flatMap(pending -> Flux.fromIterable(DATE_FIELDS.entrySet())
+            .concatMap(entry -> backfill(entry.getKey(), entry.getValue()))
+            .then(mongoTemplate.insert(new Document("_id", ID).append("appliedDate", LocalDateTime.now()), MoneyMigration.COLLECTION)
+                .onErrorResume(DuplicateKeyException.class, e -> Mono.empty())))
+        .then();
+  }
+  
+  private Mono<Void> backfill(Class<?> type, String dateField) {
+    var query = Query.query(Criteria.where("ingestedDate").exists(false));
+    var update = AggregationUpdate.update().set("ingestedDate").toValueOf(Fields.field(dateField));
+    return mongoTemplate.updateMulti(query, update, type)
+        .doOnNext(result -> log.info("Set the ingestedDate of {} {}", result.getModifiedCount(), mongoTemplate.getCollectionName(type)))
+        .then();
+  }
+}
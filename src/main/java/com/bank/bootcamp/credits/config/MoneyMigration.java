@@ -0,0 +1,78 @@
+package com.bank.bootcamp.credits.config;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ConvertOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.schema.JsonSchemaObject.Type;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.entity.BalanceSnapshot;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.money.Money;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * Rewrites money fields stored as double/int/long by earlier versions as Decimal128 rounded to Money.SCALE.
+ * Each update only matches numeric non-decimal values, so it is safe to rerun and to run from several nodes at once;
+ * the marker in Migrations just skips the scans once every node has been upgraded.
+ * A ledger sum over movements still stored as doubles can have more than Money.SCALE decimals, so the migration
+ * blocks the start: it runs once the beans are created, before the web server listens and the instance registers
+ * in Eureka (a SmartInitializingSingleton is also created eagerly under fast-start). If it fails, the start fails.
+ */
+@Slf4j
+@Component
+@Profile("!inmemory")
+@RequiredArgsConstructor
+public class MoneyMigration implements SmartInitializingSingleton {
+  
+  public static final String COLLECTION = "Migrations";
+  public static final String ID = "money-decimal128";
+  public static final Map<Class<?>, List<String>> MONEY_FIELDS = Map.of(
+      Credit.class, List.of("limit", "used", "available"),
+      Consumptiom.class, List.of("amount"),
+      Paid.class, List.of("amount"),
+      BalanceSnapshot.class, List.of("consumptiomTotal", "paidTotal"));
+  private static final Duration TIMEOUT = Duration.ofMinutes(30);
+  
+  private final ReactiveMongoTemplate mongoTemplate;
+  
+  @Override
+  public void afterSingletonsInstantiated() {
+    migrate().block(TIMEOUT);
+    log.info("Money migration finished");
+  }
+  
+  public Mono<Void> migrate() {
+    return mongoTemplate.exists(Query.query(Criteria.where("_id").is(ID)), COLLECTION)
+        .filter(applied -> !applied)
+        .flatMap(pending -> Flux.fromIterable(MONEY_FIELDS.entrySet())
+            .concatMap(entry -> Flux.fromIterable(entry.getValue()).concatMap(field -> convert(entry.getKey(), field)))
+            .then(mongoTemplate.insert(new Document("_id", ID).append("appliedDate", LocalDateTime.now()), COLLECTION)
+                .onErrorResume(DuplicateKeyException.class, e -> Mono.empty())))
+        .then();
+  }
+  
+  private Mono<Void> convert(Class<?> type, String field) {
+    var query = Query.query(Criteria.where(field).type(Type.DOUBLE, Type.INT_32, Type.INT_64));
+    var update = AggregationUpdate.update()
+        .set(field).toValue(ArithmeticOperators.Round.roundValueOf(ConvertOperators.ToDecimal.toDecimal("$" + field)).place(Money.SCALE));
+    return mongoTemplate.updateMulti(query, update, type)
+        .doOnNext(result -> log.info("Converted {} {}.{} values to Decimal128", result.getModifiedCount(), mongoTemplate.getCollectionName(type), field))
+        .then();
+  }
+}
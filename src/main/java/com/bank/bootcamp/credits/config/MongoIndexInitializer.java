@@ -0,0 +1,54 @@
+package com.bank.bootcamp.credits.config;
+
+import java.time.Duration;
+import java.util.List;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.entity.ArchivedConsumptiom;
+import com.bank.bootcamp.credits.entity.ArchivedPaid;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CustomerExposure;
+import com.bank.bootcamp.credits.entity.IdempotencyRecord;
+import com.bank.bootcamp.credits.entity.LedgerRollup;
+import com.bank.bootcamp.credits.entity.Paid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * Creates the indexes declared on the entities (@Indexed, @CompoundIndex) before the service takes traffic.
+ * Spring Boot does not auto create indexes, and without them every repository query is a collection scan.
+ * ensureIndex is a no-op for indexes that already exist.
+ */
+@Slf4j
+@Component
+@Profile("!inmemory")
+@RequiredArgsConstructor
+public class MongoIndexInitializer implements ApplicationRunner {
+  
+  public static final List<Class<?>> INDEXED_ENTITIES = List.of(Credit.class, Consumptiom.class, Paid.class, IdempotencyRecord.class, LedgerRollup.class,
+      ArchivedConsumptiom.class, ArchivedPaid.class, CustomerExposure.class);
+  private static final Duration TIMEOUT = Duration.ofMinutes(5);
+  
+  private final ReactiveMongoTemplate mongoTemplate;
+  
+  @Override
+  public void run(ApplicationArguments args) {
+    ensureIndexes().block(TIMEOUT);
+  }
+  
+  public Mono<Void> ensureIndexes() {
+    var resolver = new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+    return Flux.fromIterable(INDEXED_ENTITIES)
+        .concatMap(type -> Flux.fromIterable(resolver.resolveIndexFor(type))
+            .concatMap(index -> mongoTemplate.indexOps(type).ensureIndex(index))
+            .doOnNext(name -> log.info("Index {} ensured on {}", name, mongoTemplate.getCollectionName(type))))
+        .then();
+  }
+}
@@ -1,17 +1,38 @@
 package com.bank.bootcamp.credits.controller;
 
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import com.bank.bootcamp.credits.admission.CreditAdmission;
 import com.bank.bootcamp.credits.dto.BalanceDTO;
+import com.bank.bootcamp.credits.dto.BalanceResultDTO;
+import com.bank.bootcamp.credits.dto.ConsumptiomResultDTO;
 import com.bank.bootcamp.credits.dto.CreateConsumptiomDTO;
 import com.bank.bootcamp.credits.dto.CreatePaidDTO;
+import com.bank.bootcamp.credits.dto.LedgerPeriodDTO;
+import com.bank.bootcamp.credits.dto.MovementDTO;
+import com.bank.bootcamp.credits.dto.PortfolioExposureDTO;
+import com.bank.bootcamp.credits.dto.RollupGranularity;
+import com.bank.bootcamp.credits.dto.StatementPageDTO;
 import com.bank.bootcamp.credits.entity.Credit;
 import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.entity.CustomerExposure;
+import com.bank.bootcamp.credits.idempotency.IdempotencyService;
+import com.bank.bootcamp.credits.projection.BalanceProjector;
 import com.bank.bootcamp.credits.service.CreditService;
+import com.bank.bootcamp.credits.service.LedgerRollupService;
+import com.bank.bootcamp.credits.service.PortfolioExposureService;
+import com.bank.bootcamp.credits.service.StatementService;
 import lombok.RequiredArgsConstructor;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -22,30 +43,110 @@ import reactor.core.publisher.Mono;
 public class CreditController {
 
   private final CreditService creditService;
+  private final StatementService statementService;
+  private final IdempotencyService idempotencyService;
+  private final BalanceProjector balanceProjector;
+  private final LedgerRollupService ledgerRollupService;
+  private final PortfolioExposureService portfolioExposureService;
+  private final CreditAdmission admission;
   
   @PostMapping
   public Mono<String> create(@RequestBody Credit credit) {
-    return creditService.createProduct(credit).map(cred -> cred.getId());
+    return admission.admit("create", CreditAdmission.customerKey(credit.getCustomerId()),
+        () -> creditService.createProduct(credit).map(cred -> cred.getId()));
   }
   
   @PostMapping("/consumptiom")
-  public Mono<String> chargeConsumptiom(@RequestBody CreateConsumptiomDTO consumptiom) {
-    return creditService.chargeConsumptiom(consumptiom);
+  public Mono<String> chargeConsumptiom(@RequestBody CreateConsumptiomDTO consumptiom,
+      @RequestHeader(name = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+    return admission.admit("consumptiom", CreditAdmission.creditKey(consumptiom.getCreditId()),
+        () -> idempotencyService.execute("consumptiom", idempotencyKey, fingerprint(consumptiom.getCreditId(), consumptiom.getAmount()),
+            () -> creditService.chargeConsumptiom(consumptiom)));
+  }
+  
+  @PostMapping(value = "/consumptiom/batch",
+      consumes = { MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE },
+      produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public Flux<ConsumptiomResultDTO> chargeConsumptioms(@RequestBody Flux<CreateConsumptiomDTO> consumptioms) {
+    return admission.admitMany("consumptiom-batch", null,
+        () -> creditService.chargeConsumptioms(consumptioms, creditId -> admission.limitItem("consumptiom-batch", creditId)));
   }
   
   @PostMapping("/paid")
-  public Mono<String> paidCredit(@RequestBody CreatePaidDTO paid) {
-    return creditService.paidCredit(paid);
+  public Mono<String> paidCredit(@RequestBody CreatePaidDTO paid,
+      @RequestHeader(name = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+    return admission.admit("paid", CreditAdmission.creditKey(paid.getCreditId()),
+        () -> idempotencyService.execute("paid", idempotencyKey, fingerprint(paid.getCreditId(), paid.getAmount()),
+            () -> creditService.paidCredit(paid)));
+  }
+  
+  private static String fingerprint(String creditId, BigDecimal amount) {
+    return creditId + ":" + (amount == null ? null : amount.stripTrailingZeros().toPlainString());
   }
   
   @GetMapping("/balanceById/{creditId}")
   public Mono<BalanceDTO> balanceByCreditId(@PathVariable("creditId") String creditId) {
-    return creditService.getBalanceByCreditId(creditId);
+    return admission.admit("balance", CreditAdmission.creditKey(creditId), () -> creditService.getBalanceByCreditId(creditId));
+  }
+  
+  @GetMapping(value = "/balanceById/{creditId}/stream",
+      produces = { MediaType.TEXT_EVENT_STREAM_VALUE, MediaType.APPLICATION_NDJSON_VALUE })
+  public Flux<BalanceDTO> streamBalanceByCreditId(@PathVariable("creditId") String creditId) {
+    return balanceProjector.watchBalance(creditId);
+  }
+  
+  @PostMapping(value = "/balances", produces = { MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE })
+  public Flux<BalanceResultDTO> balancesByCreditIds(@RequestBody List<String> creditIds) {
+    return admission.admitMany("balances", null,
+        () -> creditService.getBalancesByCreditIds(creditIds, creditId -> admission.limitItem("balances", creditId)));
   }
   
   @GetMapping("/balanceByCustomer/{customerId}/{creditType}")
   public Flux<BalanceDTO> balanceByCustomerIdAndCreditType(@PathVariable("customerId") String customerId, @PathVariable("creditType") CreditType creditType) {
-    return creditService.getBalanceByCustomerIdAndCreditType(customerId, creditType);
+    return admission.admitMany("balance-by-customer", CreditAdmission.customerKey(customerId),
+        () -> creditService.getBalanceByCustomerIdAndCreditType(customerId, creditType));
+  }
+  
+  @GetMapping("/statement/{creditId}")
+  public Mono<StatementPageDTO> statement(@PathVariable("creditId") String creditId,
+      @RequestParam(name = "cursor", required = false) String cursor,
+      @RequestParam(name = "size", required = false) Integer size,
+      @RequestParam(name = "archived", defaultValue = "false") boolean archived) {
+    return admission.admit("statement", CreditAdmission.creditKey(creditId),
+        () -> statementService.getStatement(creditId, cursor, size, archived));
+  }
+  
+  @GetMapping(value = "/statement/{creditId}/stream",
+      produces = { MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE })
+  public Flux<MovementDTO> streamStatement(@PathVariable("creditId") String creditId,
+      @RequestParam(name = "archived", defaultValue = "false") boolean archived) {
+    return admission.admitMany("statement-stream", CreditAdmission.creditKey(creditId),
+        () -> statementService.streamStatement(creditId, archived));
+  }
+  
+  @GetMapping("/rollup/{creditId}")
+  public Flux<LedgerPeriodDTO> rollup(@PathVariable("creditId") String creditId,
+      @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+      @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+      @RequestParam(name = "granularity", required = false) RollupGranularity granularity) {
+    return admission.admitMany("rollup", CreditAdmission.creditKey(creditId),
+        () -> ledgerRollupService.getPeriods(creditId, from, to, granularity));
+  }
+  
+  @GetMapping("/exposure")
+  public Flux<PortfolioExposureDTO> portfolioExposure() {
+    return admission.admitMany("exposure", null, () -> portfolioExposureService.getPortfolioExposure());
+  }
+  
+  @GetMapping(value = "/exposure/customers", produces = { MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE })
+  public Flux<CustomerExposure> customerExposures() {
+    return admission.admitMany("exposure-customers", null, () -> portfolioExposureService.getCustomerExposures());
+  }
+  
+  @GetMapping("/exposure/customers/{customerId}")
+  public Flux<CustomerExposure> customerExposure(@PathVariable("customerId") String customerId) {
+    return admission.admitMany("exposure-customer", CreditAdmission.customerKey(customerId),
+        () -> portfolioExposureService.getCustomerExposure(customerId));
   }
   
 }
@@ -0,0 +1,63 @@
+package com.bank.bootcamp.credits.controller;
+
+import java.time.Duration;
+import java.util.List;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import com.bank.bootcamp.credits.dto.ErrorDTO;
+import com.bank.bootcamp.credits.exception.AdmissionRejectedException;
+import com.bank.bootcamp.credits.exception.BankValidationException;
+import com.bank.bootcamp.credits.exception.RequestInProgressException;
+import com.bank.bootcamp.credits.exception.WriteLaneFullException;
+
+@RestControllerAdvice
+public class CreditExceptionHandler {
+  
+  @ExceptionHandler(BankValidationException.class)
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  public ErrorDTO handleValidation(BankValidationException e) {
+    var error = new ErrorDTO();
+    error.setMessage(e.getMessage());
+    error.setErrors(e.getViolations());
+    return error;
+  }
+  
+  @ExceptionHandler(RequestInProgressException.class)
+  @ResponseStatus(HttpStatus.CONFLICT)
+  public ErrorDTO handleInProgress(RequestInProgressException e) {
+    var error = new ErrorDTO();
+    error.setMessage(e.getMessage());
+    error.setErrors(List.of("Idempotent request in progress"));
+    return error;
+  }
+  
+  /*
+   * Retry-After is in whole seconds, rounded up so a client honouring it finds a token or a free slot.
+   */
+  @ExceptionHandler(AdmissionRejectedException.class)
+  public ResponseEntity<ErrorDTO> handleAdmission(AdmissionRejectedException e) {
+    var error = new ErrorDTO();
+    error.setMessage(e.getMessage());
+    error.setErrors(List.of(e.getReason()));
+    return withRetryAfter(HttpStatus.TOO_MANY_REQUESTS, e.getRetryAfter(), error);
+  }
+  
+  @ExceptionHandler(WriteLaneFullException.class)
+  public ResponseEntity<ErrorDTO> handleWriteLaneFull(WriteLaneFullException e) {
+    var error = new ErrorDTO();
+    error.setMessage(e.getMessage());
+    error.setErrors(List.of("Too many pending writes"));
+    return withRetryAfter(HttpStatus.SERVICE_UNAVAILABLE, e.getRetryAfter(), error);
+  }
+  
+  private static ResponseEntity<ErrorDTO> withRetryAfter(HttpStatus status, Duration retryAfter, ErrorDTO error) {
+    var seconds = Math.max(1L, (retryAfter.toMillis() + 999) / 1000);
+    return ResponseEntity.status(status)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(seconds))
+        .body(error);
+  }
+}
@@ -1,5 +1,6 @@
 package com.bank.bootcamp.credits.dto;
 
+import java.math.BigDecimal;
 import lombok.Data;
 
 @Data
@@ -7,7 +8,7 @@ public class BalanceDTO {
 
   private String creditId;
   private String type;
-  private Double creditLimit;
-  private Double used;
-  private Double available;
+  private BigDecimal creditLimit;
+  private BigDecimal used;
+  private BigDecimal available;
 }
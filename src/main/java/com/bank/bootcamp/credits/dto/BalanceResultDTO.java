@@ -0,0 +1,10 @@
+package com.bank.bootcamp.credits.dto;
+
+import lombok.Data;
+
+@Data
+public class BalanceResultDTO {
+  private String creditId;
+  private BalanceDTO balance;
+  private String error;
+}
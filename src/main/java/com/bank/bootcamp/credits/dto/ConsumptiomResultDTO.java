@@ -0,0 +1,12 @@
+package com.bank.bootcamp.credits.dto;
+
+import lombok.Data;
+
+@Data
+public class ConsumptiomResultDTO {
+  private Long index;
+  private String creditId;
+  private String consumptiomId;
+  private Boolean accepted;
+  private String message;
+}
@@ -1,9 +1,10 @@
 package com.bank.bootcamp.credits.dto;
 
+import java.math.BigDecimal;
 import lombok.Data;
 
 @Data
 public class CreatePaidDTO {
   private String creditId;
-  private Double amount;
+  private BigDecimal amount;
 }
@@ -0,0 +1,13 @@
+package com.bank.bootcamp.credits.dto;
+
+import java.math.BigDecimal;
+import lombok.Data;
+
+/*
+ * Ledger total of one credit, as grouped by the getSumsByCreditIds aggregations (id is the creditId).
+ */
+@Data
+public class CreditTotalDTO {
+  private String id;
+  private BigDecimal total;
+}
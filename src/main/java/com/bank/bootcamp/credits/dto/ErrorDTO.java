@@ -0,0 +1,10 @@
+package com.bank.bootcamp.credits.dto;
+
+import java.util.List;
+import lombok.Data;
+
+@Data
+public class ErrorDTO {
+  private String message;
+  private List<String> errors;
+}
@@ -0,0 +1,20 @@
+package com.bank.bootcamp.credits.dto;
+
+import java.math.BigDecimal;
+import com.bank.bootcamp.credits.entity.CreditType;
+import lombok.Data;
+
+/*
+ * Sums of the credits of a customer and credit type, as grouped by the getExposure aggregations.
+ * legacyCredits have no materialized balance, so their used and available are not in the sums.
+ */
+@Data
+public class ExposureTotalDTO {
+  private String customerId;
+  private CreditType creditType;
+  private long credits;
+  private long legacyCredits;
+  private BigDecimal limit;
+  private BigDecimal used;
+  private BigDecimal available;
+}
@@ -0,0 +1,12 @@
+package com.bank.bootcamp.credits.dto;
+
+import lombok.Data;
+
+/*
+ * A credit and a day (yyyy-MM-dd) with movements, as grouped by the getDaysBetween aggregations.
+ */
+@Data
+public class LedgerDayDTO {
+  private String creditId;
+  private String day;
+}
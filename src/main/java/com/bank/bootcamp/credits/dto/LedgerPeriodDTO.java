@@ -0,0 +1,19 @@
+package com.bank.bootcamp.credits.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import lombok.Data;
+
+/*
+ * Consumption and payment totals of a credit over [from, to] (a day or a month, clipped to the requested range).
+ */
+@Data
+public class LedgerPeriodDTO {
+  private String creditId;
+  private LocalDate from;
+  private LocalDate to;
+  private BigDecimal consumptiomTotal;
+  private long consumptiomCount;
+  private BigDecimal paidTotal;
+  private long paidCount;
+}
@@ -0,0 +1,13 @@
+package com.bank.bootcamp.credits.dto;
+
+import java.math.BigDecimal;
+import lombok.Data;
+
+/*
+ * Sum and number of movements, as grouped by the getDailyTotal aggregations.
+ */
+@Data
+public class LedgerTotalDTO {
+  private BigDecimal total;
+  private long count;
+}
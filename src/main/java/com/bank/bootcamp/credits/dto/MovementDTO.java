@@ -0,0 +1,18 @@
+package com.bank.bootcamp.credits.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import lombok.Data;
+
+@Data
+public class MovementDTO {
+  
+  public static final String CONSUMPTIOM = "CONSUMPTIOM";
+  public static final String PAID = "PAID";
+  
+  private String id;
+  private String creditId;
+  private String type;
+  private BigDecimal amount;
+  private LocalDateTime date;
+}
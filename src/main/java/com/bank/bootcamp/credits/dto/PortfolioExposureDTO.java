@@ -0,0 +1,18 @@
+package com.bank.bootcamp.credits.dto;
+
+import java.math.BigDecimal;
+import com.bank.bootcamp.credits.entity.CreditType;
+import lombok.Data;
+
+/*
+ * Exposure of the whole portfolio to one credit type, summed over the CustomerExposures.
+ */
+@Data
+public class PortfolioExposureDTO {
+  private CreditType creditType;
+  private long customers;
+  private long credits;
+  private BigDecimal limit;
+  private BigDecimal used;
+  private BigDecimal available;
+}
@@ -0,0 +1,5 @@
+package com.bank.bootcamp.credits.dto;
+
+public enum RollupGranularity {
+  DAY, MONTH
+}
@@ -0,0 +1,13 @@
+package com.bank.bootcamp.credits.dto;
+
+import java.util.List;
+import lombok.Data;
+
+@Data
+public class StatementPageDTO {
+  private List<MovementDTO> movements;
+  /*
+   * Opaque cursor of the next (older) page, null on the last page.
+   */
+  private String nextCursor;
+}
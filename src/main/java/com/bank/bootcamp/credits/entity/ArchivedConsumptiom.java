@@ -0,0 +1,29 @@
+package com.bank.bootcamp.credits.entity;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+import lombok.Data;
+
+/*
+ * A Consumptiom moved out of Consumptioms by LedgerArchiveService, same id and fields.
+ */
+@Document(collection = "ConsumptiomsArchive")
+@CompoundIndex(name = "creditId_registerDate_id", def = "{'creditId': 1, 'registerDate': 1, '_id': 1}")
+@Data
+public class ArchivedConsumptiom {
+  
+  @Id
+  private String id;
+  
+  private String creditId;
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal amount;
+  private LocalDateTime registerDate;
+  private LocalDateTime archivedDate;
+
+}
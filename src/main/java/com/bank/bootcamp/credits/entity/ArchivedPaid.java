@@ -0,0 +1,29 @@
+package com.bank.bootcamp.credits.entity;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+import lombok.Data;
+
+/*
+ * A Paid moved out of Paids by LedgerArchiveService, same id and fields.
+ */
+@Document(collection = "PaidsArchive")
+@CompoundIndex(name = "creditId_createdDate_id", def = "{'creditId': 1, 'createdDate': 1, '_id': 1}")
+@Data
+public class ArchivedPaid {
+  
+  @Id
+  private String id;
+  
+  private String creditId;
+  private LocalDateTime createdDate;
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal amount;
+  private LocalDateTime archivedDate;
+
+}
@@ -0,0 +1,31 @@
+package com.bank.bootcamp.credits.entity;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+import lombok.Data;
+
+/*
+ * Ledger totals of a credit maintained from the Consumptioms and Paids change streams. One document per credit.
+ * Movements ingested up to checkpoint are already counted by the rebuild; lastEventTime is the cluster time
+ * of the last applied change event, so an event delivered again after a restart is not counted twice.
+ */
+@Document(collection = "BalanceProjections")
+@Data
+public class BalanceProjection {
+  
+  @Id
+  private String creditId;
+  
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal consumptiomTotal;
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal paidTotal;
+  private LocalDateTime checkpoint;
+  private Long lastEventTime;
+  private LocalDateTime updatedDate;
+
+}
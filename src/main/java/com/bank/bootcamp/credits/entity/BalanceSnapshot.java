@@ -0,0 +1,28 @@
+package com.bank.bootcamp.credits.entity;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+import lombok.Data;
+
+/*
+ * Ledger totals of a credit, movements ingested up to (and including) checkpoint. One document per credit, keyed by its id.
+ */
+@Document(collection = "BalanceSnapshots")
+@Data
+public class BalanceSnapshot {
+  
+  @Id
+  private String creditId;
+  
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal consumptiomTotal;
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal paidTotal;
+  private LocalDateTime checkpoint;
+  private LocalDateTime createdDate;
+
+}
@@ -0,0 +1,23 @@
+package com.bank.bootcamp.credits.entity;
+
+import java.time.LocalDateTime;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import lombok.Data;
+
+/*
+ * Position of a change stream consumer: the resume token (JSON) of the last event it handled or,
+ * before the first one, the cluster time (BsonTimestamp value) to start at.
+ */
+@Document(collection = "ChangeStreamTokens")
+@Data
+public class ChangeStreamToken {
+  
+  @Id
+  private String id;
+  
+  private String resumeToken;
+  private Long startAt;
+  private LocalDateTime updatedDate;
+
+}
@@ -1,11 +1,18 @@
 package com.bank.bootcamp.credits.entity;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
 import lombok.Data;
 
 @Document(collection = "Consumptioms")
+@CompoundIndex(name = "creditId_registerDate_id", def = "{'creditId': 1, 'registerDate': 1, '_id': 1}")
+@CompoundIndex(name = "creditId_ingestedDate", def = "{'creditId': 1, 'ingestedDate': 1}")
 @Data
 public class Consumptiom {
   
@@ -13,7 +20,11 @@ public class Consumptiom {
   private String id;
   
   private String creditId;
-  private Double amount;
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal amount;
   private LocalDateTime registerDate;
+  /* when the movement reached the ledger: registerDate on a direct write, the flush on the ledger journal; getDaysBetween matches every credit */
+  @Indexed(name = "ingestedDate")
+  private LocalDateTime ingestedDate;
 
 }
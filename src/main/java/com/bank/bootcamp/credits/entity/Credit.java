@@ -1,11 +1,18 @@
 package com.bank.bootcamp.credits.entity;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
 import lombok.Data;
 
 @Document("Credits")
+@CompoundIndex(name = "customerId_creditType", def = "{'customerId': 1, 'creditType': 1}")
 @Data
 public class Credit {
   
@@ -14,9 +21,29 @@ public class Credit {
   
   private CreditType creditType;
   private String customerId;
-  private Double limit;
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal limit;
   
+  @Indexed(unique = true)
   private String cardNumber;
   private LocalDateTime registerDate;
+  
+  /*
+   * Materialized balance, kept in sync with Consumptioms and Paids
+   * by CreditRepositoryCustom on every movement.
+   */
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal used;
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal available;
+  
+  /*
+   * Time of the last write, PortfolioExposureService refreshes the exposure of the credits changed since its last run.
+   */
+  @Indexed
+  private LocalDateTime updatedDate;
+  
+  @Version
+  private Long version;
 
 }
@@ -0,0 +1,40 @@
+package com.bank.bootcamp.credits.entity;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+import lombok.Data;
+
+/*
+ * Limit, used and available of all the credits of a customer and credit type, as of checkpoint
+ * (see PortfolioExposureService). One document per customer and credit type, keyed by id(customerId, creditType).
+ */
+@Document(collection = "CustomerExposures")
+@CompoundIndex(name = "customerId_creditType", def = "{'customerId': 1, 'creditType': 1}")
+@Data
+public class CustomerExposure {
+  
+  @Id
+  private String id;
+  
+  private String customerId;
+  private CreditType creditType;
+  private long credits;
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal limit;
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal used;
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal available;
+  private LocalDateTime checkpoint;
+  private LocalDateTime updatedDate;
+  
+  public static String id(String customerId, CreditType creditType) {
+    return customerId + ":" + creditType;
+  }
+
+}
@@ -0,0 +1,30 @@
+package com.bank.bootcamp.credits.entity;
+
+import java.time.LocalDateTime;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+import lombok.Data;
+
+/*
+ * Outcome of a request sent with an Idempotency-Key. The id (operation:key) is unique, so only one
+ * request per key can insert it; the TTL index on createdDate removes it after a day.
+ */
+@Document(collection = "IdempotencyKeys")
+@Data
+public class IdempotencyRecord {
+  
+  public static final String PENDING = "PENDING";
+  public static final String COMPLETED = "COMPLETED";
+  
+  @Id
+  private String id;
+  
+  private String fingerprint;
+  private String status;
+  private String resultId;
+  
+  @Indexed(expireAfter = "1d")
+  private LocalDateTime createdDate;
+
+}
@@ -0,0 +1,40 @@
+package com.bank.bootcamp.credits.entity;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+import lombok.Data;
+
+/*
+ * Ledger totals of a credit for one day, counting the movements of the day ingested up to checkpoint.
+ * One document per credit and day, keyed by id(creditId, day).
+ */
+@Document(collection = "LedgerRollups")
+@CompoundIndex(name = "creditId_day", def = "{'creditId': 1, 'day': 1}")
+@Data
+public class LedgerRollup {
+  
+  @Id
+  private String id;
+  
+  private String creditId;
+  private LocalDate day;
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal consumptiomTotal;
+  private long consumptiomCount;
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal paidTotal;
+  private long paidCount;
+  private LocalDateTime checkpoint;
+  private LocalDateTime updatedDate;
+  
+  public static String id(String creditId, LocalDate day) {
+    return creditId + ":" + day;
+  }
+
+}
@@ -0,0 +1,21 @@
+package com.bank.bootcamp.credits.entity;
+
+import java.time.LocalDateTime;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import lombok.Data;
+
+/*
+ * Every movement dated up to checkpoint is counted in LedgerRollups.
+ */
+@Document(collection = "LedgerRollupCheckpoints")
+@Data
+public class LedgerRollupCheckpoint {
+  
+  @Id
+  private String id;
+  
+  private LocalDateTime checkpoint;
+  private LocalDateTime updatedDate;
+
+}
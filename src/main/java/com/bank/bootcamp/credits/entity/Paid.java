@@ -1,11 +1,18 @@
 package com.bank.bootcamp.credits.entity;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
 import lombok.Data;
 
 @Document(collection = "Paids")
+@CompoundIndex(name = "creditId_createdDate_id", def = "{'creditId': 1, 'createdDate': 1, '_id': 1}")
+@CompoundIndex(name = "creditId_ingestedDate", def = "{'creditId': 1, 'ingestedDate': 1}")
 @Data
 public class Paid {
   
@@ -14,6 +21,10 @@ public class Paid {
   
   private String creditId;
   private LocalDateTime createdDate;
-  private Double amount;
+  /* when the movement reached the ledger: createdDate on a direct write, the flush on the ledger journal; getDaysBetween matches every credit */
+  @Indexed(name = "ingestedDate")
+  private LocalDateTime ingestedDate;
+  @Field(targetType = FieldType.DECIMAL128)
+  private BigDecimal amount;
 
 }
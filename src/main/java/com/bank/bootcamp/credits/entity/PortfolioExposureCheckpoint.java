@@ -0,0 +1,21 @@
+package com.bank.bootcamp.credits.entity;
+
+import java.time.LocalDateTime;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import lombok.Data;
+
+/*
+ * Every credit written before checkpoint is counted in CustomerExposures.
+ */
+@Document(collection = "PortfolioExposureCheckpoints")
+@Data
+public class PortfolioExposureCheckpoint {
+  
+  @Id
+  private String id;
+  
+  private LocalDateTime checkpoint;
+  private LocalDateTime updatedDate;
+
+}
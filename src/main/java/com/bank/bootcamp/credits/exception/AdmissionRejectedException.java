@@ -0,0 +1,30 @@
+package com.bank.bootcamp.credits.exception;
+
+import java.time.Duration;
+
+/*
+ * A request shed by CreditAdmission, answered with 429 and Retry-After. Stackless like BankValidationException:
+ * under a flood these are thrown for most requests.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+  
+  private static final long serialVersionUID = 1L;
+  
+  private final String reason;
+  private final Duration retryAfter;
+  
+  public AdmissionRejectedException(String endpoint, String reason, Duration retryAfter) {
+    super(String.format("Too many requests to %s (%s)", endpoint, reason), null, false, false);
+    this.reason = reason;
+    this.retryAfter = retryAfter;
+  }
+  
+  public String getReason() {
+    return reason;
+  }
+  
+  public Duration getRetryAfter() {
+    return retryAfter;
+  }
+  
+}
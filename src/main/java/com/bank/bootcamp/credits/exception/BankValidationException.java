@@ -1,15 +1,53 @@
 package com.bank.bootcamp.credits.exception;
 
+import java.util.List;
+
+/*
+ * Business rejection of a request. These are expected on the hot path (limits, missing fields),
+ * so the exception is stackless: filling the stack trace would be most of its cost.
+ */
 public class BankValidationException extends Exception {
 
   private static final long serialVersionUID = 1L;
+  
+  /*
+   * Stable, low cardinality descriptions of the rules that failed (the message may carry amounts).
+   */
+  private final List<String> reasons;
+  private final List<String> violations;
 
   public BankValidationException(String message, Throwable cause) {
-    super(message, cause);
+    super(message, cause, false, false);
+    this.reasons = List.of(message);
+    this.violations = reasons;
   }
 
   public BankValidationException(String message) {
-    super(message);
+    this(message, (Throwable) null);
+  }
+  
+  public BankValidationException(List<String> violations) {
+    super(String.join("; ", violations), null, false, false);
+    this.reasons = List.copyOf(violations);
+    this.violations = reasons;
+  }
+  
+  private BankValidationException(String reason, String message) {
+    super(message, null, false, false);
+    this.reasons = List.of(reason);
+    this.violations = List.of(message);
+  }
+  
+  public static BankValidationException withReason(String reason, String message) {
+    return new BankValidationException(reason, message);
+  }
+  
+  public List<String> getReasons() {
+    return reasons;
+  }
+  
+  public List<String> getViolations() {
+    return violations;
   }
 
 }
@@ -0,0 +1,15 @@
+package com.bank.bootcamp.credits.exception;
+
+/*
+ * A retry arriving while the first request with its Idempotency-Key is still running, answered with 409.
+ * The client should retry later; it is not a validation error of the request.
+ */
+public class RequestInProgressException extends RuntimeException {
+  
+  private static final long serialVersionUID = 1L;
+  
+  public RequestInProgressException(String header) {
+    super(String.format("A request with the same %s is still in progress", header), null, false, false);
+  }
+  
+}
@@ -0,0 +1,24 @@
+package com.bank.bootcamp.credits.exception;
+
+import java.time.Duration;
+
+/*
+ * A balance write refused because the write lane of its credit is full, answered with 503 and Retry-After:
+ * the request is valid, the service is behind. Stackless like AdmissionRejectedException.
+ */
+public class WriteLaneFullException extends RuntimeException {
+  
+  private static final long serialVersionUID = 1L;
+  
+  private final Duration retryAfter;
+  
+  public WriteLaneFullException(String creditId, Duration retryAfter) {
+    super("Too many pending writes for credit " + creditId, null, false, false);
+    this.retryAfter = retryAfter;
+  }
+  
+  public Duration getRetryAfter() {
+    return retryAfter;
+  }
+  
+}
@@ -0,0 +1,169 @@
+package com.bank.bootcamp.credits.idempotency;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import com.bank.bootcamp.credits.entity.IdempotencyRecord;
+import com.bank.bootcamp.credits.exception.BankValidationException;
+import com.bank.bootcamp.credits.exception.RequestInProgressException;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.repository.IdempotencyRecordRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+/*
+ * Runs a write at most once per Idempotency-Key and returns the id it produced to every retry.
+ *  - In memory front: retries reaching this instance share the same cached result (one hash lookup,
+ *    concurrent retries subscribe to the same execution).
+ *  - IdempotencyKeys collection: the first request inserts a PENDING record, the unique id makes every
+ *    other instance fail that insert and wait (up to pending-wait, then 409) for the record to be COMPLETED with the result id.
+ *  - A record still PENDING after pending-timeout has an unknown outcome: the write may have happened with its completion
+ *    lost, or may still be running. It is never run again; retries get 409 and the key is left to reconciliation
+ *    (logged) until the TTL index removes it.
+ * A failed write deletes its record, so the key can be retried. Reusing a key with a different request is rejected.
+ */
+@Slf4j
+@Service
+public class IdempotencyService {
+  
+  public static final String HEADER = "Idempotency-Key";
+  private static final int MAX_KEY_LENGTH = 255;
+  private static final Duration POLL_INTERVAL = Duration.ofMillis(50);
+  private static final int COMPLETION_RETRIES = 3;
+  
+  private final IdempotencyRecordRepository idempotencyRecordRepository;
+  private final CreditMetrics creditMetrics;
+  private final Cache<String, FrontEntry> front;
+  private final long maxPolls;
+  private final Duration pendingTimeout;
+  
+  public IdempotencyService(IdempotencyRecordRepository idempotencyRecordRepository, CreditMetrics creditMetrics,
+      @Value("${credits.idempotency.front.maximum-size:100000}") long maximumSize,
+      @Value("${credits.idempotency.front.expire-after-write:10m}") Duration expireAfterWrite,
+      @Value("${credits.idempotency.pending-wait:PT5S}") Duration pendingWait,
+      @Value("${credits.idempotency.pending-timeout:PT1M}") Duration pendingTimeout) {
+    this.idempotencyRecordRepository = idempotencyRecordRepository;
+    this.creditMetrics = creditMetrics;
+    this.maxPolls = Math.max(1L, pendingWait.toMillis() / POLL_INTERVAL.toMillis());
+    this.pendingTimeout = pendingTimeout;
+    this.front = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(expireAfterWrite)
+        .build();
+  }
+  
+  /*
+   * fingerprint identifies the request body, so a key reused for another request is told apart from a retry.
+   * Without a key the write just runs.
+   */
+  public Mono<String> execute(String operation, String key, String fingerprint, Supplier<Mono<String>> write) {
+    if (key == null)
+      return Mono.defer(write);
+    if (key.isBlank() || key.length() > MAX_KEY_LENGTH)
+      return Mono.error(BankValidationException.withReason("Invalid Idempotency-Key",
+          String.format("Idempotency-Key must have between 1 and %s characters", MAX_KEY_LENGTH)));
+    var id = operation + ":" + key;
+    return Mono.defer(() -> {
+      var entry = front.asMap().computeIfAbsent(id, k -> new FrontEntry(fingerprint, claim(id, fingerprint, write).cache()));
+      if (!entry.getFingerprint().equals(fingerprint))
+        return Mono.error(keyReused());
+      return entry.getResult().doOnError(e -> front.asMap().remove(id, entry));
+    });
+  }
+  
+  private Mono<String> claim(String id, String fingerprint, Supplier<Mono<String>> write) {
+    var record = new IdempotencyRecord();
+    record.setId(id);
+    record.setFingerprint(fingerprint);
+    record.setStatus(IdempotencyRecord.PENDING);
+    record.setCreatedDate(LocalDateTime.now());
+    return creditMetrics.timeRepository("IdempotencyRecord", "insert", idempotencyRecordRepository.insert(record))
+        .map(inserted -> Boolean.TRUE)
+        .onErrorResume(DuplicateKeyException.class, e -> Mono.just(Boolean.FALSE))
+        .flatMap(claimed -> claimed ? run(record, write) : awaitResult(id, fingerprint, write));
+  }
+  
+  /*
+   * Only a failed write releases the key: once the write happened a retry must not run it again.
+   */
+  private Mono<String> run(IdempotencyRecord record, Supplier<Mono<String>> write) {
+    return Mono.defer(write)
+        .onErrorResume(e -> creditMetrics.timeRepository("IdempotencyRecord", "deleteById", idempotencyRecordRepository.deleteById(record.getId()))
+            .then(Mono.error(e)))
+        .flatMap(resultId -> complete(record, resultId));
+  }
+  
+  /*
+   * The completion is retried; if it still fails the record stays PENDING and the result is returned anyway
+   * (this instance keeps serving it from the front). Other instances answer 409, the write is not run again.
+   */
+  private Mono<String> complete(IdempotencyRecord pending, String resultId) {
+    var record = new IdempotencyRecord();
+    record.setId(pending.getId());
+    record.setFingerprint(pending.getFingerprint());
+    record.setCreatedDate(pending.getCreatedDate());
+    record.setStatus(IdempotencyRecord.COMPLETED);
+    record.setResultId(resultId);
+    return creditMetrics.timeRepository("IdempotencyRecord", "save", Mono.defer(() -> idempotencyRecordRepository.save(record)))
+        .retryWhen(Retry.backoff(COMPLETION_RETRIES, POLL_INTERVAL))
+        .thenReturn(resultId)
+        .onErrorResume(e -> {
+          log.error("Idempotency record {} could not be completed with {}", record.getId(), resultId, e);
+          return Mono.just(resultId);
+        });
+  }
+  
+  /*
+   * Another request holds the key: wait for its result. If it failed in between (record gone), claim the key again.
+   * A stale record is answered 409 at once, polling it would not change its outcome.
+   */
+  private Mono<String> awaitResult(String id, String fingerprint, Supplier<Mono<String>> write) {
+    return creditMetrics.timeRepository("IdempotencyRecord", "findById", idempotencyRecordRepository.findById(id))
+        .flatMap(record -> {
+          if (!record.getFingerprint().equals(fingerprint))
+            return Mono.error(keyReused());
+          if (IdempotencyRecord.COMPLETED.equals(record.getStatus()))
+            return Mono.just(record.getResultId());
+          if (record.getCreatedDate().isBefore(LocalDateTime.now().minus(pendingTimeout))) {
+            log.warn("Idempotency record {} PENDING since {}, outcome unknown, left to reconciliation", record.getId(), record.getCreatedDate());
+            return Mono.error(new RequestInProgressException(HEADER));
+          }
+          return Mono.error(new PendingException());
+        })
+        .retryWhen(Retry.fixedDelay(maxPolls, POLL_INTERVAL)
+            .filter(PendingException.class::isInstance)
+            .onRetryExhaustedThrow((spec, signal) -> new RequestInProgressException(HEADER)))
+        .switchIfEmpty(Mono.defer(() -> claim(id, fingerprint, write)));
+  }
+  
+  private static BankValidationException keyReused() {
+    return BankValidationException.withReason("Idempotency-Key reused",
+        "Idempotency-Key was already used for a different request");
+  }
+  
+  @Getter
+  @RequiredArgsConstructor
+  private static class FrontEntry {
+    private final String fingerprint;
+    private final Mono<String> result;
+  }
+  
+  /*
+   * Signal of a record still PENDING, only used to drive the polling.
+   */
+  private static class PendingException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    
+    private PendingException() {
+      super(null, null, false, false);
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package com.bank.bootcamp.credits.job;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.repository.CreditRepository;
+import com.bank.bootcamp.credits.service.CreditService;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+/*
+ * Recomputes every materialized credit balance from Consumptioms and Paids
+ * and fixes the ones that drifted (e.g. a movement whose write failed halfway).
+ * Credits updated within settle-time may have movements on their way to the ledger and are left for the next run.
+ */
+@Slf4j
+@Component
+public class BalanceReconciliationJob {
+  
+  private static final int CONCURRENCY = 4;
+  
+  private final CreditRepository creditRepository;
+  private final CreditService creditService;
+  private final Duration settleTime;
+  
+  public BalanceReconciliationJob(CreditRepository creditRepository, CreditService creditService,
+      @Value("${credits.reconciliation.settle-time:PT10M}") Duration settleTime) {
+    this.creditRepository = creditRepository;
+    this.creditService = creditService;
+    this.settleTime = settleTime;
+  }
+  
+  @Scheduled(cron = "${credits.reconciliation.cron:0 0 3 * * *}")
+  public void run() {
+    reconcile(LocalDateTime.now().minus(settleTime)).subscribe(
+        corrected -> log.info("Balance reconciliation finished, {} credits corrected", corrected),
+        error -> log.error("Balance reconciliation failed", error));
+  }
+  
+  public Mono<Long> reconcile(LocalDateTime settledBefore) {
+    return creditRepository.findAll()
+        .filter(credit -> credit.getUpdatedDate() == null || !credit.getUpdatedDate().isAfter(settledBefore))
+        .map(Credit::getId)
+        .flatMap(creditId -> creditService.reconcileBalance(creditId, settledBefore), CONCURRENCY)
+        .filter(Boolean::booleanValue)
+        .count();
+  }
+}
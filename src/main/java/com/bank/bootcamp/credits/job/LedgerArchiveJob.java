@@ -0,0 +1,43 @@
+package com.bank.bootcamp.credits.job;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.service.LedgerArchiveService;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Archives the movements older than now - horizon (credits.archive.enabled=true, off by default).
+ * A run is skipped while the previous one is still going.
+ */
+@Slf4j
+@Component
+public class LedgerArchiveJob {
+  
+  private final LedgerArchiveService ledgerArchiveService;
+  private final boolean enabled;
+  private final Duration horizon;
+  private final AtomicBoolean running = new AtomicBoolean();
+  
+  public LedgerArchiveJob(LedgerArchiveService ledgerArchiveService,
+      @Value("${credits.archive.enabled:false}") boolean enabled,
+      @Value("${credits.archive.horizon:P400D}") Duration horizon) {
+    this.ledgerArchiveService = ledgerArchiveService;
+    this.enabled = enabled;
+    this.horizon = horizon;
+  }
+  
+  @Scheduled(cron = "${credits.archive.cron:0 30 4 * * *}")
+  public void run() {
+    if (!enabled || !running.compareAndSet(false, true))
+      return;
+    ledgerArchiveService.archive(LocalDateTime.now().minus(horizon))
+        .doFinally(signal -> running.set(false))
+        .subscribe(
+            moved -> log.info("Ledger archive finished, {} movements moved", moved),
+            error -> log.error("Ledger archive failed", error));
+  }
+}
@@ -0,0 +1,28 @@
+package com.bank.bootcamp.credits.job;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.journal.LedgerJournal;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Moves the acknowledged journal movements to MongoDB every flush-interval (credits.journal.enabled=true).
+ * LedgerJournal skips a flush while the previous one is still going, a failed one is retried on the next run.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LedgerJournalFlushJob {
+  
+  private final LedgerJournal ledgerJournal;
+  
+  @Scheduled(fixedDelayString = "${credits.journal.flush-interval:PT0.05S}")
+  public void run() {
+    if (!ledgerJournal.isEnabled())
+      return;
+    ledgerJournal.flush().subscribe(
+        flushed -> log.debug("Ledger journal flushed {} movements", flushed),
+        error -> log.warn("Ledger journal flush failed, {} movements wait for the next run", ledgerJournal.getUnflushed(), error));
+  }
+}
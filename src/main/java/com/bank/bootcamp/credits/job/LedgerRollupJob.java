@@ -0,0 +1,39 @@
+package com.bank.bootcamp.credits.job;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.service.LedgerRollupService;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Catches the daily ledger rollups up to now - lag, with the same lag reasoning as BalanceSnapshotJob.
+ * The first run rolls up the whole history; a run is skipped while the previous one is still going.
+ */
+@Slf4j
+@Component
+public class LedgerRollupJob {
+  
+  private final LedgerRollupService ledgerRollupService;
+  private final Duration lag;
+  private final AtomicBoolean running = new AtomicBoolean();
+  
+  public LedgerRollupJob(LedgerRollupService ledgerRollupService, @Value("${credits.rollup.lag:PT5M}") Duration lag) {
+    this.ledgerRollupService = ledgerRollupService;
+    this.lag = lag;
+  }
+  
+  @Scheduled(fixedDelayString = "${credits.rollup.interval:PT15M}", initialDelayString = "${credits.rollup.initial-delay:PT1M}")
+  public void run() {
+    if (!running.compareAndSet(false, true))
+      return;
+    ledgerRollupService.rollUp(LocalDateTime.now().minus(lag))
+        .doFinally(signal -> running.set(false))
+        .subscribe(
+            days -> log.info("Ledger rollup finished, {} days", days),
+            error -> log.error("Ledger rollup failed", error));
+  }
+}
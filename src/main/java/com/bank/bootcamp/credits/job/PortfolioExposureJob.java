@@ -0,0 +1,27 @@
+package com.bank.bootcamp.credits.job;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.service.PortfolioExposureService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Refreshes the portfolio exposure between reads, so a read rarely waits for more than a few changed credits.
+ * The first run groups the whole portfolio; a read during a run joins it instead of starting another one.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PortfolioExposureJob {
+  
+  private final PortfolioExposureService portfolioExposureService;
+  
+  @Scheduled(fixedDelayString = "${credits.exposure.interval:PT5M}", initialDelayString = "${credits.exposure.initial-delay:PT1M}")
+  public void run() {
+    portfolioExposureService.refresh()
+        .subscribe(
+            exposures -> log.info("Portfolio exposure refreshed, {} customer exposures", exposures),
+            error -> log.error("Portfolio exposure refresh failed", error));
+  }
+}
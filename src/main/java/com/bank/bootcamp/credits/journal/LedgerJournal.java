@@ -0,0 +1,504 @@
+package com.bank.bootcamp.credits.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import javax.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.repository.ConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.PaidRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/*
+ * Write-behind path of single charges and payments (credits.journal.enabled=true).
+ *  - append writes the movement to a memory-mapped segment file and acknowledges it once the segment is forced to disk.
+ *    Appends arriving within commit-window share one force (group commit).
+ *  - flush (LedgerJournalFlushJob) inserts the acknowledged movements into MongoDB in bulk, in log order, then writes
+ *    the flushed position to a checkpoint file and deletes the segments before it.
+ *  - On start the records after the checkpoint are read back, up to the first torn one (length or CRC32), and flushed
+ *    again. A batch that hits a movement already in MongoDB inserts the others one by one, so a replay never duplicates
+ *    one nor changes one already written.
+ *  - A movement keeps its date however late it is flushed (a long MongoDB outage, a replay); the flush sets its
+ *    ingestedDate, which snapshots, rollups and projections checkpoint on, so they still count it.
+ * Ledger reads (statements, sums, snapshots) see a movement once flushed; the credit balance is updated before the append.
+ * Meters: credits.journal.unflushed and credits.journal.commit.size (records per force).
+ */
+@Slf4j
+@Component
+public class LedgerJournal {
+  
+  private static final byte CONSUMPTIOM = 1;
+  private static final byte PAID = 2;
+  /* length and CRC32 of the payload */
+  private static final int HEADER = 8;
+  private static final int OBJECT_ID = 12;
+  private static final String SEGMENT_PREFIX = "ledger-";
+  private static final String SEGMENT_SUFFIX = ".journal";
+  private static final String CHECKPOINT = "flushed.checkpoint";
+  private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+  
+  private final ConsumptiomRepository consumptiomRepository;
+  private final PaidRepository paidRepository;
+  private final CreditMetrics creditMetrics;
+  private final boolean enabled;
+  private final Path directory;
+  private final int segmentSize;
+  private final Duration commitWindow;
+  private final int flushBatch;
+  private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+  private final Queue<Entry> unflushed = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger unflushedCount = new AtomicInteger();
+  private final Map<String, Integer> unflushedByCredit = new ConcurrentHashMap<>();
+  private final AtomicBoolean flushing = new AtomicBoolean();
+  private final DistributionSummary commitSize;
+  private Scheduler committer;
+  private Segment current;
+  private List<Segment> dirty = new ArrayList<>();
+  private List<Pending> pending = new ArrayList<>();
+  private boolean commitScheduled;
+  private boolean closed;
+  
+  public LedgerJournal(ConsumptiomRepository consumptiomRepository, PaidRepository paidRepository, CreditMetrics creditMetrics,
+      MeterRegistry meterRegistry,
+      @Value("${credits.journal.enabled:false}") boolean enabled,
+      @Value("${credits.journal.directory:journal}") Path directory,
+      @Value("${credits.journal.segment-size:64MB}") DataSize segmentSize,
+      @Value("${credits.journal.commit-window:PT0.002S}") Duration commitWindow,
+      @Value("${credits.journal.flush-batch:1000}") int flushBatch) {
+    this.consumptiomRepository = consumptiomRepository;
+    this.paidRepository = paidRepository;
+    this.creditMetrics = creditMetrics;
+    this.enabled = enabled;
+    this.directory = directory;
+    this.segmentSize = Math.toIntExact(segmentSize.toBytes());
+    this.commitWindow = commitWindow;
+    this.flushBatch = flushBatch;
+    Gauge.builder("credits.journal.unflushed", unflushedCount, AtomicInteger::get).register(meterRegistry);
+    this.commitSize = DistributionSummary.builder("credits.journal.commit.size")
+        .publishPercentiles(0.5, 0.99)
+        .register(meterRegistry);
+    if (enabled)
+      open();
+  }
+  
+  public boolean isEnabled() {
+    return enabled;
+  }
+  
+  /*
+   * Movements acknowledged and not yet in MongoDB.
+   */
+  public int getUnflushed() {
+    return unflushedCount.get();
+  }
+  
+  /*
+   * Whether the credit has movements acknowledged and not yet in MongoDB, which its ledger sums do not include.
+   */
+  public boolean hasUnflushed(String creditId) {
+    return unflushedByCredit.containsKey(creditId);
+  }
+  
+  /*
+   * Emits the consumptiom (with its id) once it is on disk.
+   */
+  public Mono<Consumptiom> append(Consumptiom consumptiom) {
+    return Mono.defer(() -> {
+      if (consumptiom.getId() == null)
+        consumptiom.setId(ObjectId.get().toHexString());
+      return append(encode(CONSUMPTIOM, consumptiom.getId(), consumptiom.getCreditId(), Money.toMinor(consumptiom.getAmount()),
+          consumptiom.getRegisterDate()), consumptiom);
+    });
+  }
+  
+  /*
+   * Emits the paid (with its id) once it is on disk.
+   */
+  public Mono<Paid> append(Paid paid) {
+    return Mono.defer(() -> {
+      if (paid.getId() == null)
+        paid.setId(ObjectId.get().toHexString());
+      return append(encode(PAID, paid.getId(), paid.getCreditId(), Money.toMinor(paid.getAmount()), paid.getCreatedDate()), paid);
+    });
+  }
+  
+  private <T> Mono<T> append(ByteBuffer record, T movement) {
+    return Mono.create(sink -> {
+      synchronized (this) {
+        if (!enabled || closed) {
+          sink.error(new IllegalStateException("Ledger journal is not accepting writes"));
+          return;
+        }
+        if (current.buffer.remaining() < record.remaining()) {
+          try {
+            current = createSegment(current.number + 1);
+          } catch (IOException e) {
+            sink.error(e);
+            return;
+          }
+        }
+        current.buffer.put(record);
+        if (dirty.isEmpty() || dirty.get(dirty.size() - 1) != current)
+          dirty.add(current);
+        pending.add(new Pending(new Entry(current.number, current.buffer.position(), movement), () -> sink.success(movement), sink::error));
+        if (!commitScheduled) {
+          commitScheduled = true;
+          committer.schedule(this::commit, commitWindow.toNanos(), TimeUnit.NANOSECONDS);
+        }
+      }
+    });
+  }
+  
+  /*
+   * Runs on the committer thread only, so acknowledged entries are queued for the flush in log order.
+   */
+  private void commit() {
+    List<Pending> batch;
+    List<Segment> written;
+    synchronized (this) {
+      batch = pending;
+      written = dirty;
+      pending = new ArrayList<>();
+      dirty = new ArrayList<>();
+      commitScheduled = false;
+    }
+    if (batch.isEmpty())
+      return;
+    try {
+      written.forEach(segment -> segment.buffer.force());
+    } catch (RuntimeException e) {
+      // the records may still reach the disk and be replayed on the next start: the callers
+      // compensated their balances, so the reconciliation job fixes them once the movements are in MongoDB
+      log.error("Ledger journal force failed, the journal stops accepting writes", e);
+      synchronized (this) {
+        closed = true;
+      }
+      batch.forEach(waiting -> waiting.fail.accept(e));
+      return;
+    }
+    commitSize.record(batch.size());
+    batch.forEach(waiting -> enqueue(waiting.entry));
+    batch.forEach(waiting -> waiting.ack.run());
+  }
+  
+  /*
+   * Writes every acknowledged movement to MongoDB, batch by batch, and emits how many were flushed.
+   * A flush already running makes this one a no-op; a failed batch stays queued for the next flush.
+   */
+  public Mono<Integer> flush() {
+    return Mono.defer(() -> {
+      if (!enabled || !flushing.compareAndSet(false, true))
+        return Mono.just(0);
+      return Mono.defer(this::flushBatch)
+          .repeat()
+          .takeUntil(flushed -> flushed < flushBatch)
+          .reduce(0, Integer::sum)
+          .doFinally(signal -> flushing.set(false));
+    });
+  }
+  
+  private Mono<Integer> flushBatch() {
+    var batch = new ArrayList<Entry>(flushBatch);
+    var iterator = unflushed.iterator();
+    while (batch.size() < flushBatch && iterator.hasNext())
+      batch.add(iterator.next());
+    if (batch.isEmpty())
+      return Mono.just(0);
+    ingested(batch);
+    var consumptioms = batch.stream().filter(entry -> entry.movement instanceof Consumptiom)
+        .map(entry -> (Consumptiom) entry.movement).collect(Collectors.toList());
+    var paids = batch.stream().filter(entry -> entry.movement instanceof Paid)
+        .map(entry -> (Paid) entry.movement).collect(Collectors.toList());
+    return insertAll(consumptiomRepository, "Consumptiom", consumptioms)
+        .then(insertAll(paidRepository, "Paid", paids))
+        .then(Mono.fromCallable(() -> {
+          for (int i = 0; i < batch.size(); i++)
+            dequeue();
+          checkpoint(batch.get(batch.size() - 1));
+          return batch.size();
+        }).subscribeOn(Schedulers.boundedElastic()));
+  }
+  
+  private void enqueue(Entry entry) {
+    unflushedByCredit.merge(entry.creditId, 1, Integer::sum);
+    unflushed.add(entry);
+    unflushedCount.incrementAndGet();
+  }
+  
+  private void dequeue() {
+    var entry = unflushed.poll();
+    unflushedCount.decrementAndGet();
+    unflushedByCredit.computeIfPresent(entry.creditId, (creditId, count) -> count == 1 ? null : count - 1);
+  }
+  
+  /*
+   * The ingestedDate snapshots, rollups and projections checkpoint on: however late the flush, a movement is ingested
+   * after the checkpoints already taken. Set on every attempt of a batch; the movements an earlier attempt already
+   * inserted keep the one they were written with, as insertAll does not write them again.
+   */
+  private void ingested(List<Entry> batch) {
+    var now = LocalDateTime.now();
+    for (var entry : batch) {
+      if (entry.movement instanceof Consumptiom)
+        ((Consumptiom) entry.movement).setIngestedDate(now);
+      else
+        ((Paid) entry.movement).setIngestedDate(now);
+    }
+  }
+  
+  private <T> Mono<Void> insertAll(ReactiveMongoRepository<T, String> repository, String name, List<T> movements) {
+    if (movements.isEmpty())
+      return Mono.empty();
+    return creditMetrics.timeRepository(name, "insert", repository.insert(movements).then())
+        // flushed before a restart that came ahead of the checkpoint: the movements in MongoDB keep their ingestedDate
+        .onErrorResume(DuplicateKeyException.class, e -> Flux.fromIterable(movements)
+            .concatMap(movement -> creditMetrics.timeRepository(name, "insert", repository.insert(movement))
+                .onErrorResume(DuplicateKeyException.class, duplicate -> Mono.empty()))
+            .then());
+  }
+  
+  private void checkpoint(Entry flushed) throws IOException {
+    var temporary = directory.resolve(CHECKPOINT + ".tmp");
+    try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      channel.write(ByteBuffer.allocate(Long.BYTES + Integer.BYTES).putLong(flushed.segment).putInt(flushed.end).flip());
+      channel.force(true);
+    }
+    Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE);
+    for (var segment : segments.headMap(flushed.segment, false).values()) {
+      segment.channel.close();
+      Files.deleteIfExists(segment.path);
+      segments.remove(segment.number);
+    }
+  }
+  
+  private void open() {
+    try {
+      Files.createDirectories(directory);
+      var checkpoint = directory.resolve(CHECKPOINT);
+      var flushedSegment = 0L;
+      var flushedEnd = 0;
+      if (Files.exists(checkpoint)) {
+        var position = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+        flushedSegment = position.getLong();
+        flushedEnd = position.getInt();
+      }
+      List<Long> numbers;
+      try (var files = Files.list(directory)) {
+        numbers = files.map(file -> file.getFileName().toString())
+            .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+            .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+            .sorted()
+            .collect(Collectors.toList());
+      }
+      var replayed = 0;
+      for (var number : numbers) {
+        if (number < flushedSegment)
+          Files.delete(segmentPath(number));
+        else
+          replayed += recover(number, number == flushedSegment ? flushedEnd : 0);
+      }
+      if (replayed > 0)
+        log.info("Ledger journal replays {} movements not flushed before the restart", replayed);
+      // a torn tail is never written over: appends start in a new segment
+      current = createSegment(numbers.isEmpty() ? Math.max(1L, flushedSegment) : numbers.get(numbers.size() - 1) + 1);
+      committer = Schedulers.newSingle("ledger-journal", true);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Ledger journal cannot be opened in " + directory.toAbsolutePath(), e);
+    }
+  }
+  
+  private int recover(long number, int from) throws IOException {
+    var path = segmentPath(number);
+    var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    segments.put(number, new Segment(number, path, channel, null));
+    var position = from;
+    var replayed = 0;
+    while (position + HEADER <= buffer.limit()) {
+      var length = buffer.getInt(position);
+      if (length <= 0 || length > buffer.limit() - position - HEADER)
+        break;
+      var payload = buffer.duplicate().position(position + HEADER).limit(position + HEADER + length).slice();
+      var crc = new CRC32();
+      crc.update(payload.duplicate());
+      if ((int) crc.getValue() != buffer.getInt(position + Integer.BYTES))
+        break;
+      position += HEADER + length;
+      enqueue(new Entry(number, position, decode(payload)));
+      replayed++;
+    }
+    return replayed;
+  }
+  
+  private Segment createSegment(long number) throws IOException {
+    var path = segmentPath(number);
+    var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    var segment = new Segment(number, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+    segments.put(number, segment);
+    return segment;
+  }
+  
+  private Path segmentPath(long number) {
+    return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+  }
+  
+  /*
+   * length, crc, then type, id, amount (minor units), date (epoch second and nano of the local date time) and creditId.
+   */
+  private static ByteBuffer encode(byte type, String id, String creditId, long amount, LocalDateTime date) {
+    var creditIdBytes = creditId.getBytes(StandardCharsets.UTF_8);
+    if (creditIdBytes.length > 0xFFFF)
+      throw new IllegalArgumentException("Credit ID is too long");
+    var length = 1 + OBJECT_ID + Long.BYTES + Long.BYTES + Integer.BYTES + Short.BYTES + creditIdBytes.length;
+    var record = ByteBuffer.allocate(HEADER + length)
+        .putInt(length)
+        .putInt(0)
+        .put(type)
+        .put(new ObjectId(id).toByteArray())
+        .putLong(amount)
+        .putLong(date.toEpochSecond(ZoneOffset.UTC))
+        .putInt(date.getNano())
+        .putShort((short) creditIdBytes.length)
+        .put(creditIdBytes);
+    var crc = new CRC32();
+    crc.update(record.array(), HEADER, length);
+    return record.putInt(Integer.BYTES, (int) crc.getValue()).flip();
+  }
+  
+  private static Object decode(ByteBuffer payload) {
+    var type = payload.get();
+    var id = new byte[OBJECT_ID];
+    payload.get(id);
+    var amount = Money.toDecimal(payload.getLong());
+    var date = LocalDateTime.ofEpochSecond(payload.getLong(), payload.getInt(), ZoneOffset.UTC);
+    var creditId = new byte[payload.getShort() & 0xFFFF];
+    payload.get(creditId);
+    if (type == CONSUMPTIOM) {
+      var consumptiom = new Consumptiom();
+      consumptiom.setId(new ObjectId(id).toHexString());
+      consumptiom.setCreditId(new String(creditId, StandardCharsets.UTF_8));
+      consumptiom.setAmount(amount);
+      consumptiom.setRegisterDate(date);
+      return consumptiom;
+    }
+    var paid = new Paid();
+    paid.setId(new ObjectId(id).toHexString());
+    paid.setCreditId(new String(creditId, StandardCharsets.UTF_8));
+    paid.setAmount(amount);
+    paid.setCreatedDate(date);
+    return paid;
+  }
+  
+  /*
+   * Commits what is pending and tries a last flush; what is left is replayed on the next start.
+   */
+  @PreDestroy
+  public void close() {
+    if (!enabled)
+      return;
+    synchronized (this) {
+      closed = true;
+    }
+    Mono.fromRunnable(this::commit).subscribeOn(committer).block(SHUTDOWN_TIMEOUT);
+    try {
+      flush().block(SHUTDOWN_TIMEOUT);
+    } catch (RuntimeException e) {
+      log.warn("Ledger journal could not flush on shutdown, {} movements are replayed on the next start", getUnflushed(), e);
+    }
+    committer.dispose();
+    for (var segment : segments.values()) {
+      try {
+        segment.channel.close();
+      } catch (IOException e) {
+        log.warn("Ledger journal segment {} could not be closed", segment.path, e);
+      }
+    }
+  }
+  
+  private static final class Segment {
+    
+    private final long number;
+    private final Path path;
+    private final FileChannel channel;
+    /* null for the segments read back on start */
+    private final MappedByteBuffer buffer;
+    
+    private Segment(long number, Path path, FileChannel channel, MappedByteBuffer buffer) {
+      this.number = number;
+      this.path = path;
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+  }
+  
+  /*
+   * A movement and the position right after its record.
+   */
+  private static final class Entry {
+    
+    private final long segment;
+    private final int end;
+    private final Object movement;
+    private final String creditId;
+    
+    private Entry(long segment, int end, Object movement) {
+      this.segment = segment;
+      this.end = end;
+      this.movement = movement;
+      this.creditId = movement instanceof Consumptiom ? ((Consumptiom) movement).getCreditId() : ((Paid) movement).getCreditId();
+    }
+  }
+  
+  private static final class Pending {
+    
+    private final Entry entry;
+    private final Runnable ack;
+    private final Consumer<Throwable> fail;
+    
+    private Pending(Entry entry, Runnable ack, Consumer<Throwable> fail) {
+      this.entry = entry;
+      this.ack = ack;
+      this.fail = fail;
+    }
+  }
+}
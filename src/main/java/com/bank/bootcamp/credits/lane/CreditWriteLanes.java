@@ -0,0 +1,183 @@
+package com.bank.bootcamp.credits.lane;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.exception.WriteLaneFullException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/*
+ * Serializes the balance writes of each credit (credits.write-lanes.enabled=true).
+ * Writes are striped by creditId into a fixed number of lanes; a lane runs one write at a time, in arrival order,
+ * so a credit never has two balance updates in flight and the number of concurrent updates is bounded by the lane count.
+ * Consecutive writes of the same credit and kind waiting in a lane are coalesced into one update with the total amount;
+ * if that update is rejected (e.g. the total does not fit the line) the writes are retried one by one.
+ * A write arriving at a full lane (queue-capacity) fails with WriteLaneFullException (503, Retry-After retry-after).
+ * When disabled, writes run directly on the caller's subscription.
+ * Meters: credits.write-lanes.queue.depth, credits.write-lanes.in-flight and credits.write-lanes.coalesced (writes per update).
+ */
+@Component
+public class CreditWriteLanes {
+  
+  public enum Kind {
+    /* conditional on the available line */
+    CHARGE,
+    /* unconditional change of the used amount (payments, compensations) */
+    ADJUST
+  }
+  
+  private static final int RUNNING = 0;
+  private static final int COMPLETED = 1;
+  private static final int DETACHED = 2;
+  
+  private final boolean enabled;
+  private final int maxCoalesced;
+  private final int queueCapacity;
+  private final Duration retryAfter;
+  private final Lane[] lanes;
+  private final AtomicInteger depth = new AtomicInteger();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final DistributionSummary coalesced;
+  
+  public CreditWriteLanes(
+      @Value("${credits.write-lanes.enabled:false}") boolean enabled,
+      @Value("${credits.write-lanes.stripes:64}") int stripes,
+      @Value("${credits.write-lanes.max-coalesced:128}") int maxCoalesced,
+      @Value("${credits.write-lanes.queue-capacity:10000}") int queueCapacity,
+      @Value("${credits.write-lanes.retry-after:PT1S}") Duration retryAfter,
+      MeterRegistry meterRegistry) {
+    this.enabled = enabled;
+    this.maxCoalesced = maxCoalesced;
+    this.queueCapacity = queueCapacity;
+    this.retryAfter = retryAfter;
+    this.lanes = new Lane[stripes];
+    for (int i = 0; i < stripes; i++)
+      lanes[i] = new Lane();
+    Gauge.builder("credits.write-lanes.queue.depth", depth, AtomicInteger::get).register(meterRegistry);
+    Gauge.builder("credits.write-lanes.in-flight", inFlight, AtomicInteger::get).register(meterRegistry);
+    this.coalesced = DistributionSummary.builder("credits.write-lanes.coalesced")
+        .publishPercentiles(0.5, 0.99)
+        .register(meterRegistry);
+  }
+  
+  /*
+   * write receives the amount (minor units) to apply: the submitted one, or the total of the coalesced writes.
+   * All writes of a credit and kind must be interchangeable this way. The write runs even if the caller
+   * cancels once it is queued.
+   */
+  public Mono<Credit> submit(String creditId, Kind kind, long amount, LongFunction<Mono<Credit>> write) {
+    if (!enabled)
+      return Mono.defer(() -> write.apply(amount));
+    return Mono.create(sink -> lanes[Math.floorMod(creditId.hashCode(), lanes.length)]
+        .offer(new PendingWrite(creditId, kind, amount, write, sink)));
+  }
+  
+  public int getQueueDepth() {
+    return depth.get();
+  }
+  
+  @RequiredArgsConstructor
+  private static class PendingWrite {
+    private final String creditId;
+    private final Kind kind;
+    private final long amount;
+    private final LongFunction<Mono<Credit>> write;
+    private final MonoSink<Credit> sink;
+    
+    private boolean coalescesWith(PendingWrite other) {
+      return other != null && kind == other.kind && creditId.equals(other.creditId);
+    }
+  }
+  
+  private class Lane {
+    private final Queue<PendingWrite> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    
+    private void offer(PendingWrite write) {
+      if (size.incrementAndGet() > queueCapacity) {
+        size.decrementAndGet();
+        write.sink.error(new WriteLaneFullException(write.creditId, retryAfter));
+        return;
+      }
+      depth.incrementAndGet();
+      queue.offer(write);
+      if (draining.compareAndSet(false, true))
+        drain();
+    }
+    
+    /*
+     * Runs by the thread owning draining. Writes completing synchronously loop here instead of recursing,
+     * asynchronous ones call drain again from their completion.
+     */
+    private void drain() {
+      while (true) {
+        var group = poll();
+        if (group.isEmpty()) {
+          draining.set(false);
+          if (queue.isEmpty() || !draining.compareAndSet(false, true))
+            return;
+          continue;
+        }
+        var state = new AtomicInteger(RUNNING);
+        inFlight.incrementAndGet();
+        execute(group)
+            .doFinally(signal -> {
+              inFlight.decrementAndGet();
+              if (!state.compareAndSet(RUNNING, COMPLETED))
+                drain();
+            })
+            .subscribe();
+        if (state.compareAndSet(RUNNING, DETACHED))
+          return;
+      }
+    }
+    
+    private List<PendingWrite> poll() {
+      var group = new ArrayList<PendingWrite>(1);
+      var head = queue.poll();
+      if (head == null)
+        return group;
+      group.add(head);
+      while (group.size() < maxCoalesced && head.coalescesWith(queue.peek()))
+        group.add(queue.poll());
+      size.addAndGet(-group.size());
+      depth.addAndGet(-group.size());
+      coalesced.record(group.size());
+      return group;
+    }
+  }
+  
+  private Mono<Void> execute(List<PendingWrite> group) {
+    var head = group.get(0);
+    if (group.size() == 1)
+      return executeOne(head);
+    return Mono.defer(() -> head.write.apply(group.stream().mapToLong(write -> write.amount).reduce(0L, Math::addExact)))
+        .doOnNext(credit -> group.forEach(write -> write.sink.success(credit)))
+        .hasElement()
+        .onErrorReturn(Boolean.FALSE)
+        .flatMap(done -> done ? Mono.<Void>empty() : Flux.fromIterable(group).concatMap(CreditWriteLanes::executeOne).then());
+  }
+  
+  private static Mono<Void> executeOne(PendingWrite write) {
+    return Mono.defer(() -> write.write.apply(write.amount))
+        .doOnSuccess(write.sink::success)
+        .doOnError(write.sink::error)
+        .onErrorResume(e -> Mono.empty())
+        .then();
+  }
+}
@@ -0,0 +1,101 @@
+package com.bank.bootcamp.credits.metrics;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.exception.BankValidationException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/*
+ * Micrometer meters of CreditService:
+ *  - credits.operation: service operations, by operation, creditType and outcome
+ *  - credits.repository: every repository call, by repository and method
+ *  - credits.validation.rejections: BankValidationException count, by operation and reason
+ * Timers are started on subscription and stopped on the terminal signal, so they measure the
+ * actual reactive execution and not the assembly of the pipeline.
+ */
+@Component
+@RequiredArgsConstructor
+public class CreditMetrics {
+
+  private static final double[] PERCENTILES = { 0.5, 0.95, 0.99 };
+  private static final String NO_CREDIT_TYPE = "NONE";
+  
+  private final MeterRegistry meterRegistry;
+  
+  /*
+   * The operation body receives a holder where it can set the CreditType once the credit is known.
+   */
+  public <T> Mono<T> timeOperation(String operation, Function<AtomicReference<CreditType>, Mono<T>> body) {
+    return Mono.defer(() -> {
+      var creditType = new AtomicReference<CreditType>();
+      var sample = Timer.start(meterRegistry);
+      return body.apply(creditType)
+          .doOnError(BankValidationException.class, e -> e.getReasons().forEach(reason -> countRejection(operation, reason)))
+          .doFinally(signal -> sample.stop(operationTimer(operation, creditType.get(), signal)));
+    });
+  }
+  
+  public <T> Flux<T> timeOperation(String operation, CreditType creditType, Flux<T> body) {
+    return Flux.defer(() -> {
+      var sample = Timer.start(meterRegistry);
+      return body
+          .doOnError(BankValidationException.class, e -> e.getReasons().forEach(reason -> countRejection(operation, reason)))
+          .doFinally(signal -> sample.stop(operationTimer(operation, creditType, signal)));
+    });
+  }
+  
+  public <T> Mono<T> timeRepository(String repository, String method, Mono<T> call) {
+    return Mono.defer(() -> {
+      var sample = Timer.start(meterRegistry);
+      return call.doFinally(signal -> sample.stop(repositoryTimer(repository, method)));
+    });
+  }
+  
+  public <T> Flux<T> timeRepository(String repository, String method, Flux<T> call) {
+    return Flux.defer(() -> {
+      var sample = Timer.start(meterRegistry);
+      return call.doFinally(signal -> sample.stop(repositoryTimer(repository, method)));
+    });
+  }
+  
+  public void countRejection(String operation, String reason) {
+    meterRegistry.counter("credits.validation.rejections", "operation", operation, "reason", reason).increment();
+  }
+  
+  private Timer operationTimer(String operation, CreditType creditType, SignalType signal) {
+    return Timer.builder("credits.operation")
+        .tag("operation", operation)
+        .tag("creditType", creditType == null ? NO_CREDIT_TYPE : creditType.name())
+        .tag("outcome", outcome(signal))
+        .publishPercentiles(PERCENTILES)
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+  }
+  
+  private Timer repositoryTimer(String repository, String method) {
+    return Timer.builder("credits.repository")
+        .tag("repository", repository)
+        .tag("method", method)
+        .publishPercentiles(PERCENTILES)
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+  }
+  
+  private String outcome(SignalType signal) {
+    switch (signal) {
+      case ON_ERROR:
+        return "error";
+      case CANCEL:
+        return "cancelled";
+      default:
+        return "success";
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package com.bank.bootcamp.credits.money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import org.bson.types.Decimal128;
+
+/*
+ * Money is stored as Decimal128 (BigDecimal in the entities and DTOs) and handled in the service as long minor units
+ * (cents), so balance arithmetic is exact and works on primitives. Amounts with more than SCALE decimals are not money.
+ */
+public final class Money {
+
+  public static final int SCALE = 2;
+  
+  private Money() {
+  }
+  
+  /*
+   * Exact conversion; throws ArithmeticException when the amount has more than SCALE decimals or does not fit a long.
+   */
+  public static long toMinor(BigDecimal amount) {
+    return amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+  }
+  
+  /*
+   * null (legacy credit without materialized balance) stays null.
+   */
+  public static Long toMinorOrNull(BigDecimal amount) {
+    return amount == null ? null : toMinor(amount);
+  }
+  
+  public static BigDecimal toDecimal(long minor) {
+    return BigDecimal.valueOf(minor, SCALE);
+  }
+  
+  public static Decimal128 toDecimal128(long minor) {
+    return new Decimal128(toDecimal(minor));
+  }
+  
+  /*
+   * At most SCALE decimals and within the range of long minor units.
+   */
+  public static boolean isMoney(BigDecimal amount) {
+    return amount.stripTrailingZeros().scale() <= SCALE
+        && amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().bitLength() < Long.SIZE;
+  }
+}
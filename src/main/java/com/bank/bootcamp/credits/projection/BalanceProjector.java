@@ -0,0 +1,245 @@
+package com.bank.bootcamp.credits.projection;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PreDestroy;
+import org.bson.BsonTimestamp;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.dto.BalanceDTO;
+import com.bank.bootcamp.credits.entity.BalanceProjection;
+import com.bank.bootcamp.credits.entity.BalanceSnapshot;
+import com.bank.bootcamp.credits.entity.ChangeStreamToken;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.exception.BankValidationException;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.repository.BalanceProjectionRepository;
+import com.bank.bootcamp.credits.repository.ChangeStreamTokenRepository;
+import com.bank.bootcamp.credits.repository.CreditRepository;
+import com.bank.bootcamp.credits.service.BalanceSnapshotService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+/*
+ * Keeps BalanceProjections up to date from the ledger change stream and pushes the balance of watched credits.
+ *  - First start (no ChangeStreamToken): projections are rebuilt from the balance snapshots at now - lag,
+ *    and the stream starts lag before that checkpoint, so every movement ingested after it is in the stream.
+ *  - Every event is applied with a single conditional upsert (see BalanceProjectionRepositoryCustom), then the resume
+ *    token is saved every token-interval. A restart resumes after the saved token; the events handled after it
+ *    are delivered again and skipped by lastEventTime, so it catches up without rebuilding.
+ *  - Watched credits keep their latest projection in memory, subscribers get it on subscribe and every change after it.
+ * Snapshots and projections checkpoint on ingestedDate, set right before the insert (by CreditService, or by the ledger
+ * journal at its flush), so the cluster time of an event follows it within lag however late the journal flushed it.
+ */
+@Slf4j
+@Component
+public class BalanceProjector implements ApplicationRunner {
+  
+  public static final String STREAM_ID = "balance-projection";
+  private static final int CONCURRENCY = 4;
+  private static final Duration MIN_BACKOFF = Duration.ofSeconds(1);
+  private static final Duration MAX_BACKOFF = Duration.ofMinutes(1);
+  
+  private final LedgerChangeStream ledgerChangeStream;
+  private final BalanceProjectionRepository balanceProjectionRepository;
+  private final ChangeStreamTokenRepository changeStreamTokenRepository;
+  private final CreditRepository creditRepository;
+  private final BalanceSnapshotService balanceSnapshotService;
+  private final CreditMetrics creditMetrics;
+  private final boolean enabled;
+  private final Duration lag;
+  private final Duration tokenInterval;
+  private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+  private final Counter applied;
+  private final Counter skipped;
+  private final Counter rebuilds;
+  private Disposable subscription;
+  
+  public BalanceProjector(LedgerChangeStream ledgerChangeStream, BalanceProjectionRepository balanceProjectionRepository,
+      ChangeStreamTokenRepository changeStreamTokenRepository, CreditRepository creditRepository,
+      BalanceSnapshotService balanceSnapshotService, CreditMetrics creditMetrics, MeterRegistry meterRegistry,
+      @Value("${credits.balance-projection.enabled:false}") boolean enabled,
+      @Value("${credits.balance-projection.lag:PT5M}") Duration lag,
+      @Value("${credits.balance-projection.token-interval:PT1S}") Duration tokenInterval) {
+    this.ledgerChangeStream = ledgerChangeStream;
+    this.balanceProjectionRepository = balanceProjectionRepository;
+    this.changeStreamTokenRepository = changeStreamTokenRepository;
+    this.creditRepository = creditRepository;
+    this.balanceSnapshotService = balanceSnapshotService;
+    this.creditMetrics = creditMetrics;
+    this.enabled = enabled;
+    this.lag = lag;
+    this.tokenInterval = tokenInterval;
+    this.applied = Counter.builder("credits.balance-projection.events").tag("outcome", "applied").register(meterRegistry);
+    this.skipped = Counter.builder("credits.balance-projection.events").tag("outcome", "skipped").register(meterRegistry);
+    this.rebuilds = Counter.builder("credits.balance-projection.rebuilds").register(meterRegistry);
+    Gauge.builder("credits.balance-projection.watched", watches, Map::size).register(meterRegistry);
+  }
+  
+  @Override
+  public void run(ApplicationArguments args) {
+    if (!enabled)
+      return;
+    subscription = project()
+        .retryWhen(Retry.backoff(Long.MAX_VALUE, MIN_BACKOFF).maxBackoff(MAX_BACKOFF)
+            .doBeforeRetry(signal -> log.warn("Balance projection stream failed, resuming", signal.failure())))
+        .subscribe();
+  }
+  
+  @PreDestroy
+  public void stop() {
+    if (subscription != null)
+      subscription.dispose();
+  }
+  
+  /*
+   * Applies the change stream from the saved position (rebuilding first when there is none), emitting the saved tokens.
+   */
+  public Flux<ChangeStreamToken> project() {
+    return creditMetrics.timeRepository("ChangeStreamToken", "findById", changeStreamTokenRepository.findById(STREAM_ID))
+        .switchIfEmpty(Mono.defer(this::rebuild))
+        .flatMapMany(position -> ledgerChangeStream.listen(position))
+        .concatMap(this::apply)
+        .sample(tokenInterval)
+        .concatMap(event -> saveToken(event.getResumeToken(), null));
+  }
+  
+  private Mono<ChangeStreamToken> rebuild() {
+    var checkpoint = LocalDateTime.now().minus(lag);
+    var startAt = new BsonTimestamp((int) checkpoint.minus(lag).atZone(ZoneId.systemDefault()).toEpochSecond(), 0);
+    log.info("Rebuilding balance projections at {}", checkpoint);
+    rebuilds.increment();
+    return creditMetrics.timeRepository("BalanceProjection", "deleteAll", balanceProjectionRepository.deleteAll())
+        .thenMany(creditRepository.findAll())
+        .flatMap(credit -> balanceSnapshotService.takeSnapshot(credit.getId(), checkpoint), CONCURRENCY)
+        .flatMap(snapshot -> creditMetrics.timeRepository("BalanceProjection", "save", balanceProjectionRepository.save(fromSnapshot(snapshot))), CONCURRENCY)
+        .count()
+        .doOnNext(credits -> log.info("Rebuilt {} balance projections", credits))
+        .then(Mono.defer(() -> saveToken(null, startAt.getValue())));
+  }
+  
+  private BalanceProjection fromSnapshot(BalanceSnapshot snapshot) {
+    var projection = new BalanceProjection();
+    projection.setCreditId(snapshot.getCreditId());
+    projection.setConsumptiomTotal(snapshot.getConsumptiomTotal());
+    projection.setPaidTotal(snapshot.getPaidTotal());
+    projection.setCheckpoint(snapshot.getCheckpoint());
+    projection.setLastEventTime(0L);
+    projection.setUpdatedDate(LocalDateTime.now());
+    return projection;
+  }
+  
+  private Mono<ChangeStreamToken> saveToken(String resumeToken, Long startAt) {
+    var token = new ChangeStreamToken();
+    token.setId(STREAM_ID);
+    token.setResumeToken(resumeToken);
+    token.setStartAt(startAt);
+    token.setUpdatedDate(LocalDateTime.now());
+    return creditMetrics.timeRepository("ChangeStreamToken", "save", changeStreamTokenRepository.save(token));
+  }
+  
+  private Mono<LedgerEvent> apply(LedgerEvent event) {
+    return creditMetrics.timeRepository("BalanceProjection", "addMovement", balanceProjectionRepository.addMovement(
+          event.getCreditId(), event.getConsumptiom(), event.getPaid(), event.getIngestedDate(), event.getEventTime()))
+        .doOnNext(projection -> {
+          applied.increment();
+          var watch = watches.get(projection.getCreditId());
+          if (watch != null)
+            watch.offer(projection);
+        })
+        .switchIfEmpty(Mono.fromRunnable(skipped::increment))
+        .thenReturn(event);
+  }
+  
+  /*
+   * Current balance of the credit followed by every change of it. Without the projection enabled
+   * (change streams need a replica set) it emits the current balance and completes.
+   */
+  public Flux<BalanceDTO> watchBalance(String creditId) {
+    return creditMetrics.timeRepository("Credit", "findById", creditRepository.findById(creditId))
+        .switchIfEmpty(Mono.error(new BankValidationException("Credit not found")))
+        .flatMapMany(credit -> {
+          if (!enabled)
+            return fromLedger(creditId).map(projection -> toBalanceDTO(credit, projection)).flux();
+          return Flux.using(() -> acquire(creditId),
+                watch -> findProjection(creditId).doOnNext(watch::offer).thenMany(watch.sink.asFlux()),
+                watch -> release(creditId))
+              .map(projection -> toBalanceDTO(credit, projection));
+        });
+  }
+  
+  private Mono<BalanceProjection> findProjection(String creditId) {
+    return creditMetrics.timeRepository("BalanceProjection", "findById", balanceProjectionRepository.findById(creditId))
+        .switchIfEmpty(Mono.defer(() -> fromLedger(creditId)));
+  }
+  
+  /*
+   * Not projected yet: the ledger totals stand in as a projection older than any event.
+   */
+  private Mono<BalanceProjection> fromLedger(String creditId) {
+    return balanceSnapshotService.getCreditTotals(creditId).map(totals -> {
+      var projection = new BalanceProjection();
+      projection.setCreditId(creditId);
+      projection.setConsumptiomTotal(Money.toDecimal(totals.getT1()));
+      projection.setPaidTotal(Money.toDecimal(totals.getT2()));
+      projection.setLastEventTime(0L);
+      return projection;
+    });
+  }
+  
+  private BalanceDTO toBalanceDTO(Credit credit, BalanceProjection projection) {
+    var used = projection.getConsumptiomTotal().subtract(projection.getPaidTotal());
+    var balanceDTO = new BalanceDTO();
+    balanceDTO.setCreditId(credit.getId());
+    balanceDTO.setType("Credit");
+    balanceDTO.setCreditLimit(credit.getLimit());
+    balanceDTO.setUsed(used);
+    balanceDTO.setAvailable(credit.getLimit().subtract(used));
+    return balanceDTO;
+  }
+  
+  private Watch acquire(String creditId) {
+    return watches.compute(creditId, (id, watch) -> {
+      if (watch == null)
+        watch = new Watch();
+      watch.subscribers++;
+      return watch;
+    });
+  }
+  
+  private void release(String creditId) {
+    watches.computeIfPresent(creditId, (id, watch) -> --watch.subscribers == 0 ? null : watch);
+  }
+  
+  /*
+   * Latest projection of a watched credit. Only counted under the lock of the watches map.
+   */
+  private static class Watch {
+    private final Sinks.Many<BalanceProjection> sink = Sinks.many().replay().latest();
+    private long lastEventTime = -1;
+    private int subscribers;
+    
+    /*
+     * Projections can be offered out of order (initial read racing an event), only newer ones are emitted.
+     */
+    private synchronized void offer(BalanceProjection projection) {
+      if (projection.getLastEventTime() <= lastEventTime)
+        return;
+      lastEventTime = projection.getLastEventTime();
+      sink.tryEmitNext(projection);
+    }
+  }
+}
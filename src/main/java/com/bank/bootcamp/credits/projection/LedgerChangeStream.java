@@ -0,0 +1,12 @@
+package com.bank.bootcamp.credits.projection;
+
+import com.bank.bootcamp.credits.entity.ChangeStreamToken;
+import reactor.core.publisher.Flux;
+
+public interface LedgerChangeStream {
+  
+  /*
+   * Ledger inserts after the resume token of position or, without one, from its startAt cluster time.
+   */
+  Flux<LedgerEvent> listen(ChangeStreamToken position);
+}
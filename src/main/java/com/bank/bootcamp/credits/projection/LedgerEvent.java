@@ -0,0 +1,19 @@
+package com.bank.bootcamp.credits.projection;
+
+import java.time.LocalDateTime;
+import lombok.Data;
+
+/*
+ * A Consumptiom or Paid inserted in the ledger, as seen by a change stream. Amounts in minor units (see Money),
+ * eventTime is the cluster time of the insert (BsonTimestamp value), increasing along the stream.
+ */
+@Data
+public class LedgerEvent {
+  
+  private String creditId;
+  private long consumptiom;
+  private long paid;
+  private LocalDateTime ingestedDate;
+  private long eventTime;
+  private String resumeToken;
+}
@@ -0,0 +1,68 @@
+package com.bank.bootcamp.credits.projection;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+import com.bank.bootcamp.credits.entity.ChangeStreamToken;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.money.Money;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+
+/*
+ * One database level change stream filtered to the inserts in Consumptioms and Paids, so both ledgers
+ * come in a single cluster time order. Change streams need a replica set (a single node one is enough).
+ */
+@Component
+@Profile("!inmemory")
+@RequiredArgsConstructor
+public class MongoLedgerChangeStream implements LedgerChangeStream {
+  
+  private final ReactiveMongoTemplate mongoTemplate;
+  
+  @Override
+  public Flux<LedgerEvent> listen(ChangeStreamToken position) {
+    var consumptioms = mongoTemplate.getCollectionName(Consumptiom.class);
+    var paids = mongoTemplate.getCollectionName(Paid.class);
+    var options = ChangeStreamOptions.builder()
+        .filter(Aggregation.newAggregation(Aggregation.match(Criteria.where("operationType").is("insert").and("ns.coll").in(consumptioms, paids))));
+    if (position.getResumeToken() != null)
+      options.resumeAfter(BsonDocument.parse(position.getResumeToken()));
+    else
+      options.resumeAt(new BsonTimestamp(position.getStartAt()));
+    return mongoTemplate.changeStream(null, null, options.build(), Document.class)
+        .map(event -> consumptioms.equals(event.getCollectionName()) ? fromConsumptiom(event) : fromPaid(event));
+  }
+  
+  private LedgerEvent fromConsumptiom(ChangeStreamEvent<Document> event) {
+    var consumptiom = mongoTemplate.getConverter().read(Consumptiom.class, event.getBody());
+    var ledgerEvent = toLedgerEvent(event, consumptiom.getCreditId());
+    ledgerEvent.setConsumptiom(Money.toMinor(consumptiom.getAmount()));
+    ledgerEvent.setIngestedDate(consumptiom.getIngestedDate());
+    return ledgerEvent;
+  }
+  
+  private LedgerEvent fromPaid(ChangeStreamEvent<Document> event) {
+    var paid = mongoTemplate.getConverter().read(Paid.class, event.getBody());
+    var ledgerEvent = toLedgerEvent(event, paid.getCreditId());
+    ledgerEvent.setPaid(Money.toMinor(paid.getAmount()));
+    ledgerEvent.setIngestedDate(paid.getIngestedDate());
+    return ledgerEvent;
+  }
+  
+  private LedgerEvent toLedgerEvent(ChangeStreamEvent<Document> event, String creditId) {
+    var ledgerEvent = new LedgerEvent();
+    ledgerEvent.setCreditId(creditId);
+    ledgerEvent.setEventTime(event.getBsonTimestamp().getValue());
+    ledgerEvent.setResumeToken(event.getResumeToken().asDocument().toJson());
+    return ledgerEvent;
+  }
+}
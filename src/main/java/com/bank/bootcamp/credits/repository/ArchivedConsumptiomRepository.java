@@ -0,0 +1,25 @@
+package com.bank.bootcamp.credits.repository;
+
+import java.time.LocalDateTime;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import com.bank.bootcamp.credits.entity.ArchivedConsumptiom;
+import reactor.core.publisher.Flux;
+
+/*
+ * Same statement queries as ConsumptiomRepository, on the archive.
+ */
+public interface ArchivedConsumptiomRepository extends ReactiveMongoRepository<ArchivedConsumptiom, String> {
+  
+  @Query(value = "{ creditId: ?0, $or: [ { registerDate: { $lt: ?1 } }, { registerDate: ?1, _id: { $lt: ?2 } } ] }",
+      sort = "{ registerDate: -1, _id: -1 }")
+  Flux<ArchivedConsumptiom> findPageByCreditIdBefore(String creditId, LocalDateTime registerDate, ObjectId id, Pageable pageable);
+  
+  @Query(value = "{ creditId: ?0 }", sort = "{ registerDate: -1, _id: -1 }")
+  Flux<ArchivedConsumptiom> findPageByCreditId(String creditId, Pageable pageable);
+  
+  @Query(value = "{ creditId: ?0 }", sort = "{ registerDate: 1, _id: 1 }")
+  Flux<ArchivedConsumptiom> streamByCreditId(String creditId);
+}
@@ -0,0 +1,25 @@
+package com.bank.bootcamp.credits.repository;
+
+import java.time.LocalDateTime;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import com.bank.bootcamp.credits.entity.ArchivedPaid;
+import reactor.core.publisher.Flux;
+
+/*
+ * Same statement queries as PaidRepository, on the archive.
+ */
+public interface ArchivedPaidRepository extends ReactiveMongoRepository<ArchivedPaid, String> {
+  
+  @Query(value = "{ creditId: ?0, $or: [ { createdDate: { $lt: ?1 } }, { createdDate: ?1, _id: { $lt: ?2 } } ] }",
+      sort = "{ createdDate: -1, _id: -1 }")
+  Flux<ArchivedPaid> findPageByCreditIdBefore(String creditId, LocalDateTime createdDate, ObjectId id, Pageable pageable);
+  
+  @Query(value = "{ creditId: ?0 }", sort = "{ createdDate: -1, _id: -1 }")
+  Flux<ArchivedPaid> findPageByCreditId(String creditId, Pageable pageable);
+  
+  @Query(value = "{ creditId: ?0 }", sort = "{ createdDate: 1, _id: 1 }")
+  Flux<ArchivedPaid> streamByCreditId(String creditId);
+}
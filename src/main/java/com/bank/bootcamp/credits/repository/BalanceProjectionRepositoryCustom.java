@@ -0,0 +1,15 @@
+package com.bank.bootcamp.credits.repository;
+
+import java.time.LocalDateTime;
+import com.bank.bootcamp.credits.entity.BalanceProjection;
+import reactor.core.publisher.Mono;
+
+public interface BalanceProjectionRepositoryCustom {
+  
+  /*
+   * Adds a movement (minor units, see Money) to the totals of the credit, creating its projection if needed.
+   * Skipped, returning empty, when the movement was ingested at or before the projection checkpoint (already in the
+   * snapshot it was rebuilt from) or when an event at or after eventTime was already applied.
+   */
+  Mono<BalanceProjection> addMovement(String creditId, long consumptiom, long paid, LocalDateTime ingestedDate, long eventTime);
+}
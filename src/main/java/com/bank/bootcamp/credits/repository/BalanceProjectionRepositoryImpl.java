@@ -0,0 +1,37 @@
+package com.bank.bootcamp.credits.repository;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import java.time.LocalDateTime;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import com.bank.bootcamp.credits.entity.BalanceProjection;
+import com.bank.bootcamp.credits.money.Money;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+@RequiredArgsConstructor
+public class BalanceProjectionRepositoryImpl implements BalanceProjectionRepositoryCustom {
+  
+  private final ReactiveMongoTemplate mongoTemplate;
+  
+  /*
+   * Upsert: when the projection exists but the condition does not match, the insert fails on _id and nothing is applied.
+   */
+  @Override
+  public Mono<BalanceProjection> addMovement(String creditId, long consumptiom, long paid, LocalDateTime ingestedDate, long eventTime) {
+    var query = Query.query(where("_id").is(creditId)
+        .and("lastEventTime").not().gte(eventTime)
+        .and("checkpoint").not().gte(ingestedDate));
+    var update = new Update()
+        .inc("consumptiomTotal", Money.toDecimal128(consumptiom))
+        .inc("paidTotal", Money.toDecimal128(paid))
+        .set("lastEventTime", eventTime)
+        .set("updatedDate", LocalDateTime.now());
+    return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true).upsert(true), BalanceProjection.class)
+        .onErrorResume(DuplicateKeyException.class, e -> Mono.empty());
+  }
+
+}
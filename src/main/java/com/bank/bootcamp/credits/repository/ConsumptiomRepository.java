@@ -1,7 +1,16 @@
 package com.bank.bootcamp.credits.repository;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.Aggregation;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import com.bank.bootcamp.credits.dto.CreditTotalDTO;
+import com.bank.bootcamp.credits.dto.LedgerDayDTO;
+import com.bank.bootcamp.credits.dto.LedgerTotalDTO;
 import com.bank.bootcamp.credits.entity.Consumptiom;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -12,5 +21,69 @@ public interface ConsumptiomRepository extends ReactiveMongoRepository<Consumpti
       "{ $match: { creditId: ?0 }}",
       "{ $group: { _id: '', total: {$sum: $amount }}}"
   })
-  public Mono<Double> getSumByCreditId(String creditId);
+  public Mono<BigDecimal> getSumByCreditId(String creditId);
+  @Aggregation(pipeline = {
+      "{ $match: { creditId: { $in: ?0 } }}",
+      "{ $group: { _id: $creditId, total: {$sum: $amount }}}"
+  })
+  Flux<CreditTotalDTO> getSumsByCreditIds(Collection<String> creditIds);
+  @Aggregation(pipeline = {
+      "{ $match: { creditId: ?0, ingestedDate: { $lte: ?1 } }}",
+      "{ $group: { _id: '', total: {$sum: $amount }}}"
+  })
+  Mono<BigDecimal> getSumByCreditIdUpTo(String creditId, LocalDateTime upTo);
+  @Aggregation(pipeline = {
+      "{ $match: { creditId: ?0, ingestedDate: { $gt: ?1, $lte: ?2 } }}",
+      "{ $group: { _id: '', total: {$sum: $amount }}}"
+  })
+  Mono<BigDecimal> getSumByCreditIdBetween(String creditId, LocalDateTime after, LocalDateTime upTo);
+  @Aggregation(pipeline = {
+      "{ $match: { creditId: ?0, ingestedDate: { $gt: ?1 } }}",
+      "{ $group: { _id: '', total: {$sum: $amount }}}"
+  })
+  Mono<BigDecimal> getSumByCreditIdAfter(String creditId, LocalDateTime after);
+  
+  /*
+   * Keyset pagination, newest first: the page after (registerDate, id).
+   */
+  @Query(value = "{ creditId: ?0, $or: [ { registerDate: { $lt: ?1 } }, { registerDate: ?1, _id: { $lt: ?2 } } ] }",
+      sort = "{ registerDate: -1, _id: -1 }")
+  Flux<Consumptiom> findPageByCreditIdBefore(String creditId, LocalDateTime registerDate, ObjectId id, Pageable pageable);
+  
+  @Query(value = "{ creditId: ?0 }", sort = "{ registerDate: -1, _id: -1 }")
+  Flux<Consumptiom> findPageByCreditId(String creditId, Pageable pageable);
+  
+  @Query(value = "{ creditId: ?0 }", sort = "{ registerDate: 1, _id: 1 }")
+  Flux<Consumptiom> streamByCreditId(String creditId);
+  
+  /*
+   * Credits and days (in zone) of the movements ingested in (after, upTo].
+   */
+  @Aggregation(pipeline = {
+      "{ $match: { ingestedDate: { $gt: ?0, $lte: ?1 } }}",
+      "{ $group: { _id: { creditId: '$creditId', day: { $dateToString: { format: '%Y-%m-%d', date: '$registerDate', timezone: ?2 } } } }}",
+      "{ $project: { _id: 0, creditId: '$_id.creditId', day: '$_id.day' }}"
+  })
+  Flux<LedgerDayDTO> getDaysBetween(LocalDateTime after, LocalDateTime upTo, String zone);
+  
+  Mono<Consumptiom> findFirstByOrderByIngestedDateAsc();
+  
+  /*
+   * Total and count of the movements dated in [dayStart, nextDayStart) and ingested in (after, upTo].
+   */
+  @Aggregation(pipeline = {
+      "{ $match: { creditId: ?0, registerDate: { $gte: ?1, $lt: ?2 }, ingestedDate: { $gt: ?3, $lte: ?4 } }}",
+      "{ $group: { _id: '', total: { $sum: '$amount' }, count: { $sum: 1 } }}"
+  })
+  Mono<LedgerTotalDTO> getDailyTotal(String creditId, LocalDateTime dayStart, LocalDateTime nextDayStart, LocalDateTime after, LocalDateTime upTo);
+  
+  @Query(value = "{ creditId: ?0, registerDate: { $gte: ?1, $lt: ?2 } }", sort = "{ registerDate: 1, _id: 1 }")
+  Flux<Consumptiom> streamByCreditIdBetween(String creditId, LocalDateTime from, LocalDateTime to);
+  
+  /*
+   * Oldest movements of the credit dated before the given date and ingested by then (so counted by the snapshot
+   * at it), one batch of LedgerArchiveService.
+   */
+  @Query(value = "{ creditId: ?0, registerDate: { $lt: ?1 }, ingestedDate: { $lte: ?1 } }", sort = "{ registerDate: 1, _id: 1 }")
+  Flux<Consumptiom> findArchivableByCreditId(String creditId, LocalDateTime before, Pageable pageable);
 }
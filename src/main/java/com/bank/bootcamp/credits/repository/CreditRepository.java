@@ -1,10 +1,39 @@
 package com.bank.bootcamp.credits.repository;
 
+import java.time.LocalDateTime;
+import org.springframework.data.mongodb.repository.Aggregation;
+import org.springframework.data.mongodb.repository.Meta;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import com.bank.bootcamp.credits.dto.ExposureTotalDTO;
 import com.bank.bootcamp.credits.entity.Credit;
 import com.bank.bootcamp.credits.entity.CreditType;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-public interface CreditRepository extends ReactiveMongoRepository<Credit, String> {
+public interface CreditRepository extends ReactiveMongoRepository<Credit, String>, CreditRepositoryCustom {
+  
+  String EXPOSURE_GROUP = "{ $group: { _id: { customerId: '$customerId', creditType: '$creditType' }, credits: { $sum: 1 },"
+      + " legacyCredits: { $sum: { $cond: [ { $in: [ { $type: '$used' }, [ 'missing', 'null' ] ] }, 1, 0 ] } },"
+      + " limit: { $sum: '$limit' }, used: { $sum: '$used' }, available: { $sum: '$available' } }}";
+  String EXPOSURE_PROJECT = "{ $project: { _id: 0, customerId: '$_id.customerId', creditType: '$_id.creditType',"
+      + " credits: 1, legacyCredits: 1, limit: 1, used: 1, available: 1 }}";
+  
   Flux<Credit> findAllByCustomerIdAndCreditType(String customerId, CreditType creditType);
+  
+  /*
+   * Customer and credit type of the credits written after since.
+   */
+  @Query(value = "{ updatedDate: { $gt: ?0 } }", fields = "{ customerId: 1, creditType: 1 }")
+  Flux<Credit> findChangedSince(LocalDateTime since);
+  
+  /*
+   * Exposure of every customer and credit type, grouped on the server and streamed, spilling to disk past the memory limit.
+   */
+  @Meta(allowDiskUse = true)
+  @Aggregation(pipeline = { EXPOSURE_GROUP, EXPOSURE_PROJECT })
+  Flux<ExposureTotalDTO> getExposures();
+  
+  @Aggregation(pipeline = { "{ $match: { customerId: ?0, creditType: ?1 }}", EXPOSURE_GROUP, EXPOSURE_PROJECT })
+  Mono<ExposureTotalDTO> getExposure(String customerId, CreditType creditType);
 }
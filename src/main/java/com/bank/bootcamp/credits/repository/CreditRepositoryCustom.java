@@ -0,0 +1,25 @@
+package com.bank.bootcamp.credits.repository;
+
+import com.bank.bootcamp.credits.entity.Credit;
+import reactor.core.publisher.Mono;
+
+public interface CreditRepositoryCustom {
+  
+  /*
+   * Atomically adds amount (minor units, see Money) to used and subtracts it from available.
+   * Negative amounts release line of credit. Returns the updated credit.
+   */
+  Mono<Credit> addUsed(String creditId, long amount);
+  
+  /*
+   * Same as addUsed but only applied when available >= amount, in a single findAndModify.
+   * Returns empty when the credit does not exist or has not enough line of credit.
+   */
+  Mono<Credit> reserveCredit(String creditId, long amount);
+  
+  /*
+   * Overwrites the materialized balance, only if the credit is still in the expected version.
+   * Returns empty when the credit was modified in between.
+   */
+  Mono<Credit> updateBalance(String creditId, long used, Long expectedVersion);
+}
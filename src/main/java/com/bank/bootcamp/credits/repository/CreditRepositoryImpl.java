@@ -0,0 +1,58 @@
+package com.bank.bootcamp.credits.repository;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import java.time.LocalDateTime;
+import java.util.Date;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.money.Money;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+@RequiredArgsConstructor
+public class CreditRepositoryImpl implements CreditRepositoryCustom {
+  
+  private final ReactiveMongoTemplate mongoTemplate;
+  
+  @Override
+  public Mono<Credit> addUsed(String creditId, long amount) {
+    var query = Query.query(where("_id").is(creditId));
+    var update = new Update()
+        .inc("used", Money.toDecimal128(amount))
+        .inc("available", Money.toDecimal128(-amount))
+        .set("updatedDate", LocalDateTime.now())
+        .inc("version", 1);
+    return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Credit.class);
+  }
+  
+  @Override
+  public Mono<Credit> reserveCredit(String creditId, long amount) {
+    var query = Query.query(where("_id").is(creditId).and("available").gte(Money.toDecimal128(amount)));
+    var update = new Update()
+        .inc("used", Money.toDecimal128(amount))
+        .inc("available", Money.toDecimal128(-amount))
+        .set("updatedDate", LocalDateTime.now())
+        .inc("version", 1);
+    return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Credit.class);
+  }
+  
+  @Override
+  public Mono<Credit> updateBalance(String creditId, long used, Long expectedVersion) {
+    var query = Query.query(where("_id").is(creditId).and("version").is(expectedVersion));
+    var decimalUsed = Money.toDecimal128(used);
+    var update = AggregationUpdate.update()
+        .set("used").toValue(decimalUsed)
+        .set("available").toValue(ArithmeticOperators.Subtract.valueOf("limit").subtract(decimalUsed))
+        // pipeline values are not converted, a Date is what a LocalDateTime is stored as
+        .set("updatedDate").toValue(new Date())
+        .set("version").toValue(ArithmeticOperators.Add.valueOf(ConditionalOperators.ifNull("version").then(0L)).add(1));
+    return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Credit.class);
+  }
+
+}
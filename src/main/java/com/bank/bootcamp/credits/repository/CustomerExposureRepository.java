@@ -0,0 +1,25 @@
+package com.bank.bootcamp.credits.repository;
+
+import org.springframework.data.mongodb.repository.Aggregation;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import com.bank.bootcamp.credits.dto.PortfolioExposureDTO;
+import com.bank.bootcamp.credits.entity.CustomerExposure;
+import reactor.core.publisher.Flux;
+
+public interface CustomerExposureRepository extends ReactiveMongoRepository<CustomerExposure, String>, CustomerExposureRepositoryCustom {
+  
+  @Query(value = "{ customerId: ?0 }", sort = "{ creditType: 1 }")
+  Flux<CustomerExposure> findAllByCustomerId(String customerId);
+  
+  /*
+   * Portfolio totals per credit type, one group per type whatever the number of customers.
+   */
+  @Aggregation(pipeline = {
+      "{ $group: { _id: '$creditType', customers: { $sum: 1 }, credits: { $sum: '$credits' },"
+          + " limit: { $sum: '$limit' }, used: { $sum: '$used' }, available: { $sum: '$available' } }}",
+      "{ $project: { _id: 0, creditType: '$_id', customers: 1, credits: 1, limit: 1, used: 1, available: 1 }}",
+      "{ $sort: { creditType: 1 }}"
+  })
+  Flux<PortfolioExposureDTO> getPortfolio();
+}
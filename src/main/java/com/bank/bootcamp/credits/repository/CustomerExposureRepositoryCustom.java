@@ -0,0 +1,13 @@
+package com.bank.bootcamp.credits.repository;
+
+import com.bank.bootcamp.credits.entity.CustomerExposure;
+import reactor.core.publisher.Mono;
+
+public interface CustomerExposureRepositoryCustom {
+  
+  /*
+   * Replaces the exposure unless the stored one was computed at a later checkpoint, in which case it returns empty.
+   * A slower concurrent refresh cannot overwrite a newer exposure.
+   */
+  Mono<CustomerExposure> saveIfNewer(CustomerExposure exposure);
+}
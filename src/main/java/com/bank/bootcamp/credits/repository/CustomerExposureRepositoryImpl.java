@@ -0,0 +1,27 @@
+package com.bank.bootcamp.credits.repository;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import com.bank.bootcamp.credits.entity.CustomerExposure;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+@RequiredArgsConstructor
+public class CustomerExposureRepositoryImpl implements CustomerExposureRepositoryCustom {
+  
+  private final ReactiveMongoTemplate mongoTemplate;
+  
+  /*
+   * Upsert: when the exposure exists but the condition does not match, the insert fails on _id and nothing is replaced.
+   */
+  @Override
+  public Mono<CustomerExposure> saveIfNewer(CustomerExposure exposure) {
+    var query = Query.query(where("_id").is(exposure.getId()).and("checkpoint").not().gt(exposure.getCheckpoint()));
+    return mongoTemplate.findAndReplace(query, exposure, FindAndReplaceOptions.options().upsert().returnNew())
+        .onErrorResume(DuplicateKeyException.class, e -> Mono.empty());
+  }
+
+}
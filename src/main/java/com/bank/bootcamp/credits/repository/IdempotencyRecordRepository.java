@@ -0,0 +1,7 @@
+package com.bank.bootcamp.credits.repository;
+
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import com.bank.bootcamp.credits.entity.IdempotencyRecord;
+
+public interface IdempotencyRecordRepository extends ReactiveMongoRepository<IdempotencyRecord, String> {
+}
@@ -0,0 +1,13 @@
+package com.bank.bootcamp.credits.repository;
+
+import java.time.LocalDate;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import com.bank.bootcamp.credits.entity.LedgerRollup;
+import reactor.core.publisher.Flux;
+
+public interface LedgerRollupRepository extends ReactiveMongoRepository<LedgerRollup, String>, LedgerRollupRepositoryCustom {
+  
+  @Query(value = "{ creditId: ?0, day: { $gte: ?1, $lte: ?2 } }", sort = "{ day: 1 }")
+  Flux<LedgerRollup> findAllByCreditIdAndDayBetween(String creditId, LocalDate from, LocalDate to);
+}
@@ -0,0 +1,13 @@
+package com.bank.bootcamp.credits.repository;
+
+import com.bank.bootcamp.credits.entity.LedgerRollup;
+import reactor.core.publisher.Mono;
+
+public interface LedgerRollupRepositoryCustom {
+  
+  /*
+   * Replaces the rollup of the day unless the stored one was computed up to the same or a later checkpoint,
+   * in which case it returns empty. A slower concurrent run cannot overwrite a newer rollup.
+   */
+  Mono<LedgerRollup> saveIfNewer(LedgerRollup rollup);
+}
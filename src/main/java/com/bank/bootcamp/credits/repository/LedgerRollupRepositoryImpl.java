@@ -0,0 +1,27 @@
+package com.bank.bootcamp.credits.repository;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import com.bank.bootcamp.credits.entity.LedgerRollup;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+@RequiredArgsConstructor
+public class LedgerRollupRepositoryImpl implements LedgerRollupRepositoryCustom {
+  
+  private final ReactiveMongoTemplate mongoTemplate;
+  
+  /*
+   * Upsert: when the rollup exists but the condition does not match, the insert fails on _id and nothing is replaced.
+   */
+  @Override
+  public Mono<LedgerRollup> saveIfNewer(LedgerRollup rollup) {
+    var query = Query.query(where("_id").is(rollup.getId()).and("checkpoint").not().gte(rollup.getCheckpoint()));
+    return mongoTemplate.findAndReplace(query, rollup, FindAndReplaceOptions.options().upsert().returnNew())
+        .onErrorResume(DuplicateKeyException.class, e -> Mono.empty());
+  }
+
+}
@@ -0,0 +1,43 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Objects;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
+import com.bank.bootcamp.credits.entity.ArchivedConsumptiom;
+import com.bank.bootcamp.credits.repository.ArchivedConsumptiomRepository;
+import reactor.core.publisher.Flux;
+
+public class InMemoryArchivedConsumptiomRepository extends InMemoryReactiveRepository<ArchivedConsumptiom> implements ArchivedConsumptiomRepository {
+  
+  private static final Comparator<ArchivedConsumptiom> BY_DATE_AND_ID = Comparator
+      .comparing(ArchivedConsumptiom::getRegisterDate).thenComparing(ArchivedConsumptiom::getId);
+  
+  public InMemoryArchivedConsumptiomRepository() {
+    super(ArchivedConsumptiom::getId, ArchivedConsumptiom::setId);
+  }
+  
+  private Flux<ArchivedConsumptiom> findAllByCreditId(String creditId) {
+    return findAll().filter(consumptiom -> Objects.equals(consumptiom.getCreditId(), creditId));
+  }
+  
+  @Override
+  public Flux<ArchivedConsumptiom> findPageByCreditIdBefore(String creditId, LocalDateTime registerDate, ObjectId id, Pageable pageable) {
+    return findAllByCreditId(creditId)
+        .filter(consumptiom -> consumptiom.getRegisterDate().isBefore(registerDate)
+            || (consumptiom.getRegisterDate().isEqual(registerDate) && consumptiom.getId().compareTo(id.toHexString()) < 0))
+        .sort(BY_DATE_AND_ID.reversed())
+        .take(pageable.getPageSize());
+  }
+  
+  @Override
+  public Flux<ArchivedConsumptiom> findPageByCreditId(String creditId, Pageable pageable) {
+    return findAllByCreditId(creditId).sort(BY_DATE_AND_ID.reversed()).take(pageable.getPageSize());
+  }
+  
+  @Override
+  public Flux<ArchivedConsumptiom> streamByCreditId(String creditId) {
+    return findAllByCreditId(creditId).sort(BY_DATE_AND_ID);
+  }
+}
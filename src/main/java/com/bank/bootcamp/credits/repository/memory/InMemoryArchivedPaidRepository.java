@@ -0,0 +1,43 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Objects;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
+import com.bank.bootcamp.credits.entity.ArchivedPaid;
+import com.bank.bootcamp.credits.repository.ArchivedPaidRepository;
+import reactor.core.publisher.Flux;
+
+public class InMemoryArchivedPaidRepository extends InMemoryReactiveRepository<ArchivedPaid> implements ArchivedPaidRepository {
+  
+  private static final Comparator<ArchivedPaid> BY_DATE_AND_ID = Comparator
+      .comparing(ArchivedPaid::getCreatedDate).thenComparing(ArchivedPaid::getId);
+  
+  public InMemoryArchivedPaidRepository() {
+    super(ArchivedPaid::getId, ArchivedPaid::setId);
+  }
+  
+  private Flux<ArchivedPaid> findAllByCreditId(String creditId) {
+    return findAll().filter(paid -> Objects.equals(paid.getCreditId(), creditId));
+  }
+  
+  @Override
+  public Flux<ArchivedPaid> findPageByCreditIdBefore(String creditId, LocalDateTime createdDate, ObjectId id, Pageable pageable) {
+    return findAllByCreditId(creditId)
+        .filter(paid -> paid.getCreatedDate().isBefore(createdDate)
+            || (paid.getCreatedDate().isEqual(createdDate) && paid.getId().compareTo(id.toHexString()) < 0))
+        .sort(BY_DATE_AND_ID.reversed())
+        .take(pageable.getPageSize());
+  }
+  
+  @Override
+  public Flux<ArchivedPaid> findPageByCreditId(String creditId, Pageable pageable) {
+    return findAllByCreditId(creditId).sort(BY_DATE_AND_ID.reversed()).take(pageable.getPageSize());
+  }
+  
+  @Override
+  public Flux<ArchivedPaid> streamByCreditId(String creditId) {
+    return findAllByCreditId(creditId).sort(BY_DATE_AND_ID);
+  }
+}
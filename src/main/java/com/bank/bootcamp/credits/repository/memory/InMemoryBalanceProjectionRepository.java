@@ -0,0 +1,37 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import com.bank.bootcamp.credits.entity.BalanceProjection;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.repository.BalanceProjectionRepository;
+import reactor.core.publisher.Mono;
+
+public class InMemoryBalanceProjectionRepository extends InMemoryReactiveRepository<BalanceProjection> implements BalanceProjectionRepository {
+  
+  public InMemoryBalanceProjectionRepository() {
+    super(BalanceProjection::getCreditId, BalanceProjection::setCreditId);
+  }
+  
+  @Override
+  public Mono<BalanceProjection> addMovement(String creditId, long consumptiom, long paid, LocalDateTime ingestedDate, long eventTime) {
+    return Mono.fromSupplier(() -> {
+      var updated = new BalanceProjection[1];
+      store.compute(creditId, (id, projection) -> {
+        if (projection != null && (projection.getLastEventTime() >= eventTime
+            || projection.getCheckpoint() != null && !projection.getCheckpoint().isBefore(ingestedDate)))
+          return projection;
+        var copy = new BalanceProjection();
+        copy.setCreditId(creditId);
+        copy.setConsumptiomTotal((projection == null ? BigDecimal.ZERO : projection.getConsumptiomTotal()).add(Money.toDecimal(consumptiom)));
+        copy.setPaidTotal((projection == null ? BigDecimal.ZERO : projection.getPaidTotal()).add(Money.toDecimal(paid)));
+        copy.setCheckpoint(projection == null ? null : projection.getCheckpoint());
+        copy.setLastEventTime(eventTime);
+        copy.setUpdatedDate(LocalDateTime.now());
+        updated[0] = copy;
+        return copy;
+      });
+      return updated[0];
+    });
+  }
+}
@@ -0,0 +1,11 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import com.bank.bootcamp.credits.entity.BalanceSnapshot;
+import com.bank.bootcamp.credits.repository.BalanceSnapshotRepository;
+
+public class InMemoryBalanceSnapshotRepository extends InMemoryReactiveRepository<BalanceSnapshot> implements BalanceSnapshotRepository {
+  
+  public InMemoryBalanceSnapshotRepository() {
+    super(BalanceSnapshot::getCreditId, BalanceSnapshot::setCreditId);
+  }
+}
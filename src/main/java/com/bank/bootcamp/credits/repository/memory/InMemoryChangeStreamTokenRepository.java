@@ -0,0 +1,11 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import com.bank.bootcamp.credits.entity.ChangeStreamToken;
+import com.bank.bootcamp.credits.repository.ChangeStreamTokenRepository;
+
+public class InMemoryChangeStreamTokenRepository extends InMemoryReactiveRepository<ChangeStreamToken> implements ChangeStreamTokenRepository {
+  
+  public InMemoryChangeStreamTokenRepository() {
+    super(ChangeStreamToken::getId, ChangeStreamToken::setId);
+  }
+}
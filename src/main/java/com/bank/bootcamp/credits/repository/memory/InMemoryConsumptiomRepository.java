@@ -0,0 +1,115 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.function.Consumer;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
+import com.bank.bootcamp.credits.dto.CreditTotalDTO;
+import com.bank.bootcamp.credits.dto.LedgerDayDTO;
+import com.bank.bootcamp.credits.dto.LedgerTotalDTO;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.repository.ConsumptiomRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public class InMemoryConsumptiomRepository extends InMemoryLedgerRepository<Consumptiom> implements ConsumptiomRepository {
+  
+  public InMemoryConsumptiomRepository() {
+    this(consumptiom -> {});
+  }
+  
+  /*
+   * Inserts are recorded on the change stream, as the balance projection listens to it.
+   */
+  public InMemoryConsumptiomRepository(InMemoryLedgerChangeStream ledgerChangeStream) {
+    this((Consumer<Consumptiom>) ledgerChangeStream::record);
+  }
+  
+  private InMemoryConsumptiomRepository(Consumer<Consumptiom> onInsert) {
+    super(Consumptiom::getId, Consumptiom::setId, InMemoryConsumptiomRepository::copy,
+        Consumptiom::getCreditId, Consumptiom::getRegisterDate, Consumptiom::getIngestedDate, Consumptiom::getAmount, onInsert);
+  }
+  
+  private static Consumptiom copy(Consumptiom consumptiom) {
+    var copy = new Consumptiom();
+    copy.setId(consumptiom.getId());
+    copy.setCreditId(consumptiom.getCreditId());
+    copy.setAmount(consumptiom.getAmount());
+    copy.setRegisterDate(consumptiom.getRegisterDate());
+    copy.setIngestedDate(consumptiom.getIngestedDate());
+    return copy;
+  }
+  
+  @Override
+  public Flux<Consumptiom> findAllByCreditId(String creditId) {
+    return findAllByCredit(creditId);
+  }
+  
+  @Override
+  public Mono<BigDecimal> getSumByCreditId(String creditId) {
+    return sumByCredit(creditId);
+  }
+  
+  @Override
+  public Flux<CreditTotalDTO> getSumsByCreditIds(Collection<String> creditIds) {
+    return sumsByCredits(creditIds);
+  }
+  
+  @Override
+  public Mono<BigDecimal> getSumByCreditIdUpTo(String creditId, LocalDateTime upTo) {
+    return sumByCreditUpTo(creditId, upTo);
+  }
+  
+  @Override
+  public Mono<BigDecimal> getSumByCreditIdBetween(String creditId, LocalDateTime after, LocalDateTime upTo) {
+    return sumByCreditBetween(creditId, after, upTo);
+  }
+  
+  @Override
+  public Mono<BigDecimal> getSumByCreditIdAfter(String creditId, LocalDateTime after) {
+    return sumByCreditAfter(creditId, after);
+  }
+  
+  @Override
+  public Flux<Consumptiom> findPageByCreditIdBefore(String creditId, LocalDateTime registerDate, ObjectId id, Pageable pageable) {
+    return pageByCredit(creditId, registerDate, id.toHexString(), pageable.getPageSize());
+  }
+  
+  @Override
+  public Flux<Consumptiom> findPageByCreditId(String creditId, Pageable pageable) {
+    return pageByCredit(creditId, null, null, pageable.getPageSize());
+  }
+  
+  @Override
+  public Flux<Consumptiom> streamByCreditId(String creditId) {
+    return findAllByCredit(creditId);
+  }
+  
+  @Override
+  public Flux<LedgerDayDTO> getDaysBetween(LocalDateTime after, LocalDateTime upTo, String zone) {
+    return daysBetween(after, upTo, zone);
+  }
+  
+  @Override
+  public Mono<Consumptiom> findFirstByOrderByIngestedDateAsc() {
+    return findOldest();
+  }
+  
+  @Override
+  public Mono<LedgerTotalDTO> getDailyTotal(String creditId, LocalDateTime dayStart, LocalDateTime nextDayStart, LocalDateTime after,
+      LocalDateTime upTo) {
+    return dailyTotal(creditId, dayStart, nextDayStart, after, upTo);
+  }
+  
+  @Override
+  public Flux<Consumptiom> streamByCreditIdBetween(String creditId, LocalDateTime from, LocalDateTime to) {
+    return streamByCreditBetween(creditId, from, to);
+  }
+  
+  @Override
+  public Flux<Consumptiom> findArchivableByCreditId(String creditId, LocalDateTime before, Pageable pageable) {
+    return oldestByCreditBefore(creditId, before, pageable.getPageSize());
+  }
+}
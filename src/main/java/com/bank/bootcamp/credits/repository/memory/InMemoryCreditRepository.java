@@ -0,0 +1,203 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import com.bank.bootcamp.credits.dto.ExposureTotalDTO;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.repository.CreditRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * Keeps the indexes of Credit: customerId_creditType as sets of ids and the unique cardNumber.
+ * save follows @Version like MongoDB: a null version inserts (DuplicateKeyException on a taken id),
+ * otherwise the stored version must match (OptimisticLockingFailureException) and is incremented.
+ */
+public class InMemoryCreditRepository extends InMemoryReactiveRepository<Credit> implements CreditRepository {
+  
+  private final Map<List<Object>, Set<String>> byCustomerAndType = new ConcurrentHashMap<>();
+  private final Map<String, String> byCardNumber = new ConcurrentHashMap<>();
+  
+  public InMemoryCreditRepository() {
+    super(Credit::getId, Credit::setId, InMemoryCreditRepository::copy);
+  }
+  
+  private static List<Object> customerAndType(Credit credit) {
+    return Arrays.asList(credit.getCustomerId(), credit.getCreditType());
+  }
+  
+  @Override
+  protected void stored(Credit previous, Credit current) {
+    if (current != null && current.getCardNumber() != null) {
+      var owner = byCardNumber.putIfAbsent(current.getCardNumber(), current.getId());
+      if (owner != null && !owner.equals(current.getId()))
+        throw new DuplicateKeyException("Duplicate cardNumber " + current.getCardNumber());
+    }
+    if (previous != null) {
+      if (previous.getCardNumber() != null && (current == null || !previous.getCardNumber().equals(current.getCardNumber())))
+        byCardNumber.remove(previous.getCardNumber(), previous.getId());
+      if (current == null || !customerAndType(previous).equals(customerAndType(current)))
+        byCustomerAndType.getOrDefault(customerAndType(previous), Set.of()).remove(previous.getId());
+    }
+    if (current != null)
+      byCustomerAndType.computeIfAbsent(customerAndType(current), key -> ConcurrentHashMap.newKeySet()).add(current.getId());
+  }
+  
+  @Override
+  protected void cleared() {
+    byCustomerAndType.clear();
+    byCardNumber.clear();
+  }
+  
+  @Override
+  public <S extends Credit> Mono<S> save(S credit) {
+    if (credit.getVersion() == null)
+      return insert(credit);
+    return Mono.fromSupplier(() -> {
+      var document = copy(credit);
+      document.setVersion(credit.getVersion() + 1);
+      store.compute(credit.getId(), (id, previous) -> {
+        if (previous == null || !Objects.equals(previous.getVersion(), credit.getVersion()))
+          throw new OptimisticLockingFailureException("Credit " + id + " is not at version " + credit.getVersion());
+        stored(previous, document);
+        return document;
+      });
+      credit.setVersion(document.getVersion());
+      return credit;
+    });
+  }
+  
+  @Override
+  public <S extends Credit> Mono<S> insert(S credit) {
+    return Mono.defer(() -> {
+      if (credit.getVersion() == null)
+        credit.setVersion(0L);
+      return super.insert(credit);
+    });
+  }
+  
+  @Override
+  public Flux<Credit> findAllByCustomerIdAndCreditType(String customerId, CreditType creditType) {
+    return Flux.defer(() -> Flux.fromIterable(byCustomerAndType.getOrDefault(Arrays.asList(customerId, creditType), Set.of())))
+        .mapNotNull(store::get)
+        .filter(credit -> Objects.equals(credit.getCustomerId(), customerId) && credit.getCreditType() == creditType)
+        .map(this::detached);
+  }
+  
+  @Override
+  public Flux<Credit> findChangedSince(LocalDateTime since) {
+    return findAll().filter(credit -> credit.getUpdatedDate() != null && credit.getUpdatedDate().isAfter(since));
+  }
+  
+  @Override
+  public Flux<ExposureTotalDTO> getExposures() {
+    return Flux.defer(() -> Flux.fromIterable(byCustomerAndType.keySet()))
+        .concatMap(key -> getExposure((String) key.get(0), (CreditType) key.get(1)));
+  }
+  
+  /*
+   * Empty when the customer has no credit of the type, like a $group without input.
+   */
+  @Override
+  public Mono<ExposureTotalDTO> getExposure(String customerId, CreditType creditType) {
+    return findAllByCustomerIdAndCreditType(customerId, creditType)
+        .collectList()
+        .filter(credits -> !credits.isEmpty())
+        .map(credits -> {
+          var total = new ExposureTotalDTO();
+          total.setCustomerId(customerId);
+          total.setCreditType(creditType);
+          total.setLimit(BigDecimal.ZERO);
+          total.setUsed(BigDecimal.ZERO);
+          total.setAvailable(BigDecimal.ZERO);
+          for (var credit : credits) {
+            total.setCredits(total.getCredits() + 1);
+            if (credit.getUsed() == null)
+              total.setLegacyCredits(total.getLegacyCredits() + 1);
+            total.setLimit(total.getLimit().add(orZero(credit.getLimit())));
+            total.setUsed(total.getUsed().add(orZero(credit.getUsed())));
+            total.setAvailable(total.getAvailable().add(orZero(credit.getAvailable())));
+          }
+          return total;
+        });
+  }
+  
+  @Override
+  public Mono<Credit> addUsed(String creditId, long amount) {
+    return Mono.fromSupplier(() -> store.computeIfPresent(creditId, (id, credit) -> withUsed(credit, amount))).map(this::detached);
+  }
+  
+  @Override
+  public Mono<Credit> reserveCredit(String creditId, long amount) {
+    return Mono.fromSupplier(() -> {
+      var reserved = new Credit[1];
+      store.computeIfPresent(creditId, (id, credit) -> {
+        if (credit.getAvailable() == null || credit.getAvailable().compareTo(Money.toDecimal(amount)) < 0)
+          return credit;
+        reserved[0] = withUsed(credit, amount);
+        return reserved[0];
+      });
+      return reserved[0];
+    }).map(this::detached);
+  }
+  
+  @Override
+  public Mono<Credit> updateBalance(String creditId, long used, Long expectedVersion) {
+    return Mono.fromSupplier(() -> {
+      var updated = new Credit[1];
+      store.computeIfPresent(creditId, (id, credit) -> {
+        if (!Objects.equals(credit.getVersion(), expectedVersion))
+          return credit;
+        updated[0] = withBalance(credit, Money.toDecimal(used), credit.getLimit().subtract(Money.toDecimal(used)));
+        return updated[0];
+      });
+      return updated[0];
+    }).map(this::detached);
+  }
+  
+  /*
+   * $inc of used and available, a missing field counts as 0.
+   */
+  private Credit withUsed(Credit credit, long amount) {
+    var delta = Money.toDecimal(amount);
+    return withBalance(credit, orZero(credit.getUsed()).add(delta), orZero(credit.getAvailable()).subtract(delta));
+  }
+  
+  private static BigDecimal orZero(BigDecimal value) {
+    return value == null ? BigDecimal.ZERO : value;
+  }
+  
+  private static Credit withBalance(Credit credit, BigDecimal used, BigDecimal available) {
+    var copy = copy(credit);
+    copy.setUsed(used);
+    copy.setAvailable(available);
+    copy.setUpdatedDate(LocalDateTime.now());
+    copy.setVersion(credit.getVersion() == null ? 1L : credit.getVersion() + 1);
+    return copy;
+  }
+  
+  private static Credit copy(Credit credit) {
+    var copy = new Credit();
+    copy.setId(credit.getId());
+    copy.setCreditType(credit.getCreditType());
+    copy.setCustomerId(credit.getCustomerId());
+    copy.setLimit(credit.getLimit());
+    copy.setCardNumber(credit.getCardNumber());
+    copy.setRegisterDate(credit.getRegisterDate());
+    copy.setUsed(credit.getUsed());
+    copy.setAvailable(credit.getAvailable());
+    copy.setUpdatedDate(credit.getUpdatedDate());
+    copy.setVersion(credit.getVersion());
+    return copy;
+  }
+}
@@ -0,0 +1,63 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import com.bank.bootcamp.credits.dto.PortfolioExposureDTO;
+import com.bank.bootcamp.credits.entity.CustomerExposure;
+import com.bank.bootcamp.credits.repository.CustomerExposureRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public class InMemoryCustomerExposureRepository extends InMemoryReactiveRepository<CustomerExposure> implements CustomerExposureRepository {
+  
+  public InMemoryCustomerExposureRepository() {
+    super(CustomerExposure::getId, CustomerExposure::setId);
+  }
+  
+  @Override
+  public Flux<CustomerExposure> findAllByCustomerId(String customerId) {
+    return findAll()
+        .filter(exposure -> exposure.getCustomerId().equals(customerId))
+        .sort(Comparator.comparing(exposure -> exposure.getCreditType().name()));
+  }
+  
+  /*
+   * Sorted by the name of the credit type, as MongoDB sorts the stored strings.
+   */
+  @Override
+  public Flux<PortfolioExposureDTO> getPortfolio() {
+    return findAll()
+        .collect(TreeMap<String, PortfolioExposureDTO>::new, (totals, exposure) -> {
+          var total = totals.computeIfAbsent(exposure.getCreditType().name(), name -> {
+            var portfolio = new PortfolioExposureDTO();
+            portfolio.setCreditType(exposure.getCreditType());
+            portfolio.setLimit(BigDecimal.ZERO);
+            portfolio.setUsed(BigDecimal.ZERO);
+            portfolio.setAvailable(BigDecimal.ZERO);
+            return portfolio;
+          });
+          total.setCustomers(total.getCustomers() + 1);
+          total.setCredits(total.getCredits() + exposure.getCredits());
+          total.setLimit(total.getLimit().add(exposure.getLimit()));
+          total.setUsed(total.getUsed().add(exposure.getUsed()));
+          total.setAvailable(total.getAvailable().add(exposure.getAvailable()));
+        })
+        .flatMapIterable(Map::values);
+  }
+  
+  @Override
+  public Mono<CustomerExposure> saveIfNewer(CustomerExposure exposure) {
+    return Mono.fromSupplier(() -> {
+      var saved = new CustomerExposure[1];
+      store.compute(exposure.getId(), (id, stored) -> {
+        if (stored != null && stored.getCheckpoint().isAfter(exposure.getCheckpoint()))
+          return stored;
+        saved[0] = exposure;
+        return exposure;
+      });
+      return saved[0];
+    });
+  }
+}
@@ -0,0 +1,11 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import com.bank.bootcamp.credits.entity.IdempotencyRecord;
+import com.bank.bootcamp.credits.repository.IdempotencyRecordRepository;
+
+public class InMemoryIdempotencyRecordRepository extends InMemoryReactiveRepository<IdempotencyRecord> implements IdempotencyRecordRepository {
+  
+  public InMemoryIdempotencyRecordRepository() {
+    super(IdempotencyRecord::getId, IdempotencyRecord::setId);
+  }
+}
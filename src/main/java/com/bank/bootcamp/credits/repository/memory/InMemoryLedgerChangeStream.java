@@ -0,0 +1,68 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.BsonTimestamp;
+import com.bank.bootcamp.credits.entity.ChangeStreamToken;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.projection.LedgerChangeStream;
+import com.bank.bootcamp.credits.projection.LedgerEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+/*
+ * Stand-in of the oplog of a single node replica set: every recorded insert gets an increasing cluster time
+ * (taken from its ingestedDate, as it is written right away) and a resume token, and listen replays from a position.
+ * complete() ends the stream for its current and later listeners, like a node going down, until reopen().
+ */
+public class InMemoryLedgerChangeStream implements LedgerChangeStream {
+  
+  private final List<LedgerEvent> oplog = new ArrayList<>();
+  private Sinks.Many<LedgerEvent> live = Sinks.many().replay().all();
+  
+  public synchronized void record(Consumptiom consumptiom) {
+    var event = next(consumptiom.getCreditId(), consumptiom.getIngestedDate());
+    event.setConsumptiom(Money.toMinor(consumptiom.getAmount()));
+    append(event);
+  }
+  
+  public synchronized void record(Paid paid) {
+    var event = next(paid.getCreditId(), paid.getIngestedDate());
+    event.setPaid(Money.toMinor(paid.getAmount()));
+    append(event);
+  }
+  
+  public synchronized void complete() {
+    live.tryEmitComplete();
+  }
+  
+  public synchronized void reopen() {
+    live = Sinks.many().replay().all();
+    oplog.forEach(live::tryEmitNext);
+  }
+  
+  private LedgerEvent next(String creditId, LocalDateTime ingestedDate) {
+    var clusterTime = new BsonTimestamp((int) ingestedDate.atZone(ZoneId.systemDefault()).toEpochSecond(), 0).getValue();
+    var event = new LedgerEvent();
+    event.setCreditId(creditId);
+    event.setIngestedDate(ingestedDate);
+    event.setEventTime(oplog.isEmpty() ? clusterTime : Math.max(clusterTime, oplog.get(oplog.size() - 1).getEventTime() + 1));
+    event.setResumeToken(String.valueOf(event.getEventTime()));
+    return event;
+  }
+  
+  private void append(LedgerEvent event) {
+    oplog.add(event);
+    live.tryEmitNext(event);
+  }
+  
+  @Override
+  public synchronized Flux<LedgerEvent> listen(ChangeStreamToken position) {
+    var after = position.getResumeToken() == null ? position.getStartAt() - 1 : Long.parseLong(position.getResumeToken());
+    return live.asFlux().filter(event -> event.getEventTime() > after);
+  }
+}
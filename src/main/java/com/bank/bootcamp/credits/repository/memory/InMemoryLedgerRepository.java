@@ -0,0 +1,302 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import com.bank.bootcamp.credits.dto.CreditTotalDTO;
+import com.bank.bootcamp.credits.dto.LedgerDayDTO;
+import com.bank.bootcamp.credits.dto.LedgerTotalDTO;
+import com.bank.bootcamp.credits.money.Money;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * Consumptioms or Paids grouped per credit, the in-memory counterpart of the creditId_date_id index.
+ * Each credit keeps its movements in a skip list ordered by (date, id) next to running sums in minor units
+ * (LongAdders, cheap under contention on a hot card), so the total of a credit is O(1) and a date range is one
+ * range scan of that credit. A second skip list orders the same movements by (ingestedDate, id), the creditId_ingestedDate
+ * index, for the sums of the snapshots; a movement without ingestedDate is left out of it, as MongoDB's range matches do.
+ * Writers never lock the readers; a reader racing a write sees it or not, like on MongoDB.
+ */
+public abstract class InMemoryLedgerRepository<T> extends InMemoryReactiveRepository<T> {
+  
+  private final Function<T, String> idGetter;
+  private final Function<T, String> creditIdGetter;
+  private final Function<T, LocalDateTime> dateGetter;
+  private final Function<T, LocalDateTime> ingestedDateGetter;
+  private final Function<T, BigDecimal> amountGetter;
+  private final Consumer<T> onInsert;
+  private final Map<String, CreditLedger<T>> credits = new ConcurrentHashMap<>();
+  
+  protected InMemoryLedgerRepository(Function<T, String> idGetter, BiConsumer<T, String> idSetter, UnaryOperator<T> copier,
+      Function<T, String> creditIdGetter, Function<T, LocalDateTime> dateGetter, Function<T, LocalDateTime> ingestedDateGetter,
+      Function<T, BigDecimal> amountGetter, Consumer<T> onInsert) {
+    super(idGetter, idSetter, copier);
+    this.idGetter = idGetter;
+    this.creditIdGetter = creditIdGetter;
+    this.dateGetter = dateGetter;
+    this.ingestedDateGetter = ingestedDateGetter;
+    this.amountGetter = amountGetter;
+    this.onInsert = onInsert;
+  }
+  
+  @Override
+  protected void stored(T previous, T current) {
+    if (previous != null && creditIdGetter.apply(previous) != null)
+      credits.get(creditIdGetter.apply(previous)).remove(key(previous), ingestedKey(previous), minor(previous));
+    if (current != null && creditIdGetter.apply(current) != null)
+      credits.computeIfAbsent(creditIdGetter.apply(current), creditId -> new CreditLedger<>()).add(key(current), ingestedKey(current), current, minor(current));
+    if (previous == null && current != null)
+      onInsert.accept(current);
+  }
+  
+  @Override
+  protected void cleared() {
+    credits.clear();
+  }
+  
+  private Key key(T movement) {
+    return new Key(dateGetter.apply(movement), idGetter.apply(movement), 0);
+  }
+  
+  private Key ingestedKey(T movement) {
+    var ingestedDate = ingestedDateGetter.apply(movement);
+    return ingestedDate == null ? null : new Key(ingestedDate, idGetter.apply(movement), 0);
+  }
+  
+  private long minor(T movement) {
+    var amount = amountGetter.apply(movement);
+    return amount == null ? 0L : Money.toMinor(amount);
+  }
+  
+  /*
+   * Movements of the credit with from <= key <= to in (date, id) order, null bounds are open.
+   */
+  private NavigableMap<Key, T> range(String creditId, Key from, Key to) {
+    var ledger = credits.get(creditId);
+    return ledger == null ? new ConcurrentSkipListMap<>() : range(ledger.movements, from, to);
+  }
+  
+  /*
+   * The same on the (ingestedDate, id) order.
+   */
+  private NavigableMap<Key, T> ingestedRange(String creditId, Key from, Key to) {
+    var ledger = credits.get(creditId);
+    return ledger == null ? new ConcurrentSkipListMap<>() : range(ledger.ingested, from, to);
+  }
+  
+  private static <T> NavigableMap<Key, T> range(ConcurrentSkipListMap<Key, T> movements, Key from, Key to) {
+    if (from == null && to == null)
+      return movements;
+    if (from == null)
+      return movements.headMap(to, true);
+    if (to == null)
+      return movements.tailMap(from, true);
+    return from.compareTo(to) > 0 ? new ConcurrentSkipListMap<>() : movements.subMap(from, true, to, true);
+  }
+  
+  private Mono<BigDecimal> sum(NavigableMap<Key, T> movements) {
+    return Mono.fromSupplier(() -> {
+      if (movements.isEmpty())
+        return null;
+      var total = 0L;
+      for (var movement : movements.values())
+        total += minor(movement);
+      return Money.toDecimal(total);
+    });
+  }
+  
+  protected Flux<T> findAllByCredit(String creditId) {
+    return Flux.defer(() -> Flux.fromIterable(range(creditId, null, null).values())).map(this::detached);
+  }
+  
+  /*
+   * The running total, no scan.
+   */
+  protected Mono<BigDecimal> sumByCredit(String creditId) {
+    return Mono.fromSupplier(() -> {
+      var ledger = credits.get(creditId);
+      return ledger == null || ledger.count.sum() == 0 ? null : Money.toDecimal(ledger.total.sum());
+    });
+  }
+  
+  protected Flux<CreditTotalDTO> sumsByCredits(Collection<String> creditIds) {
+    return Flux.fromIterable(new LinkedHashSet<>(creditIds))
+        .flatMap(creditId -> sumByCredit(creditId).map(total -> {
+          var creditTotal = new CreditTotalDTO();
+          creditTotal.setId(creditId);
+          creditTotal.setTotal(total);
+          return creditTotal;
+        }));
+  }
+  
+  protected Mono<BigDecimal> sumByCreditUpTo(String creditId, LocalDateTime upTo) {
+    return Mono.defer(() -> sum(ingestedRange(creditId, null, Key.highest(upTo))));
+  }
+  
+  protected Mono<BigDecimal> sumByCreditBetween(String creditId, LocalDateTime after, LocalDateTime upTo) {
+    return Mono.defer(() -> sum(ingestedRange(creditId, Key.highest(after), Key.highest(upTo))));
+  }
+  
+  protected Mono<BigDecimal> sumByCreditAfter(String creditId, LocalDateTime after) {
+    return Mono.defer(() -> sum(ingestedRange(creditId, Key.highest(after), null)));
+  }
+  
+  /*
+   * Newest first, strictly before (date, id) when date is not null.
+   */
+  protected Flux<T> pageByCredit(String creditId, LocalDateTime date, String id, int size) {
+    return Flux.defer(() -> {
+      var movements = date == null ? range(creditId, null, null) : range(creditId, null, new Key(date, id, 0)).headMap(new Key(date, id, 0), false);
+      return Flux.fromIterable(movements.descendingMap().values()).take(size);
+    }).map(this::detached);
+  }
+  
+  protected Flux<T> streamByCreditBetween(String creditId, LocalDateTime from, LocalDateTime to) {
+    return Flux.defer(() -> Flux.fromIterable(range(creditId, Key.lowest(from), Key.lowest(to)).values())).map(this::detached);
+  }
+  
+  protected Flux<T> oldestByCreditBefore(String creditId, LocalDateTime before, int size) {
+    return Flux.defer(() -> Flux.fromIterable(range(creditId, null, Key.lowest(before)).values()))
+        .filter(movement -> ingestedDateGetter.apply(movement) != null && !ingestedDateGetter.apply(movement).isAfter(before))
+        .take(size)
+        .map(this::detached);
+  }
+  
+  protected Flux<LedgerDayDTO> daysBetween(LocalDateTime after, LocalDateTime upTo, String zone) {
+    var zoneId = ZoneId.of(zone);
+    return Flux.defer(() -> Flux.fromIterable(credits.keySet()))
+        .concatMap(creditId -> Flux.fromIterable(ingestedRange(creditId, Key.highest(after), Key.highest(upTo)).values())
+            .map(movement -> toDay(dateGetter.apply(movement), zoneId))
+            .distinct()
+            .map(day -> {
+              var ledgerDay = new LedgerDayDTO();
+              ledgerDay.setCreditId(creditId);
+              ledgerDay.setDay(day.toString());
+              return ledgerDay;
+            }));
+  }
+  
+  /*
+   * LocalDateTimes are stored as instants of the system zone, MongoDB's $dateToString then formats them in zone.
+   */
+  private static LocalDate toDay(LocalDateTime date, ZoneId zone) {
+    return date.atZone(ZoneId.systemDefault()).withZoneSameInstant(zone).toLocalDate();
+  }
+  
+  protected Mono<T> findOldest() {
+    return Mono.fromSupplier(() -> credits.values().stream()
+        .map(ledger -> ledger.ingested.firstEntry())
+        .filter(Objects::nonNull)
+        .min(Map.Entry.comparingByKey())
+        .map(Map.Entry::getValue)
+        .orElse(null))
+        .map(this::detached);
+  }
+  
+  protected Mono<LedgerTotalDTO> dailyTotal(String creditId, LocalDateTime dayStart, LocalDateTime nextDayStart, LocalDateTime after,
+      LocalDateTime upTo) {
+    return Mono.fromSupplier(() -> {
+      var total = 0L;
+      var count = 0L;
+      for (var movement : range(creditId, Key.lowest(dayStart), Key.lowest(nextDayStart)).values()) {
+        var ingestedDate = ingestedDateGetter.apply(movement);
+        if (ingestedDate == null || !ingestedDate.isAfter(after) || ingestedDate.isAfter(upTo))
+          continue;
+        total += minor(movement);
+        count++;
+      }
+      if (count == 0)
+        return null;
+      var dailyTotal = new LedgerTotalDTO();
+      dailyTotal.setTotal(Money.toDecimal(total));
+      dailyTotal.setCount(count);
+      return dailyTotal;
+    });
+  }
+  
+  /*
+   * Position in a credit ledger: (date, id), or a bound placed before (-1) or after (1) every movement of a date.
+   */
+  private static final class Key implements Comparable<Key> {
+    
+    private static final Comparator<LocalDateTime> DATES = Comparator.nullsFirst(Comparator.naturalOrder());
+    
+    private final LocalDateTime date;
+    private final String id;
+    private final int bound;
+    
+    private Key(LocalDateTime date, String id, int bound) {
+      this.date = date;
+      this.id = id;
+      this.bound = bound;
+    }
+    
+    private static Key lowest(LocalDateTime date) {
+      return new Key(date, null, -1);
+    }
+    
+    private static Key highest(LocalDateTime date) {
+      return new Key(date, null, 1);
+    }
+    
+    @Override
+    public int compareTo(Key other) {
+      var byDate = DATES.compare(date, other.date);
+      if (byDate != 0)
+        return byDate;
+      if (bound != 0 || other.bound != 0)
+        return Integer.compare(bound, other.bound);
+      return id.compareTo(other.id);
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Key && compareTo((Key) other) == 0;
+    }
+    
+    @Override
+    public int hashCode() {
+      return Objects.hash(date, id, bound);
+    }
+  }
+  
+  private static final class CreditLedger<T> {
+    
+    private final ConcurrentSkipListMap<Key, T> movements = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Key, T> ingested = new ConcurrentSkipListMap<>();
+    private final LongAdder total = new LongAdder();
+    private final LongAdder count = new LongAdder();
+    
+    private void add(Key key, Key ingestedKey, T movement, long minor) {
+      movements.put(key, movement);
+      if (ingestedKey != null)
+        ingested.put(ingestedKey, movement);
+      total.add(minor);
+      count.increment();
+    }
+    
+    private void remove(Key key, Key ingestedKey, long minor) {
+      if (ingestedKey != null)
+        ingested.remove(ingestedKey);
+      if (movements.remove(key) != null) {
+        total.add(-minor);
+        count.decrement();
+      }
+    }
+  }
+}
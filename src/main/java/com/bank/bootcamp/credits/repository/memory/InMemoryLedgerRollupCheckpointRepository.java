@@ -0,0 +1,11 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import com.bank.bootcamp.credits.entity.LedgerRollupCheckpoint;
+import com.bank.bootcamp.credits.repository.LedgerRollupCheckpointRepository;
+
+public class InMemoryLedgerRollupCheckpointRepository extends InMemoryReactiveRepository<LedgerRollupCheckpoint> implements LedgerRollupCheckpointRepository {
+  
+  public InMemoryLedgerRollupCheckpointRepository() {
+    super(LedgerRollupCheckpoint::getId, LedgerRollupCheckpoint::setId);
+  }
+}
@@ -0,0 +1,36 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+import com.bank.bootcamp.credits.entity.LedgerRollup;
+import com.bank.bootcamp.credits.repository.LedgerRollupRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public class InMemoryLedgerRollupRepository extends InMemoryReactiveRepository<LedgerRollup> implements LedgerRollupRepository {
+  
+  public InMemoryLedgerRollupRepository() {
+    super(LedgerRollup::getId, LedgerRollup::setId);
+  }
+  
+  @Override
+  public Flux<LedgerRollup> findAllByCreditIdAndDayBetween(String creditId, LocalDate from, LocalDate to) {
+    return findAll()
+        .filter(rollup -> rollup.getCreditId().equals(creditId) && !rollup.getDay().isBefore(from) && !rollup.getDay().isAfter(to))
+        .sort(Comparator.comparing(LedgerRollup::getDay));
+  }
+  
+  @Override
+  public Mono<LedgerRollup> saveIfNewer(LedgerRollup rollup) {
+    return Mono.fromSupplier(() -> {
+      var saved = new LedgerRollup[1];
+      store.compute(rollup.getId(), (id, stored) -> {
+        if (stored != null && !stored.getCheckpoint().isBefore(rollup.getCheckpoint()))
+          return stored;
+        saved[0] = rollup;
+        return rollup;
+      });
+      return saved[0];
+    });
+  }
+}
@@ -0,0 +1,115 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.function.Consumer;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
+import com.bank.bootcamp.credits.dto.CreditTotalDTO;
+import com.bank.bootcamp.credits.dto.LedgerDayDTO;
+import com.bank.bootcamp.credits.dto.LedgerTotalDTO;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.repository.PaidRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public class InMemoryPaidRepository extends InMemoryLedgerRepository<Paid> implements PaidRepository {
+  
+  public InMemoryPaidRepository() {
+    this(paid -> {});
+  }
+  
+  /*
+   * Inserts are recorded on the change stream, as the balance projection listens to it.
+   */
+  public InMemoryPaidRepository(InMemoryLedgerChangeStream ledgerChangeStream) {
+    this((Consumer<Paid>) ledgerChangeStream::record);
+  }
+  
+  private InMemoryPaidRepository(Consumer<Paid> onInsert) {
+    super(Paid::getId, Paid::setId, InMemoryPaidRepository::copy,
+        Paid::getCreditId, Paid::getCreatedDate, Paid::getIngestedDate, Paid::getAmount, onInsert);
+  }
+  
+  private static Paid copy(Paid paid) {
+    var copy = new Paid();
+    copy.setId(paid.getId());
+    copy.setCreditId(paid.getCreditId());
+    copy.setAmount(paid.getAmount());
+    copy.setCreatedDate(paid.getCreatedDate());
+    copy.setIngestedDate(paid.getIngestedDate());
+    return copy;
+  }
+  
+  @Override
+  public Flux<Paid> findAllByCreditId(String creditId) {
+    return findAllByCredit(creditId);
+  }
+  
+  @Override
+  public Mono<BigDecimal> getSumByCreditId(String creditId) {
+    return sumByCredit(creditId);
+  }
+  
+  @Override
+  public Flux<CreditTotalDTO> getSumsByCreditIds(Collection<String> creditIds) {
+    return sumsByCredits(creditIds);
+  }
+  
+  @Override
+  public Mono<BigDecimal> getSumByCreditIdUpTo(String creditId, LocalDateTime upTo) {
+    return sumByCreditUpTo(creditId, upTo);
+  }
+  
+  @Override
+  public Mono<BigDecimal> getSumByCreditIdBetween(String creditId, LocalDateTime after, LocalDateTime upTo) {
+    return sumByCreditBetween(creditId, after, upTo);
+  }
+  
+  @Override
+  public Mono<BigDecimal> getSumByCreditIdAfter(String creditId, LocalDateTime after) {
+    return sumByCreditAfter(creditId, after);
+  }
+  
+  @Override
+  public Flux<Paid> findPageByCreditIdBefore(String creditId, LocalDateTime createdDate, ObjectId id, Pageable pageable) {
+    return pageByCredit(creditId, createdDate, id.toHexString(), pageable.getPageSize());
+  }
+  
+  @Override
+  public Flux<Paid> findPageByCreditId(String creditId, Pageable pageable) {
+    return pageByCredit(creditId, null, null, pageable.getPageSize());
+  }
+  
+  @Override
+  public Flux<Paid> streamByCreditId(String creditId) {
+    return findAllByCredit(creditId);
+  }
+  
+  @Override
+  public Flux<LedgerDayDTO> getDaysBetween(LocalDateTime after, LocalDateTime upTo, String zone) {
+    return daysBetween(after, upTo, zone);
+  }
+  
+  @Override
+  public Mono<Paid> findFirstByOrderByIngestedDateAsc() {
+    return findOldest();
+  }
+  
+  @Override
+  public Mono<LedgerTotalDTO> getDailyTotal(String creditId, LocalDateTime dayStart, LocalDateTime nextDayStart, LocalDateTime after,
+      LocalDateTime upTo) {
+    return dailyTotal(creditId, dayStart, nextDayStart, after, upTo);
+  }
+  
+  @Override
+  public Flux<Paid> streamByCreditIdBetween(String creditId, LocalDateTime from, LocalDateTime to) {
+    return streamByCreditBetween(creditId, from, to);
+  }
+  
+  @Override
+  public Flux<Paid> findArchivableByCreditId(String creditId, LocalDateTime before, Pageable pageable) {
+    return oldestByCreditBefore(creditId, before, pageable.getPageSize());
+  }
+}
@@ -0,0 +1,12 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import com.bank.bootcamp.credits.entity.PortfolioExposureCheckpoint;
+import com.bank.bootcamp.credits.repository.PortfolioExposureCheckpointRepository;
+
+public class InMemoryPortfolioExposureCheckpointRepository extends InMemoryReactiveRepository<PortfolioExposureCheckpoint>
+    implements PortfolioExposureCheckpointRepository {
+  
+  public InMemoryPortfolioExposureCheckpointRepository() {
+    super(PortfolioExposureCheckpoint::getId, PortfolioExposureCheckpoint::setId);
+  }
+}
@@ -0,0 +1,220 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.ExampleMatcher.NullHandler;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+import org.springframework.data.repository.query.FluentQuery.ReactiveFluentQuery;
+import org.springframework.data.support.ExampleMatcherAccessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * Query by example and sorting over the documents of an InMemoryReactiveRepository, as MongoDB runs them:
+ *  - the probe matches on its non null properties (nested beans property by property), or on every property with
+ *    NullHandler.INCLUDE, with the string matchers, ignored paths and value transformers of the ExampleMatcher;
+ *  - sorting puts nulls first in ascending order and compares strings ignoring case when the order says so;
+ *  - project only narrows what MongoDB reads, the documents are already in memory so it changes nothing.
+ */
+final class InMemoryQuery<T, R> implements ReactiveFluentQuery<R> {
+  
+  private static final SpelAwareProxyProjectionFactory PROJECTIONS = new SpelAwareProxyProjectionFactory();
+  
+  private final Supplier<Flux<T>> documents;
+  private final Predicate<T> filter;
+  private final Sort sort;
+  private final Function<T, R> mapper;
+  
+  private InMemoryQuery(Supplier<Flux<T>> documents, Predicate<T> filter, Sort sort, Function<T, R> mapper) {
+    this.documents = documents;
+    this.filter = filter;
+    this.sort = sort;
+    this.mapper = mapper;
+  }
+  
+  static <T> InMemoryQuery<T, T> of(Supplier<Flux<T>> documents, Example<? extends T> example) {
+    return new InMemoryQuery<>(documents, matcher(example), Sort.unsorted(), Function.identity());
+  }
+  
+  @Override
+  public ReactiveFluentQuery<R> sortBy(Sort sort) {
+    return new InMemoryQuery<>(documents, filter, this.sort.and(sort), mapper);
+  }
+  
+  @Override
+  public <P> ReactiveFluentQuery<P> as(Class<P> resultType) {
+    return new InMemoryQuery<>(documents, filter, sort, mapper.andThen(result -> project(result, resultType)));
+  }
+  
+  @Override
+  public ReactiveFluentQuery<R> project(Collection<String> properties) {
+    return this;
+  }
+  
+  @Override
+  public Mono<R> one() {
+    return all().take(2).collectList().flatMap(results -> {
+      if (results.size() > 1)
+        return Mono.error(new IncorrectResultSizeDataAccessException(1, results.size()));
+      return Mono.justOrEmpty(results.stream().findFirst());
+    });
+  }
+  
+  @Override
+  public Mono<R> first() {
+    return all().next();
+  }
+  
+  @Override
+  public Flux<R> all() {
+    return find(sort).map(mapper);
+  }
+  
+  @Override
+  public Mono<Page<R>> page(Pageable pageable) {
+    if (pageable.isUnpaged())
+      return all().collectList().map(results -> new PageImpl<>(results, pageable, results.size()));
+    return find(pageable.getSort().isSorted() ? pageable.getSort() : sort)
+        .skip(pageable.getOffset())
+        .take(pageable.getPageSize())
+        .map(mapper)
+        .collectList()
+        .zipWith(count(), (results, total) -> new PageImpl<>(results, pageable, total));
+  }
+  
+  @Override
+  public Mono<Long> count() {
+    return documents.get().filter(filter).count();
+  }
+  
+  @Override
+  public Mono<Boolean> exists() {
+    return documents.get().filter(filter).hasElements();
+  }
+  
+  private Flux<T> find(Sort sort) {
+    var found = documents.get().filter(filter);
+    return sort.isSorted() ? found.sort(comparator(sort)) : found;
+  }
+  
+  @SuppressWarnings("unchecked")
+  private static <S, P> P project(S source, Class<P> resultType) {
+    if (resultType.isInstance(source))
+      return (P) source;
+    if (resultType.isInterface())
+      return PROJECTIONS.createProjection(resultType, source);
+    var result = BeanUtils.instantiateClass(resultType);
+    BeanUtils.copyProperties(source, result);
+    return result;
+  }
+  
+  static <T> Comparator<T> comparator(Sort sort) {
+    Comparator<T> comparator = (left, right) -> 0;
+    for (var order : sort) {
+      Comparator<T> byProperty = (left, right) -> compare(
+          new BeanWrapperImpl(left).getPropertyValue(order.getProperty()),
+          new BeanWrapperImpl(right).getPropertyValue(order.getProperty()),
+          order.isIgnoreCase());
+      comparator = comparator.thenComparing(order.isAscending() ? byProperty : byProperty.reversed());
+    }
+    return comparator;
+  }
+  
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static int compare(Object left, Object right, boolean ignoreCase) {
+    if (left == null || right == null)
+      return left == null ? (right == null ? 0 : -1) : 1;
+    if (ignoreCase && left instanceof String && right instanceof String)
+      return ((String) left).compareToIgnoreCase((String) right);
+    if (left instanceof Comparable && left.getClass().isInstance(right))
+      return ((Comparable) left).compareTo(right);
+    return left.toString().compareTo(right.toString());
+  }
+  
+  private static <T> Predicate<T> matcher(Example<? extends T> example) {
+    var accessor = new ExampleMatcherAccessor(example.getMatcher());
+    var all = example.getMatcher().isAllMatching();
+    var criteria = new ArrayList<Predicate<Object>>();
+    addCriteria(criteria, accessor, example.getProbe(), null, null);
+    if (criteria.isEmpty())
+      return document -> true;
+    return document -> all
+        ? criteria.stream().allMatch(criterion -> criterion.test(document))
+        : criteria.stream().anyMatch(criterion -> criterion.test(document));
+  }
+  
+  /*
+   * One criterion per simple property of the probe, reading the same path of the document.
+   */
+  private static void addCriteria(List<Predicate<Object>> criteria, ExampleMatcherAccessor accessor, Object probe,
+      String prefix, Function<Object, Object> parent) {
+    var wrapper = new BeanWrapperImpl(probe);
+    for (var descriptor : wrapper.getPropertyDescriptors()) {
+      var name = descriptor.getName();
+      var path = prefix == null ? name : prefix + "." + name;
+      if (descriptor.getReadMethod() == null || "class".equals(name) || accessor.isIgnoredPath(path))
+        continue;
+      Function<Object, Object> reader = document -> {
+        var owner = parent == null ? document : parent.apply(document);
+        return owner == null ? null : new BeanWrapperImpl(owner).getPropertyValue(name);
+      };
+      var value = accessor.getValueTransformerForPath(path).apply(Optional.ofNullable(wrapper.getPropertyValue(name))).orElse(null);
+      if (value == null) {
+        if (accessor.getNullHandler() == NullHandler.INCLUDE)
+          criteria.add(document -> reader.apply(document) == null);
+      } else if (BeanUtils.isSimpleValueType(value.getClass())) {
+        criteria.add(valueCriterion(accessor, path, value, reader));
+      } else {
+        addCriteria(criteria, accessor, value, path, reader);
+      }
+    }
+  }
+  
+  private static Predicate<Object> valueCriterion(ExampleMatcherAccessor accessor, String path, Object expected,
+      Function<Object, Object> reader) {
+    if (!(expected instanceof String))
+      return document -> {
+        var actual = reader.apply(document);
+        return actual != null && (expected.getClass().isInstance(actual) ? compare(actual, expected, false) == 0 : actual.equals(expected));
+      };
+    var ignoreCase = accessor.isIgnoreCaseForPath(path);
+    var quoted = Pattern.quote((String) expected);
+    String regex;
+    switch (accessor.getStringMatcherForPath(path)) {
+      case STARTING:
+        regex = "^" + quoted;
+        break;
+      case ENDING:
+        regex = quoted + "$";
+        break;
+      case CONTAINING:
+        regex = quoted;
+        break;
+      case REGEX:
+        regex = (String) expected;
+        break;
+      default:
+        regex = "^" + quoted + "$";
+    }
+    var pattern = Pattern.compile(regex, ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+    return document -> {
+      var actual = reader.apply(document);
+      return actual instanceof String && pattern.matcher((String) actual).find();
+    };
+  }
+}
@@ -0,0 +1,236 @@
+package com.bank.bootcamp.credits.repository.memory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import org.bson.types.ObjectId;
+import org.reactivestreams.Publisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.data.repository.query.FluentQuery.ReactiveFluentQuery;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * Map backed ReactiveMongoRepository, the base of the inmemory profile repositories (see InMemoryRepositoryConfiguration).
+ * Every write of an id goes through stored(previous, current) under the map lock of that id, so subclasses
+ * keep their secondary indexes and running sums in step with the documents. Query by example and sorting scan the
+ * documents (see InMemoryQuery).
+ */
+public abstract class InMemoryReactiveRepository<T> implements ReactiveMongoRepository<T, String> {
+  
+  protected final Map<String, T> store = new ConcurrentHashMap<>();
+  private final Function<T, String> idGetter;
+  private final BiConsumer<T, String> idSetter;
+  private final UnaryOperator<T> copier;
+  
+  protected InMemoryReactiveRepository(Function<T, String> idGetter, BiConsumer<T, String> idSetter) {
+    this(idGetter, idSetter, UnaryOperator.identity());
+  }
+  
+  /*
+   * With a copier documents are stored and read as copies, as a driver decodes them, so a caller changing
+   * an entity it saved or read changes neither the store nor the indexes of the subclass.
+   */
+  protected InMemoryReactiveRepository(Function<T, String> idGetter, BiConsumer<T, String> idSetter, UnaryOperator<T> copier) {
+    this.idGetter = idGetter;
+    this.idSetter = idSetter;
+    this.copier = copier;
+  }
+  
+  protected T detached(T document) {
+    return copier.apply(document);
+  }
+  
+  /*
+   * Called on every write of an id before it is visible: current is null on delete, previous is null on insert.
+   * Throwing (e.g. DuplicateKeyException on a unique index) leaves the document unchanged.
+   */
+  protected void stored(T previous, T current) {
+  }
+  
+  /*
+   * Called after deleteAll() emptied the store.
+   */
+  protected void cleared() {
+  }
+  
+  @Override
+  public <S extends T> Mono<S> save(S entity) {
+    return Mono.fromSupplier(() -> {
+      if (idGetter.apply(entity) == null)
+        idSetter.accept(entity, ObjectId.get().toHexString());
+      var document = copier.apply(entity);
+      store.compute(idGetter.apply(entity), (id, previous) -> {
+        stored(previous, document);
+        return document;
+      });
+      return entity;
+    });
+  }
+  
+  @Override
+  public <S extends T> Flux<S> saveAll(Iterable<S> entities) {
+    return Flux.fromIterable(entities).concatMap(this::save);
+  }
+  
+  @Override
+  public <S extends T> Flux<S> saveAll(Publisher<S> entityStream) {
+    return Flux.from(entityStream).concatMap(this::save);
+  }
+  
+  @Override
+  public Mono<T> findById(String id) {
+    return Mono.fromSupplier(() -> store.get(id)).map(copier);
+  }
+  
+  @Override
+  public Mono<T> findById(Publisher<String> id) {
+    return Mono.from(id).flatMap(this::findById);
+  }
+  
+  @Override
+  public Mono<Boolean> existsById(String id) {
+    return Mono.fromSupplier(() -> store.containsKey(id));
+  }
+  
+  @Override
+  public Mono<Boolean> existsById(Publisher<String> id) {
+    return Mono.from(id).flatMap(this::existsById);
+  }
+  
+  @Override
+  public Flux<T> findAll() {
+    return Flux.defer(() -> Flux.fromIterable(store.values())).map(copier);
+  }
+  
+  @Override
+  public Flux<T> findAllById(Iterable<String> ids) {
+    return Flux.fromIterable(ids).concatMap(this::findById);
+  }
+  
+  @Override
+  public Flux<T> findAllById(Publisher<String> idStream) {
+    return Flux.from(idStream).concatMap(this::findById);
+  }
+  
+  @Override
+  public Mono<Long> count() {
+    return Mono.fromSupplier(() -> (long) store.size());
+  }
+  
+  @Override
+  public Mono<Void> deleteById(String id) {
+    return Mono.fromRunnable(() -> store.computeIfPresent(id, (key, previous) -> {
+      stored(previous, null);
+      return null;
+    }));
+  }
+  
+  @Override
+  public Mono<Void> deleteById(Publisher<String> id) {
+    return Mono.from(id).flatMap(this::deleteById);
+  }
+  
+  @Override
+  public Mono<Void> delete(T entity) {
+    return deleteById(idGetter.apply(entity));
+  }
+  
+  @Override
+  public Mono<Void> deleteAllById(Iterable<? extends String> ids) {
+    return Flux.fromIterable(ids).concatMap(this::deleteById).then();
+  }
+  
+  @Override
+  public Mono<Void> deleteAll(Iterable<? extends T> entities) {
+    return Flux.fromIterable(entities).concatMap(this::delete).then();
+  }
+  
+  @Override
+  public Mono<Void> deleteAll(Publisher<? extends T> entityStream) {
+    return Flux.from(entityStream).concatMap(this::delete).then();
+  }
+  
+  @Override
+  public Mono<Void> deleteAll() {
+    return Mono.fromRunnable(() -> {
+      store.clear();
+      cleared();
+    });
+  }
+  
+  @Override
+  public Flux<T> findAll(Sort sort) {
+    return findAll().sort(InMemoryQuery.comparator(sort));
+  }
+  
+  @Override
+  public <S extends T> Mono<S> findOne(Example<S> example) {
+    return query(example).one();
+  }
+  
+  @Override
+  public <S extends T> Mono<Long> count(Example<S> example) {
+    return query(example).count();
+  }
+  
+  @Override
+  public <S extends T> Mono<Boolean> exists(Example<S> example) {
+    return query(example).exists();
+  }
+  
+  @Override
+  public <S extends T, R, P extends Publisher<R>> P findBy(Example<S> example, Function<ReactiveFluentQuery<S>, P> queryFunction) {
+    return queryFunction.apply(query(example));
+  }
+  
+  /*
+   * The documents of the probe type (the store holds no other) matching the example.
+   */
+  @SuppressWarnings("unchecked")
+  private <S extends T> ReactiveFluentQuery<S> query(Example<S> example) {
+    return InMemoryQuery.of(() -> (Flux<S>) findAll(), example);
+  }
+  
+  @Override
+  public <S extends T> Mono<S> insert(S entity) {
+    return Mono.fromSupplier(() -> {
+      if (idGetter.apply(entity) == null)
+        idSetter.accept(entity, ObjectId.get().toHexString());
+      var document = copier.apply(entity);
+      store.compute(idGetter.apply(entity), (id, previous) -> {
+        if (previous != null)
+          throw new DuplicateKeyException("Duplicate id " + id);
+        stored(null, document);
+        return document;
+      });
+      return entity;
+    });
+  }
+  
+  @Override
+  public <S extends T> Flux<S> insert(Iterable<S> entities) {
+    return Flux.fromIterable(entities).concatMap(this::insert);
+  }
+  
+  @Override
+  public <S extends T> Flux<S> insert(Publisher<S> entities) {
+    return Flux.from(entities).concatMap(this::insert);
+  }
+  
+  @Override
+  public <S extends T> Flux<S> findAll(Example<S> example) {
+    return query(example).all();
+  }
+  
+  @Override
+  public <S extends T> Flux<S> findAll(Example<S> example, Sort sort) {
+    return query(example).sortBy(sort).all();
+  }
+
+}
@@ -0,0 +1,97 @@
+package com.bank.bootcamp.credits.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import org.springframework.stereotype.Service;
+import com.bank.bootcamp.credits.entity.BalanceSnapshot;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.repository.BalanceSnapshotRepository;
+import com.bank.bootcamp.credits.repository.ConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.PaidRepository;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+/*
+ * Ledger totals of a credit computed as its latest BalanceSnapshot plus the movements after the snapshot checkpoint,
+ * so the cost depends on the tail since the last snapshot and not on the whole history.
+ * A snapshot is always built from the previous one plus the movements in (previous checkpoint, checkpoint],
+ * so it stays exact whatever the order in which concurrent snapshot runs write it.
+ * Checkpoints are on the ingestedDate of the movements, not their business date: a movement the ledger journal
+ * flushes late keeps its date and is counted by the next snapshot.
+ */
+@Service
+@RequiredArgsConstructor
+public class BalanceSnapshotService {
+  
+  private final BalanceSnapshotRepository balanceSnapshotRepository;
+  private final ConsumptiomRepository consumptiomRepository;
+  private final PaidRepository paidRepository;
+  private final CreditMetrics creditMetrics;
+  
+  /*
+   * Consumptions minus payments of the credit, in minor units.
+   */
+  public Mono<Long> getCreditUsed(String creditId) {
+    return getCreditTotals(creditId).map(totals -> totals.getT1() - totals.getT2());
+  }
+  
+  /*
+   * Consumption and payment totals of the credit, in minor units.
+   */
+  public Mono<Tuple2<Long, Long>> getCreditTotals(String creditId) {
+    return findSnapshot(creditId)
+        .flatMap(snapshot -> sum("getSumByCreditIdAfter",
+              consumptiomRepository.getSumByCreditIdAfter(creditId, snapshot.getCheckpoint()),
+              paidRepository.getSumByCreditIdAfter(creditId, snapshot.getCheckpoint()))
+            .map(tail -> Tuples.of(Money.toMinor(snapshot.getConsumptiomTotal()) + tail.getT1(), Money.toMinor(snapshot.getPaidTotal()) + tail.getT2())))
+        .switchIfEmpty(Mono.defer(() -> sum("getSumByCreditId",
+              consumptiomRepository.getSumByCreditId(creditId),
+              paidRepository.getSumByCreditId(creditId))));
+  }
+  
+  /*
+   * Moves the snapshot of the credit forward to checkpoint. A snapshot already at or after checkpoint is kept.
+   * checkpoint must be far enough in the past that no movement ingested before it is still being written.
+   */
+  public Mono<BalanceSnapshot> takeSnapshot(String creditId, LocalDateTime checkpoint) {
+    return findSnapshot(creditId)
+        .flatMap(previous -> {
+          if (!previous.getCheckpoint().isBefore(checkpoint))
+            return Mono.just(previous);
+          return sum("getSumByCreditIdBetween",
+                consumptiomRepository.getSumByCreditIdBetween(creditId, previous.getCheckpoint(), checkpoint),
+                paidRepository.getSumByCreditIdBetween(creditId, previous.getCheckpoint(), checkpoint))
+              .flatMap(delta -> saveSnapshot(creditId, checkpoint,
+                  Money.toMinor(previous.getConsumptiomTotal()) + delta.getT1(), Money.toMinor(previous.getPaidTotal()) + delta.getT2()));
+        })
+        .switchIfEmpty(Mono.defer(() -> sum("getSumByCreditIdUpTo",
+              consumptiomRepository.getSumByCreditIdUpTo(creditId, checkpoint),
+              paidRepository.getSumByCreditIdUpTo(creditId, checkpoint))
+            .flatMap(totals -> saveSnapshot(creditId, checkpoint, totals.getT1(), totals.getT2()))));
+  }
+  
+  private Mono<BalanceSnapshot> findSnapshot(String creditId) {
+    return creditMetrics.timeRepository("BalanceSnapshot", "findById", balanceSnapshotRepository.findById(creditId));
+  }
+  
+  private Mono<BalanceSnapshot> saveSnapshot(String creditId, LocalDateTime checkpoint, long consumptiomTotal, long paidTotal) {
+    var snapshot = new BalanceSnapshot();
+    snapshot.setCreditId(creditId);
+    snapshot.setConsumptiomTotal(Money.toDecimal(consumptiomTotal));
+    snapshot.setPaidTotal(Money.toDecimal(paidTotal));
+    snapshot.setCheckpoint(checkpoint);
+    snapshot.setCreatedDate(LocalDateTime.now());
+    return creditMetrics.timeRepository("BalanceSnapshot", "save", balanceSnapshotRepository.save(snapshot));
+  }
+  
+  /*
+   * Consumption and payment totals (minor units) of one query on each ledger, 0 when there are no movements.
+   */
+  private Mono<Tuple2<Long, Long>> sum(String method, Mono<BigDecimal> consumptioms, Mono<BigDecimal> paids) {
+    return creditMetrics.timeRepository("Consumptiom", method, consumptioms).map(Money::toMinor).defaultIfEmpty(0L)
+        .zipWith(creditMetrics.timeRepository("Paid", method, paids).map(Money::toMinor).defaultIfEmpty(0L));
+  }
+}
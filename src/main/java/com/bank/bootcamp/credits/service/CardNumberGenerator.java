@@ -0,0 +1,9 @@
+package com.bank.bootcamp.credits.service;
+
+/*
+ * Source of card numbers for new credits. Implementations must be thread safe.
+ * Uniqueness across instances is finally enforced by the unique index on Credit.cardNumber.
+ */
+public interface CardNumberGenerator {
+  String generate();
+}
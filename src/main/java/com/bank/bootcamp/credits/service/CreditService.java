@@ -1,183 +1,492 @@
 package com.bank.bootcamp.credits.service;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Optional;
-import java.util.Random;
-import java.util.function.Predicate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
-import org.springframework.util.ObjectUtils;
+import com.bank.bootcamp.credits.cache.BalanceCache;
 import com.bank.bootcamp.credits.dto.BalanceDTO;
+import com.bank.bootcamp.credits.dto.BalanceResultDTO;
+import com.bank.bootcamp.credits.dto.ConsumptiomResultDTO;
 import com.bank.bootcamp.credits.dto.CreateConsumptiomDTO;
 import com.bank.bootcamp.credits.dto.CreatePaidDTO;
+import com.bank.bootcamp.credits.dto.CreditTotalDTO;
 import com.bank.bootcamp.credits.entity.Consumptiom;
 import com.bank.bootcamp.credits.entity.Credit;
 import com.bank.bootcamp.credits.entity.CreditType;
 import com.bank.bootcamp.credits.entity.Paid;
 import com.bank.bootcamp.credits.exception.BankValidationException;
+import com.bank.bootcamp.credits.journal.LedgerJournal;
+import com.bank.bootcamp.credits.lane.CreditWriteLanes;
+import com.bank.bootcamp.credits.lane.CreditWriteLanes.Kind;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.money.Money;
 import com.bank.bootcamp.credits.repository.ConsumptiomRepository;
 import com.bank.bootcamp.credits.repository.CreditRepository;
 import com.bank.bootcamp.credits.repository.PaidRepository;
+import com.bank.bootcamp.credits.validation.CreditRequestValidator;
 import lombok.RequiredArgsConstructor;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.retry.Retry;
 
 @Service
 @RequiredArgsConstructor
 public class CreditService {
 
+  private static final String NOT_ENOUGH_LINE_OF_CREDIT = "Not enough line of credit";
+  private static final int CARD_NUMBER_ATTEMPTS = 3;
+  private static final int CONSUMPTIOM_BATCH_SIZE = 500;
+  private static final Duration CONSUMPTIOM_BATCH_WINDOW = Duration.ofMillis(50);
+  private static final int CONSUMPTIOM_GROUP_CONCURRENCY = 16;
+  
   private final CreditRepository creditRepository;
   private final PaidRepository paidRepository;
   private final ConsumptiomRepository consumptiomRepository;
+  private final BalanceCache balanceCache;
+  private final BalanceSnapshotService balanceSnapshotService;
+  private final CreditMetrics creditMetrics;
+  private final CardNumberGenerator cardNumberGenerator;
+  private final CreditRequestValidator validator;
+  private final CreditWriteLanes writeLanes;
+  private final LedgerJournal ledgerJournal;
   
   public Mono<Credit> createProduct(Credit credit) {
-    return Mono.just(credit)
-        .then(check(credit, prd -> Optional.of(prd).isEmpty(), "Credit has not data"))
-        .then(check(credit, prd -> ObjectUtils.isEmpty(prd.getCustomerId()), "Customer ID is required"))
-        .then(check(credit, prd -> ObjectUtils.isEmpty(prd.getCreditType()), "Credit type is required"))
-        .then(check(credit, prd -> ObjectUtils.isEmpty(prd.getLimit()), "Credit Limit is required"))
-        .then(check(credit, prd -> prd.getLimit() < 0 , "Credit Limit must be greater than zero (0)"))
-        .then(creditRepository.findAllByCustomerIdAndCreditType(credit.getCustomerId(), credit.getCreditType())
-            .count()
-            .<Long>handle((record, sink) -> {
-              if (record > 0 && credit.getCreditType() == CreditType.PERSONAL)
-                sink.error(new BankValidationException("Personal customer already has a credit"));
-              else
-                sink.complete();
-            })
-        )
-        .then(Mono.just(credit).flatMap(cr -> {
-          cr.setCardNumber(generateCardNumber());
-          cr.setRegisterDate(LocalDateTime.now());
-          return creditRepository.save(cr);
-        }));
-  }
-  
-  private <T> Mono<Void> check(T t, Predicate<T> predicate, String messageForException) {
-    return Mono.create(sink -> {
-      if (predicate.test(t)) {
-        sink.error(new BankValidationException(messageForException));
-        return;
-      } else {
-        sink.success();
-      }
+    return creditMetrics.timeOperation("createProduct", creditType -> {
+      creditType.set(credit == null ? null : credit.getCreditType());
+      return doCreateProduct(credit);
     });
   }
   
-  private Mono<Double> getCreditUsed(String creditId) {
-    return consumptiomRepository.getSumByCreditId(creditId).switchIfEmpty(Mono.just(0d))
-    .map(cred -> cred * -1d)
-    .concatWith(paidRepository.getSumByCreditId(creditId).switchIfEmpty(Mono.just(0d)))
-    .reduce(0d, (a, b) -> a + b);
+  private Mono<Credit> doCreateProduct(Credit credit) {
+    var violations = validator.validate(credit);
+    if (!violations.isEmpty())
+      return Mono.error(new BankValidationException(violations));
+    return findCredits(credit.getCustomerId(), credit.getCreditType())
+        .count()
+        .<Long>handle((record, sink) -> {
+          if (record > 0 && credit.getCreditType() == CreditType.PERSONAL)
+            sink.error(new BankValidationException("Personal customer already has a credit"));
+          else
+            sink.complete();
+        })
+        .then(Mono.defer(() -> {
+          credit.setCardNumber(cardNumberGenerator.generate());
+          credit.setRegisterDate(LocalDateTime.now());
+          credit.setUpdatedDate(credit.getRegisterDate());
+          credit.setUsed(Money.toDecimal(0L));
+          credit.setAvailable(credit.getLimit());
+          credit.setVersion(null);
+          return creditMetrics.timeRepository("Credit", "save", creditRepository.save(credit));
+        })
+        // card numbers are unique (index on Credits.cardNumber): draw a new one on collision
+        .retryWhen(Retry.max(CARD_NUMBER_ATTEMPTS - 1).filter(DuplicateKeyException.class::isInstance)));
   }
   
   /*
-   * https://gist.github.com/josefeg/5781824
+   * Full recomputation of the used line of credit from the ledger collections.
+   * Only needed for reconciliation and for credits created before the balance was materialized.
    */
-  private String generateCardNumber() {
-    var random = new Random(System.currentTimeMillis());
-    var bin = "3353";
-    int randomNumberLength = 16 - (bin.length() + 1);
-
-    var builder = new StringBuilder(bin);
-    for (int i = 0; i < randomNumberLength; i++) {
-        int digit = random.nextInt(10);
-        builder.append(digit);
-    }
+  private Mono<Long> getCreditUsed(String creditId) {
+    return balanceSnapshotService.getCreditUsed(creditId);
+  }
 
-    int checkDigit = this.getCheckDigit(builder.toString());
-    builder.append(checkDigit);
-    return builder.toString();
+  private Mono<Credit> materializeBalance(Credit credit) {
+    if (credit.getUsed() != null)
+      return Mono.just(credit);
+    return getCreditUsed(credit.getId())
+        .flatMap(used -> updateBalance(credit.getId(), used, credit.getVersion()))
+        .switchIfEmpty(Mono.defer(() -> findCredit(credit.getId())));
   }
   
   /*
-   * https://gist.github.com/josefeg/5781824
+   * Compares the materialized balance against the ledger and fixes it when they differ.
+   * Emits true when the credit was corrected.
+   * A movement reaches the ledger after its balance update: right after it, or when the journal flushes it. So credits
+   * updated after settledBefore or with movements in the journal are left for the next run, and the credit is read
+   * after the ledger, its version keeping any later update from being overwritten.
    */
-  private int getCheckDigit(String number) {
-    int sum = 0;
-    for (int i = 0; i < number.length(); i++) {
-        int digit = Integer.parseInt(number.substring(i, (i + 1)));
-        if ((i % 2) == 0) {
-            digit = digit * 2;
-            if (digit > 9) {
-                digit = (digit / 10) + (digit % 10);
-            }
-        }
-        sum += digit;
-    }
-    int mod = sum % 10;
-    return ((mod == 0) ? 0 : 10 - mod);
-}
+  public Mono<Boolean> reconcileBalance(String creditId, LocalDateTime settledBefore) {
+    if (ledgerJournal.hasUnflushed(creditId))
+      return Mono.just(Boolean.FALSE);
+    return getCreditUsed(creditId)
+        .flatMap(used -> findCredit(creditId)
+            .flatMap(credit -> {
+              if (credit.getUpdatedDate() != null && credit.getUpdatedDate().isAfter(settledBefore) || ledgerJournal.hasUnflushed(creditId))
+                return Mono.just(Boolean.FALSE);
+              if (credit.getUsed() != null && used == Money.toMinor(credit.getUsed()))
+                return Mono.just(Boolean.FALSE);
+              return updateBalance(creditId, used, credit.getVersion())
+                  .map(updated -> Boolean.TRUE)
+                  .defaultIfEmpty(Boolean.FALSE);
+            }))
+        .defaultIfEmpty(Boolean.FALSE);
+  }
+  
+  /*
+   * Every credit coming back from a balance update goes through the cache,
+   * so balance reads never see an older value than the last write.
+   */
+  private Mono<Credit> addUsed(String creditId, long amount) {
+    return creditMetrics.timeRepository("Credit", "addUsed", creditRepository.addUsed(creditId, amount)).doOnNext(this::cacheBalance);
+  }
+  
+  /*
+   * addUsed through the write lane of the credit, behind the charges and payments already queued for it.
+   */
+  private Mono<Credit> adjustUsed(String creditId, long amount) {
+    return writeLanes.submit(creditId, Kind.ADJUST, amount, total -> addUsed(creditId, total));
+  }
+  
+  private Mono<Credit> tryReserveCredit(String creditId, long amount) {
+    return creditMetrics.timeRepository("Credit", "reserveCredit", creditRepository.reserveCredit(creditId, amount)).doOnNext(this::cacheBalance);
+  }
+  
+  private Mono<Credit> updateBalance(String creditId, long used, Long expectedVersion) {
+    return creditMetrics.timeRepository("Credit", "updateBalance", creditRepository.updateBalance(creditId, used, expectedVersion)).doOnNext(this::cacheBalance);
+  }
+  
+  private Mono<Credit> findCredit(String creditId) {
+    return creditMetrics.timeRepository("Credit", "findById", creditRepository.findById(creditId));
+  }
+  
+  private Flux<Credit> findCredits(String customerId, CreditType creditType) {
+    return creditMetrics.timeRepository("Credit", "findAllByCustomerIdAndCreditType", creditRepository.findAllByCustomerIdAndCreditType(customerId, creditType));
+  }
+  
+  private void cacheBalance(Credit credit) {
+    balanceCache.put(credit, toBalanceDTO(credit));
+  }
+  
+  private BalanceDTO toBalanceDTO(Credit credit) {
+    var balanceDTO = new BalanceDTO();
+    balanceDTO.setCreditId(credit.getId());
+    balanceDTO.setCreditLimit(credit.getLimit());
+    balanceDTO.setType("Credit");
+    balanceDTO.setUsed(credit.getUsed());
+    balanceDTO.setAvailable(credit.getAvailable());
+    return balanceDTO;
+  }
 
   public Mono<String> chargeConsumptiom(CreateConsumptiomDTO consumptionDTO) {
-    return Mono.just(consumptionDTO)
-        .then(check(consumptionDTO, c -> ObjectUtils.isEmpty(c), "Consumption is required"))
-        .then(check(consumptionDTO, c -> ObjectUtils.isEmpty(c.getAmount()), "Consumption amount is required"))
-        .then(check(consumptionDTO, c -> ObjectUtils.isEmpty(c.getCreditId()), "Consumption Credit ID is required"))
-        .then(check(consumptionDTO, c -> c.getAmount() < 0, "Consumption amount must be greater than zero"))
-        .then(creditRepository.findById(consumptionDTO.getCreditId()).switchIfEmpty(Mono.error(new BankValidationException("Credit not found"))))
-        .flatMap(credit -> {
+    return creditMetrics.timeOperation("chargeConsumptiom", creditType -> {
+      var violations = validator.validate(consumptionDTO);
+      if (!violations.isEmpty())
+        return Mono.error(new BankValidationException(violations));
 
-          var consumption = new Consumptiom();
-          consumption.setAmount(consumptionDTO.getAmount());
-          consumption.setCreditId(consumptionDTO.getCreditId());
-          consumption.setRegisterDate(LocalDateTime.now());
+      var consumption = new Consumptiom();
+      consumption.setAmount(consumptionDTO.getAmount());
+      consumption.setCreditId(consumptionDTO.getCreditId());
+      consumption.setRegisterDate(LocalDateTime.now());
           
-          var x = getCreditUsed(credit.getId())
-              .<Double>handle((used, sink) -> {
-                var available = credit.getLimit() - used;
-                if (consumption.getAmount() > available)
-                  sink.error(new BankValidationException(String.format("Not enough line of credit, for charge: %d, available %d", consumption.getAmount(), available)));
-                else 
-                  sink.next(used);
-              })
-              .then(consumptiomRepository.save(consumption));
-          return x;
+      var creditId = consumption.getCreditId();
+      var amount = Money.toMinor(consumption.getAmount());
+      return writeLanes.submit(creditId, Kind.CHARGE, amount, total -> reserveCredit(creditId, total))
+          .doOnNext(credit -> creditType.set(credit.getCreditType()))
+          .then(saveConsumptiom(consumption)
+              .onErrorResume(e -> adjustUsed(creditId, -amount).then(Mono.error(e))))
+          .map(con -> con.getId());
+    });
+  }
+  
+  /*
+   * With the journal the movement is acknowledged once on local disk and written to MongoDB behind it (see LedgerJournal),
+   * which sets its ingestedDate at the flush.
+   */
+  private Mono<Consumptiom> saveConsumptiom(Consumptiom consumption) {
+    if (ledgerJournal.isEnabled())
+      return creditMetrics.timeRepository("LedgerJournal", "append", ledgerJournal.append(consumption));
+    consumption.setIngestedDate(consumption.getRegisterDate());
+    return creditMetrics.timeRepository("Consumptiom", "save", consumptiomRepository.save(consumption));
+  }
+  
+  private Mono<Paid> savePaid(Paid paid) {
+    if (ledgerJournal.isEnabled())
+      return creditMetrics.timeRepository("LedgerJournal", "append", ledgerJournal.append(paid));
+    paid.setIngestedDate(paid.getCreatedDate());
+    return creditMetrics.timeRepository("Paid", "save", paidRepository.save(paid));
+  }
+  
+  /*
+   * Accepts or rejects the charge in one conditional findAndModify (available >= amount),
+   * so concurrent charges can never overdraw the limit. The credit is only read again
+   * on the rejection path, to tell apart a missing credit, a legacy one or a lack of funds.
+   */
+  private Mono<Credit> reserveCredit(String creditId, long amount) {
+    return tryReserveCredit(creditId, amount)
+        .switchIfEmpty(Mono.defer(() -> findCredit(creditId)
+            .switchIfEmpty(Mono.error(new BankValidationException("Credit not found")))
+            .flatMap(credit -> credit.getUsed() == null
+                ? materializeBalance(credit).flatMap(materialized -> tryReserveCredit(creditId, amount)
+                    .switchIfEmpty(Mono.error(notEnoughLineOfCredit(amount, materialized))))
+                : Mono.error(notEnoughLineOfCredit(amount, credit)))));
+  }
+  
+  private BankValidationException notEnoughLineOfCredit(long amount, Credit credit) {
+    return BankValidationException.withReason(NOT_ENOUGH_LINE_OF_CREDIT,
+        String.format("%s, for charge: %s, available %s", NOT_ENOUGH_LINE_OF_CREDIT, Money.toDecimal(amount), credit.getAvailable()));
+  }
+  
+  /*
+   * Batch charges (settlement files). Items are buffered in chunks and grouped by credit,
+   * each group is checked against the limit with one conditional update and written with one insertMany.
+   * Results are streamed per item, not necessarily in input order (see index).
+   */
+  public Flux<ConsumptiomResultDTO> chargeConsumptioms(Flux<CreateConsumptiomDTO> consumptioms) {
+    return chargeConsumptioms(consumptioms, creditId -> null);
+  }
+  
+  /*
+   * limit is asked once per valid item with its creditId: a reason rejects the item (e.g. the rate limit of the credit,
+   * see CreditAdmission.limitItem), null lets it through.
+   */
+  public Flux<ConsumptiomResultDTO> chargeConsumptioms(Flux<CreateConsumptiomDTO> consumptioms, Function<String, String> limit) {
+    return creditMetrics.timeOperation("chargeConsumptioms", null, consumptioms
+        .index()
+        .bufferTimeout(CONSUMPTIOM_BATCH_SIZE, CONSUMPTIOM_BATCH_WINDOW)
+        .concatMap(batch -> chargeConsumptiomBatch(batch, limit)));
+  }
+  
+  private Flux<ConsumptiomResultDTO> chargeConsumptiomBatch(List<Tuple2<Long, CreateConsumptiomDTO>> batch, Function<String, String> limit) {
+    var rejected = new ArrayList<ConsumptiomResultDTO>();
+    var byCredit = new LinkedHashMap<String, List<Tuple2<Long, CreateConsumptiomDTO>>>();
+    for (var item : batch) {
+      var violations = validator.validate(item.getT2());
+      var limited = violations.isEmpty() ? limit.apply(item.getT2().getCreditId()) : null;
+      if (!violations.isEmpty())
+        rejected.add(rejectConsumptiom(item, violations));
+      else if (limited != null)
+        rejected.add(rejectConsumptiom(item, List.of(limited)));
+      else
+        byCredit.computeIfAbsent(item.getT2().getCreditId(), creditId -> new ArrayList<>()).add(item);
+    }
+    return Flux.fromIterable(rejected)
+        .concatWith(Flux.fromIterable(byCredit.entrySet())
+            .flatMap(group -> chargeCreditGroup(group.getKey(), group.getValue()), CONSUMPTIOM_GROUP_CONCURRENCY));
+  }
+  
+  private Flux<ConsumptiomResultDTO> chargeCreditGroup(String creditId, List<Tuple2<Long, CreateConsumptiomDTO>> items) {
+    var total = totalOf(items);
+    return tryReserveCredit(creditId, total)
+        .map(credit -> items)
+        .switchIfEmpty(Mono.defer(() -> reserveWithinLimit(creditId, items)))
+        .flatMapMany(accepted -> {
+          var acceptedItems = new HashSet<>(accepted);
+          var rejected = items.stream()
+              .filter(item -> !acceptedItems.contains(item))
+              .map(item -> rejectConsumptiom(item, List.of(NOT_ENOUGH_LINE_OF_CREDIT)));
+          return Flux.fromStream(rejected).concatWith(saveConsumptioms(creditId, accepted));
         })
-        .map(con -> con.getId());
+        .onErrorResume(BankValidationException.class, e -> Flux.fromIterable(items).map(item -> rejectConsumptiom(item, e.getReasons())));
+  }
+  
+  /*
+   * The whole group does not fit: keep the items that fit the available line, in arrival order,
+   * and reserve them together. If a concurrent charge took the line in between, reserve one by one.
+   */
+  private Mono<List<Tuple2<Long, CreateConsumptiomDTO>>> reserveWithinLimit(String creditId, List<Tuple2<Long, CreateConsumptiomDTO>> items) {
+    return findCredit(creditId)
+        .switchIfEmpty(Mono.error(new BankValidationException("Credit not found")))
+        .flatMap(this::materializeBalance)
+        .flatMap(credit -> {
+          List<Tuple2<Long, CreateConsumptiomDTO>> selected = new ArrayList<>();
+          var remaining = Money.toMinor(credit.getAvailable());
+          for (var item : items) {
+            var amount = Money.toMinor(item.getT2().getAmount());
+            if (amount <= remaining) {
+              selected.add(item);
+              remaining -= amount;
+            }
+          }
+          if (selected.isEmpty())
+            return Mono.just(selected);
+          return tryReserveCredit(creditId, totalOf(selected))
+              .map(reserved -> selected)
+              .switchIfEmpty(Flux.fromIterable(items)
+                  .concatMap(item -> tryReserveCredit(creditId, Money.toMinor(item.getT2().getAmount())).map(reserved -> item))
+                  .collectList());
+        });
+  }
+  
+  private Flux<ConsumptiomResultDTO> saveConsumptioms(String creditId, List<Tuple2<Long, CreateConsumptiomDTO>> accepted) {
+    if (accepted.isEmpty())
+      return Flux.empty();
+    var registerDate = LocalDateTime.now();
+    var consumptions = accepted.stream().map(item -> {
+      var consumption = new Consumptiom();
+      consumption.setAmount(item.getT2().getAmount());
+      consumption.setCreditId(creditId);
+      consumption.setRegisterDate(registerDate);
+      consumption.setIngestedDate(registerDate);
+      return consumption;
+    }).collect(Collectors.toList());
+    var total = totalOf(accepted);
+    
+    return creditMetrics.timeRepository("Consumptiom", "saveAll", consumptiomRepository.saveAll(consumptions))
+        .collectList()
+        .flatMapMany(saved -> Flux.range(0, saved.size()).map(i -> toConsumptiomResult(accepted.get(i), saved.get(i).getId(), null)))
+        .onErrorResume(e -> adjustUsed(creditId, -total)
+            .thenMany(Flux.fromIterable(accepted).map(item -> toConsumptiomResult(item, null, e.getMessage()))));
+  }
+  
+  private static long totalOf(List<Tuple2<Long, CreateConsumptiomDTO>> items) {
+    var total = 0L;
+    for (var item : items)
+      total = Math.addExact(total, Money.toMinor(item.getT2().getAmount()));
+    return total;
+  }
+  
+  private ConsumptiomResultDTO rejectConsumptiom(Tuple2<Long, CreateConsumptiomDTO> item, List<String> reasons) {
+    reasons.forEach(reason -> creditMetrics.countRejection("chargeConsumptioms", reason));
+    return toConsumptiomResult(item, null, String.join("; ", reasons));
+  }
+  
+  private ConsumptiomResultDTO toConsumptiomResult(Tuple2<Long, CreateConsumptiomDTO> item, String consumptiomId, String message) {
+    var result = new ConsumptiomResultDTO();
+    result.setIndex(item.getT1());
+    result.setCreditId(item.getT2() == null ? null : item.getT2().getCreditId());
+    result.setConsumptiomId(consumptiomId);
+    result.setAccepted(consumptiomId != null);
+    result.setMessage(message);
+    return result;
   }
 
   public Mono<String> paidCredit(CreatePaidDTO paidDTO) {
-    return Mono.just(paidDTO)
-        .then(check(paidDTO, p -> ObjectUtils.isEmpty(p), "Paid is required"))
-        .then(check(paidDTO, p -> ObjectUtils.isEmpty(p.getAmount()), "Paid Amount is required"))
-        .then(check(paidDTO, p -> ObjectUtils.isEmpty(p.getCreditId()), "Paid Credit ID is required"))
-        .then(creditRepository.findById(paidDTO.getCreditId()).switchIfEmpty(Mono.error(new BankValidationException("Credit not found"))))
-        .flatMap(p -> {
+    return creditMetrics.timeOperation("paidCredit", creditType -> {
+      var violations = validator.validate(paidDTO);
+      if (!violations.isEmpty())
+        return Mono.error(new BankValidationException(violations));
+      
+      return findCredit(paidDTO.getCreditId())
+        .switchIfEmpty(Mono.error(new BankValidationException("Credit not found")))
+        .flatMap(this::materializeBalance)
+        .flatMap(credit -> {
+          creditType.set(credit.getCreditType());
           var paid = new Paid();
           paid.setAmount(paidDTO.getAmount());
           paid.setCreditId(paidDTO.getCreditId());
-          paid.setCreditId(paidDTO.getCreditId());
           paid.setCreatedDate(LocalDateTime.now());
-          return paidRepository.save(paid);
+          var amount = Money.toMinor(paid.getAmount());
+          return adjustUsed(credit.getId(), -amount)
+              .then(savePaid(paid)
+                  .onErrorResume(e -> adjustUsed(credit.getId(), amount).then(Mono.error(e))));
         })
         .map(p -> p.getId());
-        
+    });
   }
 
   public Mono<BalanceDTO> getBalanceByCreditId(String creditId) {
-    return Mono.just(creditId)
-      .then(check(creditId, c -> ObjectUtils.isEmpty(c), "Credit ID is required"))
-      .then(creditRepository.findById(creditId).switchIfEmpty(Mono.error(new BankValidationException("Credit not found"))))
-      .flatMap(credit -> {
-        
-        var balanceDTO = new BalanceDTO();
-        balanceDTO.setCreditId(credit.getId());
-        balanceDTO.setCreditLimit(credit.getLimit());
-        balanceDTO.setType("Credit");
+    return creditMetrics.timeOperation("getBalanceByCreditId", creditType -> {
+      var violations = validator.validateCreditId(creditId);
+      if (!violations.isEmpty())
+        return Mono.error(new BankValidationException(violations));
         
-        return getCreditUsed(credit.getId())
-        .map(balance -> {
-          balanceDTO.setAvailable(balance);
-          balanceDTO.setUsed(balanceDTO.getCreditLimit() - balanceDTO.getAvailable());
-          return balanceDTO;
-        });
-      });
+      return balanceCache.get(creditId, () -> findCredit(creditId)
+          .switchIfEmpty(Mono.error(new BankValidationException("Credit not found")))
+          .flatMap(this::materializeBalance)
+          .map(credit -> {
+            creditType.set(credit.getCreditType());
+            var balanceDTO = toBalanceDTO(credit);
+            balanceCache.put(credit, balanceDTO);
+            return balanceDTO;
+          }));
+    });
   }
 
   public Flux<BalanceDTO> getBalanceByCustomerIdAndCreditType(String customerId, CreditType creditType) {
-    return creditRepository.findAllByCustomerIdAndCreditType(customerId, creditType)
-      .flatMap(credit -> getBalanceByCreditId(credit.getId()).flux())
-     ;
+    return creditMetrics.timeOperation("getBalanceByCustomerIdAndCreditType", creditType, findCredits(customerId, creditType)
+      .flatMap(this::materializeBalance)
+      .map(this::toBalanceDTO));
+  }
+  
+  /*
+   * Balances of many credits in one call: cached ones first, then one findAllById for the rest, streamed as
+   * the credits arrive. Legacy credits are materialized together from one grouped aggregation per ledger.
+   * Blank and unknown ids come back as items with an error instead of failing the whole call.
+   */
+  public Flux<BalanceResultDTO> getBalancesByCreditIds(List<String> creditIds) {
+    return getBalancesByCreditIds(creditIds, creditId -> null);
+  }
+  
+  /*
+   * limit is asked once per valid distinct creditId, as in chargeConsumptioms.
+   */
+  public Flux<BalanceResultDTO> getBalancesByCreditIds(List<String> creditIds, Function<String, String> limit) {
+    return creditMetrics.timeOperation("getBalancesByCreditIds", null, Flux.defer(() -> {
+      var violations = validator.validateCreditIds(creditIds);
+      if (!violations.isEmpty())
+        return Flux.error(new BankValidationException(violations));
+      
+      var resolved = new ArrayList<BalanceResultDTO>();
+      var pending = new LinkedHashSet<String>();
+      for (var creditId : new LinkedHashSet<>(creditIds)) {
+        var violation = validator.validateCreditId(creditId);
+        var limited = violation.isEmpty() ? limit.apply(creditId) : null;
+        var cached = violation.isEmpty() && limited == null ? balanceCache.getIfPresent(creditId) : null;
+        if (!violation.isEmpty())
+          resolved.add(toBalanceResult(creditId, null, violation.get(0)));
+        else if (limited != null)
+          resolved.add(toBalanceResult(creditId, null, limited));
+        else if (cached != null)
+          resolved.add(toBalanceResult(creditId, cached, null));
+        else
+          pending.add(creditId);
+      }
+      if (pending.isEmpty())
+        return Flux.fromIterable(resolved);
+      
+      var found = new HashSet<String>();
+      var legacy = new ArrayList<Credit>();
+      return Flux.fromIterable(resolved)
+          .concatWith(creditMetrics.timeRepository("Credit", "findAllById", creditRepository.findAllById(pending))
+              .<BalanceResultDTO>handle((credit, sink) -> {
+                found.add(credit.getId());
+                if (credit.getUsed() == null) {
+                  legacy.add(credit);
+                  return;
+                }
+                var balanceDTO = toBalanceDTO(credit);
+                balanceCache.put(credit, balanceDTO);
+                sink.next(toBalanceResult(credit.getId(), balanceDTO, null));
+              }))
+          .concatWith(Flux.defer(() -> materializeBalances(legacy)))
+          .concatWith(Flux.defer(() -> Flux.fromIterable(pending)
+              .filter(creditId -> !found.contains(creditId))
+              .map(creditId -> toBalanceResult(creditId, null, "Credit not found"))));
+    }));
+  }
+  
+  private Flux<BalanceResultDTO> materializeBalances(List<Credit> credits) {
+    if (credits.isEmpty())
+      return Flux.empty();
+    var creditIds = credits.stream().map(Credit::getId).collect(Collectors.toList());
+    return creditMetrics.timeRepository("Consumptiom", "getSumsByCreditIds", consumptiomRepository.getSumsByCreditIds(creditIds))
+        .collectMap(CreditTotalDTO::getId, total -> Money.toMinor(total.getTotal()))
+        .zipWith(creditMetrics.timeRepository("Paid", "getSumsByCreditIds", paidRepository.getSumsByCreditIds(creditIds))
+            .collectMap(CreditTotalDTO::getId, total -> Money.toMinor(total.getTotal())))
+        .flatMapMany(totals -> Flux.fromIterable(credits)
+            .flatMap(credit -> {
+              var used = totals.getT1().getOrDefault(credit.getId(), 0L) - totals.getT2().getOrDefault(credit.getId(), 0L);
+              return updateBalance(credit.getId(), used, credit.getVersion())
+                  .switchIfEmpty(Mono.defer(() -> findCredit(credit.getId())));
+            }, CONSUMPTIOM_GROUP_CONCURRENCY))
+        .map(credit -> toBalanceResult(credit.getId(), toBalanceDTO(credit), null));
+  }
+  
+  private BalanceResultDTO toBalanceResult(String creditId, BalanceDTO balance, String error) {
+    var result = new BalanceResultDTO();
+    result.setCreditId(creditId);
+    result.setBalance(balance);
+    result.setError(error);
+    return result;
   }
   
 }
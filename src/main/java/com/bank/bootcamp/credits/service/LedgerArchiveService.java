@@ -0,0 +1,131 @@
+package com.bank.bootcamp.credits.service;
+
+import java.time.LocalDateTime;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import com.bank.bootcamp.credits.entity.ArchivedConsumptiom;
+import com.bank.bootcamp.credits.entity.ArchivedPaid;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.repository.ArchivedConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.ArchivedPaidRepository;
+import com.bank.bootcamp.credits.repository.ConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.CreditRepository;
+import com.bank.bootcamp.credits.repository.PaidRepository;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/*
+ * Moves old movements out of Consumptioms and Paids into ConsumptiomsArchive and PaidsArchive, so the ledgers
+ * and their indexes only hold the recent tail.
+ *  - The BalanceSnapshot of the credit is first moved to the cutoff: it carries the totals of everything archived
+ *    forward and getCreditUsed only sums the movements after it, so balances never need the archive.
+ *  - The cutoff never passes the ledger rollup checkpoint day, range queries read archived days from LedgerRollups.
+ *  - A batch is copied to the archive (save by id) before it is deleted from the ledger, so a run interrupted
+ *    in between leaves copies in both that the next run finishes moving; statements drop the duplicates.
+ *  - Legacy credits (used not materialized yet) are skipped, their balance is still computed from the whole ledger.
+ */
+@Service
+@RequiredArgsConstructor
+public class LedgerArchiveService {
+  
+  private static final int BATCH_SIZE = 500;
+  private static final int CONCURRENCY = 4;
+  
+  private final CreditRepository creditRepository;
+  private final ConsumptiomRepository consumptiomRepository;
+  private final PaidRepository paidRepository;
+  private final ArchivedConsumptiomRepository archivedConsumptiomRepository;
+  private final ArchivedPaidRepository archivedPaidRepository;
+  private final BalanceSnapshotService balanceSnapshotService;
+  private final LedgerRollupService ledgerRollupService;
+  private final CreditMetrics creditMetrics;
+  
+  /*
+   * Archives the movements of every credit dated before before, or before the rollup checkpoint day when that is earlier.
+   * Nothing is archived until the rollups ran once. Returns the number of movements moved.
+   */
+  public Mono<Long> archive(LocalDateTime before) {
+    return ledgerRollupService.findCheckpoint()
+        .map(checkpoint -> {
+          var rolledUp = checkpoint.toLocalDate().atStartOfDay();
+          return rolledUp.isBefore(before) ? rolledUp : before;
+        })
+        .flatMap(cutoff -> creditRepository.findAll()
+            .filter(credit -> credit.getUsed() != null)
+            .flatMap(credit -> archiveCredit(credit.getId(), cutoff), CONCURRENCY)
+            .reduce(0L, Long::sum))
+        .defaultIfEmpty(0L);
+  }
+  
+  /*
+   * Snapshot at before, then the movements dated before it and already in that snapshot, oldest first.
+   */
+  public Mono<Long> archiveCredit(String creditId, LocalDateTime before) {
+    return balanceSnapshotService.takeSnapshot(creditId, before)
+        .then(inBatches(() -> moveConsumptioms(creditId, before)))
+        .flatMap(consumptioms -> inBatches(() -> movePaids(creditId, before)).map(paids -> consumptioms + paids));
+  }
+  
+  private static Mono<Long> inBatches(Supplier<Mono<Integer>> batch) {
+    return Mono.defer(batch)
+        .repeat()
+        .takeUntil(moved -> moved < BATCH_SIZE)
+        .reduce(0L, (total, moved) -> total + moved);
+  }
+  
+  private Mono<Integer> moveConsumptioms(String creditId, LocalDateTime before) {
+    return creditMetrics.timeRepository("Consumptiom", "findArchivableByCreditId",
+          consumptiomRepository.findArchivableByCreditId(creditId, before, PageRequest.of(0, BATCH_SIZE)))
+        .collectList()
+        .flatMap(batch -> {
+          if (batch.isEmpty())
+            return Mono.just(0);
+          var archivedDate = LocalDateTime.now();
+          var archived = batch.stream().map(consumptiom -> toArchived(consumptiom, archivedDate)).collect(Collectors.toList());
+          var ids = batch.stream().map(Consumptiom::getId).collect(Collectors.toList());
+          return creditMetrics.timeRepository("ArchivedConsumptiom", "saveAll", archivedConsumptiomRepository.saveAll(archived))
+              .then(creditMetrics.timeRepository("Consumptiom", "deleteAllById", consumptiomRepository.deleteAllById(ids)))
+              .thenReturn(batch.size());
+        });
+  }
+  
+  private Mono<Integer> movePaids(String creditId, LocalDateTime before) {
+    return creditMetrics.timeRepository("Paid", "findArchivableByCreditId",
+          paidRepository.findArchivableByCreditId(creditId, before, PageRequest.of(0, BATCH_SIZE)))
+        .collectList()
+        .flatMap(batch -> {
+          if (batch.isEmpty())
+            return Mono.just(0);
+          var archivedDate = LocalDateTime.now();
+          var archived = batch.stream().map(paid -> toArchived(paid, archivedDate)).collect(Collectors.toList());
+          var ids = batch.stream().map(Paid::getId).collect(Collectors.toList());
+          return creditMetrics.timeRepository("ArchivedPaid", "saveAll", archivedPaidRepository.saveAll(archived))
+              .then(creditMetrics.timeRepository("Paid", "deleteAllById", paidRepository.deleteAllById(ids)))
+              .thenReturn(batch.size());
+        });
+  }
+  
+  private static ArchivedConsumptiom toArchived(Consumptiom consumptiom, LocalDateTime archivedDate) {
+    var archived = new ArchivedConsumptiom();
+    archived.setId(consumptiom.getId());
+    archived.setCreditId(consumptiom.getCreditId());
+    archived.setAmount(consumptiom.getAmount());
+    archived.setRegisterDate(consumptiom.getRegisterDate());
+    archived.setArchivedDate(archivedDate);
+    return archived;
+  }
+  
+  private static ArchivedPaid toArchived(Paid paid, LocalDateTime archivedDate) {
+    var archived = new ArchivedPaid();
+    archived.setId(paid.getId());
+    archived.setCreditId(paid.getCreditId());
+    archived.setAmount(paid.getAmount());
+    archived.setCreatedDate(paid.getCreatedDate());
+    archived.setArchivedDate(archivedDate);
+    return archived;
+  }
+}
@@ -0,0 +1,278 @@
+package com.bank.bootcamp.credits.service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.springframework.stereotype.Service;
+import com.bank.bootcamp.credits.dto.LedgerDayDTO;
+import com.bank.bootcamp.credits.dto.LedgerPeriodDTO;
+import com.bank.bootcamp.credits.dto.LedgerTotalDTO;
+import com.bank.bootcamp.credits.dto.RollupGranularity;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.LedgerRollup;
+import com.bank.bootcamp.credits.entity.LedgerRollupCheckpoint;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.exception.BankValidationException;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.repository.ConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.LedgerRollupCheckpointRepository;
+import com.bank.bootcamp.credits.repository.LedgerRollupRepository;
+import com.bank.bootcamp.credits.repository.PaidRepository;
+import com.bank.bootcamp.credits.validation.CreditRequestValidator;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * Daily consumption and payment totals per credit (LedgerRollups), so period and analytics queries combine
+ * at most one row per day instead of scanning the ledgers.
+ *  - rollUp(upTo) finds every (credit, day) with movements ingested in (checkpoint, upTo] and adds them to the rollup
+ *    of that day, then moves the checkpoint. Like a balance snapshot, a rollup is its previous value plus the movements
+ *    ingested since its checkpoint, so reruns are harmless, saveIfNewer keeps a slower concurrent run from going back
+ *    and the movements of the day already archived stay counted.
+ *  - A movement belongs to the day of its date. One the ledger journal flushes after its day was rolled up is added
+ *    to that day by the next run.
+ *  - Queries read the rollups of the days before the checkpoint day and the ledgers for the remaining days, usually
+ *    today only; a movement flushed late into a day before the checkpoint day shows once the next run added it.
+ * Days are calendar days of the zone LocalDateTimes are stored in, the system default one.
+ */
+@Service
+@RequiredArgsConstructor
+public class LedgerRollupService {
+  
+  public static final String CHECKPOINT_ID = "ledger-rollup";
+  public static final int MAX_RANGE_DAYS = 5 * 366;
+  private static final ZoneId ZONE = ZoneId.systemDefault();
+  private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+  /* bounds the (credit, day) pairs of a run held in memory, a first run over the whole history goes window by window */
+  private static final Duration MAX_WINDOW = Duration.ofDays(1);
+  private static final int CONCURRENCY = 4;
+  
+  private final LedgerRollupRepository ledgerRollupRepository;
+  private final LedgerRollupCheckpointRepository ledgerRollupCheckpointRepository;
+  private final ConsumptiomRepository consumptiomRepository;
+  private final PaidRepository paidRepository;
+  private final CreditMetrics creditMetrics;
+  private final CreditRequestValidator validator;
+  
+  /*
+   * Rolls up every movement ingested up to upTo, returns the number of days rolled up.
+   * upTo must be far enough in the past that no movement ingested before it is still being written.
+   */
+  public Mono<Long> rollUp(LocalDateTime upTo) {
+    return findCheckpoint()
+        .switchIfEmpty(Mono.defer(() -> findEarliest(upTo)))
+        .flatMapMany(checkpoint -> Flux.<LocalDateTime, LocalDateTime>generate(() -> checkpoint, (after, sink) -> {
+          if (after.isBefore(upTo))
+            sink.next(after);
+          else
+            sink.complete();
+          return windowEnd(after, upTo);
+        }))
+        .concatMap(after -> {
+          var windowEnd = windowEnd(after, upTo);
+          return rollUpWindow(after, windowEnd).flatMap(days -> saveCheckpoint(windowEnd).thenReturn(days));
+        })
+        .reduce(0L, Long::sum);
+  }
+  
+  private static LocalDateTime windowEnd(LocalDateTime after, LocalDateTime upTo) {
+    var windowEnd = after.plus(MAX_WINDOW);
+    return windowEnd.isBefore(upTo) ? windowEnd : upTo;
+  }
+  
+  /*
+   * First run: just before the first movement ingested, nothing to do for empty ledgers.
+   */
+  private Mono<LocalDateTime> findEarliest(LocalDateTime upTo) {
+    return creditMetrics.timeRepository("Consumptiom", "findFirstByOrderByIngestedDateAsc", consumptiomRepository.findFirstByOrderByIngestedDateAsc())
+        .map(Consumptiom::getIngestedDate)
+        .concatWith(creditMetrics.timeRepository("Paid", "findFirstByOrderByIngestedDateAsc", paidRepository.findFirstByOrderByIngestedDateAsc())
+            .map(Paid::getIngestedDate))
+        .reduce((first, second) -> first.isBefore(second) ? first : second)
+        .map(earliest -> earliest.minus(1, ChronoUnit.MILLIS))
+        .defaultIfEmpty(upTo);
+  }
+  
+  private Mono<Long> rollUpWindow(LocalDateTime after, LocalDateTime upTo) {
+    return Flux.merge(
+          creditMetrics.timeRepository("Consumptiom", "getDaysBetween", consumptiomRepository.getDaysBetween(after, upTo, ZONE.getId())),
+          creditMetrics.timeRepository("Paid", "getDaysBetween", paidRepository.getDaysBetween(after, upTo, ZONE.getId())))
+        .distinct(day -> LedgerRollup.id(day.getCreditId(), LocalDate.parse(day.getDay())))
+        .flatMap(day -> rollUpDay(day, upTo), CONCURRENCY)
+        .count();
+  }
+  
+  /*
+   * The rollup of the day plus the movements of the day ingested in (its checkpoint, upTo]. A rollup already at or
+   * after upTo is kept.
+   */
+  private Mono<LedgerRollup> rollUpDay(LedgerDayDTO ledgerDay, LocalDateTime upTo) {
+    var creditId = ledgerDay.getCreditId();
+    var day = LocalDate.parse(ledgerDay.getDay());
+    var dayStart = day.atStartOfDay();
+    var nextDayStart = day.plusDays(1).atStartOfDay();
+    return creditMetrics.timeRepository("LedgerRollup", "findById", ledgerRollupRepository.findById(LedgerRollup.id(creditId, day)))
+        .defaultIfEmpty(emptyRollup(creditId, day))
+        .flatMap(previous -> {
+          if (!previous.getCheckpoint().isBefore(upTo))
+            return Mono.just(previous);
+          var after = previous.getCheckpoint();
+          return creditMetrics.timeRepository("Consumptiom", "getDailyTotal", consumptiomRepository.getDailyTotal(creditId, dayStart, nextDayStart, after, upTo))
+              .defaultIfEmpty(new LedgerTotalDTO())
+              .zipWith(creditMetrics.timeRepository("Paid", "getDailyTotal", paidRepository.getDailyTotal(creditId, dayStart, nextDayStart, after, upTo))
+                  .defaultIfEmpty(new LedgerTotalDTO()))
+              .flatMap(delta -> {
+                var rollup = new LedgerRollup();
+                rollup.setId(previous.getId());
+                rollup.setCreditId(creditId);
+                rollup.setDay(day);
+                rollup.setConsumptiomTotal(Money.toDecimal(Money.toMinor(previous.getConsumptiomTotal()) + toMinor(delta.getT1())));
+                rollup.setConsumptiomCount(previous.getConsumptiomCount() + delta.getT1().getCount());
+                rollup.setPaidTotal(Money.toDecimal(Money.toMinor(previous.getPaidTotal()) + toMinor(delta.getT2())));
+                rollup.setPaidCount(previous.getPaidCount() + delta.getT2().getCount());
+                rollup.setCheckpoint(upTo);
+                rollup.setUpdatedDate(LocalDateTime.now());
+                return creditMetrics.timeRepository("LedgerRollup", "saveIfNewer", ledgerRollupRepository.saveIfNewer(rollup));
+              });
+        });
+  }
+  
+  private static LedgerRollup emptyRollup(String creditId, LocalDate day) {
+    var rollup = new LedgerRollup();
+    rollup.setId(LedgerRollup.id(creditId, day));
+    rollup.setConsumptiomTotal(BigDecimal.ZERO);
+    rollup.setPaidTotal(BigDecimal.ZERO);
+    rollup.setCheckpoint(EPOCH);
+    return rollup;
+  }
+  
+  private static long toMinor(LedgerTotalDTO total) {
+    return total.getTotal() == null ? 0L : Money.toMinor(total.getTotal());
+  }
+  
+  /*
+   * Every movement ingested up to the checkpoint is rolled up, empty before the first run.
+   */
+  public Mono<LocalDateTime> findCheckpoint() {
+    return creditMetrics.timeRepository("LedgerRollupCheckpoint", "findById", ledgerRollupCheckpointRepository.findById(CHECKPOINT_ID))
+        .map(LedgerRollupCheckpoint::getCheckpoint);
+  }
+  
+  private Mono<LedgerRollupCheckpoint> saveCheckpoint(LocalDateTime checkpoint) {
+    var rollupCheckpoint = new LedgerRollupCheckpoint();
+    rollupCheckpoint.setId(CHECKPOINT_ID);
+    rollupCheckpoint.setCheckpoint(checkpoint);
+    rollupCheckpoint.setUpdatedDate(LocalDateTime.now());
+    return creditMetrics.timeRepository("LedgerRollupCheckpoint", "save", ledgerRollupCheckpointRepository.save(rollupCheckpoint));
+  }
+  
+  /*
+   * Totals of the credit per day or month of [from, to], oldest first, periods without movements are left out.
+   */
+  public Flux<LedgerPeriodDTO> getPeriods(String creditId, LocalDate from, LocalDate to, RollupGranularity granularity) {
+    var violations = validator.validateCreditId(creditId);
+    if (!violations.isEmpty())
+      return Flux.error(new BankValidationException(violations));
+    if (from == null || to == null || from.isAfter(to))
+      return Flux.error(BankValidationException.withReason("Invalid range", "Range from must be a date on or before to"));
+    if (ChronoUnit.DAYS.between(from, to) >= MAX_RANGE_DAYS)
+      return Flux.error(BankValidationException.withReason("Invalid range", String.format("Range must span at most %s days", MAX_RANGE_DAYS)));
+    var periodGranularity = granularity == null ? RollupGranularity.DAY : granularity;
+    
+    return creditMetrics.timeOperation("getLedgerPeriods", null, findCheckpoint()
+        .map(LocalDateTime::toLocalDate)
+        .defaultIfEmpty(EPOCH.toLocalDate())
+        .flatMapMany(openFrom -> {
+          var closedTo = to.isBefore(openFrom) ? to : openFrom.minusDays(1);
+          var rawFrom = from.isAfter(openFrom) ? from : openFrom;
+          return Flux.concat(
+              from.isAfter(closedTo) ? Flux.<DayTotals>empty() : creditMetrics.timeRepository("LedgerRollup", "findAllByCreditIdAndDayBetween",
+                  ledgerRollupRepository.findAllByCreditIdAndDayBetween(creditId, from, closedTo)).map(DayTotals::new),
+              rawFrom.isAfter(to) ? Flux.<DayTotals>empty() : fromLedgers(creditId, rawFrom, to));
+        })
+        .bufferUntilChanged(day -> periodStart(day.day, periodGranularity))
+        .map(days -> toPeriod(creditId, days, from, to, periodGranularity)));
+  }
+  
+  /*
+   * Days not rolled up yet, summed from the ledgers.
+   */
+  private Flux<DayTotals> fromLedgers(String creditId, LocalDate from, LocalDate to) {
+    var start = from.atStartOfDay();
+    var end = to.plusDays(1).atStartOfDay();
+    return Flux.merge(
+          creditMetrics.timeRepository("Consumptiom", "streamByCreditIdBetween", consumptiomRepository.streamByCreditIdBetween(creditId, start, end))
+              .map(DayTotals::new),
+          creditMetrics.timeRepository("Paid", "streamByCreditIdBetween", paidRepository.streamByCreditIdBetween(creditId, start, end))
+              .map(DayTotals::new))
+        .collect(TreeMap<LocalDate, DayTotals>::new, (days, movement) -> days.merge(movement.day, movement, DayTotals::add))
+        .flatMapIterable(Map::values);
+  }
+  
+  private static LocalDate periodStart(LocalDate day, RollupGranularity granularity) {
+    return granularity == RollupGranularity.MONTH ? day.withDayOfMonth(1) : day;
+  }
+  
+  private static LedgerPeriodDTO toPeriod(String creditId, List<DayTotals> days, LocalDate from, LocalDate to, RollupGranularity granularity) {
+    var totals = days.stream().reduce(DayTotals::add).orElseThrow();
+    var periodStart = periodStart(totals.day, granularity);
+    var periodEnd = granularity == RollupGranularity.MONTH ? periodStart.with(TemporalAdjusters.lastDayOfMonth()) : periodStart;
+    var period = new LedgerPeriodDTO();
+    period.setCreditId(creditId);
+    period.setFrom(periodStart.isBefore(from) ? from : periodStart);
+    period.setTo(periodEnd.isAfter(to) ? to : periodEnd);
+    period.setConsumptiomTotal(Money.toDecimal(totals.consumptiom));
+    period.setConsumptiomCount(totals.consumptiomCount);
+    period.setPaidTotal(Money.toDecimal(totals.paid));
+    period.setPaidCount(totals.paidCount);
+    return period;
+  }
+  
+  /*
+   * Totals of one day in minor units, from a rollup or a single movement.
+   */
+  private static class DayTotals {
+    private final LocalDate day;
+    private long consumptiom;
+    private long consumptiomCount;
+    private long paid;
+    private long paidCount;
+    
+    private DayTotals(LedgerRollup rollup) {
+      this.day = rollup.getDay();
+      this.consumptiom = Money.toMinor(rollup.getConsumptiomTotal());
+      this.consumptiomCount = rollup.getConsumptiomCount();
+      this.paid = Money.toMinor(rollup.getPaidTotal());
+      this.paidCount = rollup.getPaidCount();
+    }
+    
+    private DayTotals(Consumptiom consumptiom) {
+      this.day = consumptiom.getRegisterDate().toLocalDate();
+      this.consumptiom = Money.toMinor(consumptiom.getAmount());
+      this.consumptiomCount = 1;
+    }
+    
+    private DayTotals(Paid paid) {
+      this.day = paid.getCreatedDate().toLocalDate();
+      this.paid = Money.toMinor(paid.getAmount());
+      this.paidCount = 1;
+    }
+    
+    private DayTotals add(DayTotals other) {
+      consumptiom += other.consumptiom;
+      consumptiomCount += other.consumptiomCount;
+      paid += other.paid;
+      paidCount += other.paidCount;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package com.bank.bootcamp.credits.service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicReference;
+import org.springframework.stereotype.Service;
+import com.bank.bootcamp.credits.dto.ExposureTotalDTO;
+import com.bank.bootcamp.credits.dto.PortfolioExposureDTO;
+import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.entity.CustomerExposure;
+import com.bank.bootcamp.credits.entity.PortfolioExposureCheckpoint;
+import com.bank.bootcamp.credits.exception.BankValidationException;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.repository.CreditRepository;
+import com.bank.bootcamp.credits.repository.CustomerExposureRepository;
+import com.bank.bootcamp.credits.repository.PortfolioExposureCheckpointRepository;
+import com.bank.bootcamp.credits.validation.CreditRequestValidator;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * Limit, used and available per customer and credit type (CustomerExposures) and per credit type across the portfolio.
+ *  - The first refresh groups every Credit on the server in one aggregation, streamed into CustomerExposures.
+ *  - Later refreshes only recompute the customers and credit types with a credit written since the checkpoint
+ *    (Credit.updatedDate, minus OVERLAP for writes in flight and the clocks of other instances), each one with an
+ *    aggregation over the customerId_creditType index, at most BATCH_SIZE changed credits in memory.
+ *  - Groups with legacy credits (no materialized balance) take their used line of credit from the ledgers.
+ * Every read refreshes first; concurrent reads share the refresh in progress, and saveIfNewer keeps a slower
+ * refresh of another instance from going back.
+ */
+@Service
+@RequiredArgsConstructor
+public class PortfolioExposureService {
+  
+  public static final String CHECKPOINT_ID = "portfolio-exposure";
+  private static final Duration OVERLAP = Duration.ofMinutes(1);
+  private static final int BATCH_SIZE = 1000;
+  private static final int CONCURRENCY = 4;
+  
+  private final CreditRepository creditRepository;
+  private final CustomerExposureRepository customerExposureRepository;
+  private final PortfolioExposureCheckpointRepository portfolioExposureCheckpointRepository;
+  private final BalanceSnapshotService balanceSnapshotService;
+  private final CreditMetrics creditMetrics;
+  private final CreditRequestValidator validator;
+  private final AtomicReference<Mono<Long>> refreshing = new AtomicReference<>();
+  
+  /*
+   * Brings CustomerExposures up to the credits written before the refresh started, joining the refresh in progress
+   * if there is one. Returns the number of customer exposures recomputed.
+   */
+  public Mono<Long> refresh() {
+    return Mono.defer(() -> {
+      var current = refreshing.get();
+      if (current != null)
+        return current;
+      var refresh = new AtomicReference<Mono<Long>>();
+      refresh.set(Mono.defer(() -> doRefresh(LocalDateTime.now()))
+          .doFinally(signal -> refreshing.compareAndSet(refresh.get(), null))
+          .cache());
+      return refreshing.compareAndSet(null, refresh.get()) ? refresh.get() : refresh();
+    });
+  }
+  
+  private Mono<Long> doRefresh(LocalDateTime startedAt) {
+    return findCheckpoint()
+        .flatMap(checkpoint -> refreshChanged(checkpoint.minus(OVERLAP), startedAt))
+        .switchIfEmpty(Mono.defer(() -> rebuild(startedAt)))
+        .flatMap(exposures -> saveCheckpoint(startedAt).thenReturn(exposures));
+  }
+  
+  /*
+   * First run: the whole portfolio, grouped by MongoDB and consumed CONCURRENCY groups at a time.
+   */
+  private Mono<Long> rebuild(LocalDateTime checkpoint) {
+    return creditMetrics.timeRepository("Credit", "getExposures", creditRepository.getExposures())
+        .flatMap(total -> save(total, checkpoint), CONCURRENCY)
+        .count();
+  }
+  
+  /*
+   * A customer and credit type changed in two batches is recomputed twice, which is harmless.
+   */
+  private Mono<Long> refreshChanged(LocalDateTime since, LocalDateTime checkpoint) {
+    return creditMetrics.timeRepository("Credit", "findChangedSince", creditRepository.findChangedSince(since))
+        .buffer(BATCH_SIZE)
+        .concatMap(credits -> Flux.fromIterable(credits)
+            .distinct(credit -> CustomerExposure.id(credit.getCustomerId(), credit.getCreditType()))
+            .flatMap(credit -> recompute(credit.getCustomerId(), credit.getCreditType(), checkpoint), CONCURRENCY))
+        .count();
+  }
+  
+  private Mono<CustomerExposure> recompute(String customerId, CreditType creditType, LocalDateTime checkpoint) {
+    return creditMetrics.timeRepository("Credit", "getExposure", creditRepository.getExposure(customerId, creditType))
+        .flatMap(total -> save(total, checkpoint))
+        // no credit of the type left for the customer
+        .switchIfEmpty(Mono.defer(() -> creditMetrics.timeRepository("CustomerExposure", "deleteById",
+            customerExposureRepository.deleteById(CustomerExposure.id(customerId, creditType))).then(Mono.empty())));
+  }
+  
+  private Mono<CustomerExposure> save(ExposureTotalDTO total, LocalDateTime checkpoint) {
+    return (total.getLegacyCredits() > 0 ? withLedgerBalances(total) : Mono.just(total))
+        .flatMap(exposureTotal -> {
+          var exposure = new CustomerExposure();
+          exposure.setId(CustomerExposure.id(exposureTotal.getCustomerId(), exposureTotal.getCreditType()));
+          exposure.setCustomerId(exposureTotal.getCustomerId());
+          exposure.setCreditType(exposureTotal.getCreditType());
+          exposure.setCredits(exposureTotal.getCredits());
+          exposure.setLimit(Money.toDecimal(Money.toMinor(exposureTotal.getLimit())));
+          exposure.setUsed(Money.toDecimal(Money.toMinor(exposureTotal.getUsed())));
+          exposure.setAvailable(Money.toDecimal(Money.toMinor(exposureTotal.getAvailable())));
+          exposure.setCheckpoint(checkpoint);
+          exposure.setUpdatedDate(LocalDateTime.now());
+          return creditMetrics.timeRepository("CustomerExposure", "saveIfNewer", customerExposureRepository.saveIfNewer(exposure));
+        });
+  }
+  
+  /*
+   * The sums of the group again, with the used line of credit of the legacy credits summed from their ledgers
+   * (without materializing it, a read does not write credits).
+   */
+  private Mono<ExposureTotalDTO> withLedgerBalances(ExposureTotalDTO total) {
+    return creditMetrics.timeRepository("Credit", "findAllByCustomerIdAndCreditType",
+          creditRepository.findAllByCustomerIdAndCreditType(total.getCustomerId(), total.getCreditType()))
+        .flatMap(credit -> (credit.getUsed() != null ? Mono.just(Money.toMinor(credit.getUsed())) : balanceSnapshotService.getCreditUsed(credit.getId()))
+            .map(used -> {
+              var balance = new ExposureTotalDTO();
+              balance.setCredits(1);
+              balance.setLimit(credit.getLimit());
+              balance.setUsed(Money.toDecimal(used));
+              balance.setAvailable(credit.getUsed() != null ? credit.getAvailable() : credit.getLimit().subtract(Money.toDecimal(used)));
+              return balance;
+            }), CONCURRENCY)
+        .reduce(emptyTotal(total), (sum, balance) -> {
+          sum.setCredits(sum.getCredits() + balance.getCredits());
+          sum.setLimit(sum.getLimit().add(balance.getLimit()));
+          sum.setUsed(sum.getUsed().add(balance.getUsed()));
+          sum.setAvailable(sum.getAvailable().add(balance.getAvailable()));
+          return sum;
+        });
+  }
+  
+  private static ExposureTotalDTO emptyTotal(ExposureTotalDTO group) {
+    var total = new ExposureTotalDTO();
+    total.setCustomerId(group.getCustomerId());
+    total.setCreditType(group.getCreditType());
+    total.setLimit(BigDecimal.ZERO);
+    total.setUsed(BigDecimal.ZERO);
+    total.setAvailable(BigDecimal.ZERO);
+    return total;
+  }
+  
+  /*
+   * Every credit written before the checkpoint is counted, empty before the first refresh.
+   */
+  public Mono<LocalDateTime> findCheckpoint() {
+    return creditMetrics.timeRepository("PortfolioExposureCheckpoint", "findById", portfolioExposureCheckpointRepository.findById(CHECKPOINT_ID))
+        .map(PortfolioExposureCheckpoint::getCheckpoint);
+  }
+  
+  private Mono<PortfolioExposureCheckpoint> saveCheckpoint(LocalDateTime checkpoint) {
+    var exposureCheckpoint = new PortfolioExposureCheckpoint();
+    exposureCheckpoint.setId(CHECKPOINT_ID);
+    exposureCheckpoint.setCheckpoint(checkpoint);
+    exposureCheckpoint.setUpdatedDate(LocalDateTime.now());
+    return creditMetrics.timeRepository("PortfolioExposureCheckpoint", "save", portfolioExposureCheckpointRepository.save(exposureCheckpoint));
+  }
+  
+  /*
+   * Totals per credit type of the whole portfolio.
+   */
+  public Flux<PortfolioExposureDTO> getPortfolioExposure() {
+    return creditMetrics.timeOperation("getPortfolioExposure", null, refresh()
+        .thenMany(Flux.defer(() -> creditMetrics.timeRepository("CustomerExposure", "getPortfolio", customerExposureRepository.getPortfolio()))));
+  }
+  
+  /*
+   * Every customer exposure, streamed as read.
+   */
+  public Flux<CustomerExposure> getCustomerExposures() {
+    return creditMetrics.timeOperation("getCustomerExposures", null, refresh()
+        .thenMany(Flux.defer(() -> creditMetrics.timeRepository("CustomerExposure", "findAll", customerExposureRepository.findAll()))));
+  }
+  
+  public Flux<CustomerExposure> getCustomerExposure(String customerId) {
+    var violations = validator.validateCustomerId(customerId);
+    if (!violations.isEmpty())
+      return Flux.error(new BankValidationException(violations));
+    return creditMetrics.timeOperation("getCustomerExposure", null, refresh()
+        .thenMany(Flux.defer(() -> creditMetrics.timeRepository("CustomerExposure", "findAllByCustomerId",
+            customerExposureRepository.findAllByCustomerId(customerId)))));
+  }
+}
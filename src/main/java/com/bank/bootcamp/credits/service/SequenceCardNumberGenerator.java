@@ -0,0 +1,66 @@
+package com.bank.bootcamp.credits.service;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.stereotype.Component;
+
+/*
+ * 16 digit card numbers: BIN + 11 digit account number + Luhn check digit.
+ * The account number is a per-instance sequence, started at a random offset and scrambled with
+ * an affine permutation of [0, 10^11), so numbers never repeat within an instance and are not consecutive.
+ * Digits are computed on primitives; the only allocations are the resulting char[] and String.
+ */
+@Component
+public class SequenceCardNumberGenerator implements CardNumberGenerator {
+
+  private static final String BIN = "3353";
+  private static final int LENGTH = 16;
+  private static final long ACCOUNT_RANGE = 100_000_000_000L;
+  // coprime with 10, so (sequence * MULTIPLIER + INCREMENT) mod 10^11 is a bijection
+  private static final long MULTIPLIER = 7_919_113L;
+  private static final long INCREMENT = 48_271_000_013L;
+  
+  private final AtomicLong sequence;
+  
+  public SequenceCardNumberGenerator() {
+    this(new SecureRandom().nextLong());
+  }
+  
+  SequenceCardNumberGenerator(long seed) {
+    this.sequence = new AtomicLong(Math.floorMod(seed, ACCOUNT_RANGE));
+  }
+  
+  @Override
+  public String generate() {
+    var account = Math.floorMod(sequence.getAndIncrement(), ACCOUNT_RANGE);
+    account = (account * MULTIPLIER + INCREMENT) % ACCOUNT_RANGE;
+    
+    var digits = new char[LENGTH];
+    for (int i = 0; i < BIN.length(); i++)
+      digits[i] = BIN.charAt(i);
+    for (int i = LENGTH - 2; i >= BIN.length(); i--) {
+      digits[i] = (char) ('0' + account % 10);
+      account /= 10;
+    }
+    digits[LENGTH - 1] = (char) ('0' + checkDigit(digits, LENGTH - 1));
+    return new String(digits);
+  }
+  
+  /*
+   * Luhn check digit of the first length digits.
+   */
+  static int checkDigit(char[] digits, int length) {
+    int sum = 0;
+    for (int i = length - 1, doubled = 1; i >= 0; i--, doubled ^= 1) {
+      int digit = digits[i] - '0';
+      if (doubled == 1) {
+        digit *= 2;
+        if (digit > 9)
+          digit -= 9;
+      }
+      sum += digit;
+    }
+    int mod = sum % 10;
+    return mod == 0 ? 0 : 10 - mod;
+  }
+}
@@ -0,0 +1,200 @@
+package com.bank.bootcamp.credits.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Comparator;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import com.bank.bootcamp.credits.dto.MovementDTO;
+import com.bank.bootcamp.credits.dto.StatementPageDTO;
+import com.bank.bootcamp.credits.entity.ArchivedConsumptiom;
+import com.bank.bootcamp.credits.entity.ArchivedPaid;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.exception.BankValidationException;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.repository.ArchivedConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.ArchivedPaidRepository;
+import com.bank.bootcamp.credits.repository.ConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.PaidRepository;
+import com.bank.bootcamp.credits.validation.CreditRequestValidator;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * Statement of a credit: its Consumptioms and Paids merged by date.
+ * Pages are read with keyset pagination on (date, id) so every page costs one index range scan per ledger,
+ * whatever its depth. The stream reads both ledgers through their cursors and merges them on demand,
+ * so an export holds at most STREAM_PREFETCH movements per ledger in memory.
+ * Archived movements are only read when asked for; a movement caught in both tiers by an interrupted
+ * archive run has the same (date, id) in both, so the merge puts the copies next to each other and one is dropped.
+ */
+@Service
+@RequiredArgsConstructor
+public class StatementService {
+  
+  public static final int DEFAULT_PAGE_SIZE = 50;
+  public static final int MAX_PAGE_SIZE = 500;
+  private static final int STREAM_PREFETCH = 32;
+  private static final String CURSOR_SEPARATOR = "|";
+  
+  private static final Comparator<MovementDTO> CHRONOLOGICAL = Comparator
+      .comparing(MovementDTO::getDate, Comparator.nullsFirst(Comparator.<LocalDateTime>naturalOrder()))
+      .thenComparing(MovementDTO::getId);
+  
+  private final ConsumptiomRepository consumptiomRepository;
+  private final PaidRepository paidRepository;
+  private final ArchivedConsumptiomRepository archivedConsumptiomRepository;
+  private final ArchivedPaidRepository archivedPaidRepository;
+  private final CreditMetrics creditMetrics;
+  private final CreditRequestValidator validator;
+  
+  /*
+   * Newest movements first; cursor is the nextCursor of the previous page, null for the first one.
+   * With archived the movements moved to the archive (LedgerArchiveService) are merged in.
+   */
+  public Mono<StatementPageDTO> getStatement(String creditId, String cursor, Integer size, boolean archived) {
+    return creditMetrics.timeOperation("getStatement", creditType -> {
+      var violations = validator.validateCreditId(creditId);
+      if (!violations.isEmpty())
+        return Mono.error(new BankValidationException(violations));
+      var pageSize = size == null ? DEFAULT_PAGE_SIZE : size;
+      if (pageSize < 1 || pageSize > MAX_PAGE_SIZE)
+        return Mono.error(BankValidationException.withReason("Invalid page size",
+            String.format("Statement page size must be between 1 and %s", MAX_PAGE_SIZE)));
+      
+      var page = PageRequest.of(0, pageSize);
+      Flux<Consumptiom> consumptioms;
+      Flux<Paid> paids;
+      Flux<ArchivedConsumptiom> archivedConsumptioms = Flux.empty();
+      Flux<ArchivedPaid> archivedPaids = Flux.empty();
+      if (cursor == null || cursor.isEmpty()) {
+        consumptioms = consumptiomRepository.findPageByCreditId(creditId, page);
+        paids = paidRepository.findPageByCreditId(creditId, page);
+        if (archived) {
+          archivedConsumptioms = archivedConsumptiomRepository.findPageByCreditId(creditId, page);
+          archivedPaids = archivedPaidRepository.findPageByCreditId(creditId, page);
+        }
+      } else {
+        var after = decodeCursor(cursor);
+        if (after == null)
+          return Mono.error(BankValidationException.withReason("Invalid cursor", "Statement cursor is not valid"));
+        var afterId = new ObjectId(after.getId());
+        consumptioms = consumptiomRepository.findPageByCreditIdBefore(creditId, after.getDate(), afterId, page);
+        paids = paidRepository.findPageByCreditIdBefore(creditId, after.getDate(), afterId, page);
+        if (archived) {
+          archivedConsumptioms = archivedConsumptiomRepository.findPageByCreditIdBefore(creditId, after.getDate(), afterId, page);
+          archivedPaids = archivedPaidRepository.findPageByCreditIdBefore(creditId, after.getDate(), afterId, page);
+        }
+      }
+      
+      var newestFirst = CHRONOLOGICAL.reversed();
+      var merged = Flux.mergeComparing(pageSize, newestFirst,
+          creditMetrics.timeRepository("Consumptiom", "findPageByCreditId", consumptioms).map(this::toMovement),
+          creditMetrics.timeRepository("Paid", "findPageByCreditId", paids).map(this::toMovement));
+      if (archived)
+        merged = Flux.mergeComparing(pageSize, newestFirst, merged, Flux.mergeComparing(pageSize, newestFirst,
+              creditMetrics.timeRepository("ArchivedConsumptiom", "findPageByCreditId", archivedConsumptioms).map(this::toMovement),
+              creditMetrics.timeRepository("ArchivedPaid", "findPageByCreditId", archivedPaids).map(this::toMovement)))
+            .distinctUntilChanged(MovementDTO::getId);
+      
+      return merged
+          .take(pageSize)
+          .collectList()
+          .map(movements -> {
+            var statement = new StatementPageDTO();
+            statement.setMovements(movements);
+            if (movements.size() == pageSize)
+              statement.setNextCursor(encodeCursor(movements.get(movements.size() - 1)));
+            return statement;
+          });
+    });
+  }
+  
+  /*
+   * Whole history, oldest movements first, emitted as the subscriber requests them.
+   * With archived the archived movements are merged in too.
+   */
+  public Flux<MovementDTO> streamStatement(String creditId, boolean archived) {
+    var violations = validator.validateCreditId(creditId);
+    if (!violations.isEmpty())
+      return Flux.error(new BankValidationException(violations));
+    var movements = Flux.mergeComparing(STREAM_PREFETCH, CHRONOLOGICAL,
+        creditMetrics.timeRepository("Consumptiom", "streamByCreditId", consumptiomRepository.streamByCreditId(creditId)).map(this::toMovement),
+        creditMetrics.timeRepository("Paid", "streamByCreditId", paidRepository.streamByCreditId(creditId)).map(this::toMovement));
+    if (archived)
+      movements = Flux.mergeComparing(STREAM_PREFETCH, CHRONOLOGICAL, Flux.mergeComparing(STREAM_PREFETCH, CHRONOLOGICAL,
+            creditMetrics.timeRepository("ArchivedConsumptiom", "streamByCreditId", archivedConsumptiomRepository.streamByCreditId(creditId)).map(this::toMovement),
+            creditMetrics.timeRepository("ArchivedPaid", "streamByCreditId", archivedPaidRepository.streamByCreditId(creditId)).map(this::toMovement)),
+          movements)
+          .distinctUntilChanged(MovementDTO::getId);
+    return creditMetrics.timeOperation("streamStatement", null, movements);
+  }
+  
+  private MovementDTO toMovement(Consumptiom consumptiom) {
+    var movement = new MovementDTO();
+    movement.setId(consumptiom.getId());
+    movement.setCreditId(consumptiom.getCreditId());
+    movement.setType(MovementDTO.CONSUMPTIOM);
+    movement.setAmount(consumptiom.getAmount());
+    movement.setDate(consumptiom.getRegisterDate());
+    return movement;
+  }
+  
+  private MovementDTO toMovement(Paid paid) {
+    var movement = new MovementDTO();
+    movement.setId(paid.getId());
+    movement.setCreditId(paid.getCreditId());
+    movement.setType(MovementDTO.PAID);
+    movement.setAmount(paid.getAmount());
+    movement.setDate(paid.getCreatedDate());
+    return movement;
+  }
+  
+  private MovementDTO toMovement(ArchivedConsumptiom consumptiom) {
+    var movement = new MovementDTO();
+    movement.setId(consumptiom.getId());
+    movement.setCreditId(consumptiom.getCreditId());
+    movement.setType(MovementDTO.CONSUMPTIOM);
+    movement.setAmount(consumptiom.getAmount());
+    movement.setDate(consumptiom.getRegisterDate());
+    return movement;
+  }
+  
+  private MovementDTO toMovement(ArchivedPaid paid) {
+    var movement = new MovementDTO();
+    movement.setId(paid.getId());
+    movement.setCreditId(paid.getCreditId());
+    movement.setType(MovementDTO.PAID);
+    movement.setAmount(paid.getAmount());
+    movement.setDate(paid.getCreatedDate());
+    return movement;
+  }
+  
+  static String encodeCursor(MovementDTO movement) {
+    var key = movement.getDate() + CURSOR_SEPARATOR + movement.getId();
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+  }
+  
+  /*
+   * Returns a MovementDTO holding only date and id, or null when the cursor is malformed.
+   */
+  static MovementDTO decodeCursor(String cursor) {
+    try {
+      var key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      var separator = key.indexOf(CURSOR_SEPARATOR);
+      if (separator < 0 || !ObjectId.isValid(key.substring(separator + 1)))
+        return null;
+      var movement = new MovementDTO();
+      movement.setDate(LocalDateTime.parse(key.substring(0, separator)));
+      movement.setId(key.substring(separator + 1));
+      return movement;
+    } catch (IllegalArgumentException | DateTimeParseException e) {
+      return null;
+    }
+  }
+}
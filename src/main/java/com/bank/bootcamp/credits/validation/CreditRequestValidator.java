@@ -0,0 +1,95 @@
+package com.bank.bootcamp.credits.validation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ObjectUtils;
+import com.bank.bootcamp.credits.dto.CreateConsumptiomDTO;
+import com.bank.bootcamp.credits.dto.CreatePaidDTO;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.money.Money;
+
+/*
+ * Field rules of the credit requests, evaluated in one synchronous pass.
+ * Every rule is checked, so a request gets all its violations at once; a valid request
+ * returns the shared empty list and allocates nothing.
+ */
+@Component
+public class CreditRequestValidator {
+  
+  public static final int MAX_BULK_CREDIT_IDS = 1000;
+  
+  public List<String> validate(Credit credit) {
+    if (credit == null)
+      return List.of("Credit has not data");
+    List<String> violations = Collections.emptyList();
+    if (ObjectUtils.isEmpty(credit.getCustomerId()))
+      violations = add(violations, "Customer ID is required");
+    if (credit.getCreditType() == null)
+      violations = add(violations, "Credit type is required");
+    if (credit.getLimit() == null)
+      violations = add(violations, "Credit Limit is required");
+    else if (credit.getLimit().signum() < 0)
+      violations = add(violations, "Credit Limit must be greater than zero (0)");
+    else if (!Money.isMoney(credit.getLimit()))
+      violations = add(violations, "Credit Limit must have at most 2 decimals");
+    return violations;
+  }
+  
+  public List<String> validate(CreateConsumptiomDTO consumptiom) {
+    if (consumptiom == null)
+      return List.of("Consumption is required");
+    List<String> violations = Collections.emptyList();
+    if (consumptiom.getAmount() == null)
+      violations = add(violations, "Consumption amount is required");
+    else if (consumptiom.getAmount().signum() <= 0)
+      violations = add(violations, "Consumption amount must be greater than zero");
+    else if (!Money.isMoney(consumptiom.getAmount()))
+      violations = add(violations, "Consumption amount must have at most 2 decimals");
+    if (ObjectUtils.isEmpty(consumptiom.getCreditId()))
+      violations = add(violations, "Consumption Credit ID is required");
+    return violations;
+  }
+  
+  public List<String> validate(CreatePaidDTO paid) {
+    if (paid == null)
+      return List.of("Paid is required");
+    List<String> violations = Collections.emptyList();
+    if (paid.getAmount() == null)
+      violations = add(violations, "Paid Amount is required");
+    else if (paid.getAmount().signum() <= 0)
+      violations = add(violations, "Paid Amount must be greater than zero");
+    else if (!Money.isMoney(paid.getAmount()))
+      violations = add(violations, "Paid Amount must have at most 2 decimals");
+    if (ObjectUtils.isEmpty(paid.getCreditId()))
+      violations = add(violations, "Paid Credit ID is required");
+    return violations;
+  }
+  
+  public List<String> validateCreditId(String creditId) {
+    return ObjectUtils.isEmpty(creditId) ? List.of("Credit ID is required") : Collections.emptyList();
+  }
+  
+  public List<String> validateCustomerId(String customerId) {
+    return ObjectUtils.isEmpty(customerId) ? List.of("Customer ID is required") : Collections.emptyList();
+  }
+  
+  /*
+   * Only the list itself: blank ids inside it are reported per item.
+   */
+  public List<String> validateCreditIds(List<String> creditIds) {
+    if (ObjectUtils.isEmpty(creditIds))
+      return List.of("Credit IDs are required");
+    if (creditIds.size() > MAX_BULK_CREDIT_IDS)
+      return List.of(String.format("At most %s Credit IDs are allowed", MAX_BULK_CREDIT_IDS));
+    return Collections.emptyList();
+  }
+  
+  private List<String> add(List<String> violations, String violation) {
+    if (violations.isEmpty())
+      violations = new ArrayList<>(2);
+    violations.add(violation);
+    return violations;
+  }
+}
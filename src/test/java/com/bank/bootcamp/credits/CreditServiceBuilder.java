@@ -0,0 +1,139 @@
+package com.bank.bootcamp.credits;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import org.springframework.util.unit.DataSize;
+import com.bank.bootcamp.credits.cache.BalanceCache;
+import com.bank.bootcamp.credits.journal.LedgerJournal;
+import com.bank.bootcamp.credits.lane.CreditWriteLanes;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.repository.BalanceSnapshotRepository;
+import com.bank.bootcamp.credits.repository.ConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.CreditRepository;
+import com.bank.bootcamp.credits.repository.PaidRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryBalanceSnapshotRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCreditRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+import com.bank.bootcamp.credits.service.BalanceSnapshotService;
+import com.bank.bootcamp.credits.service.CreditService;
+import com.bank.bootcamp.credits.service.SequenceCardNumberGenerator;
+import com.bank.bootcamp.credits.validation.CreditRequestValidator;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * The CreditService of the tests and benchmarks, wired as the application does: in-memory repositories, write lanes
+ * and ledger journal off, and the @Value defaults everywhere, unless the test sets them. Each test only states
+ * what it configures; a new constructor parameter is added here once.
+ */
+public class CreditServiceBuilder {
+  
+  private final MeterRegistry meterRegistry;
+  private final CreditMetrics creditMetrics;
+  private CreditRepository creditRepository = new InMemoryCreditRepository();
+  private ConsumptiomRepository consumptiomRepository = new InMemoryConsumptiomRepository();
+  private PaidRepository paidRepository = new InMemoryPaidRepository();
+  private BalanceSnapshotRepository balanceSnapshotRepository = new InMemoryBalanceSnapshotRepository();
+  private BalanceCache balanceCache;
+  private boolean writeLanes;
+  private int writeLaneStripes = 64;
+  private int writeLaneQueueCapacity = 10_000;
+  private Path journalDirectory;
+  private DataSize journalSegmentSize = DataSize.ofMegabytes(64);
+  private Duration journalCommitWindow = Duration.ofMillis(2);
+  private int journalFlushBatch = 1000;
+  private LedgerJournal journal;
+  
+  public CreditServiceBuilder(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    this.creditMetrics = new CreditMetrics(meterRegistry);
+  }
+  
+  public CreditServiceBuilder creditRepository(CreditRepository creditRepository) {
+    this.creditRepository = creditRepository;
+    return this;
+  }
+  
+  public CreditServiceBuilder consumptiomRepository(ConsumptiomRepository consumptiomRepository) {
+    this.consumptiomRepository = consumptiomRepository;
+    return this;
+  }
+  
+  public CreditServiceBuilder paidRepository(PaidRepository paidRepository) {
+    this.paidRepository = paidRepository;
+    return this;
+  }
+  
+  public CreditServiceBuilder balanceSnapshotRepository(BalanceSnapshotRepository balanceSnapshotRepository) {
+    this.balanceSnapshotRepository = balanceSnapshotRepository;
+    return this;
+  }
+  
+  public CreditServiceBuilder balanceCache(BalanceCache balanceCache) {
+    this.balanceCache = balanceCache;
+    return this;
+  }
+  
+  public CreditServiceBuilder writeLanes(boolean writeLanes) {
+    this.writeLanes = writeLanes;
+    return this;
+  }
+  
+  public CreditServiceBuilder writeLanes(boolean writeLanes, int stripes, int queueCapacity) {
+    this.writeLaneStripes = stripes;
+    this.writeLaneQueueCapacity = queueCapacity;
+    return writeLanes(writeLanes);
+  }
+  
+  /*
+   * Turns the ledger journal on, with its segments in directory.
+   */
+  public CreditServiceBuilder journal(Path directory) {
+    this.journalDirectory = directory;
+    return this;
+  }
+  
+  public CreditServiceBuilder journal(LedgerJournal journal) {
+    this.journal = journal;
+    return this;
+  }
+  
+  public CreditServiceBuilder journalSegmentSize(DataSize segmentSize) {
+    this.journalSegmentSize = segmentSize;
+    return this;
+  }
+  
+  public CreditServiceBuilder journalCommitWindow(Duration commitWindow) {
+    this.journalCommitWindow = commitWindow;
+    return this;
+  }
+  
+  public CreditServiceBuilder journalFlushBatch(int flushBatch) {
+    this.journalFlushBatch = flushBatch;
+    return this;
+  }
+  
+  public CreditMetrics creditMetrics() {
+    return creditMetrics;
+  }
+  
+  /*
+   * A new journal on each call (a restart when it is on), the service gets the one set with journal(LedgerJournal) or a new one.
+   */
+  public LedgerJournal ledgerJournal() {
+    return new LedgerJournal(consumptiomRepository, paidRepository, creditMetrics, meterRegistry, journalDirectory != null,
+        journalDirectory != null ? journalDirectory : Path.of("journal"), journalSegmentSize, journalCommitWindow, journalFlushBatch);
+  }
+  
+  public BalanceSnapshotService balanceSnapshotService() {
+    return new BalanceSnapshotService(balanceSnapshotRepository, consumptiomRepository, paidRepository, creditMetrics);
+  }
+  
+  public CreditService build() {
+    return new CreditService(creditRepository, paidRepository, consumptiomRepository,
+        balanceCache != null ? balanceCache : new BalanceCache(100_000, Duration.ofMinutes(1), meterRegistry),
+        balanceSnapshotService(), creditMetrics, new SequenceCardNumberGenerator(), new CreditRequestValidator(),
+        new CreditWriteLanes(writeLanes, writeLaneStripes, 128, writeLaneQueueCapacity, Duration.ofSeconds(1), meterRegistry),
+        journal != null ? journal : ledgerJournal());
+  }
+}
@@ -3,27 +3,48 @@ package com.bank.bootcamp.credits;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.springframework.dao.DuplicateKeyException;
+import com.bank.bootcamp.credits.cache.BalanceCache;
 import com.bank.bootcamp.credits.dto.BalanceDTO;
+import com.bank.bootcamp.credits.dto.BalanceResultDTO;
+import com.bank.bootcamp.credits.dto.ConsumptiomResultDTO;
 import com.bank.bootcamp.credits.dto.CreateConsumptiomDTO;
 import com.bank.bootcamp.credits.dto.CreatePaidDTO;
+import com.bank.bootcamp.credits.dto.CreditTotalDTO;
 import com.bank.bootcamp.credits.entity.Consumptiom;
 import com.bank.bootcamp.credits.entity.Credit;
 import com.bank.bootcamp.credits.entity.CreditType;
 import com.bank.bootcamp.credits.entity.Paid;
 import com.bank.bootcamp.credits.exception.BankValidationException;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.repository.BalanceSnapshotRepository;
 import com.bank.bootcamp.credits.repository.ConsumptiomRepository;
 import com.bank.bootcamp.credits.repository.CreditRepository;
 import com.bank.bootcamp.credits.repository.PaidRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCreditRepository;
 import com.bank.bootcamp.credits.service.CreditService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
 import reactor.test.StepVerifier;
 
 public class CreditsApplicationTests {
@@ -32,6 +53,9 @@ public class CreditsApplicationTests {
   private static CreditRepository creditRepository;
   private static PaidRepository paidRepository;
   private static ConsumptiomRepository consumptiomRepository;
+  private static BalanceSnapshotRepository balanceSnapshotRepository;
+  private static BalanceCache balanceCache;
+  private static MeterRegistry meterRegistry;
 
   private static ObjectMapper mapper = new ObjectMapper();
 
@@ -40,15 +64,36 @@ public class CreditsApplicationTests {
     creditRepository = mock(CreditRepository.class);
     paidRepository = mock(PaidRepository.class);
     consumptiomRepository = mock(ConsumptiomRepository.class);
-    creditService = new CreditService(creditRepository, paidRepository, consumptiomRepository);
+    balanceSnapshotRepository = mock(BalanceSnapshotRepository.class);
+    when(balanceSnapshotRepository.findById(Mockito.anyString())).thenReturn(Mono.empty());
     mapper.registerModule(new JavaTimeModule());
   }
   
+  @BeforeEach
+  public void setupService() {
+    meterRegistry = new SimpleMeterRegistry();
+    balanceCache = new BalanceCache(1000, Duration.ofMinutes(1), meterRegistry);
+    creditService = newCreditService(false);
+  }
+  
+  private CreditService newCreditService(boolean writeLanes) {
+    return new CreditServiceBuilder(meterRegistry)
+        .creditRepository(creditRepository)
+        .paidRepository(paidRepository)
+        .consumptiomRepository(consumptiomRepository)
+        .balanceSnapshotRepository(balanceSnapshotRepository)
+        .balanceCache(balanceCache)
+        .writeLanes(writeLanes, 8, 10_000)
+        .build();
+  }
+  
   private Credit getPersonalCredit() {
     var credit = new Credit();
     credit.setCreditType(CreditType.PERSONAL);
     credit.setCustomerId("c1");
-    credit.setLimit(100d);
+    credit.setLimit(new BigDecimal("100"));
+    credit.setUsed(new BigDecimal("0"));
+    credit.setAvailable(new BigDecimal("100"));
     return credit;
   }
   
@@ -56,7 +101,9 @@ public class CreditsApplicationTests {
     var credit = new Credit();
     credit.setCreditType(CreditType.BUSINESS);
     credit.setCustomerId("b1");
-    credit.setLimit(1000d);
+    credit.setLimit(new BigDecimal("1000"));
+    credit.setUsed(new BigDecimal("0"));
+    credit.setAvailable(new BigDecimal("1000"));
     return credit;
   }
 
@@ -77,7 +124,7 @@ public class CreditsApplicationTests {
     }).verifyComplete();
     
     var credit2 = getPersonalCredit();
-    credit2.setLimit(200d);
+    credit2.setLimit(new BigDecimal("200"));
     
     var savedCredit2 = mapper.readValue(mapper.writeValueAsString(credit2), Credit.class);
     savedCredit2.setId(UUID.randomUUID().toString());
@@ -107,7 +154,7 @@ public class CreditsApplicationTests {
     }).verifyComplete();
     
     var credit2 = getBusinessCredit();
-    credit2.setLimit(2000d);
+    credit2.setLimit(new BigDecimal("2000"));
     
     var savedCredit2 = mapper.readValue(mapper.writeValueAsString(credit2), Credit.class);
     savedCredit2.setId(UUID.randomUUID().toString());
@@ -122,6 +169,70 @@ public class CreditsApplicationTests {
     
   }
   
+  @Test
+  public void reportAllViolationsAtOnce() {
+    var consumptiomDTO = new CreateConsumptiomDTO();
+    consumptiomDTO.setAmount(new BigDecimal("-5"));
+    
+    StepVerifier.create(creditService.chargeConsumptiom(consumptiomDTO))
+      .expectErrorSatisfies(e -> {
+        assertThat(e).isInstanceOf(BankValidationException.class);
+        assertThat(((BankValidationException) e).getViolations())
+          .containsExactly("Consumption amount must be greater than zero", "Consumption Credit ID is required");
+        assertThat(e.getStackTrace()).isEmpty();
+      })
+      .verify();
+    
+    StepVerifier.create(creditService.createProduct(new Credit()))
+      .expectErrorSatisfies(e -> assertThat(((BankValidationException) e).getViolations())
+        .containsExactly("Customer ID is required", "Credit type is required", "Credit Limit is required"))
+      .verify();
+    
+    assertThat(meterRegistry.get("credits.validation.rejections").tag("reason", "Consumption Credit ID is required").counter().count()).isEqualTo(1d);
+  }
+  
+  @Test
+  public void rejectZeroAndNegativeAmounts() {
+    Mockito.clearInvocations(creditRepository, consumptiomRepository, paidRepository);
+    for (var amount : List.of("0", "0.00", "-5")) {
+      var consumptiomDTO = new CreateConsumptiomDTO();
+      consumptiomDTO.setCreditId("123");
+      consumptiomDTO.setAmount(new BigDecimal(amount));
+      StepVerifier.create(creditService.chargeConsumptiom(consumptiomDTO))
+        .expectErrorSatisfies(e -> assertThat(((BankValidationException) e).getViolations())
+          .containsExactly("Consumption amount must be greater than zero"))
+        .verify();
+      
+      var paidDTO = new CreatePaidDTO();
+      paidDTO.setCreditId("123");
+      paidDTO.setAmount(new BigDecimal(amount));
+      StepVerifier.create(creditService.paidCredit(paidDTO))
+        .expectErrorSatisfies(e -> assertThat(((BankValidationException) e).getViolations())
+          .containsExactly("Paid Amount must be greater than zero"))
+        .verify();
+    }
+    Mockito.verifyNoInteractions(creditRepository, consumptiomRepository, paidRepository);
+  }
+  
+  @Test
+  public void retryCardNumberCollision() throws Exception {
+    var credit = getBusinessCredit();
+    credit.setCustomerId("b-collision");
+    
+    var savedCredit = mapper.readValue(mapper.writeValueAsString(credit), Credit.class);
+    savedCredit.setId(UUID.randomUUID().toString());
+    
+    var cardNumbers = new ArrayList<String>();
+    when(creditRepository.findAllByCustomerIdAndCreditType(credit.getCustomerId(), credit.getCreditType())).thenReturn(Flux.empty());
+    when(creditRepository.save(credit)).thenAnswer(invocation -> Mono.defer(() -> {
+      cardNumbers.add(credit.getCardNumber());
+      return cardNumbers.size() == 1 ? Mono.error(new DuplicateKeyException("E11000 cardNumber")) : Mono.just(savedCredit);
+    }));
+    
+    StepVerifier.create(creditService.createProduct(credit)).expectNext(savedCredit).verifyComplete();
+    assertThat(cardNumbers).hasSize(2).doesNotHaveDuplicates();
+  }
+  
   @Test
   public void generateConsumptionForCredit() throws Exception {
     // Un cliente puede cargar consumos a sus tarjetas de crédito en base a su límite de crédito.
@@ -129,7 +240,7 @@ public class CreditsApplicationTests {
     credit.setId("123");
     
     var consumption = new Consumptiom();
-    consumption.setAmount(50d);
+    consumption.setAmount(new BigDecimal("50"));
     consumption.setCreditId(credit.getId());
     consumption.setRegisterDate(LocalDateTime.now());
     
@@ -140,15 +251,71 @@ public class CreditsApplicationTests {
     var savedConsumption = mapper.readValue(mapper.writeValueAsString(consumption), Consumptiom.class);
     savedConsumption.setId(UUID.randomUUID().toString());
     
-    when(creditRepository.findById(consumption.getCreditId())).thenReturn(Mono.just(credit));
-    when(consumptiomRepository.getSumByCreditId(consumption.getCreditId())).thenReturn(Mono.just(0d));
-    when(paidRepository.getSumByCreditId(consumption.getCreditId())).thenReturn(Mono.just(0d));
+    when(creditRepository.reserveCredit(credit.getId(), Money.toMinor(consumption.getAmount()))).thenReturn(Mono.just(credit));
     when(consumptiomRepository.save(Mockito.any(Consumptiom.class))).thenReturn(Mono.just(savedConsumption));
     
     var mono = creditService.chargeConsumptiom(consumptiomDTO);
     StepVerifier.create(mono).assertNext(id -> {
       assertThat(id).isNotNull();
     }).verifyComplete();
+    
+    var operation = meterRegistry.get("credits.operation")
+        .tag("operation", "chargeConsumptiom")
+        .tag("creditType", "PERSONAL")
+        .tag("outcome", "success")
+        .timer();
+    assertThat(operation.count()).isEqualTo(1);
+    assertThat(meterRegistry.get("credits.repository").tag("repository", "Credit").tag("method", "reserveCredit").timer().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("credits.repository").tag("repository", "Consumptiom").tag("method", "save").timer().count()).isEqualTo(1);
+  }
+  
+  @Test
+  public void chargeConsumptionBatch() {
+    var roomy = getBusinessCredit();
+    roomy.setId("batch-roomy");
+    var tight = getPersonalCredit();
+    tight.setId("batch-tight");
+    tight.setUsed(new BigDecimal("70"));
+    tight.setAvailable(new BigDecimal("30"));
+    
+    when(creditRepository.reserveCredit("batch-roomy", 30000L)).thenReturn(Mono.just(roomy));
+    when(creditRepository.reserveCredit("batch-tight", 4500L)).thenReturn(Mono.empty());
+    when(creditRepository.findById("batch-tight")).thenReturn(Mono.just(tight));
+    when(creditRepository.reserveCredit("batch-tight", 2500L)).thenReturn(Mono.just(tight));
+    when(consumptiomRepository.saveAll(Mockito.<Iterable<Consumptiom>>any())).thenAnswer(invocation -> {
+      Iterable<Consumptiom> consumptioms = invocation.getArgument(0);
+      return Flux.fromIterable(consumptioms).map(consumptiom -> {
+        consumptiom.setId(UUID.randomUUID().toString());
+        return consumptiom;
+      });
+    });
+    
+    var batch = Flux.just(
+        consumptiom("batch-roomy", "100"),
+        consumptiom("batch-tight", "20"),
+        consumptiom("batch-roomy", "200"),
+        consumptiom("batch-tight", "20"),
+        consumptiom(null, "10"),
+        consumptiom("batch-tight", "5"));
+    
+    var results = creditService.chargeConsumptioms(batch).collectMap(ConsumptiomResultDTO::getIndex).block();
+    assertThat(results).hasSize(6);
+    assertThat(results.get(0L).getAccepted()).isTrue();
+    assertThat(results.get(1L).getAccepted()).isTrue();
+    assertThat(results.get(2L).getAccepted()).isTrue();
+    assertThat(results.get(3L).getAccepted()).isFalse();
+    assertThat(results.get(3L).getMessage()).isEqualTo("Not enough line of credit");
+    assertThat(results.get(4L).getAccepted()).isFalse();
+    assertThat(results.get(4L).getMessage()).isEqualTo("Consumption Credit ID is required");
+    assertThat(results.get(5L).getAccepted()).isTrue();
+    Mockito.verify(creditRepository, Mockito.times(1)).reserveCredit("batch-roomy", 30000L);
+  }
+  
+  private CreateConsumptiomDTO consumptiom(String creditId, String amount) {
+    var consumptiomDTO = new CreateConsumptiomDTO();
+    consumptiomDTO.setCreditId(creditId);
+    consumptiomDTO.setAmount(new BigDecimal(amount));
+    return consumptiomDTO;
   }
   
   @Test
@@ -157,7 +324,7 @@ public class CreditsApplicationTests {
     credit.setId("123");
     
     var paid = new Paid();
-    paid.setAmount(50d);
+    paid.setAmount(new BigDecimal("50"));
     paid.setCreditId(credit.getId());
     
     var paidDTO = new CreatePaidDTO();
@@ -169,6 +336,7 @@ public class CreditsApplicationTests {
     savedPaid.setCreatedDate(LocalDateTime.now());
 
     when(creditRepository.findById(paid.getCreditId())).thenReturn(Mono.just(credit));
+    when(creditRepository.addUsed(credit.getId(), -Money.toMinor(paid.getAmount()))).thenReturn(Mono.just(credit));
     when(paidRepository.save(Mockito.any(Paid.class))).thenReturn(Mono.just(savedPaid));
     
     var mono = creditService.paidCredit(paidDTO);
@@ -181,42 +349,369 @@ public class CreditsApplicationTests {
   public void balanceCredit() {
     var credit = getPersonalCredit();
     credit.setId("123");
+    credit.setUsed(new BigDecimal("50"));
+    credit.setAvailable(new BigDecimal("50"));
     
     when(creditRepository.findById(credit.getId())).thenReturn(Mono.just(credit));
-    when(consumptiomRepository.getSumByCreditId(credit.getId())).thenReturn(Mono.just(50d));
-    when(paidRepository.getSumByCreditId(credit.getId())).thenReturn(Mono.just(100d));
     
     var mono = creditService.getBalanceByCreditId(credit.getId());
     StepVerifier.create(mono).assertNext((dto) -> {
-      assertThat(dto.getAvailable()).isEqualTo(50d);
+      assertThat(dto.getAvailable()).isEqualByComparingTo("50");
     }).verifyComplete();
   }
   
+  @Test
+  public void balanceCacheServesReadsAndFollowsWrites() {
+    var credit = getPersonalCredit();
+    credit.setId("cached");
+    credit.setVersion(1L);
+    
+    var afterPaid = getPersonalCredit();
+    afterPaid.setId("cached");
+    afterPaid.setUsed(new BigDecimal("-20"));
+    afterPaid.setAvailable(new BigDecimal("120"));
+    afterPaid.setVersion(2L);
+    
+    var paidDTO = new CreatePaidDTO();
+    paidDTO.setAmount(new BigDecimal("20"));
+    paidDTO.setCreditId(credit.getId());
+    
+    when(creditRepository.findById(credit.getId())).thenReturn(Mono.just(credit));
+    when(creditRepository.addUsed(credit.getId(), -2000L)).thenReturn(Mono.just(afterPaid));
+    var savedPaid = new Paid();
+    savedPaid.setId(UUID.randomUUID().toString());
+    when(paidRepository.save(Mockito.any(Paid.class))).thenReturn(Mono.just(savedPaid));
+    
+    StepVerifier.create(creditService.getBalanceByCreditId(credit.getId()))
+      .assertNext(dto -> assertThat(dto.getAvailable()).isEqualByComparingTo("100")).verifyComplete();
+    StepVerifier.create(creditService.getBalanceByCreditId(credit.getId()))
+      .assertNext(dto -> assertThat(dto.getAvailable()).isEqualByComparingTo("100")).verifyComplete();
+    StepVerifier.create(creditService.paidCredit(paidDTO)).expectNextCount(1).verifyComplete();
+    StepVerifier.create(creditService.getBalanceByCreditId(credit.getId()))
+      .assertNext(dto -> assertThat(dto.getAvailable()).isEqualByComparingTo("120")).verifyComplete();
+    
+    // one read to load the balance, one by paidCredit, none for cached reads
+    Mockito.verify(creditRepository, Mockito.times(2)).findById(credit.getId());
+    assertThat(meterRegistry.get("cache.gets").tag("cache", "credits.balance").tag("result", "hit").functionCounter().count()).isEqualTo(2d);
+    assertThat(meterRegistry.get("cache.gets").tag("cache", "credits.balance").tag("result", "miss").functionCounter().count()).isEqualTo(1d);
+    
+    // a stale read finishing late must not overwrite the newer balance
+    balanceCache.put(credit, new BalanceDTO());
+    StepVerifier.create(creditService.getBalanceByCreditId(credit.getId()))
+      .assertNext(dto -> assertThat(dto.getAvailable()).isEqualByComparingTo("120")).verifyComplete();
+  }
+  
+  @Test
+  public void rejectConsumptionOverLimit() {
+    var credit = getPersonalCredit();
+    credit.setId("over-limit");
+    credit.setUsed(new BigDecimal("80"));
+    credit.setAvailable(new BigDecimal("20"));
+    
+    var consumptiomDTO = new CreateConsumptiomDTO();
+    consumptiomDTO.setAmount(new BigDecimal("50"));
+    consumptiomDTO.setCreditId(credit.getId());
+    
+    when(creditRepository.reserveCredit(credit.getId(), Money.toMinor(consumptiomDTO.getAmount()))).thenReturn(Mono.empty());
+    when(creditRepository.findById(credit.getId())).thenReturn(Mono.just(credit));
+    
+    var mono = creditService.chargeConsumptiom(consumptiomDTO);
+    StepVerifier.create(mono).expectErrorMatches(e -> e instanceof BankValidationException && e.getMessage().startsWith("Not enough line of credit")).verify();
+    
+    assertThat(meterRegistry.get("credits.validation.rejections")
+        .tag("operation", "chargeConsumptiom")
+        .tag("reason", "Not enough line of credit")
+        .counter().count()).isEqualTo(1d);
+    assertThat(meterRegistry.get("credits.operation").tag("operation", "chargeConsumptiom").tag("outcome", "error").timer().count()).isEqualTo(1);
+  }
+  
+  @Test
+  public void concurrentConsumptionsNeverExceedLimit() {
+    concurrentConsumptionsNeverExceedLimit(false);
+  }
+  
+  @Test
+  public void concurrentConsumptionsNeverExceedLimitThroughWriteLanes() {
+    concurrentConsumptionsNeverExceedLimit(true);
+    assertThat(meterRegistry.get("credits.write-lanes.queue.depth").gauge().value()).isEqualTo(0d);
+    assertThat(meterRegistry.get("credits.write-lanes.coalesced").summary().totalAmount()).isEqualTo(5000d);
+  }
+  
+  /*
+   * Against the in-memory repositories, whose reserveCredit is atomic per credit like findAndModify.
+   */
+  private void concurrentConsumptionsNeverExceedLimit(boolean writeLanes) {
+    var limit = 1000;
+    var charges = 5000;
+    var creditRepository = new InMemoryCreditRepository();
+    var consumptiomRepository = new InMemoryConsumptiomRepository();
+    var creditService = new CreditServiceBuilder(meterRegistry)
+        .creditRepository(creditRepository)
+        .consumptiomRepository(consumptiomRepository)
+        .balanceCache(balanceCache)
+        .writeLanes(writeLanes, 8, 10_000)
+        .build();
+    var credit = getBusinessCredit();
+    credit.setLimit(BigDecimal.valueOf(limit));
+    var creditId = creditService.createProduct(credit).block().getId();
+    
+    var accepted = new AtomicInteger();
+    var rejected = new AtomicInteger();
+    Flux.range(0, charges)
+      .parallel()
+      .runOn(Schedulers.parallel())
+      .flatMap(i -> {
+        var consumptiomDTO = new CreateConsumptiomDTO();
+        consumptiomDTO.setCreditId(creditId);
+        consumptiomDTO.setAmount(new BigDecimal("1"));
+        return creditService.chargeConsumptiom(consumptiomDTO)
+            .doOnNext(id -> accepted.incrementAndGet())
+            .onErrorResume(BankValidationException.class, e -> {
+              rejected.incrementAndGet();
+              return Mono.empty();
+            });
+      })
+      .sequential()
+      .blockLast(Duration.ofSeconds(30));
+    
+    assertThat(accepted.get()).isEqualTo(limit);
+    assertThat(rejected.get()).isEqualTo(charges - limit);
+    var charged = creditRepository.findById(creditId).block();
+    assertThat(charged.getAvailable()).isEqualByComparingTo("0");
+    assertThat(charged.getUsed()).isEqualByComparingTo(BigDecimal.valueOf(limit));
+    assertThat(consumptiomRepository.getSumByCreditId(creditId).block()).isEqualByComparingTo(BigDecimal.valueOf(limit));
+  }
+  
+  @Test
+  public void materializeBalanceOfLegacyCredit() {
+    var legacy = getPersonalCredit();
+    legacy.setId("legacy");
+    legacy.setUsed(null);
+    legacy.setAvailable(null);
+    legacy.setVersion(3L);
+    
+    var materialized = getPersonalCredit();
+    materialized.setId("legacy");
+    materialized.setUsed(new BigDecimal("30"));
+    materialized.setAvailable(new BigDecimal("70"));
+    
+    when(creditRepository.findById(legacy.getId())).thenReturn(Mono.just(legacy));
+    when(consumptiomRepository.getSumByCreditId(legacy.getId())).thenReturn(Mono.just(new BigDecimal("50")));
+    when(paidRepository.getSumByCreditId(legacy.getId())).thenReturn(Mono.just(new BigDecimal("20")));
+    when(creditRepository.updateBalance(legacy.getId(), 3000L, 3L)).thenReturn(Mono.just(materialized));
+    
+    var mono = creditService.getBalanceByCreditId(legacy.getId());
+    StepVerifier.create(mono).assertNext((dto) -> {
+      assertThat(dto.getUsed()).isEqualByComparingTo("30");
+      assertThat(dto.getAvailable()).isEqualByComparingTo("70");
+    }).verifyComplete();
+  }
+  
+  @Test
+  public void reconcileDriftedBalance() {
+    var credit = getBusinessCredit();
+    credit.setId("drifted");
+    credit.setUsed(new BigDecimal("100"));
+    credit.setAvailable(new BigDecimal("900"));
+    credit.setVersion(7L);
+    
+    when(creditRepository.findById(credit.getId())).thenReturn(Mono.just(credit));
+    when(consumptiomRepository.getSumByCreditId(credit.getId())).thenReturn(Mono.just(new BigDecimal("150")));
+    when(paidRepository.getSumByCreditId(credit.getId())).thenReturn(Mono.empty());
+    when(creditRepository.updateBalance(credit.getId(), 15000L, 7L)).thenReturn(Mono.just(credit));
+    StepVerifier.create(creditService.reconcileBalance(credit.getId(), LocalDateTime.now())).expectNext(true).verifyComplete();
+    
+    when(consumptiomRepository.getSumByCreditId(credit.getId())).thenReturn(Mono.just(new BigDecimal("100")));
+    StepVerifier.create(creditService.reconcileBalance(credit.getId(), LocalDateTime.now())).expectNext(false).verifyComplete();
+  }
+  
+  @Test
+  public void reconcileLeavesAChargeInFlightAlone() {
+    var credit = getBusinessCredit();
+    credit.setId("in-flight");
+    credit.setUsed(new BigDecimal("100"));
+    credit.setAvailable(new BigDecimal("900"));
+    credit.setVersion(7L);
+    credit.setUpdatedDate(LocalDateTime.now().minusHours(1));
+    var charged = getBusinessCredit();
+    charged.setId(credit.getId());
+    charged.setUsed(new BigDecimal("150"));
+    charged.setAvailable(new BigDecimal("850"));
+    charged.setVersion(8L);
+    charged.setUpdatedDate(LocalDateTime.now());
+    var consumptiomSaved = Sinks.<Consumptiom>one();
+    
+    when(creditRepository.findById(credit.getId())).thenReturn(Mono.just(credit));
+    when(creditRepository.reserveCredit(credit.getId(), 5000L)).thenAnswer(invocation -> {
+      when(creditRepository.findById(credit.getId())).thenReturn(Mono.just(charged));
+      return Mono.just(charged);
+    });
+    when(consumptiomRepository.save(Mockito.any(Consumptiom.class))).thenReturn(consumptiomSaved.asMono());
+    // the ledger before the consumptiom of the charge is inserted
+    when(consumptiomRepository.getSumByCreditId(credit.getId())).thenReturn(Mono.just(new BigDecimal("100")));
+    when(paidRepository.getSumByCreditId(credit.getId())).thenReturn(Mono.empty());
+    
+    var consumptiomDTO = new CreateConsumptiomDTO();
+    consumptiomDTO.setCreditId(credit.getId());
+    consumptiomDTO.setAmount(new BigDecimal("50"));
+    var charge = creditService.chargeConsumptiom(consumptiomDTO).toFuture();
+    assertThat(charge).isNotDone();
+    
+    StepVerifier.create(creditService.reconcileBalance(credit.getId(), LocalDateTime.now().minusMinutes(10))).expectNext(false).verifyComplete();
+    Mockito.verify(creditRepository, Mockito.never()).updateBalance(Mockito.anyString(), Mockito.anyLong(), Mockito.any());
+    
+    var consumptiom = new Consumptiom();
+    consumptiom.setId("consumptiom-1");
+    consumptiomSaved.tryEmitValue(consumptiom);
+    assertThat(charge.join()).isEqualTo("consumptiom-1");
+  }
+  
+  @Test
+  public void balanceByCustomerUsesSingleQuery() {
+    var customerId = "Business001";
+    var creditType = CreditType.BUSINESS;
+    
+    var credits = Flux.range(1, 30).map(i -> {
+      var credit = getBusinessCredit();
+      credit.setId("line-" + i);
+      credit.setCustomerId(customerId);
+      credit.setUsed(BigDecimal.valueOf(i * 10));
+      credit.setAvailable(credit.getLimit().subtract(credit.getUsed()));
+      return credit;
+    });
+    
+    when(creditRepository.findAllByCustomerIdAndCreditType(customerId, creditType)).thenReturn(credits);
+    
+    var flux = creditService.getBalanceByCustomerIdAndCreditType(customerId, creditType);
+    StepVerifier.create(flux)
+      .assertNext(dto -> {
+        assertThat(dto.getCreditId()).isEqualTo("line-1");
+        assertThat(dto.getType()).isEqualTo("Credit");
+        assertThat(dto.getCreditLimit()).isEqualByComparingTo("1000");
+        assertThat(dto.getUsed()).isEqualByComparingTo("10");
+        assertThat(dto.getAvailable()).isEqualByComparingTo("990");
+      })
+      .expectNextCount(29)
+      .verifyComplete();
+    
+    Mockito.verify(creditRepository, Mockito.times(1)).findAllByCustomerIdAndCreditType(customerId, creditType);
+    Mockito.verify(creditRepository, Mockito.never()).findById(Mockito.startsWith("line-"));
+    Mockito.verify(consumptiomRepository, Mockito.never()).getSumByCreditId(Mockito.startsWith("line-"));
+    Mockito.verify(paidRepository, Mockito.never()).getSumByCreditId(Mockito.startsWith("line-"));
+  }
+  
+  @Test
+  public void balancesByCreditIdsInBulk() {
+    var materialized = getBusinessCredit();
+    materialized.setId("bulk-1");
+    materialized.setUsed(new BigDecimal("100"));
+    materialized.setAvailable(new BigDecimal("900"));
+    var legacy = getBusinessCredit();
+    legacy.setId("bulk-legacy");
+    legacy.setUsed(null);
+    legacy.setAvailable(null);
+    legacy.setVersion(3L);
+    var legacyMaterialized = getBusinessCredit();
+    legacyMaterialized.setId("bulk-legacy");
+    legacyMaterialized.setUsed(new BigDecimal("40"));
+    legacyMaterialized.setAvailable(new BigDecimal("960"));
+    var cached = getBusinessCredit();
+    cached.setId("bulk-cached");
+    cached.setUsed(new BigDecimal("1"));
+    cached.setAvailable(new BigDecimal("999"));
+    cached.setVersion(1L);
+    var cachedBalance = new BalanceDTO();
+    cachedBalance.setCreditId("bulk-cached");
+    cachedBalance.setUsed(new BigDecimal("1"));
+    cachedBalance.setAvailable(new BigDecimal("999"));
+    balanceCache.put(cached, cachedBalance);
+    
+    when(creditRepository.findAllById(Mockito.<Iterable<String>>any())).thenReturn(Flux.just(materialized, legacy));
+    when(consumptiomRepository.getSumsByCreditIds(List.of("bulk-legacy"))).thenReturn(Flux.just(creditTotal("bulk-legacy", new BigDecimal("50"))));
+    when(paidRepository.getSumsByCreditIds(List.of("bulk-legacy"))).thenReturn(Flux.just(creditTotal("bulk-legacy", new BigDecimal("10"))));
+    when(creditRepository.updateBalance("bulk-legacy", 4000L, 3L)).thenReturn(Mono.just(legacyMaterialized));
+    
+    var results = creditService.getBalancesByCreditIds(Arrays.asList("bulk-cached", "bulk-1", "bulk-legacy", "bulk-missing", "", "bulk-1"))
+        .collectMap(BalanceResultDTO::getCreditId)
+        .block();
+    
+    assertThat(results).hasSize(5);
+    assertThat(results.get("bulk-cached").getBalance().getAvailable()).isEqualByComparingTo("999");
+    assertThat(results.get("bulk-1").getBalance().getAvailable()).isEqualByComparingTo("900");
+    assertThat(results.get("bulk-legacy").getBalance().getUsed()).isEqualByComparingTo("40");
+    assertThat(results.get("bulk-missing").getError()).isEqualTo("Credit not found");
+    assertThat(results.get("bulk-missing").getBalance()).isNull();
+    assertThat(results.get("").getError()).isEqualTo("Credit ID is required");
+    
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Iterable<String>> ids = ArgumentCaptor.forClass(Iterable.class);
+    Mockito.verify(creditRepository, Mockito.times(1)).findAllById(ids.capture());
+    assertThat(ids.getValue()).containsExactly("bulk-1", "bulk-legacy", "bulk-missing");
+    Mockito.verify(consumptiomRepository, Mockito.never()).getSumByCreditId(Mockito.startsWith("bulk-"));
+    
+    StepVerifier.create(creditService.getBalancesByCreditIds(List.of()))
+      .expectError(BankValidationException.class)
+      .verify();
+  }
+  
+  @Test
+  public void batchItemsOverTheirLimitAreRejected() {
+    var credit = getBusinessCredit();
+    credit.setId("limited-cold");
+    credit.setVersion(1L);
+    var balance = new BalanceDTO();
+    balance.setCreditId("limited-cold");
+    balance.setAvailable(new BigDecimal("900"));
+    balanceCache.put(credit, balance);
+    
+    var balances = creditService.getBalancesByCreditIds(List.of("limited-hot", "limited-cold"), creditId -> creditId.endsWith("hot") ? "rate-limit" : null)
+        .collectMap(BalanceResultDTO::getCreditId)
+        .block();
+    assertThat(balances.get("limited-hot").getError()).isEqualTo("rate-limit");
+    assertThat(balances.get("limited-cold").getBalance().getAvailable()).isEqualByComparingTo("900");
+    
+    var charges = creditService.chargeConsumptioms(Flux.just(consumptiom("limited-hot", "10")), creditId -> "rate-limit")
+        .collectList()
+        .block();
+    assertThat(charges).singleElement().satisfies(result -> {
+      assertThat(result.getAccepted()).isFalse();
+      assertThat(result.getMessage()).isEqualTo("rate-limit");
+    });
+    Mockito.verify(creditRepository, Mockito.never()).reserveCredit(Mockito.eq("limited-hot"), Mockito.anyLong());
+  }
+  
+  private CreditTotalDTO creditTotal(String creditId, BigDecimal total) {
+    var creditTotal = new CreditTotalDTO();
+    creditTotal.setId(creditId);
+    creditTotal.setTotal(total);
+    return creditTotal;
+  }
+  
   public void balanceByCustomerAndCreditType() {
     var customerId = "Customer001";
     var creditType = CreditType.PERSONAL;
     
     var balance = new BalanceDTO();
-    balance.setAvailable(150d);
+    balance.setAvailable(new BigDecimal("150"));
     balance.setCreditId("cred01");
-    balance.setCreditLimit(200d);
+    balance.setCreditLimit(new BigDecimal("200"));
     balance.setType("Credit");
-    balance.setUsed(50d);
+    balance.setUsed(new BigDecimal("50"));
     
     var credit = new Credit();
     credit.setId("cred01");
     credit.setCustomerId(customerId);
-    credit.setLimit(200d);
+    credit.setLimit(new BigDecimal("200"));
     
     when(creditRepository.findAllByCustomerIdAndCreditType(customerId, creditType)).thenReturn(Flux.just(credit));
     when(creditRepository.findById(credit.getId())).thenReturn(Mono.just(credit));
-    when(consumptiomRepository.getSumByCreditId(credit.getId())).thenReturn(Mono.just(50d));
-    when(paidRepository.getSumByCreditId(credit.getId())).thenReturn(Mono.just(0d));
+    when(consumptiomRepository.getSumByCreditId(credit.getId())).thenReturn(Mono.just(new BigDecimal("50")));
+    when(paidRepository.getSumByCreditId(credit.getId())).thenReturn(Mono.just(new BigDecimal("0")));
     
     var flux = creditService.getBalanceByCustomerIdAndCreditType(customerId, creditType);
     
     StepVerifier.create(flux).assertNext((dto) -> {
-      assertThat(dto.getAvailable()).isEqualTo(150d);
+      assertThat(dto.getAvailable()).isEqualByComparingTo("150");
     }).verifyComplete();
     
   }
@@ -0,0 +1,247 @@
+package com.bank.bootcamp.credits.admission;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import com.bank.bootcamp.credits.controller.CreditController;
+import com.bank.bootcamp.credits.controller.CreditExceptionHandler;
+import com.bank.bootcamp.credits.dto.BalanceDTO;
+import com.bank.bootcamp.credits.dto.BalanceResultDTO;
+import com.bank.bootcamp.credits.exception.AdmissionRejectedException;
+import com.bank.bootcamp.credits.idempotency.IdempotencyService;
+import com.bank.bootcamp.credits.projection.BalanceProjector;
+import com.bank.bootcamp.credits.service.CreditService;
+import com.bank.bootcamp.credits.service.LedgerRollupService;
+import com.bank.bootcamp.credits.service.PortfolioExposureService;
+import com.bank.bootcamp.credits.service.StatementService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+public class CreditAdmissionTests {
+  
+  private static final int CONNECTIONS = 4;
+  private static final long OPERATION_MILLIS = 2;
+  private static final int CLIENTS = 8;
+  private static final Duration MEASUREMENT = Duration.ofMillis(1200);
+  
+  private SimpleMeterRegistry meterRegistry;
+  
+  @BeforeEach
+  public void setup() {
+    meterRegistry = new SimpleMeterRegistry();
+  }
+  
+  private CreditAdmission admission(boolean enabled, int maxInFlight, int queueCapacity, Duration queueTimeout, double ratePerSecond, long burst) {
+    return new CreditAdmission(enabled, maxInFlight, queueCapacity, queueTimeout, Duration.ofSeconds(1), ratePerSecond, burst, 1000, meterRegistry);
+  }
+  
+  private double rejections(String endpoint, String reason) {
+    var counter = meterRegistry.find("credits.admission.rejections").tag("endpoint", endpoint).tag("reason", reason).counter();
+    return counter == null ? 0 : counter.count();
+  }
+  
+  @Test
+  public void limitsEachKeyToItsBucket() {
+    var admission = admission(true, 100, 0, Duration.ofMillis(100), 1, 3);
+    for (int i = 0; i < 3; i++)
+      assertThat(admission.admit("paid", "credit:a", () -> Mono.just("ok")).block()).isEqualTo("ok");
+    
+    StepVerifier.create(admission.admit("paid", "credit:a", () -> Mono.just("ok")))
+      .expectErrorSatisfies(e -> {
+        assertThat(e).isInstanceOf(AdmissionRejectedException.class);
+        var rejection = (AdmissionRejectedException) e;
+        assertThat(rejection.getReason()).isEqualTo(CreditAdmission.RATE_LIMIT);
+        // one token a second
+        assertThat(rejection.getRetryAfter()).isPositive().isLessThanOrEqualTo(Duration.ofSeconds(1));
+      })
+      .verify();
+    assertThat(admission.admit("paid", "credit:b", () -> Mono.just("ok")).block()).isEqualTo("ok");
+    assertThat(rejections("paid", CreditAdmission.RATE_LIMIT)).isEqualTo(1);
+  }
+  
+  @Test
+  public void queuesUpToCapacityAndShedsTheRest() {
+    var admission = admission(true, 2, 1, Duration.ofMillis(200), 1000, 1000);
+    var first = Sinks.<String>one();
+    var second = Sinks.<String>one();
+    var running = new ArrayList<Mono<String>>();
+    running.add(admission.admit("statement", null, first::asMono).cache());
+    running.add(admission.admit("statement", null, second::asMono).cache());
+    running.forEach(Mono::subscribe);
+    var queued = admission.admit("statement", null, () -> Mono.just("queued")).toFuture();
+    assertThat(meterRegistry.get("credits.admission.in-flight").tag("endpoint", "statement").gauge().value()).isEqualTo(2);
+    assertThat(meterRegistry.get("credits.admission.queue.depth").tag("endpoint", "statement").gauge().value()).isEqualTo(1);
+    
+    StepVerifier.create(admission.admit("statement", null, () -> Mono.just("shed")))
+      .expectErrorMatches(e -> ((AdmissionRejectedException) e).getReason().equals(CreditAdmission.QUEUE_FULL))
+      .verify();
+    
+    // the first slot released goes to the waiter
+    first.tryEmitValue("first");
+    assertThat(queued.join()).isEqualTo("queued");
+    assertThat(meterRegistry.get("credits.admission.queue.wait").tag("endpoint", "statement").timer().count()).isEqualTo(1);
+    
+    // nothing is released now: the next waiter gives up after the queue timeout
+    admission.admit("statement", null, Mono::<String>never).subscribe();
+    StepVerifier.create(admission.admit("statement", null, () -> Mono.just("late")))
+      .expectErrorMatches(e -> ((AdmissionRejectedException) e).getReason().equals(CreditAdmission.QUEUE_TIMEOUT))
+      .verify(Duration.ofSeconds(5));
+    assertThat(meterRegistry.get("credits.admission.queue.depth").tag("endpoint", "statement").gauge().value()).isZero();
+    
+    // a cancelled operation gives its slot back
+    var cancelled = admission.admit("statement", null, Mono::<String>never).subscribe();
+    second.tryEmitValue("second");
+    cancelled.dispose();
+    assertThat(admission.admit("statement", null, () -> Mono.just("after")).block()).isEqualTo("after");
+  }
+  
+  @Test
+  public void answersRejectionsWith429AndRetryAfter() {
+    var creditService = mock(CreditService.class);
+    when(creditService.getBalanceByCreditId("hot")).thenReturn(Mono.just(new BalanceDTO()));
+    var controller = new CreditController(creditService, mock(StatementService.class), mock(IdempotencyService.class),
+        mock(BalanceProjector.class), mock(LedgerRollupService.class), mock(PortfolioExposureService.class), admission(true, 10, 10, Duration.ofMillis(100), 0.5, 1));
+    var client = WebTestClient.bindToController(controller).controllerAdvice(new CreditExceptionHandler()).build();
+    
+    client.get().uri("/credits/balanceById/hot").exchange().expectStatus().isOk();
+    client.get().uri("/credits/balanceById/hot").exchange()
+      .expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+      .expectHeader().value(HttpHeaders.RETRY_AFTER, retryAfter -> assertThat(Long.parseLong(retryAfter)).isBetween(1L, 2L))
+      .expectBody().jsonPath("$.errors[0]").isEqualTo(CreditAdmission.RATE_LIMIT);
+  }
+  
+  @Test
+  public void limitsEachItemOfABatchByItsCredit() {
+    var creditService = mock(CreditService.class);
+    when(creditService.getBalancesByCreditIds(anyList(), any())).thenAnswer(invocation -> {
+      List<String> creditIds = invocation.getArgument(0);
+      Function<String, String> limit = invocation.getArgument(1);
+      return Flux.fromIterable(creditIds).map(creditId -> {
+        var result = new BalanceResultDTO();
+        result.setCreditId(creditId);
+        result.setError(limit.apply(creditId));
+        return result;
+      });
+    });
+    var controller = new CreditController(creditService, mock(StatementService.class), mock(IdempotencyService.class),
+        mock(BalanceProjector.class), mock(LedgerRollupService.class), mock(PortfolioExposureService.class), admission(true, 10, 10, Duration.ofMillis(100), 0.5, 1));
+    var client = WebTestClient.bindToController(controller).controllerAdvice(new CreditExceptionHandler()).build();
+    
+    client.post().uri("/credits/balances").bodyValue(List.of("hot", "cold")).exchange()
+      .expectStatus().isOk()
+      .expectBodyList(BalanceResultDTO.class).value(results -> assertThat(results).extracting(BalanceResultDTO::getError).containsOnlyNulls());
+    // the batch itself is admitted, its items on the bucket of their credit
+    client.post().uri("/credits/balances").bodyValue(List.of("hot", "other")).exchange()
+      .expectStatus().isOk()
+      .expectBodyList(BalanceResultDTO.class).value(results -> assertThat(results)
+          .extracting(BalanceResultDTO::getCreditId, BalanceResultDTO::getError)
+          .containsExactly(tuple("hot", CreditAdmission.RATE_LIMIT), tuple("other", null)));
+    assertThat(rejections("balances", CreditAdmission.RATE_LIMIT)).isEqualTo(1);
+  }
+  
+  /*
+   * A database with a fixed pool: each operation holds one of CONNECTIONS threads for OPERATION_MILLIS,
+   * so it serves at most CONNECTIONS / OPERATION_MILLIS operations a millisecond and queues the rest.
+   * Well-behaved clients call it at a fixed rate, one credit each; the flooder offers ~3x the pool capacity on one credit.
+   */
+  private Mono<String> databaseCall(Scheduler database) {
+    return Mono.fromCallable(() -> {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(OPERATION_MILLIS));
+      return "ok";
+    }).subscribeOn(database);
+  }
+  
+  private static final class Run {
+    private final long p99Millis;
+    private final int calls;
+    private final int shed;
+    
+    private Run(long p99Millis, int calls, int shed) {
+      this.p99Millis = p99Millis;
+      this.calls = calls;
+      this.shed = shed;
+    }
+  }
+  
+  /*
+   * Latency of the well-behaved clients, and how many of their calls were shed.
+   */
+  private Run wellBehaved(CreditAdmission admission, boolean flood) {
+    var database = Schedulers.newParallel("database", CONNECTIONS);
+    try {
+      var flooder = flood
+          ? Flux.interval(Duration.ofMillis(1))
+              .onBackpressureDrop()
+              .flatMap(tick -> Flux.range(0, 6)
+                  .flatMap(i -> admission.admit("paid", "credit:flooder", () -> databaseCall(database)).onErrorResume(e -> Mono.empty())))
+              .subscribe()
+          : null;
+      var latencies = Collections.synchronizedList(new ArrayList<Long>());
+      var shed = new AtomicInteger();
+      Flux.range(0, CLIENTS)
+        .flatMap(client -> Flux.interval(Duration.ofMillis(20))
+            .take(MEASUREMENT)
+            .onBackpressureDrop()
+            .flatMap(tick -> Mono.fromCallable(System::nanoTime)
+                .flatMap(start -> admission.admit("paid", "credit:" + client, () -> databaseCall(database))
+                    .doOnSuccess(ok -> latencies.add(System.nanoTime() - start))
+                    .onErrorResume(AdmissionRejectedException.class, e -> {
+                      shed.incrementAndGet();
+                      return Mono.empty();
+                    }))))
+        .blockLast(Duration.ofSeconds(30));
+      if (flooder != null)
+        flooder.dispose();
+      return new Run(TimeUnit.NANOSECONDS.toMillis(percentile(latencies, 0.99)), latencies.size() + shed.get(), shed.get());
+    } finally {
+      database.dispose();
+    }
+  }
+  
+  private static long percentile(List<Long> values, double percentile) {
+    var sorted = new ArrayList<>(values);
+    Collections.sort(sorted);
+    return sorted.get((int) Math.ceil(percentile * sorted.size()) - 1);
+  }
+  
+  /*
+   * Wall clock latencies of a few seconds of load, too noisy for every build: mvn -Ploadtest verify.
+   */
+  @Test
+  @Tag("loadtest")
+  public void keepsWellBehavedLatencyWhileOneClientFloods() {
+    // the first run warms up the JIT
+    wellBehaved(admission(true, 16, 32, Duration.ofMillis(50), 100, 20), false);
+    var baseline = wellBehaved(admission(true, 16, 32, Duration.ofMillis(50), 100, 20), false);
+    var flooded = wellBehaved(admission(true, 16, 32, Duration.ofMillis(50), 100, 20), true);
+    var unprotected = wellBehaved(admission(false, 16, 32, Duration.ofMillis(50), 100, 20), true);
+    
+    assertThat(rejections("paid", CreditAdmission.RATE_LIMIT)).isPositive();
+    assertThat(flooded.p99Millis).isLessThanOrEqualTo(Math.max(3 * baseline.p99Millis, 50));
+    assertThat(flooded.shed).isLessThanOrEqualTo(flooded.calls / 100);
+    // without admission the flood queues in front of the pool and everybody waits behind it
+    assertThat(unprotected.p99Millis).isGreaterThan(4 * flooded.p99Millis);
+  }
+}
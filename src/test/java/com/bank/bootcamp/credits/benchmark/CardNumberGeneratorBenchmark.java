@@ -0,0 +1,80 @@
+package com.bank.bootcamp.credits.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import com.bank.bootcamp.credits.service.SequenceCardNumberGenerator;
+
+/*
+ * SequenceCardNumberGenerator against the card number generation CreditService used before it.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CardNumberGeneratorBenchmark {
+
+  private final SequenceCardNumberGenerator generator = new SequenceCardNumberGenerator();
+  
+  @Benchmark
+  public String sequence() {
+    return generator.generate();
+  }
+  
+  @Benchmark
+  @Threads(4)
+  public String sequenceContended() {
+    return generator.generate();
+  }
+  
+  @Benchmark
+  public String legacy() {
+    return generateCardNumber();
+  }
+  
+  /*
+   * https://gist.github.com/josefeg/5781824
+   */
+  private String generateCardNumber() {
+    var random = new Random(System.currentTimeMillis());
+    var bin = "3353";
+    int randomNumberLength = 16 - (bin.length() + 1);
+
+    var builder = new StringBuilder(bin);
+    for (int i = 0; i < randomNumberLength; i++) {
+        int digit = random.nextInt(10);
+        builder.append(digit);
+    }
+
+    int checkDigit = this.getCheckDigit(builder.toString());
+    builder.append(checkDigit);
+    return builder.toString();
+  }
+  
+  private int getCheckDigit(String number) {
+    int sum = 0;
+    for (int i = 0; i < number.length(); i++) {
+        int digit = Integer.parseInt(number.substring(i, (i + 1)));
+        if ((i % 2) == 0) {
+            digit = digit * 2;
+            if (digit > 9) {
+                digit = (digit / 10) + (digit % 10);
+            }
+        }
+        sum += digit;
+    }
+    int mod = sum % 10;
+    return ((mod == 0) ? 0 : 10 - mod);
+  }
+}
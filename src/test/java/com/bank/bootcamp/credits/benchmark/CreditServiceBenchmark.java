@@ -0,0 +1,140 @@
+package com.bank.bootcamp.credits.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.bank.bootcamp.credits.CreditServiceBuilder;
+import com.bank.bootcamp.credits.dto.BalanceDTO;
+import com.bank.bootcamp.credits.dto.CreateConsumptiomDTO;
+import com.bank.bootcamp.credits.dto.CreatePaidDTO;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCreditRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+import com.bank.bootcamp.credits.service.CreditService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/*
+ * CreditService hot paths against in-memory repositories.
+ * Run with: mvn -Pbenchmark verify (add -Djmh.includes=<regex> to pick benchmarks).
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CreditServiceBenchmark {
+
+  private static final int PARALLEL_SUBSCRIBERS = 256;
+  
+  private InMemoryCreditRepository creditRepository;
+  private InMemoryPaidRepository paidRepository;
+  private InMemoryConsumptiomRepository consumptiomRepository;
+  private CreditService creditService;
+  private String creditId;
+  private CreateConsumptiomDTO consumptiomDTO;
+  private CreatePaidDTO paidDTO;
+  
+  @Setup(Level.Iteration)
+  public void setup() {
+    creditRepository = new InMemoryCreditRepository();
+    paidRepository = new InMemoryPaidRepository();
+    consumptiomRepository = new InMemoryConsumptiomRepository();
+    creditService = new CreditServiceBuilder(new SimpleMeterRegistry())
+        .creditRepository(creditRepository)
+        .paidRepository(paidRepository)
+        .consumptiomRepository(consumptiomRepository)
+        .build();
+    
+    var credit = newCredit(CreditType.BUSINESS, "benchmark");
+    credit.setLimit(new BigDecimal("1000000000000"));
+    creditId = creditService.createProduct(credit).block().getId();
+    
+    consumptiomDTO = new CreateConsumptiomDTO();
+    consumptiomDTO.setCreditId(creditId);
+    consumptiomDTO.setAmount(new BigDecimal("10"));
+    
+    paidDTO = new CreatePaidDTO();
+    paidDTO.setCreditId(creditId);
+    paidDTO.setAmount(new BigDecimal("10"));
+  }
+  
+  private Credit newCredit(CreditType creditType, String customerId) {
+    var credit = new Credit();
+    credit.setCreditType(creditType);
+    credit.setCustomerId(customerId);
+    credit.setLimit(new BigDecimal("1000"));
+    return credit;
+  }
+  
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Credit createProduct() {
+    var credit = creditService.createProduct(newCredit(CreditType.PERSONAL, "customer")).block();
+    creditRepository.deleteById(credit.getId()).block();
+    return credit;
+  }
+  
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public String chargeConsumptiom() {
+    return creditService.chargeConsumptiom(consumptiomDTO).block();
+  }
+  
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public String paidCredit() {
+    return creditService.paidCredit(paidDTO).block();
+  }
+  
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public BalanceDTO getBalanceByCreditId() {
+    return creditService.getBalanceByCreditId(creditId).block();
+  }
+  
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(PARALLEL_SUBSCRIBERS)
+  public Long chargeConsumptiomParallel() {
+    return Flux.range(0, PARALLEL_SUBSCRIBERS)
+        .parallel()
+        .runOn(Schedulers.parallel())
+        .flatMap(i -> creditService.chargeConsumptiom(consumptiomDTO))
+        .sequential()
+        .count()
+        .block();
+  }
+  
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(PARALLEL_SUBSCRIBERS)
+  public Long getBalanceByCreditIdParallel() {
+    return Flux.range(0, PARALLEL_SUBSCRIBERS)
+        .parallel()
+        .runOn(Schedulers.parallel())
+        .flatMap(i -> creditService.getBalanceByCreditId(creditId))
+        .sequential()
+        .count()
+        .block();
+  }
+}
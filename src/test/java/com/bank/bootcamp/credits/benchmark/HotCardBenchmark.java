@@ -0,0 +1,125 @@
+package com.bank.bootcamp.credits.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import com.bank.bootcamp.credits.CreditServiceBuilder;
+import com.bank.bootcamp.credits.dto.CreateConsumptiomDTO;
+import com.bank.bootcamp.credits.dto.CreatePaidDTO;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCreditRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+import com.bank.bootcamp.credits.service.CreditService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/*
+ * Bursts of concurrent charges and payments on one BUSINESS credit, with and without write lanes.
+ * Balance updates of the credit are serialized on a single thread that holds each one for writeMicros,
+ * the way MongoDB serializes writes to one document, so the benchmark shows what coalescing saves.
+ * Run with: mvn -Pbenchmark verify -Djmh.includes=HotCardBenchmark
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HotCardBenchmark {
+
+  private static final int BURST = 1024;
+  private static final int CONCURRENCY = 256;
+  
+  @Param({ "false", "true" })
+  private boolean writeLanes;
+  
+  @Param({ "0", "200" })
+  private long writeMicros;
+  
+  private Scheduler documentLock;
+  private CreditService creditService;
+  private CreateConsumptiomDTO consumptiomDTO;
+  private CreatePaidDTO paidDTO;
+  
+  @Setup(Level.Iteration)
+  public void setup() {
+    documentLock = Schedulers.newSingle("hot-card");
+    var creditRepository = new SerializedCreditRepository();
+    var paidRepository = new InMemoryPaidRepository();
+    var consumptiomRepository = new InMemoryConsumptiomRepository();
+    creditService = new CreditServiceBuilder(new SimpleMeterRegistry())
+        .creditRepository(creditRepository)
+        .paidRepository(paidRepository)
+        .consumptiomRepository(consumptiomRepository)
+        .writeLanes(writeLanes, 64, 100_000)
+        .build();
+    
+    var credit = new Credit();
+    credit.setCreditType(CreditType.BUSINESS);
+    credit.setCustomerId("corporate");
+    credit.setLimit(new BigDecimal("1000000000000"));
+    var creditId = creditService.createProduct(credit).block().getId();
+    
+    consumptiomDTO = new CreateConsumptiomDTO();
+    consumptiomDTO.setCreditId(creditId);
+    consumptiomDTO.setAmount(new BigDecimal("10"));
+    paidDTO = new CreatePaidDTO();
+    paidDTO.setCreditId(creditId);
+    paidDTO.setAmount(new BigDecimal("5"));
+  }
+  
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    documentLock.dispose();
+  }
+  
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(BURST)
+  public Long chargeAndPayBurst() {
+    return Flux.range(0, BURST)
+        .flatMap(i -> i % 4 == 3 ? creditService.paidCredit(paidDTO) : creditService.chargeConsumptiom(consumptiomDTO), CONCURRENCY)
+        .count()
+        .block();
+  }
+  
+  private class SerializedCreditRepository extends InMemoryCreditRepository {
+    
+    private <T> Mono<T> serialized(Mono<T> write) {
+      return write
+          .doOnSubscribe(s -> {
+            if (writeMicros > 0)
+              LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(writeMicros));
+          })
+          .subscribeOn(documentLock);
+    }
+    
+    @Override
+    public Mono<Credit> addUsed(String creditId, long amount) {
+      return serialized(super.addUsed(creditId, amount));
+    }
+    
+    @Override
+    public Mono<Credit> reserveCredit(String creditId, long amount) {
+      return serialized(super.reserveCredit(creditId, amount));
+    }
+  }
+}
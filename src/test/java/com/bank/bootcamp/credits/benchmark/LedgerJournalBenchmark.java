@@ -0,0 +1,159 @@
+package com.bank.bootcamp.credits.benchmark;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import com.bank.bootcamp.credits.CreditServiceBuilder;
+import com.bank.bootcamp.credits.dto.CreateConsumptiomDTO;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.journal.LedgerJournal;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCreditRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+import com.bank.bootcamp.credits.service.CreditService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/*
+ * Acknowledged charges per second on many credits, straight to the ledger or through the journal.
+ * Every round trip to the database (the reservation on the credit, the insert of the consumptiom or of a flushed batch)
+ * holds one of connections threads for writeMillis, a connection pool waiting on journaled majority writes.
+ * The journal trades the insert of each charge for a share of a local fsync and of a bulk insert.
+ * Run with: mvn -Pbenchmark verify -Djmh.includes=LedgerJournalBenchmark
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LedgerJournalBenchmark {
+  
+  private static final int BURST = 1024;
+  private static final int CONCURRENCY = 256;
+  private static final int CREDITS = 64;
+  
+  @Param({ "false", "true" })
+  private boolean journal;
+  
+  @Param({ "1" })
+  private long writeMillis;
+  
+  @Param({ "16" })
+  private int connections;
+  
+  private Scheduler database;
+  private Path directory;
+  private LedgerJournal ledgerJournal;
+  private Disposable flushes;
+  private CreditService creditService;
+  private CreateConsumptiomDTO[] charges;
+  
+  @Setup(Level.Iteration)
+  public void setup() throws IOException {
+    directory = Files.createTempDirectory("ledger-journal");
+    database = Schedulers.newParallel("database", connections);
+    var creditRepository = new RemoteCreditRepository();
+    var paidRepository = new InMemoryPaidRepository();
+    var consumptiomRepository = new RemoteConsumptiomRepository();
+    var services = new CreditServiceBuilder(new SimpleMeterRegistry())
+        .creditRepository(creditRepository)
+        .paidRepository(paidRepository)
+        .consumptiomRepository(consumptiomRepository)
+        .writeLanes(false, 64, 100_000);
+    if (journal)
+      services.journal(directory);
+    ledgerJournal = services.ledgerJournal();
+    creditService = services.journal(ledgerJournal).build();
+    // what LedgerJournalFlushJob does with its default interval
+    flushes = journal ? Flux.interval(Duration.ofMillis(50)).onBackpressureDrop().concatMap(tick -> ledgerJournal.flush()).subscribe() : null;
+    
+    charges = new CreateConsumptiomDTO[CREDITS];
+    for (int i = 0; i < CREDITS; i++) {
+      var credit = new Credit();
+      credit.setCreditType(CreditType.BUSINESS);
+      credit.setCustomerId("customer-" + i);
+      credit.setLimit(new BigDecimal("1000000000000"));
+      charges[i] = new CreateConsumptiomDTO();
+      charges[i].setCreditId(creditService.createProduct(credit).block().getId());
+      charges[i].setAmount(new BigDecimal("10.25"));
+    }
+  }
+  
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException {
+    if (flushes != null)
+      flushes.dispose();
+    ledgerJournal.close();
+    database.dispose();
+    try (var files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+  
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(BURST)
+  public Long chargeBurst() {
+    return Flux.range(0, BURST)
+        .flatMap(i -> creditService.chargeConsumptiom(charges[i % CREDITS]), CONCURRENCY)
+        .count()
+        .block();
+  }
+  
+  private <T> Mono<T> roundTrip(Mono<T> write) {
+    return Mono.fromRunnable(() -> LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(writeMillis)))
+        .subscribeOn(database)
+        .then(write);
+  }
+  
+  private class RemoteCreditRepository extends InMemoryCreditRepository {
+    
+    @Override
+    public Mono<Credit> addUsed(String creditId, long amount) {
+      return roundTrip(super.addUsed(creditId, amount));
+    }
+    
+    @Override
+    public Mono<Credit> reserveCredit(String creditId, long amount) {
+      return roundTrip(super.reserveCredit(creditId, amount));
+    }
+  }
+  
+  private class RemoteConsumptiomRepository extends InMemoryConsumptiomRepository {
+    
+    @Override
+    public <S extends Consumptiom> Mono<S> save(S entity) {
+      return roundTrip(super.save(entity));
+    }
+    
+    @Override
+    public <S extends Consumptiom> Flux<S> insert(Iterable<S> entities) {
+      return roundTrip(Mono.empty()).thenMany(super.insert(entities));
+    }
+  }
+}
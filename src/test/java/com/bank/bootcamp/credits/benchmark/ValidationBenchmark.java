@@ -0,0 +1,91 @@
+package com.bank.bootcamp.credits.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.ObjectUtils;
+import com.bank.bootcamp.credits.dto.CreateConsumptiomDTO;
+import com.bank.bootcamp.credits.exception.BankValidationException;
+import com.bank.bootcamp.credits.validation.CreditRequestValidator;
+import reactor.core.publisher.Mono;
+
+/*
+ * Single pass CreditRequestValidator against the chain of check(...) Monos CreditService used before.
+ * Compare gc.alloc.rate.norm (bytes per request) for valid and rejected requests.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ValidationBenchmark {
+
+  private final CreditRequestValidator validator = new CreditRequestValidator();
+  private final CreateConsumptiomDTO valid = consumptiom("credit", new BigDecimal("10"));
+  private final CreateConsumptiomDTO invalid = consumptiom("credit", new BigDecimal("-10"));
+  
+  private static CreateConsumptiomDTO consumptiom(String creditId, BigDecimal amount) {
+    var consumptiom = new CreateConsumptiomDTO();
+    consumptiom.setCreditId(creditId);
+    consumptiom.setAmount(amount);
+    return consumptiom;
+  }
+  
+  @Benchmark
+  public Object validatorValid() {
+    return validate(valid).block();
+  }
+  
+  @Benchmark
+  public Object validatorInvalid() {
+    return validate(invalid).onErrorResume(e -> Mono.just(e)).block();
+  }
+  
+  @Benchmark
+  public Object checkChainValid() {
+    return checkChain(valid).block();
+  }
+  
+  @Benchmark
+  public Object checkChainInvalid() {
+    return checkChain(invalid).onErrorResume(e -> Mono.just(e)).block();
+  }
+  
+  private Mono<Object> validate(CreateConsumptiomDTO consumptionDTO) {
+    var violations = validator.validate(consumptionDTO);
+    if (!violations.isEmpty())
+      return Mono.error(new BankValidationException(violations));
+    return Mono.just(consumptionDTO);
+  }
+  
+  private Mono<Object> checkChain(CreateConsumptiomDTO consumptionDTO) {
+    return Mono.just(consumptionDTO)
+        .then(check(consumptionDTO, c -> ObjectUtils.isEmpty(c), "Consumption is required"))
+        .then(check(consumptionDTO, c -> ObjectUtils.isEmpty(c.getAmount()), "Consumption amount is required"))
+        .then(check(consumptionDTO, c -> ObjectUtils.isEmpty(c.getCreditId()), "Consumption Credit ID is required"))
+        .then(check(consumptionDTO, c -> c.getAmount().signum() < 0, "Consumption amount must be greater than zero"))
+        .then(Mono.just(consumptionDTO));
+  }
+  
+  private <T> Mono<Void> check(T t, Predicate<T> predicate, String messageForException) {
+    return Mono.create(sink -> {
+      if (predicate.test(t)) {
+        // the exception had a full stack trace before
+        sink.error(new Exception(messageForException));
+        return;
+      } else {
+        sink.success();
+      }
+    });
+  }
+}
@@ -0,0 +1,67 @@
+package com.bank.bootcamp.credits.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.boot.autoconfigure.mongo.MongoProperties;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.util.ClassUtils;
+import com.bank.bootcamp.credits.CreditsApplication;
+import com.bank.bootcamp.credits.controller.CreditController;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.job.LedgerRollupJob;
+import com.bank.bootcamp.credits.journal.LedgerJournal;
+import com.bank.bootcamp.credits.service.StatementService;
+
+public class FastStartConfigurationTests {
+  
+  @Test
+  public void listsEveryDocument() {
+    var scanner = new ClassPathScanningCandidateComponentProvider(false);
+    scanner.addIncludeFilter(new AnnotationTypeFilter(Document.class));
+    var scanned = scanner.findCandidateComponents(ClassUtils.getPackageName(Credit.class)).stream()
+        .map(definition -> ClassUtils.resolveClassName(definition.getBeanClassName(), null))
+        .collect(Collectors.toSet());
+    assertThat(FastStartConfiguration.DOCUMENTS).isEqualTo(scanned);
+  }
+  
+  @Test
+  public void buildsTheMappingMetadataUpFront() {
+    var context = new FastStartConfiguration.MongoMapping().mongoMappingContext(new MongoProperties(), new MongoCustomConversions(List.of()));
+    context.afterPropertiesSet();
+    assertThat(context.getPersistentEntities()).hasSize(FastStartConfiguration.DOCUMENTS.size());
+    assertThat(context.getRequiredPersistentEntity(Credit.class).getCollection()).isEqualTo("Credits");
+  }
+  
+  @Test
+  public void keepsBackgroundBeansEager() {
+    var filter = FastStartConfiguration.eagerBackgroundBeans();
+    assertThat(filter.isExcluded("ledgerRollupJob", new RootBeanDefinition(LedgerRollupJob.class), LedgerRollupJob.class)).isTrue();
+    assertThat(filter.isExcluded("ledgerJournal", new RootBeanDefinition(LedgerJournal.class), LedgerJournal.class)).isTrue();
+    assertThat(filter.isExcluded("statementService", new RootBeanDefinition(StatementService.class), StatementService.class)).isFalse();
+  }
+  
+  @Test
+  public void startsLazilyWithTheJobsScheduled() {
+    // the bootstrap context only sees system properties, see LoadTestApplication
+    System.setProperty("spring.cloud.config.enabled", "false");
+    System.setProperty("spring.devtools.restart.enabled", "false");
+    try (var context = new SpringApplicationBuilder(CreditsApplication.class)
+        .profiles("inmemory", "fast-start")
+        .properties("server.port=0", "spring.main.banner-mode=off")
+        .run()) {
+      var beanFactory = context.getBeanFactory();
+      assertThat(beanFactory.containsSingleton("ledgerRollupJob")).isTrue();
+      assertThat(beanFactory.containsSingleton("creditController")).isFalse();
+      assertThat(context.getBean(CreditController.class)).isNotNull();
+      // Eureka registers through the instance replicator, after the start
+      assertThat(context.getEnvironment().getProperty("eureka.client.on-demand-update-status-change", Boolean.class)).isFalse();
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.bank.bootcamp.credits.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import reactor.core.publisher.Mono;
+
+/*
+ * Backfills the ingestedDate of movements written before it existed on a local MongoDB.
+ * Needs a server: mvn test -Dcredits.it.mongodb.uri=mongodb://localhost:27017
+ */
+@EnabledIfSystemProperty(named = "credits.it.mongodb.uri", matches = ".+")
+public class LedgerIngestedDateMigrationTests {
+  
+  private static final String DATABASE = "credits_ingested_date_migration";
+  private static final LocalDateTime T0 = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+  
+  private static MongoClient client;
+  private static ReactiveMongoTemplate mongoTemplate;
+  
+  @BeforeAll
+  public static void setup() {
+    client = MongoClients.create(System.getProperty("credits.it.mongodb.uri"));
+    mongoTemplate = new ReactiveMongoTemplate(client, DATABASE);
+    mongoTemplate.getMongoDatabase().flatMap(database -> Mono.from(database.drop())).block();
+    
+    // movements as written before ingestedDate, and one written after it
+    mongoTemplate.insert(new Document("creditId", "legacy").append("amount", 10).append("registerDate", T0), "Consumptioms")
+      .then(mongoTemplate.insert(new Document("creditId", "legacy").append("amount", 4).append("createdDate", T0), "Paids"))
+      .then(mongoTemplate.insert(new Document("creditId", "legacy").append("amount", 5).append("registerDate", T0)
+          .append("ingestedDate", T0.plusHours(1)), "Consumptioms"))
+      .block();
+  }
+  
+  @AfterAll
+  public static void tearDown() {
+    if (client != null)
+      client.close();
+  }
+  
+  @Test
+  public void setsTheIngestedDateOfLegacyMovements() {
+    new LedgerIngestedDateMigration(mongoTemplate).afterSingletonsInstantiated();
+    
+    assertThat(mongoTemplate.findAll(Consumptiom.class).collectList().block())
+      .extracting(Consumptiom::getIngestedDate)
+      .containsExactlyInAnyOrder(T0, T0.plusHours(1));
+    assertThat(mongoTemplate.findAll(Paid.class).blockFirst().getIngestedDate()).isEqualTo(T0);
+    assertThat(mongoTemplate.exists(Query.query(Criteria.where("_id").is(LedgerIngestedDateMigration.ID)), MoneyMigration.COLLECTION).block()).isTrue();
+  }
+}
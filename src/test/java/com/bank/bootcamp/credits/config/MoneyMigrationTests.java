@@ -0,0 +1,77 @@
+package com.bank.bootcamp.credits.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * Converts legacy double amounts on a local MongoDB and checks the ledger sums afterwards.
+ * Needs a server: mvn test -Dcredits.it.mongodb.uri=mongodb://localhost:27017
+ */
+@EnabledIfSystemProperty(named = "credits.it.mongodb.uri", matches = ".+")
+public class MoneyMigrationTests {
+  
+  private static final String DATABASE = "credits_money_migration";
+  private static final int MOVEMENTS = 1000;
+  
+  private static MongoClient client;
+  private static ReactiveMongoTemplate mongoTemplate;
+  
+  @BeforeAll
+  public static void setup() {
+    client = MongoClients.create(System.getProperty("credits.it.mongodb.uri"));
+    mongoTemplate = new ReactiveMongoTemplate(client, DATABASE);
+    mongoTemplate.getMongoDatabase().flatMap(database -> Mono.from(database.drop())).block();
+    
+    // documents as written by the Double based entities
+    mongoTemplate.insert(new Document("_id", "legacy").append("limit", 1000d).append("used", 100.1d).append("available", 899.9d), "Credits")
+      .thenMany(Flux.range(0, MOVEMENTS).concatMap(i -> mongoTemplate.insert(new Document("creditId", "legacy")
+          .append("amount", 0.1d).append("registerDate", LocalDateTime.now()), "Consumptioms")))
+      .then(mongoTemplate.insert(new Document("creditId", "legacy").append("amount", 3).append("createdDate", LocalDateTime.now()), "Paids"))
+      .block();
+  }
+  
+  @AfterAll
+  public static void tearDown() {
+    if (client != null)
+      client.close();
+  }
+  
+  @Test
+  public void convertsLegacyAmountsToDecimal128() {
+    // what the start does: returns once every amount is converted
+    new MoneyMigration(mongoTemplate).afterSingletonsInstantiated();
+    
+    var credit = mongoTemplate.findById("legacy", Credit.class).block();
+    assertThat(credit.getLimit()).isEqualByComparingTo("1000");
+    assertThat(credit.getUsed()).isEqualByComparingTo("100.10");
+    assertThat(credit.getAvailable()).isEqualByComparingTo("899.90");
+    assertThat(mongoTemplate.findAll(Document.class, "Consumptioms").collectList().block())
+      .hasSize(MOVEMENTS).allMatch(consumptiom -> consumptiom.get("amount") instanceof Decimal128);
+    
+    var sum = mongoTemplate.aggregate(Aggregation.newAggregation(Aggregation.group("creditId").sum("amount").as("total")), "Consumptioms", Document.class)
+        .map(total -> total.get("total", Decimal128.class).bigDecimalValue())
+        .blockFirst();
+    assertThat(sum).isEqualByComparingTo(new BigDecimal("0.1").multiply(BigDecimal.valueOf(MOVEMENTS)));
+    assertThat(mongoTemplate.findAll(Document.class, "Paids").blockFirst().get("amount")).isInstanceOf(Decimal128.class);
+    
+    // marker written; a second run does not scan again
+    assertThat(mongoTemplate.exists(Query.query(Criteria.where("_id").is(MoneyMigration.ID)), MoneyMigration.COLLECTION).block()).isTrue();
+    new MoneyMigration(mongoTemplate).migrate().block();
+  }
+}
@@ -0,0 +1,116 @@
+package com.bank.bootcamp.credits.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import com.bank.bootcamp.credits.entity.ArchivedConsumptiom;
+import com.bank.bootcamp.credits.entity.ArchivedPaid;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CustomerExposure;
+import com.bank.bootcamp.credits.entity.IdempotencyRecord;
+import com.bank.bootcamp.credits.entity.LedgerRollup;
+import com.bank.bootcamp.credits.entity.Paid;
+
+/*
+ * Every repository query must be served by an index: its filter fields have to be a prefix of a declared index.
+ * MongoQueryPlanTests checks the same against a real server with explain().
+ */
+public class MongoIndexTests {
+  
+  private final MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext());
+  
+  private static MongoMappingContext mappingContext() {
+    var mappingContext = new MongoMappingContext();
+    mappingContext.setSimpleTypeHolder(new MongoCustomConversions(List.of()).getSimpleTypeHolder());
+    return mappingContext;
+  }
+  
+  private List<IndexDefinition> indexes(Class<?> type) {
+    var indexes = new ArrayList<IndexDefinition>();
+    resolver.resolveIndexFor(type).forEach(indexes::add);
+    return indexes;
+  }
+  
+  @Test
+  public void declaresEntityIndexes() {
+    assertThat(indexes(Credit.class)).extracting(IndexDefinition::getIndexKeys)
+      .contains(new Document("customerId", 1).append("creditType", 1), new Document("cardNumber", 1), new Document("updatedDate", 1));
+    assertThat(indexes(Credit.class))
+      .filteredOn(index -> index.getIndexKeys().containsKey("cardNumber"))
+      .allMatch(index -> Boolean.TRUE.equals(index.getIndexOptions().get("unique")));
+    assertThat(indexes(Consumptiom.class)).extracting(IndexDefinition::getIndexKeys)
+      .contains(new Document("creditId", 1).append("registerDate", 1).append("_id", 1), new Document("ingestedDate", 1),
+          new Document("creditId", 1).append("ingestedDate", 1));
+    assertThat(indexes(Paid.class)).extracting(IndexDefinition::getIndexKeys)
+      .contains(new Document("creditId", 1).append("createdDate", 1).append("_id", 1), new Document("ingestedDate", 1),
+          new Document("creditId", 1).append("ingestedDate", 1));
+    assertThat(indexes(ArchivedConsumptiom.class)).extracting(IndexDefinition::getIndexKeys)
+      .contains(new Document("creditId", 1).append("registerDate", 1).append("_id", 1));
+    assertThat(indexes(ArchivedPaid.class)).extracting(IndexDefinition::getIndexKeys)
+      .contains(new Document("creditId", 1).append("createdDate", 1).append("_id", 1));
+    assertThat(indexes(LedgerRollup.class)).extracting(IndexDefinition::getIndexKeys)
+      .contains(new Document("creditId", 1).append("day", 1));
+    assertThat(indexes(CustomerExposure.class)).extracting(IndexDefinition::getIndexKeys)
+      .contains(new Document("customerId", 1).append("creditType", 1));
+    assertThat(indexes(IdempotencyRecord.class))
+      .anyMatch(index -> index.getIndexKeys().equals(new Document("createdDate", 1))
+          && Long.valueOf(86400).equals(index.getIndexOptions().get("expireAfterSeconds")));
+  }
+  
+  @Test
+  public void repositoryQueriesHaveAnIndexPrefix() {
+    var queries = Map.ofEntries(
+        Map.entry("CreditRepository.findAllByCustomerIdAndCreditType", Map.entry(Credit.class, List.of("customerId", "creditType"))),
+        Map.entry("CreditRepository.findChangedSince", Map.entry(Credit.class, List.of("updatedDate"))),
+        Map.entry("CreditRepository.getExposure", Map.entry(Credit.class, List.of("customerId", "creditType"))),
+        Map.entry("ConsumptiomRepository.findAllByCreditId", Map.entry(Consumptiom.class, List.of("creditId"))),
+        Map.entry("ConsumptiomRepository.getSumByCreditId", Map.entry(Consumptiom.class, List.of("creditId"))),
+        Map.entry("ConsumptiomRepository.getSumsByCreditIds", Map.entry(Consumptiom.class, List.of("creditId"))),
+        Map.entry("ConsumptiomRepository.getSumByCreditIdUpTo", Map.entry(Consumptiom.class, List.of("creditId", "ingestedDate"))),
+        Map.entry("ConsumptiomRepository.getSumByCreditIdBetween", Map.entry(Consumptiom.class, List.of("creditId", "ingestedDate"))),
+        Map.entry("ConsumptiomRepository.getSumByCreditIdAfter", Map.entry(Consumptiom.class, List.of("creditId", "ingestedDate"))),
+        Map.entry("ConsumptiomRepository.findPageByCreditIdBefore", Map.entry(Consumptiom.class, List.of("creditId", "registerDate", "_id"))),
+        Map.entry("ConsumptiomRepository.streamByCreditId", Map.entry(Consumptiom.class, List.of("creditId", "registerDate", "_id"))),
+        Map.entry("ConsumptiomRepository.streamByCreditIdBetween", Map.entry(Consumptiom.class, List.of("creditId", "registerDate", "_id"))),
+        Map.entry("ConsumptiomRepository.getDailyTotal", Map.entry(Consumptiom.class, List.of("creditId", "registerDate"))),
+        Map.entry("ConsumptiomRepository.getDaysBetween", Map.entry(Consumptiom.class, List.of("ingestedDate"))),
+        Map.entry("ConsumptiomRepository.findFirstByOrderByIngestedDateAsc", Map.entry(Consumptiom.class, List.of("ingestedDate"))),
+        Map.entry("ConsumptiomRepository.findArchivableByCreditId", Map.entry(Consumptiom.class, List.of("creditId", "registerDate", "_id"))),
+        Map.entry("ArchivedConsumptiomRepository.findPageByCreditIdBefore", Map.entry(ArchivedConsumptiom.class, List.of("creditId", "registerDate", "_id"))),
+        Map.entry("ArchivedConsumptiomRepository.streamByCreditId", Map.entry(ArchivedConsumptiom.class, List.of("creditId", "registerDate", "_id"))),
+        Map.entry("PaidRepository.findAllByCreditId", Map.entry(Paid.class, List.of("creditId"))),
+        Map.entry("PaidRepository.getSumByCreditId", Map.entry(Paid.class, List.of("creditId"))),
+        Map.entry("PaidRepository.getSumsByCreditIds", Map.entry(Paid.class, List.of("creditId"))),
+        Map.entry("PaidRepository.getSumByCreditIdUpTo", Map.entry(Paid.class, List.of("creditId", "ingestedDate"))),
+        Map.entry("PaidRepository.getSumByCreditIdBetween", Map.entry(Paid.class, List.of("creditId", "ingestedDate"))),
+        Map.entry("PaidRepository.getSumByCreditIdAfter", Map.entry(Paid.class, List.of("creditId", "ingestedDate"))),
+        Map.entry("PaidRepository.findPageByCreditIdBefore", Map.entry(Paid.class, List.of("creditId", "createdDate", "_id"))),
+        Map.entry("PaidRepository.streamByCreditId", Map.entry(Paid.class, List.of("creditId", "createdDate", "_id"))),
+        Map.entry("PaidRepository.streamByCreditIdBetween", Map.entry(Paid.class, List.of("creditId", "createdDate", "_id"))),
+        Map.entry("PaidRepository.getDailyTotal", Map.entry(Paid.class, List.of("creditId", "createdDate"))),
+        Map.entry("PaidRepository.getDaysBetween", Map.entry(Paid.class, List.of("ingestedDate"))),
+        Map.entry("PaidRepository.findFirstByOrderByIngestedDateAsc", Map.entry(Paid.class, List.of("ingestedDate"))),
+        Map.entry("PaidRepository.findArchivableByCreditId", Map.entry(Paid.class, List.of("creditId", "createdDate", "_id"))),
+        Map.entry("ArchivedPaidRepository.findPageByCreditIdBefore", Map.entry(ArchivedPaid.class, List.of("creditId", "createdDate", "_id"))),
+        Map.entry("ArchivedPaidRepository.streamByCreditId", Map.entry(ArchivedPaid.class, List.of("creditId", "createdDate", "_id"))),
+        Map.entry("LedgerRollupRepository.findAllByCreditIdAndDayBetween", Map.entry(LedgerRollup.class, List.of("creditId", "day"))),
+        Map.entry("CustomerExposureRepository.findAllByCustomerId", Map.entry(CustomerExposure.class, List.of("customerId"))));
+    
+    queries.forEach((query, filter) -> {
+      var prefixes = indexes(filter.getKey()).stream()
+          .map(index -> index.getIndexKeys().keySet().stream().limit(filter.getValue().size()).collect(Collectors.toSet()))
+          .collect(Collectors.toList());
+      assertThat(prefixes).as(query).contains(Set.copyOf(filter.getValue()));
+    });
+  }
+}
@@ -0,0 +1,140 @@
+package com.bank.bootcamp.credits.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.List;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * Runs explain() on every repository query against a local MongoDB and fails on COLLSCAN.
+ * Needs a server: mvn test -Dcredits.it.mongodb.uri=mongodb://localhost:27017
+ */
+@EnabledIfSystemProperty(named = "credits.it.mongodb.uri", matches = ".+")
+public class MongoQueryPlanTests {
+  
+  private static final String DATABASE = "credits_query_plan";
+  
+  private static MongoClient client;
+  private static ReactiveMongoTemplate mongoTemplate;
+  
+  @BeforeAll
+  public static void setup() {
+    client = MongoClients.create(System.getProperty("credits.it.mongodb.uri"));
+    mongoTemplate = new ReactiveMongoTemplate(client, DATABASE);
+    mongoTemplate.getMongoDatabase().flatMap(database -> Mono.from(database.drop())).block();
+    new MongoIndexInitializer(mongoTemplate).ensureIndexes().block();
+    
+    Flux.range(0, 100).concatMap(i -> {
+      var credit = new Credit();
+      credit.setCustomerId("customer-" + i % 10);
+      credit.setCreditType(i % 2 == 0 ? CreditType.PERSONAL : CreditType.BUSINESS);
+      credit.setCardNumber(String.valueOf(3353_0000_0000_0000L + i));
+      credit.setLimit(new BigDecimal("1000"));
+      
+      var consumptiom = new Consumptiom();
+      consumptiom.setCreditId("credit-" + i % 10);
+      consumptiom.setAmount(new BigDecimal("10"));
+      consumptiom.setRegisterDate(LocalDateTime.now());
+      consumptiom.setIngestedDate(consumptiom.getRegisterDate());
+      
+      var paid = new Paid();
+      paid.setCreditId("credit-" + i % 10);
+      paid.setAmount(new BigDecimal("5"));
+      paid.setCreatedDate(LocalDateTime.now());
+      paid.setIngestedDate(paid.getCreatedDate());
+      
+      return mongoTemplate.insert(credit).then(mongoTemplate.insert(consumptiom)).then(mongoTemplate.insert(paid));
+    }).blockLast();
+  }
+  
+  @AfterAll
+  public static void tearDown() {
+    if (client != null)
+      client.close();
+  }
+  
+  private Document explainFind(String collection, Document filter) {
+    return explain(new Document("find", collection).append("filter", filter));
+  }
+  
+  private Document explainFind(String collection, Document filter, Document sort) {
+    return explain(new Document("find", collection).append("filter", filter).append("sort", sort).append("limit", 50));
+  }
+  
+  private Document explainSum(String collection, String creditId) {
+    return explain(new Document("aggregate", collection)
+        .append("pipeline", List.of(
+            new Document("$match", new Document("creditId", creditId)),
+            new Document("$group", new Document("_id", "").append("total", new Document("$sum", "$amount")))))
+        .append("cursor", new Document()));
+  }
+  
+  private Document explain(Document command) {
+    return mongoTemplate.getMongoDatabase()
+        .flatMap(database -> Mono.from(database.runCommand(new Document("explain", command).append("verbosity", "queryPlanner"))))
+        .block();
+  }
+  
+  private void assertNoCollectionScan(String query, Document explain) {
+    assertThat(explain.toJson()).as(query).doesNotContain("COLLSCAN").contains("IXSCAN");
+  }
+  
+  private void assertNoBlockingSort(String query, Document explain) {
+    assertNoCollectionScan(query, explain);
+    assertThat(explain.toJson()).as(query).doesNotContain("\"SORT\"");
+  }
+  
+  @Test
+  public void creditQueriesUseIndexes() {
+    assertNoCollectionScan("CreditRepository.findAllByCustomerIdAndCreditType",
+        explainFind("Credits", new Document("customerId", "customer-1").append("creditType", "BUSINESS")));
+    assertNoCollectionScan("Credits by cardNumber",
+        explainFind("Credits", new Document("cardNumber", "3353000000000001")));
+    assertNoCollectionScan("CreditRepository.findChangedSince",
+        explainFind("Credits", new Document("updatedDate", new Document("$gt", new Date()))));
+  }
+  
+  @Test
+  public void ledgerQueriesUseIndexes() {
+    assertNoCollectionScan("ConsumptiomRepository.findAllByCreditId", explainFind("Consumptioms", new Document("creditId", "credit-1")));
+    assertNoCollectionScan("ConsumptiomRepository.getSumByCreditId", explainSum("Consumptioms", "credit-1"));
+    assertNoCollectionScan("PaidRepository.findAllByCreditId", explainFind("Paids", new Document("creditId", "credit-1")));
+    assertNoCollectionScan("PaidRepository.getSumByCreditId", explainSum("Paids", "credit-1"));
+  }
+  
+  @Test
+  public void statementQueriesUseIndexOrder() {
+    var date = LocalDateTime.now();
+    var id = new ObjectId();
+    assertNoBlockingSort("ConsumptiomRepository.findPageByCreditIdBefore", explainFind("Consumptioms",
+        keysetFilter("registerDate", date, id), new Document("registerDate", -1).append("_id", -1)));
+    assertNoBlockingSort("ConsumptiomRepository.streamByCreditId", explainFind("Consumptioms",
+        new Document("creditId", "credit-1"), new Document("registerDate", 1).append("_id", 1)));
+    assertNoBlockingSort("PaidRepository.findPageByCreditIdBefore", explainFind("Paids",
+        keysetFilter("createdDate", date, id), new Document("createdDate", -1).append("_id", -1)));
+    assertNoBlockingSort("PaidRepository.streamByCreditId", explainFind("Paids",
+        new Document("creditId", "credit-1"), new Document("createdDate", 1).append("_id", 1)));
+  }
+  
+  private Document keysetFilter(String dateField, LocalDateTime date, ObjectId id) {
+    return new Document("creditId", "credit-1").append("$or", List.of(
+        new Document(dateField, new Document("$lt", date)),
+        new Document(dateField, date).append("_id", new Document("$lt", id))));
+  }
+}
@@ -0,0 +1,258 @@
+package com.bank.bootcamp.credits.idempotency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import com.bank.bootcamp.credits.CreditServiceBuilder;
+import com.bank.bootcamp.credits.dto.CreateConsumptiomDTO;
+import com.bank.bootcamp.credits.dto.CreatePaidDTO;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.entity.IdempotencyRecord;
+import com.bank.bootcamp.credits.exception.BankValidationException;
+import com.bank.bootcamp.credits.exception.RequestInProgressException;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCreditRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryIdempotencyRecordRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+import com.bank.bootcamp.credits.service.CreditService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+public class IdempotencyServiceTests {
+  
+  private InMemoryCreditRepository creditRepository;
+  private InMemoryConsumptiomRepository consumptiomRepository;
+  private InMemoryPaidRepository paidRepository;
+  private InMemoryIdempotencyRecordRepository idempotencyRecordRepository;
+  private CreditService creditService;
+  private CreditMetrics creditMetrics;
+  private String creditId;
+  
+  @BeforeEach
+  public void setup() {
+    creditRepository = new InMemoryCreditRepository();
+    consumptiomRepository = new InMemoryConsumptiomRepository();
+    paidRepository = new InMemoryPaidRepository();
+    idempotencyRecordRepository = new InMemoryIdempotencyRecordRepository();
+    var services = new CreditServiceBuilder(new SimpleMeterRegistry())
+        .creditRepository(creditRepository)
+        .consumptiomRepository(consumptiomRepository)
+        .paidRepository(paidRepository);
+    creditMetrics = services.creditMetrics();
+    creditService = services.build();
+    
+    var credit = new Credit();
+    credit.setCreditType(CreditType.BUSINESS);
+    credit.setCustomerId("c1");
+    credit.setLimit(new BigDecimal("1000"));
+    creditId = creditService.createProduct(credit).block().getId();
+  }
+  
+  /*
+   * One service instance per application node; all of them share the IdempotencyKeys collection.
+   */
+  private IdempotencyService newNode() {
+    return newNode(idempotencyRecordRepository, Duration.ofSeconds(5));
+  }
+  
+  private IdempotencyService newNode(InMemoryIdempotencyRecordRepository idempotencyRecordRepository, Duration pendingWait) {
+    return newNode(idempotencyRecordRepository, pendingWait, Duration.ofMinutes(1));
+  }
+  
+  private IdempotencyService newNode(InMemoryIdempotencyRecordRepository idempotencyRecordRepository, Duration pendingWait,
+      Duration pendingTimeout) {
+    return new IdempotencyService(idempotencyRecordRepository, creditMetrics, 1000, Duration.ofMinutes(10), pendingWait, pendingTimeout);
+  }
+  
+  private CreateConsumptiomDTO consumptiom(String amount) {
+    var consumptiomDTO = new CreateConsumptiomDTO();
+    consumptiomDTO.setCreditId(creditId);
+    consumptiomDTO.setAmount(new BigDecimal(amount));
+    return consumptiomDTO;
+  }
+  
+  private Mono<String> charge(IdempotencyService node, String key, CreateConsumptiomDTO consumptiomDTO, AtomicInteger executions) {
+    return node.execute("consumptiom", key, consumptiomDTO.getCreditId() + ":" + consumptiomDTO.getAmount().stripTrailingZeros().toPlainString(),
+        () -> creditService.chargeConsumptiom(consumptiomDTO)
+            .doOnSubscribe(s -> executions.incrementAndGet())
+            // a slow write keeps the key PENDING while the retries arrive
+            .delaySubscription(Duration.ofMillis(20)));
+  }
+  
+  @Test
+  public void concurrentRetriesWriteOneConsumptiom() {
+    var nodes = new IdempotencyService[] { newNode(), newNode() };
+    var executions = new AtomicInteger();
+    var consumptiomDTO = consumptiom("10");
+    
+    var ids = Flux.range(0, 200)
+        .parallel()
+        .runOn(Schedulers.parallel())
+        .flatMap(i -> charge(nodes[i % 2], "retry-1", consumptiomDTO, executions))
+        .sequential()
+        .distinct()
+        .collectList()
+        .block(Duration.ofSeconds(30));
+    
+    assertThat(ids).hasSize(1);
+    assertThat(executions.get()).isEqualTo(1);
+    assertThat(consumptiomRepository.findAllByCreditId(creditId).collectList().block()).hasSize(1)
+      .allMatch(consumptiom -> consumptiom.getId().equals(ids.get(0)));
+    assertThat(creditRepository.findById(creditId).block().getUsed()).isEqualByComparingTo("10");
+    assertThat(idempotencyRecordRepository.findById("consumptiom:retry-1").block().getStatus()).isEqualTo(IdempotencyRecord.COMPLETED);
+    
+    // a later retry on a third node is served from the store
+    assertThat(charge(newNode(), "retry-1", consumptiomDTO, executions).block()).isEqualTo(ids.get(0));
+    assertThat(executions.get()).isEqualTo(1);
+  }
+  
+  @Test
+  public void paymentRetriesWriteOnePaid() {
+    var node = newNode();
+    var paidDTO = new CreatePaidDTO();
+    paidDTO.setCreditId(creditId);
+    paidDTO.setAmount(new BigDecimal("5"));
+    var ids = Flux.range(0, 50)
+        .flatMap(i -> node.execute("paid", "pay-1", creditId + ":5", () -> creditService.paidCredit(paidDTO)))
+        .distinct()
+        .collectList()
+        .block();
+    assertThat(ids).hasSize(1);
+    assertThat(paidRepository.findAllByCreditId(creditId).collectList().block()).hasSize(1);
+  }
+  
+  @Test
+  public void rejectsKeyReusedForAnotherRequest() {
+    var node = newNode();
+    var executions = new AtomicInteger();
+    charge(node, "key-1", consumptiom("10"), executions).block();
+    
+    StepVerifier.create(charge(node, "key-1", consumptiom("20"), executions))
+      .expectErrorMatches(e -> e instanceof BankValidationException
+          && ((BankValidationException) e).getReasons().contains("Idempotency-Key reused"))
+      .verify();
+    StepVerifier.create(charge(newNode(), "key-1", consumptiom("20"), executions))
+      .expectError(BankValidationException.class)
+      .verify();
+    assertThat(executions.get()).isEqualTo(1);
+  }
+  
+  @Test
+  public void failedWriteReleasesTheKey() {
+    var node = newNode();
+    var executions = new AtomicInteger();
+    StepVerifier.create(charge(node, "key-2", consumptiom("5000"), executions))
+      .expectError(BankValidationException.class)
+      .verify();
+    assertThat(idempotencyRecordRepository.findById("consumptiom:key-2").block()).isNull();
+    
+    creditRepository.addUsed(creditId, -500000L).block();
+    StepVerifier.create(charge(node, "key-2", consumptiom("5000"), executions))
+      .expectNextCount(1)
+      .verifyComplete();
+    assertThat(executions.get()).isEqualTo(2);
+  }
+  
+  @Test
+  public void failedCompletionKeepsTheKey() {
+    var unavailable = new InMemoryIdempotencyRecordRepository() {
+      @Override
+      public <S extends IdempotencyRecord> Mono<S> save(S entity) {
+        return Mono.error(new DataAccessResourceFailureException("MongoDB unavailable"));
+      }
+    };
+    var node = newNode(unavailable, Duration.ofMillis(200));
+    var executions = new AtomicInteger();
+    
+    var consumptiomId = charge(node, "key-3", consumptiom("10"), executions).block();
+    assertThat(consumptiomId).isNotNull();
+    assertThat(unavailable.findById("consumptiom:key-3").block().getStatus()).isEqualTo(IdempotencyRecord.PENDING);
+    assertThat(charge(node, "key-3", consumptiom("10"), executions).block()).isEqualTo(consumptiomId);
+    StepVerifier.create(charge(newNode(unavailable, Duration.ofMillis(200)), "key-3", consumptiom("10"), executions))
+      .expectError(RequestInProgressException.class)
+      .verify();
+    assertThat(executions.get()).isEqualTo(1);
+    assertThat(consumptiomRepository.findAllByCreditId(creditId).count().block()).isEqualTo(1);
+  }
+  
+  @Test
+  public void neverRunsAgainAWriteWhoseCompletionFailed() {
+    var unavailable = new InMemoryIdempotencyRecordRepository() {
+      @Override
+      public <S extends IdempotencyRecord> Mono<S> save(S entity) {
+        return Mono.error(new DataAccessResourceFailureException("MongoDB unavailable"));
+      }
+    };
+    var executions = new AtomicInteger();
+    charge(newNode(unavailable, Duration.ofMillis(200)), "key-4", consumptiom("10"), executions).block();
+    
+    // retried on another node once the record is older than pending-timeout
+    var retry = newNode(unavailable, Duration.ofMillis(200), Duration.ZERO);
+    StepVerifier.create(charge(retry, "key-4", consumptiom("10"), executions))
+      .expectError(RequestInProgressException.class)
+      .verify();
+    StepVerifier.create(charge(retry, "key-4", consumptiom("10"), executions))
+      .expectError(RequestInProgressException.class)
+      .verify();
+    assertThat(executions.get()).isEqualTo(1);
+    assertThat(consumptiomRepository.findAllByCreditId(creditId).count().block()).isEqualTo(1);
+    assertThat(creditRepository.findById(creditId).block().getUsed()).isEqualByComparingTo("10");
+    assertThat(unavailable.findById("consumptiom:key-4").block().getStatus()).isEqualTo(IdempotencyRecord.PENDING);
+  }
+  
+  @Test
+  public void leavesAStalePendingKeyToReconciliation() {
+    var stale = new IdempotencyRecord();
+    stale.setId("consumptiom:key-6");
+    stale.setFingerprint(creditId + ":10");
+    stale.setStatus(IdempotencyRecord.PENDING);
+    stale.setCreatedDate(LocalDateTime.now().minusMinutes(2));
+    idempotencyRecordRepository.insert(stale).block();
+    var executions = new AtomicInteger();
+    
+    StepVerifier.create(charge(newNode(), "key-6", consumptiom("10"), executions))
+      .expectError(RequestInProgressException.class)
+      .verify(Duration.ofSeconds(1));
+    assertThat(executions.get()).isZero();
+    assertThat(idempotencyRecordRepository.findById("consumptiom:key-6").block()).isEqualTo(stale);
+  }
+  
+  @Test
+  public void answersConflictWhileTheKeyIsPending() {
+    var pending = new IdempotencyRecord();
+    pending.setId("consumptiom:key-5");
+    pending.setFingerprint(creditId + ":10");
+    pending.setStatus(IdempotencyRecord.PENDING);
+    pending.setCreatedDate(LocalDateTime.now());
+    idempotencyRecordRepository.insert(pending).block();
+    var executions = new AtomicInteger();
+    
+    StepVerifier.create(charge(newNode(idempotencyRecordRepository, Duration.ofMillis(200)), "key-5", consumptiom("10"), executions))
+      .expectError(RequestInProgressException.class)
+      .verify();
+    assertThat(executions.get()).isZero();
+    assertThat(idempotencyRecordRepository.findById("consumptiom:key-5").block().getStatus()).isEqualTo(IdempotencyRecord.PENDING);
+  }
+  
+  @Test
+  public void runsEveryRequestWithoutKey() {
+    var node = newNode();
+    var executions = new AtomicInteger();
+    charge(node, null, consumptiom("10"), executions).block();
+    charge(node, null, consumptiom("10"), executions).block();
+    assertThat(executions.get()).isEqualTo(2);
+    StepVerifier.create(charge(node, "", consumptiom("10"), executions))
+      .expectError(BankValidationException.class)
+      .verify();
+  }
+}
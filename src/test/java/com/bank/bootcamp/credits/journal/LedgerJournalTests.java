@@ -0,0 +1,285 @@
+package com.bank.bootcamp.credits.journal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import com.bank.bootcamp.credits.CreditServiceBuilder;
+import com.bank.bootcamp.credits.dto.CreateConsumptiomDTO;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCreditRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+import com.bank.bootcamp.credits.service.CreditService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * A crash is a journal dropped without close(): what was forced is in the segment files, nothing else ran.
+ */
+public class LedgerJournalTests {
+  
+  private static final LocalDateTime START = LocalDateTime.now().minusMinutes(10).withNano(123_456_789);
+  private static final int SEGMENT_SIZE = 4096;
+  
+  @TempDir
+  Path directory;
+  
+  private SimpleMeterRegistry meterRegistry;
+  private InMemoryConsumptiomRepository consumptiomRepository;
+  private InMemoryPaidRepository paidRepository;
+  
+  @BeforeEach
+  public void setup() {
+    meterRegistry = new SimpleMeterRegistry();
+    consumptiomRepository = new InMemoryConsumptiomRepository();
+    paidRepository = new InMemoryPaidRepository();
+  }
+  
+  private LedgerJournal open(Path directory) {
+    return builder().journal(directory).ledgerJournal();
+  }
+  
+  private Mono<String> append(LedgerJournal journal, int i) {
+    if (i % 3 == 2) {
+      var paid = new Paid();
+      paid.setCreditId("credit-" + i % 7);
+      paid.setAmount(BigDecimal.valueOf(i, 2));
+      paid.setCreatedDate(START.plusSeconds(i));
+      return journal.append(paid).map(Paid::getId);
+    }
+    var consumptiom = new Consumptiom();
+    consumptiom.setCreditId("credit-" + i % 7);
+    consumptiom.setAmount(BigDecimal.valueOf(i, 2));
+    consumptiom.setRegisterDate(START.plusSeconds(i));
+    return journal.append(consumptiom).map(Consumptiom::getId);
+  }
+  
+  private List<String> appendAll(LedgerJournal journal, int from, int count) {
+    return Flux.range(from, count).flatMap(i -> append(journal, i), 64).collectList().block();
+  }
+  
+  private List<String> flushedIds() {
+    return consumptiomRepository.findAll().map(Consumptiom::getId)
+        .concatWith(paidRepository.findAll().map(Paid::getId))
+        .collectList().block();
+  }
+  
+  private List<Path> segmentFiles(Path directory) throws IOException {
+    try (var files = Files.list(directory)) {
+      return files.filter(file -> file.getFileName().toString().endsWith(".journal")).sorted().collect(Collectors.toList());
+    }
+  }
+  
+  private void copy(Path from, Path to) throws IOException {
+    Files.createDirectories(to);
+    try (var files = Files.list(from)) {
+      for (var file : files.collect(Collectors.toList()))
+        Files.copy(file, to.resolve(file.getFileName()));
+    }
+  }
+  
+  private CreditServiceBuilder builder() {
+    return new CreditServiceBuilder(meterRegistry)
+        .consumptiomRepository(consumptiomRepository)
+        .paidRepository(paidRepository)
+        .journalSegmentSize(DataSize.ofBytes(SEGMENT_SIZE))
+        .journalCommitWindow(Duration.ofMillis(1))
+        .journalFlushBatch(100);
+  }
+  
+  private CreditService newCreditService(InMemoryCreditRepository creditRepository, LedgerJournal journal) {
+    return builder().creditRepository(creditRepository).journal(journal).build();
+  }
+  
+  private String createCredit(CreditService creditService, String limit) {
+    var credit = new Credit();
+    credit.setCreditType(CreditType.BUSINESS);
+    credit.setCustomerId("customer-1");
+    credit.setLimit(new BigDecimal(limit));
+    return creditService.createProduct(credit).block().getId();
+  }
+  
+  @Test
+  public void acknowledgesGroupCommitsAndFlushesInBulk() throws IOException {
+    var journal = open(directory);
+    var ids = appendAll(journal, 0, 500);
+    
+    assertThat(ids).hasSize(500).doesNotHaveDuplicates();
+    var commits = meterRegistry.get("credits.journal.commit.size").summary();
+    assertThat(commits.totalAmount()).isEqualTo(500);
+    assertThat(commits.count()).isLessThan(500);
+    assertThat(journal.getUnflushed()).isEqualTo(500);
+    assertThat(flushedIds()).isEmpty();
+    assertThat(segmentFiles(directory)).hasSizeGreaterThan(1);
+    
+    assertThat(journal.flush().block()).isEqualTo(500);
+    assertThat(flushedIds()).containsExactlyInAnyOrderElementsOf(ids);
+    assertThat(journal.getUnflushed()).isZero();
+    assertThat(consumptiomRepository.getSumByCreditId("credit-1").block())
+      .isEqualByComparingTo(consumptiomRepository.findAllByCreditId("credit-1").map(Consumptiom::getAmount).reduce(BigDecimal::add).block());
+    // only the segment being written is left
+    assertThat(segmentFiles(directory)).hasSize(1);
+    assertThat(journal.flush().block()).isZero();
+    journal.close();
+  }
+  
+  @Test
+  public void replaysAcknowledgedMovementsAfterACrash() throws IOException {
+    var crashed = open(directory);
+    var flushedIds = appendAll(crashed, 0, 120);
+    crashed.flush().block();
+    var acknowledged = appendAll(crashed, 120, 300);
+    
+    var restarted = open(directory);
+    assertThat(restarted.getUnflushed()).isEqualTo(300);
+    assertThat(restarted.flush().block()).isEqualTo(300);
+    assertThat(flushedIds()).hasSize(420).containsAll(flushedIds).containsAll(acknowledged);
+    var replayed = consumptiomRepository.findAllByCreditId("credit-3").collectList().block();
+    assertThat(replayed).isNotEmpty().allSatisfy(consumptiom -> {
+      var i = consumptiom.getAmount().unscaledValue().intValue();
+      assertThat(consumptiom.getRegisterDate()).isEqualTo(START.plusSeconds(i));
+      assertThat(i % 7).isEqualTo(3);
+    });
+    
+    // appends after the restart go on in a new segment and survive the next one
+    var more = appendAll(restarted, 420, 10);
+    var again = open(directory);
+    assertThat(again.getUnflushed()).isEqualTo(10);
+    again.flush().block();
+    assertThat(flushedIds()).hasSize(430).containsAll(more);
+  }
+  
+  @Test
+  public void doesNotDuplicateMovementsFlushedBeforeTheCheckpoint() throws IOException {
+    var journal = open(directory);
+    var ids = appendAll(journal, 0, 200);
+    // the files as they were when the movements reached MongoDB but the checkpoint did not
+    var beforeCheckpoint = directory.resolve("copy");
+    copy(directory, beforeCheckpoint);
+    journal.flush().block();
+    
+    var restarted = open(beforeCheckpoint);
+    assertThat(restarted.getUnflushed()).isEqualTo(200);
+    assertThat(restarted.flush().block()).isEqualTo(200);
+    assertThat(flushedIds()).hasSize(200).containsExactlyInAnyOrderElementsOf(ids);
+  }
+  
+  @Test
+  public void stopsTheReplayAtATornRecord() throws IOException {
+    var crashed = open(directory);
+    for (int i = 0; i < 10; i++)
+      append(crashed, i * 3).block();
+    var segment = segmentFiles(directory).get(0);
+    var recordSize = 8 + 1 + 12 + 8 + 8 + 4 + 2 + "credit-0".length();
+    try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] { 42 }), 7L * recordSize + 20);
+    }
+    
+    var restarted = open(directory);
+    assertThat(restarted.getUnflushed()).isEqualTo(7);
+    restarted.flush().block();
+    assertThat(consumptiomRepository.findAll().map(consumptiom -> consumptiom.getAmount().unscaledValue().intValue()).collectList().block())
+      .containsExactlyInAnyOrder(0, 3, 6, 9, 12, 15, 18);
+  }
+  
+  @Test
+  public void lateFlushIsCountedAfterTheSnapshot() throws IOException {
+    var journal = open(directory);
+    var balanceSnapshotService = builder().balanceSnapshotService();
+    var charged = LocalDateTime.now().minusMinutes(10);
+    var consumptiom = new Consumptiom();
+    consumptiom.setCreditId("credit-late");
+    consumptiom.setAmount(new BigDecimal("40.00"));
+    consumptiom.setRegisterDate(charged);
+    var paid = new Paid();
+    paid.setCreditId("credit-late");
+    paid.setAmount(new BigDecimal("15.00"));
+    paid.setCreatedDate(charged);
+    journal.append(consumptiom).block();
+    journal.append(paid).block();
+    var beforeFlush = directory.resolve("copy");
+    copy(directory, beforeFlush);
+    
+    // MongoDB was down while the snapshot job moved past the date of the movements
+    balanceSnapshotService.takeSnapshot("credit-late", LocalDateTime.now().minusMinutes(5)).block();
+    assertThat(balanceSnapshotService.getCreditUsed("credit-late").block()).isZero();
+    
+    // the movements keep their date and are ingested at the flush, after the snapshot checkpoint
+    var beforeIngestion = LocalDateTime.now();
+    journal.flush().block();
+    var flushed = consumptiomRepository.findById(consumptiom.getId()).block();
+    assertThat(flushed.getRegisterDate()).isEqualTo(charged);
+    assertThat(flushed.getIngestedDate()).isAfterOrEqualTo(beforeIngestion);
+    assertThat(paidRepository.findById(paid.getId()).block().getCreatedDate()).isEqualTo(charged);
+    assertThat(paidRepository.findById(paid.getId()).block().getIngestedDate()).isAfterOrEqualTo(beforeIngestion);
+    assertThat(balanceSnapshotService.getCreditUsed("credit-late").block()).isEqualTo(2500L);
+    
+    // a replay of the same records leaves the movements already in MongoDB as they are
+    var restarted = open(beforeFlush);
+    assertThat(restarted.flush().block()).isEqualTo(2);
+    assertThat(consumptiomRepository.findById(consumptiom.getId()).block().getIngestedDate()).isEqualTo(flushed.getIngestedDate());
+    assertThat(consumptiomRepository.findAllByCreditId("credit-late").count().block()).isEqualTo(1);
+    balanceSnapshotService.takeSnapshot("credit-late", LocalDateTime.now().minusMinutes(5)).block();
+    assertThat(balanceSnapshotService.getCreditUsed("credit-late").block()).isEqualTo(2500L);
+  }
+  
+  @Test
+  public void chargesAreAcknowledgedBeforeTheyReachTheLedger() {
+    var creditRepository = new InMemoryCreditRepository();
+    var journal = open(directory);
+    var creditService = newCreditService(creditRepository, journal);
+    var creditId = createCredit(creditService, "1000");
+    var charge = new CreateConsumptiomDTO();
+    charge.setCreditId(creditId);
+    charge.setAmount(new BigDecimal("125.50"));
+    
+    var consumptiomId = creditService.chargeConsumptiom(charge).block();
+    assertThat(creditService.getBalanceByCreditId(creditId).block().getUsed()).isEqualByComparingTo("125.50");
+    assertThat(consumptiomRepository.findById(consumptiomId).blockOptional()).isEmpty();
+    
+    journal.flush().block();
+    assertThat(consumptiomRepository.findById(consumptiomId).block().getAmount()).isEqualByComparingTo("125.50");
+    journal.close();
+  }
+  
+  @Test
+  public void reconciliationWaitsForTheFlush() {
+    var creditRepository = new InMemoryCreditRepository();
+    var journal = open(directory);
+    var creditService = newCreditService(creditRepository, journal);
+    var creditId = createCredit(creditService, "1000");
+    var charge = new CreateConsumptiomDTO();
+    charge.setCreditId(creditId);
+    charge.setAmount(new BigDecimal("125.50"));
+    creditService.chargeConsumptiom(charge).block();
+    // as if the charge were older than the settle time
+    var settled = LocalDateTime.now().plusMinutes(1);
+    
+    assertThat(journal.hasUnflushed(creditId)).isTrue();
+    assertThat(creditService.reconcileBalance(creditId, settled).block()).isFalse();
+    assertThat(creditRepository.findById(creditId).block().getUsed()).isEqualByComparingTo("125.50");
+    
+    journal.flush().block();
+    assertThat(journal.hasUnflushed(creditId)).isFalse();
+    assertThat(creditService.reconcileBalance(creditId, settled).block()).isFalse();
+    assertThat(creditRepository.findById(creditId).block().getUsed()).isEqualByComparingTo("125.50");
+    journal.close();
+  }
+}
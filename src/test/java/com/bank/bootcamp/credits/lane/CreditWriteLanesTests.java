@@ -0,0 +1,135 @@
+package com.bank.bootcamp.credits.lane;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.exception.BankValidationException;
+import com.bank.bootcamp.credits.exception.WriteLaneFullException;
+import com.bank.bootcamp.credits.lane.CreditWriteLanes.Kind;
+import com.bank.bootcamp.credits.money.Money;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+public class CreditWriteLanesTests {
+  
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  
+  private CreditWriteLanes lanes(int queueCapacity) {
+    return new CreditWriteLanes(true, 4, 128, queueCapacity, Duration.ofSeconds(1), meterRegistry);
+  }
+  
+  private static Credit credit(String id, long used) {
+    var credit = new Credit();
+    credit.setId(id);
+    credit.setUsed(Money.toDecimal(used));
+    return credit;
+  }
+  
+  @Test
+  public void runsOneWritePerCreditInArrivalOrder() {
+    var lanes = lanes(10_000);
+    var inFlight = new ConcurrentHashMap<String, AtomicInteger>();
+    var maxInFlight = new AtomicInteger();
+    var applied = new ConcurrentHashMap<String, List<Long>>();
+    
+    Flux.range(0, 2000)
+      .flatMap(i -> {
+        var creditId = "credit-" + i % 10;
+        // alternating kinds are never coalesced, so every submitted amount must be applied on its own and in order
+        var kind = (i / 10) % 2 == 0 ? Kind.CHARGE : Kind.ADJUST;
+        return lanes.submit(creditId, kind, i, amount -> Mono.delay(Duration.ofMillis(1))
+            .doOnSubscribe(s -> maxInFlight.accumulateAndGet(inFlight.computeIfAbsent(creditId, id -> new AtomicInteger()).incrementAndGet(), Math::max))
+            .map(tick -> {
+              applied.computeIfAbsent(creditId, id -> Collections.synchronizedList(new ArrayList<>())).add(amount);
+              inFlight.get(creditId).decrementAndGet();
+              return credit(creditId, amount);
+            }));
+      }, 256)
+      .blockLast(Duration.ofSeconds(30));
+    
+    assertThat(maxInFlight.get()).isEqualTo(1);
+    applied.values().forEach(amounts -> assertThat(amounts).hasSize(200).isSorted());
+    assertThat(lanes.getQueueDepth()).isZero();
+  }
+  
+  @Test
+  public void coalescesQueuedWritesOfTheSameCredit() {
+    var lanes = lanes(10_000);
+    var gate = Sinks.<Credit>one();
+    var writes = new ArrayList<Long>();
+    
+    var first = lanes.submit("credit-1", Kind.ADJUST, 1, amount -> gate.asMono()).toFuture();
+    var queued = Flux.range(0, 10)
+        .map(i -> lanes.submit("credit-1", Kind.ADJUST, 2, amount -> {
+          writes.add(amount);
+          return Mono.just(credit("credit-1", amount));
+        }).toFuture())
+        .collectList()
+        .block();
+    assertThat(lanes.getQueueDepth()).isEqualTo(10);
+    
+    gate.tryEmitValue(credit("credit-1", 1));
+    assertThat(Money.toMinor(first.join().getUsed())).isEqualTo(1L);
+    queued.forEach(result -> assertThat(Money.toMinor(result.join().getUsed())).isEqualTo(20L));
+    assertThat(writes).containsExactly(20L);
+    assertThat(meterRegistry.get("credits.write-lanes.coalesced").summary().max()).isEqualTo(10d);
+  }
+  
+  @Test
+  public void retriesRejectedCoalescedWritesOneByOne() {
+    var lanes = lanes(10_000);
+    var gate = Sinks.<Credit>one();
+    var available = new AtomicInteger(25);
+    
+    lanes.submit("credit-1", Kind.CHARGE, 0, amount -> gate.asMono()).subscribe();
+    var charges = Flux.range(0, 4)
+        .map(i -> lanes.submit("credit-1", Kind.CHARGE, 10, amount -> available.get() < amount
+            ? Mono.error(BankValidationException.withReason("Not enough line of credit", "Not enough line of credit"))
+            : Mono.fromSupplier(() -> credit("credit-1", available.addAndGet((int) -amount)))).toFuture())
+        .collectList()
+        .block();
+    gate.tryEmitValue(credit("credit-1", 0));
+    
+    assertThat(charges.subList(0, 2)).allMatch(charge -> !charge.isCompletedExceptionally());
+    assertThat(charges.subList(2, 4)).allMatch(charge -> charge.isCompletedExceptionally());
+    assertThat(available.get()).isEqualTo(5);
+  }
+  
+  @Test
+  public void rejectsWritesOverQueueCapacity() {
+    var lanes = lanes(2);
+    var gate = Sinks.<Credit>one();
+    lanes.submit("credit-1", Kind.ADJUST, 1, amount -> gate.asMono()).subscribe();
+    lanes.submit("credit-1", Kind.ADJUST, 1, amount -> Mono.empty()).subscribe();
+    lanes.submit("credit-1", Kind.ADJUST, 1, amount -> Mono.empty()).subscribe();
+    
+    StepVerifier.create(lanes.submit("credit-1", Kind.ADJUST, 1, amount -> Mono.empty()))
+      .expectErrorSatisfies(e -> {
+        assertThat(e).isInstanceOf(WriteLaneFullException.class);
+        assertThat(((WriteLaneFullException) e).getRetryAfter()).isEqualTo(Duration.ofSeconds(1));
+      })
+      .verify();
+    gate.tryEmitValue(credit("credit-1", 1));
+    assertThat(lanes.getQueueDepth()).isZero();
+  }
+  
+  @Test
+  public void runsDirectlyWhenDisabled() {
+    var lanes = new CreditWriteLanes(false, 4, 128, 1, Duration.ofSeconds(1), meterRegistry);
+    StepVerifier.create(Flux.range(0, 10)
+        .flatMap(i -> lanes.submit("credit-1", Kind.ADJUST, i, amount -> Mono.just(credit("credit-1", amount)).publishOn(Schedulers.parallel())))
+        .count())
+      .expectNext(10L)
+      .verifyComplete();
+  }
+}
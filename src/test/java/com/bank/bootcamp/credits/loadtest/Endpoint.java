@@ -0,0 +1,28 @@
+package com.bank.bootcamp.credits.loadtest;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/*
+ * Endpoints of the mixed scenario with their share of the arrivals: customers open credits, then charge, pay and check balances.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum Endpoint {
+
+  OPEN_CREDIT("POST /credits", 5),
+  CHARGE("POST /credits/consumptiom", 45),
+  PAY("POST /credits/paid", 20),
+  BALANCE("GET /credits/balanceById/{creditId}", 25),
+  BULK_BALANCES("POST /credits/balances", 5);
+
+  private final String route;
+  private final int weight;
+
+  public static int totalWeight() {
+    var total = 0;
+    for (var endpoint : values())
+      total += endpoint.weight;
+    return total;
+  }
+}
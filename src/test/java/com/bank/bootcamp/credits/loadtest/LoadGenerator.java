@@ -0,0 +1,238 @@
+package com.bank.bootcamp.credits.loadtest;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import com.bank.bootcamp.credits.dto.BalanceResultDTO;
+import com.bank.bootcamp.credits.dto.CreateConsumptiomDTO;
+import com.bank.bootcamp.credits.dto.CreatePaidDTO;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.money.Money;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/*
+ * Open-model load: arrivals follow a Poisson process at the configured rate whatever the response times are,
+ * like independent customers would. Every request is timed from its intended start, so a generator or server
+ * falling behind shows up in the latencies instead of lowering the offered load (coordinated omission).
+ */
+@Slf4j
+public class LoadGenerator {
+  
+  public static final long HIGHEST_TRACKABLE_LATENCY = TimeUnit.MINUTES.toNanos(1);
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final int SETUP_CONCURRENCY = 64;
+  /* 100.00 */
+  private static final int MAX_AMOUNT = 10_000;
+  private static final int BULK_SIZE = 20;
+  
+  private final LoadTestSettings settings;
+  private final WebClient webClient;
+  private final ConnectionProvider connectionProvider;
+  private final Map<Endpoint, Stats> stats = new EnumMap<>(Endpoint.class);
+  private final List<String> creditIds = new ArrayList<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private long customers;
+  
+  public LoadGenerator(String baseUrl, LoadTestSettings settings) {
+    this.settings = settings;
+    this.connectionProvider = ConnectionProvider.builder("loadtest")
+        .maxConnections(settings.getMaxInFlight())
+        .pendingAcquireMaxCount(-1)
+        .build();
+    this.webClient = WebClient.builder()
+        .baseUrl(baseUrl)
+        .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connectionProvider)))
+        .build();
+    for (var endpoint : Endpoint.values())
+      stats.put(endpoint, new Stats());
+  }
+  
+  public LoadReport run() {
+    try {
+      openCredits();
+      generate();
+      awaitInFlight();
+      return report();
+    } finally {
+      connectionProvider.dispose();
+    }
+  }
+  
+  private void openCredits() {
+    log.info("Opening {} credits", settings.getCredits());
+    Flux.range(0, settings.getCredits())
+        .flatMap(i -> openCredit(), SETUP_CONCURRENCY)
+        .blockLast(settings.getRequestTimeout().multipliedBy(Math.max(1, settings.getCredits() / SETUP_CONCURRENCY)));
+    if (creditIds.isEmpty())
+      throw new IllegalStateException("No credit could be opened, is the service up?");
+  }
+  
+  private void generate() {
+    var random = new Random(settings.getSeed());
+    var totalWeight = Endpoint.totalWeight();
+    var meanInterval = TimeUnit.SECONDS.toNanos(1) / settings.getRate();
+    var start = System.nanoTime();
+    var measureFrom = start + settings.getWarmup().toNanos();
+    var end = measureFrom + settings.getDuration().toNanos();
+    log.info("Offering {}/s for {} after a {} warmup", settings.getRate(), settings.getDuration(), settings.getWarmup());
+    for (var intended = start; ; ) {
+      intended += (long) (-Math.log(1 - random.nextDouble()) * meanInterval);
+      if (intended >= end)
+        break;
+      var wait = intended - System.nanoTime();
+      if (wait > 0)
+        LockSupport.parkNanos(wait);
+      send(pick(random.nextInt(totalWeight)), random, intended, intended >= measureFrom);
+    }
+  }
+  
+  private static Endpoint pick(int draw) {
+    for (var endpoint : Endpoint.values()) {
+      if (draw < endpoint.getWeight())
+        return endpoint;
+      draw -= endpoint.getWeight();
+    }
+    throw new IllegalArgumentException("Draw out of range");
+  }
+  
+  private void send(Endpoint endpoint, Random random, long intended, boolean measured) {
+    var endpointStats = stats.get(endpoint);
+    if (measured)
+      endpointStats.requests.increment();
+    if (inFlight.incrementAndGet() > settings.getMaxInFlight()) {
+      // the generator is saturated, the request could not even be sent
+      inFlight.decrementAndGet();
+      if (measured)
+        endpointStats.errors.increment();
+      return;
+    }
+    request(endpoint, random)
+        .timeout(settings.getRequestTimeout())
+        .subscribe(null,
+            error -> complete(endpointStats, intended, measured, false),
+            () -> complete(endpointStats, intended, measured, true));
+  }
+  
+  private void complete(Stats endpointStats, long intended, boolean measured, boolean success) {
+    inFlight.decrementAndGet();
+    if (!measured)
+      return;
+    endpointStats.latency.recordValue(Math.min(System.nanoTime() - intended, HIGHEST_TRACKABLE_LATENCY));
+    if (!success)
+      endpointStats.errors.increment();
+  }
+  
+  private Mono<Void> request(Endpoint endpoint, Random random) {
+    switch (endpoint) {
+      case OPEN_CREDIT:
+        return openCredit();
+      case CHARGE:
+        var consumptiom = new CreateConsumptiomDTO();
+        consumptiom.setCreditId(randomCreditId(random));
+        consumptiom.setAmount(randomAmount(random));
+        return post("/credits/consumptiom", consumptiom);
+      case PAY:
+        var paid = new CreatePaidDTO();
+        paid.setCreditId(randomCreditId(random));
+        paid.setAmount(randomAmount(random));
+        return post("/credits/paid", paid);
+      case BALANCE:
+        return webClient.get().uri("/credits/balanceById/{creditId}", randomCreditId(random))
+            .retrieve()
+            .bodyToMono(String.class)
+            .then();
+      case BULK_BALANCES:
+        var ids = new ArrayList<String>(BULK_SIZE);
+        for (int i = 0; i < BULK_SIZE; i++)
+          ids.add(randomCreditId(random));
+        return webClient.post().uri("/credits/balances")
+            .accept(MediaType.APPLICATION_NDJSON)
+            .bodyValue(ids)
+            .retrieve()
+            .bodyToFlux(BalanceResultDTO.class)
+            .then();
+      default:
+        throw new IllegalArgumentException(endpoint.name());
+    }
+  }
+  
+  private Mono<Void> post(String uri, Object body) {
+    return webClient.post().uri(uri)
+        .bodyValue(body)
+        .retrieve()
+        .bodyToMono(String.class)
+        .then();
+  }
+  
+  /*
+   * Business credits: a customer can hold several, and the limit is high enough for the charges of a run.
+   */
+  private Mono<Void> openCredit() {
+    var credit = new Credit();
+    credit.setCustomerId("loadtest-" + nextCustomer());
+    credit.setCreditType(CreditType.BUSINESS);
+    credit.setLimit(new BigDecimal("100000000"));
+    return webClient.post().uri("/credits")
+        .bodyValue(credit)
+        .retrieve()
+        .bodyToMono(String.class)
+        .doOnNext(this::addCreditId)
+        .then();
+  }
+  
+  private synchronized long nextCustomer() {
+    return ++customers;
+  }
+  
+  private synchronized void addCreditId(String creditId) {
+    creditIds.add(creditId);
+  }
+  
+  private synchronized String randomCreditId(Random random) {
+    return creditIds.get(random.nextInt(creditIds.size()));
+  }
+  
+  private static BigDecimal randomAmount(Random random) {
+    return Money.toDecimal(1 + random.nextInt(MAX_AMOUNT));
+  }
+  
+  private void awaitInFlight() {
+    var deadline = System.nanoTime() + settings.getRequestTimeout().multipliedBy(2).toNanos();
+    while (inFlight.get() > 0 && System.nanoTime() < deadline)
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+  }
+  
+  private LoadReport report() {
+    var report = new LoadReport(settings.getRate(), settings.getDuration());
+    stats.forEach((endpoint, endpointStats) ->
+        report.add(endpoint.getRoute(), endpointStats.latency.getIntervalHistogram(), endpointStats.requests.sum(), endpointStats.errors.sum()));
+    return report;
+  }
+  
+  public static Histogram newHistogram() {
+    return new Histogram(HIGHEST_TRACKABLE_LATENCY, SIGNIFICANT_DIGITS);
+  }
+  
+  private static class Stats {
+    private final Recorder latency = new Recorder(HIGHEST_TRACKABLE_LATENCY, SIGNIFICANT_DIGITS);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+  }
+}
@@ -0,0 +1,135 @@
+package com.bank.bootcamp.credits.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.Data;
+
+/*
+ * Latency percentiles and error rate per endpoint, plus ALL for the whole mix, checked against the SLO of LoadTestSettings.
+ */
+@Data
+public class LoadReport {
+  
+  public static final String ALL = "ALL";
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+  
+  private final double offeredRate;
+  private final double durationSeconds;
+  private final List<EndpointReport> endpoints = new ArrayList<>();
+  private final List<String> violations = new ArrayList<>();
+  @JsonIgnore
+  private final List<Histogram> histograms = new ArrayList<>();
+  @JsonIgnore
+  private final Histogram all = LoadGenerator.newHistogram();
+  private long allRequests;
+  private long allErrors;
+  
+  public LoadReport(double offeredRate, Duration duration) {
+    this.offeredRate = offeredRate;
+    this.durationSeconds = duration.toMillis() / 1000d;
+  }
+  
+  @Data
+  public static class EndpointReport {
+    private String endpoint;
+    private long requests;
+    private long errors;
+    private double errorRate;
+    private double throughput;
+    private double p50Millis;
+    private double p99Millis;
+    private double p999Millis;
+    private double maxMillis;
+  }
+  
+  public void add(String endpoint, Histogram latency, long requests, long errors) {
+    endpoints.add(toEndpointReport(endpoint, latency, requests, errors));
+    histograms.add(latency);
+    all.add(latency);
+    allRequests += requests;
+    allErrors += errors;
+  }
+  
+  private EndpointReport toEndpointReport(String endpoint, Histogram latency, long requests, long errors) {
+    var report = new EndpointReport();
+    report.setEndpoint(endpoint);
+    report.setRequests(requests);
+    report.setErrors(errors);
+    report.setErrorRate(requests == 0 ? 0 : (double) errors / requests);
+    report.setThroughput(durationSeconds == 0 ? 0 : requests / durationSeconds);
+    report.setP50Millis(latency.getValueAtPercentile(50) / NANOS_PER_MILLI);
+    report.setP99Millis(latency.getValueAtPercentile(99) / NANOS_PER_MILLI);
+    report.setP999Millis(latency.getValueAtPercentile(99.9) / NANOS_PER_MILLI);
+    report.setMaxMillis(latency.getMaxValue() / NANOS_PER_MILLI);
+    return report;
+  }
+  
+  public EndpointReport getTotal() {
+    return toEndpointReport(ALL, all, allRequests, allErrors);
+  }
+  
+  /*
+   * Every endpoint must meet the SLO on its own, a fast endpoint cannot hide a slow one.
+   */
+  public List<String> evaluate(LoadTestSettings settings) {
+    violations.clear();
+    var p99 = settings.getSloP99().toNanos() / NANOS_PER_MILLI;
+    var p999 = settings.getSloP999().toNanos() / NANOS_PER_MILLI;
+    for (var endpoint : endpoints) {
+      if (endpoint.getRequests() == 0)
+        continue;
+      if (endpoint.getP99Millis() > p99)
+        violations.add(String.format("%s p99 %.2f ms > %.2f ms", endpoint.getEndpoint(), endpoint.getP99Millis(), p99));
+      if (endpoint.getP999Millis() > p999)
+        violations.add(String.format("%s p99.9 %.2f ms > %.2f ms", endpoint.getEndpoint(), endpoint.getP999Millis(), p999));
+      if (endpoint.getErrorRate() > settings.getSloErrorRate())
+        violations.add(String.format("%s error rate %.4f > %.4f", endpoint.getEndpoint(), endpoint.getErrorRate(), settings.getSloErrorRate()));
+    }
+    if (allRequests == 0)
+      violations.add("No request was measured");
+    return violations;
+  }
+  
+  public void print(PrintStream out) {
+    out.printf("Offered %.1f req/s for %.0f s%n", offeredRate, durationSeconds);
+    out.printf("%-40s %9s %8s %9s %9s %10s %10s %10s%n", "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+    var rows = new ArrayList<>(endpoints);
+    rows.add(getTotal());
+    for (var row : rows)
+      out.printf("%-40s %9d %8d %9.1f %9.2f %10.2f %10.2f %10.2f%n", row.getEndpoint(), row.getRequests(), row.getErrors(),
+          row.getThroughput(), row.getP50Millis(), row.getP99Millis(), row.getP999Millis(), row.getMaxMillis());
+    if (violations.isEmpty())
+      out.println("SLO met");
+    else
+      violations.forEach(violation -> out.println("SLO violated: " + violation));
+  }
+  
+  /*
+   * report.json for the release gate and one HdrHistogram percentile distribution (.hgrm, in ms) per endpoint
+   * to compare runs or plot them.
+   */
+  public void write(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(directory.resolve("report.json").toFile(), this);
+    for (int i = 0; i < endpoints.size(); i++)
+      writeDistribution(directory, endpoints.get(i).getEndpoint(), histograms.get(i));
+    writeDistribution(directory, ALL, all);
+  }
+  
+  private static void writeDistribution(Path directory, String endpoint, Histogram histogram) throws IOException {
+    var file = directory.resolve(endpoint.replaceAll("[^A-Za-z0-9]+", "_").replaceAll("^_|_$", "") + ".hgrm");
+    try (var out = new PrintStream(Files.newOutputStream(file))) {
+      histogram.outputPercentileDistribution(out, NANOS_PER_MILLI);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package com.bank.bootcamp.credits.loadtest;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext;
+import com.bank.bootcamp.credits.CreditsApplication;
+
+/*
+ * The whole application (Netty, codecs, CreditController, services and jobs) on the inmemory profile,
+ * so it starts offline, see InMemoryRepositoryConfiguration.
+ */
+public class LoadTestApplication {
+  
+  /*
+   * Starts on a random port, see port(context).
+   */
+  public static ReactiveWebServerApplicationContext start(String... args) {
+    // the bootstrap context only sees system properties, not the profiles of the builder,
+    // devtools would restart the application in its own class loader
+    System.setProperty("spring.cloud.config.enabled", "false");
+    System.setProperty("spring.devtools.restart.enabled", "false");
+    return (ReactiveWebServerApplicationContext) new SpringApplicationBuilder(CreditsApplication.class)
+        .profiles("inmemory")
+        .properties("server.port=0", "spring.main.banner-mode=off")
+        .run(args);
+  }
+  
+  public static int port(ReactiveWebServerApplicationContext context) {
+    return context.getWebServer().getPort();
+  }
+}
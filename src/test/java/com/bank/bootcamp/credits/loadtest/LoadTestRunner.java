@@ -0,0 +1,39 @@
+package com.bank.bootcamp.credits.loadtest;
+
+import java.nio.file.Path;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext;
+
+/*
+ * Mixed-load run of the REST endpoints with a latency SLO report, exits with 1 when the SLO is not met.
+ * Run with: mvn -Ploadtest verify (-Dloadtest.rate=500 -Dloadtest.duration=PT2M ..., see LoadTestSettings).
+ */
+public class LoadTestRunner {
+  
+  public static void main(String[] args) throws Exception {
+    var settings = LoadTestSettings.fromSystemProperties();
+    var report = run(settings);
+    report.print(System.out);
+    var directory = Path.of(settings.getReportDirectory());
+    report.write(directory);
+    System.out.println("Report written to " + directory.toAbsolutePath());
+    // Netty and Reactor threads are not all daemons
+    System.exit(report.getViolations().isEmpty() ? 0 : 1);
+  }
+  
+  public static LoadReport run(LoadTestSettings settings) {
+    ReactiveWebServerApplicationContext context = null;
+    var baseUrl = settings.getBaseUrl();
+    if (baseUrl == null) {
+      context = LoadTestApplication.start();
+      baseUrl = "http://127.0.0.1:" + LoadTestApplication.port(context);
+    }
+    try {
+      var report = new LoadGenerator(baseUrl, settings).run();
+      report.evaluate(settings);
+      return report;
+    } finally {
+      if (context != null)
+        context.close();
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.bank.bootcamp.credits.loadtest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+public class LoadTestRunnerTests {
+  
+  private static LoadTestSettings settings() {
+    var settings = new LoadTestSettings();
+    settings.setSloP99(Duration.ofMillis(100));
+    settings.setSloP999(Duration.ofMillis(250));
+    settings.setSloErrorRate(0.01);
+    return settings;
+  }
+  
+  @Test
+  public void reportsEveryEndpointAgainstTheSlo() {
+    var fast = LoadGenerator.newHistogram();
+    var slow = LoadGenerator.newHistogram();
+    for (int i = 0; i < 1000; i++) {
+      fast.recordValue(TimeUnit.MILLISECONDS.toNanos(2));
+      slow.recordValue(TimeUnit.MILLISECONDS.toNanos(i < 980 ? 5 : 180));
+    }
+    var report = new LoadReport(100, Duration.ofSeconds(10));
+    report.add("GET /fast", fast, 1000, 0);
+    report.add("POST /slow", slow, 1000, 20);
+    
+    assertThat(report.evaluate(settings())).containsExactly(
+        "POST /slow p99 180.09 ms > 100.00 ms",
+        "POST /slow error rate 0.0200 > 0.0100");
+    assertThat(report.getEndpoints().get(0).getP999Millis()).isBetween(1.99, 2.01);
+    assertThat(report.getEndpoints().get(0).getThroughput()).isEqualTo(100d);
+    assertThat(report.getTotal().getRequests()).isEqualTo(2000L);
+    assertThat(report.getTotal().getErrorRate()).isEqualTo(0.01);
+    assertThat(new LoadReport(100, Duration.ofSeconds(10)).evaluate(settings())).containsExactly("No request was measured");
+  }
+  
+  /*
+   * A short run against the embedded server.
+   */
+  private static LoadReport runEmbedded() {
+    var settings = settings();
+    settings.setRate(200);
+    settings.setWarmup(Duration.ofMillis(500));
+    settings.setDuration(Duration.ofSeconds(2));
+    settings.setCredits(20);
+    settings.setSloP99(Duration.ofSeconds(5));
+    settings.setSloP999(Duration.ofSeconds(5));
+    settings.setSloErrorRate(0);
+    return LoadTestRunner.run(settings);
+  }
+  
+  /*
+   * Every endpoint of the mix answers and gets measured; latencies depend on the machine and are left to the loadtest profile.
+   */
+  @Test
+  public void drivesTheEmbeddedServer() {
+    var report = runEmbedded();
+    assertThat(report.getEndpoints()).hasSize(Endpoint.values().length)
+      .allSatisfy(endpoint -> {
+        assertThat(endpoint.getRequests()).isPositive();
+        assertThat(endpoint.getErrors()).isZero();
+      });
+    assertThat(report.getTotal().getErrorRate()).isZero();
+  }
+  
+  @Test
+  @Tag("loadtest")
+  public void meetsTheSloOnTheEmbeddedServer() {
+    assertThat(runEmbedded().getViolations()).isEmpty();
+  }
+}
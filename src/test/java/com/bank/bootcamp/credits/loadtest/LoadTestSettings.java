@@ -0,0 +1,50 @@
+package com.bank.bootcamp.credits.loadtest;
+
+import java.time.Duration;
+import lombok.Data;
+
+/*
+ * Read from -Dloadtest.* system properties, the loadtest Maven profile passes them through.
+ */
+@Data
+public class LoadTestSettings {
+  
+  /* empty: an embedded server on in-memory repositories (LoadTestApplication) */
+  private String baseUrl;
+  /* mean arrivals per second, Poisson */
+  private double rate = 200;
+  private Duration warmup = Duration.ofSeconds(10);
+  private Duration duration = Duration.ofSeconds(60);
+  /* credits opened before the run, charges, payments and queries pick one of them */
+  private int credits = 1000;
+  private int maxInFlight = 10_000;
+  private Duration requestTimeout = Duration.ofSeconds(10);
+  private long seed = 20220521;
+  private Duration sloP99 = Duration.ofMillis(100);
+  private Duration sloP999 = Duration.ofMillis(250);
+  private double sloErrorRate = 0.001;
+  private String reportDirectory = "target/loadtest";
+  
+  public static LoadTestSettings fromSystemProperties() {
+    var settings = new LoadTestSettings();
+    var baseUrl = System.getProperty("loadtest.base-url", "");
+    settings.setBaseUrl(baseUrl.isBlank() ? null : baseUrl);
+    settings.setRate(Double.parseDouble(System.getProperty("loadtest.rate", String.valueOf(settings.rate))));
+    settings.setWarmup(duration("loadtest.warmup", settings.warmup));
+    settings.setDuration(duration("loadtest.duration", settings.duration));
+    settings.setCredits(Integer.getInteger("loadtest.credits", settings.credits));
+    settings.setMaxInFlight(Integer.getInteger("loadtest.max-in-flight", settings.maxInFlight));
+    settings.setRequestTimeout(duration("loadtest.request-timeout", settings.requestTimeout));
+    settings.setSeed(Long.getLong("loadtest.seed", settings.seed));
+    settings.setSloP99(duration("loadtest.slo.p99", settings.sloP99));
+    settings.setSloP999(duration("loadtest.slo.p999", settings.sloP999));
+    settings.setSloErrorRate(Double.parseDouble(System.getProperty("loadtest.slo.error-rate", String.valueOf(settings.sloErrorRate))));
+    settings.setReportDirectory(System.getProperty("loadtest.report-directory", settings.reportDirectory));
+    return settings;
+  }
+  
+  private static Duration duration(String property, Duration defaultValue) {
+    var value = System.getProperty(property, "");
+    return value.isBlank() ? defaultValue : Duration.parse(value);
+  }
+}
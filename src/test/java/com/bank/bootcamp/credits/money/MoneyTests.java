@@ -0,0 +1,105 @@
+package com.bank.bootcamp.credits.money;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.Test;
+
+public class MoneyTests {
+  
+  private static final int MOVEMENTS = 1_000_000;
+  private static final int RANDOM_MOVEMENTS = 200_000;
+  
+  @Test
+  public void convertsExactlyBetweenDecimalAndMinorUnits() {
+    var random = new Random(20220516);
+    for (int i = 0; i < 100_000; i++) {
+      var minor = random.nextLong() >> random.nextInt(64);
+      var decimal = Money.toDecimal(minor);
+      assertThat(Money.isMoney(decimal)).isTrue();
+      assertThat(Money.toMinor(decimal)).isEqualTo(minor);
+      assertThat(Money.toDecimal128(minor).bigDecimalValue()).isEqualByComparingTo(decimal);
+    }
+    assertThat(Money.toMinor(new BigDecimal("10"))).isEqualTo(1000L);
+    assertThat(Money.toMinor(new BigDecimal("0.10"))).isEqualTo(10L);
+    assertThat(Money.toMinor(new BigDecimal("1E+2"))).isEqualTo(10000L);
+    assertThat(Money.toMinorOrNull(null)).isNull();
+  }
+  
+  @Test
+  public void rejectsAmountsThatAreNotMoney() {
+    assertThat(Money.isMoney(new BigDecimal("0.001"))).isFalse();
+    assertThat(Money.isMoney(new BigDecimal("0.100"))).isTrue();
+    assertThat(Money.isMoney(new BigDecimal(Long.MAX_VALUE))).isFalse();
+    assertThatThrownBy(() -> Money.toMinor(new BigDecimal("0.001"))).isInstanceOf(ArithmeticException.class);
+    assertThatThrownBy(() -> Money.toMinor(new BigDecimal(Long.MAX_VALUE))).isInstanceOf(ArithmeticException.class);
+  }
+  
+  /*
+   * The arithmetic of the service (long minor units) and the stored form (Decimal128) against totals computed by hand,
+   * where the double arithmetic of earlier versions drifts.
+   */
+  @Test
+  public void sumsStayExactWhereDoublesDrift() {
+    // 0.10 + 0.20: the classic double case
+    var minor = Money.toMinor(new BigDecimal("0.10")) + Money.toMinor(new BigDecimal("0.20"));
+    assertThat(minor).isEqualTo(30L);
+    assertThat(Money.toDecimal(minor)).isEqualTo(new BigDecimal("0.30"));
+    assertThat(0.10d + 0.20d).isNotEqualTo(0.30d);
+    
+    // a million charges of 0.01 and 250,000 payments of 0.03
+    var minorTotal = 0L;
+    var doubleTotal = 0d;
+    for (int i = 0; i < MOVEMENTS; i++) {
+      minorTotal += Money.toMinor(new BigDecimal("0.01"));
+      doubleTotal += 0.01d;
+      if (i % 4 == 0) {
+        minorTotal -= Money.toMinor(new BigDecimal("0.03"));
+        doubleTotal -= 0.03d;
+      }
+    }
+    assertThat(minorTotal).isEqualTo(250_000L);
+    assertThat(Money.toDecimal(minorTotal)).isEqualTo(new BigDecimal("2500.00"));
+    assertThat(doubleTotal).isNotEqualTo(2500d);
+    
+    // what MongoDB stores and gives back
+    assertThat(Money.toDecimal128(minorTotal)).isEqualTo(Decimal128.parse("2500.00"));
+    assertThat(Money.toDecimal128(minorTotal).toString()).isEqualTo("2500.00");
+    assertThat(Money.toMinor(Decimal128.parse("2500.00").bigDecimalValue())).isEqualTo(250_000L);
+    assertThat(Money.toDecimal128(-1L).toString()).isEqualTo("-0.01");
+    assertThat(Money.toDecimal128(Long.MAX_VALUE).toString()).isEqualTo("92233720368547758.07");
+    assertThat(Money.toMinor(Decimal128.parse("92233720368547758.07").bigDecimalValue())).isEqualTo(Long.MAX_VALUE);
+    // a double converted by MoneyMigration is rounded to 2 decimals first: 0.1 as a double is not 0.10
+    assertThat(new BigDecimal(0.1d)).isNotEqualByComparingTo("0.10");
+    assertThat(Money.toMinor(new BigDecimal(0.1d).setScale(Money.SCALE, RoundingMode.HALF_EVEN))).isEqualTo(10L);
+  }
+  
+  /*
+   * Seeded random charges and payments (amounts up to 1,000,000.00, either sign) summed in minor units,
+   * checked against BigDecimal at every step, and through Decimal128 at the end.
+   */
+  @Test
+  public void randomMovementsSumLikeBigDecimal() {
+    var random = new Random(20221018);
+    var minorTotal = 0L;
+    var doubleTotal = 0d;
+    var drifted = false;
+    var expected = BigDecimal.ZERO.setScale(Money.SCALE);
+    for (int i = 0; i < RANDOM_MOVEMENTS; i++) {
+      var amount = BigDecimal.valueOf(random.nextInt(100_000_001), Money.SCALE);
+      if (random.nextBoolean())
+        amount = amount.negate();
+      minorTotal += Money.toMinor(amount);
+      doubleTotal += amount.doubleValue();
+      expected = expected.add(amount);
+      assertThat(Money.toDecimal(minorTotal)).isEqualTo(expected);
+      drifted |= BigDecimal.valueOf(doubleTotal).compareTo(expected) != 0;
+    }
+    assertThat(Money.toMinor(Money.toDecimal128(minorTotal).bigDecimalValue())).isEqualTo(minorTotal);
+    assertThat(Money.toDecimal128(minorTotal).bigDecimalValue()).isEqualTo(expected);
+    assertThat(drifted).isTrue();
+  }
+}
@@ -0,0 +1,235 @@
+package com.bank.bootcamp.credits.projection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import com.bank.bootcamp.credits.CreditServiceBuilder;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.repository.memory.InMemoryBalanceProjectionRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryBalanceSnapshotRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryChangeStreamTokenRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCreditRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryLedgerChangeStream;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.test.StepVerifier;
+
+public class BalanceProjectorTests {
+  
+  private static final Duration LAG = Duration.ofMinutes(5);
+  private static final int CREDITS = 50;
+  
+  private InMemoryCreditRepository creditRepository;
+  private InMemoryConsumptiomRepository consumptiomRepository;
+  private InMemoryPaidRepository paidRepository;
+  private InMemoryBalanceSnapshotRepository balanceSnapshotRepository;
+  private InMemoryBalanceProjectionRepository balanceProjectionRepository;
+  private InMemoryChangeStreamTokenRepository changeStreamTokenRepository;
+  private InMemoryLedgerChangeStream ledgerChangeStream;
+  
+  @BeforeEach
+  public void setup() {
+    creditRepository = new InMemoryCreditRepository();
+    consumptiomRepository = new InMemoryConsumptiomRepository();
+    paidRepository = new InMemoryPaidRepository();
+    balanceSnapshotRepository = new InMemoryBalanceSnapshotRepository();
+    balanceProjectionRepository = new InMemoryBalanceProjectionRepository();
+    changeStreamTokenRepository = new InMemoryChangeStreamTokenRepository();
+    ledgerChangeStream = new InMemoryLedgerChangeStream();
+    for (int i = 0; i < CREDITS; i++) {
+      var credit = new Credit();
+      credit.setId("credit-" + i);
+      credit.setCreditType(CreditType.BUSINESS);
+      credit.setLimit(new BigDecimal("1000000"));
+      creditRepository.save(credit).block();
+    }
+  }
+  
+  /*
+   * One projector per application start, all sharing the same collections.
+   */
+  private BalanceProjector newProjector(MeterRegistry meterRegistry, boolean enabled) {
+    var services = builder(meterRegistry);
+    return new BalanceProjector(ledgerChangeStream, balanceProjectionRepository, changeStreamTokenRepository, creditRepository,
+        services.balanceSnapshotService(), services.creditMetrics(), meterRegistry, enabled, LAG, Duration.ofMillis(10));
+  }
+  
+  private CreditServiceBuilder builder(MeterRegistry meterRegistry) {
+    return new CreditServiceBuilder(meterRegistry)
+        .creditRepository(creditRepository)
+        .consumptiomRepository(consumptiomRepository)
+        .paidRepository(paidRepository)
+        .balanceSnapshotRepository(balanceSnapshotRepository);
+  }
+  
+  private void consumptiom(String creditId, BigDecimal amount, LocalDateTime date) {
+    var consumptiom = new Consumptiom();
+    consumptiom.setCreditId(creditId);
+    consumptiom.setAmount(amount);
+    consumptiom.setRegisterDate(date);
+    consumptiom.setIngestedDate(date);
+    ledgerChangeStream.record(consumptiomRepository.save(consumptiom).block());
+  }
+  
+  private void paid(String creditId, BigDecimal amount, LocalDateTime date) {
+    var paid = new Paid();
+    paid.setCreditId(creditId);
+    paid.setAmount(amount);
+    paid.setCreatedDate(date);
+    paid.setIngestedDate(date);
+    ledgerChangeStream.record(paidRepository.save(paid).block());
+  }
+  
+  /*
+   * Random movements between from and to, written in date order.
+   */
+  private int addMovements(Random random, LocalDateTime from, LocalDateTime to, int count) {
+    var span = Duration.between(from, to).getSeconds();
+    var dates = new ArrayList<LocalDateTime>();
+    for (int i = 0; i < count; i++)
+      dates.add(from.plusSeconds(random.nextInt((int) span)));
+    dates.sort(Comparator.naturalOrder());
+    for (var date : dates) {
+      var creditId = "credit-" + random.nextInt(CREDITS);
+      var amount = BigDecimal.valueOf(1 + random.nextInt(100_000), Money.SCALE);
+      if (random.nextInt(3) == 0)
+        paid(creditId, amount, date);
+      else
+        consumptiom(creditId, amount, date);
+    }
+    return count;
+  }
+  
+  private void assertProjectionsMatchLedger() {
+    for (int i = 0; i < CREDITS; i++) {
+      var creditId = "credit-" + i;
+      var consumptioms = consumptiomRepository.findAllByCreditId(creditId).map(Consumptiom::getAmount).reduce(BigDecimal.ZERO, BigDecimal::add).block();
+      var paids = paidRepository.findAllByCreditId(creditId).map(Paid::getAmount).reduce(BigDecimal.ZERO, BigDecimal::add).block();
+      var projection = balanceProjectionRepository.findById(creditId).block();
+      assertThat(projection.getConsumptiomTotal().subtract(projection.getPaidTotal())).as(creditId)
+        .isEqualByComparingTo(consumptioms.subtract(paids));
+    }
+  }
+  
+  private double count(MeterRegistry meterRegistry, String outcome) {
+    return meterRegistry.get("credits.balance-projection.events").tag("outcome", outcome).counter().count();
+  }
+  
+  @Test
+  public void rebuildsOnceThenResumesFromTheSavedToken() {
+    var random = new Random(20220520);
+    var now = LocalDateTime.now();
+    // history before the stream start, around the rebuild checkpoint and after it
+    addMovements(random, now.minusDays(2), now, 2000);
+    ledgerChangeStream.complete();
+    
+    var firstStart = new SimpleMeterRegistry();
+    newProjector(firstStart, true).project().blockLast(Duration.ofSeconds(30));
+    assertThat(firstStart.get("credits.balance-projection.rebuilds").counter().count()).isEqualTo(1d);
+    assertProjectionsMatchLedger();
+    var firstToken = changeStreamTokenRepository.findById(BalanceProjector.STREAM_ID).block();
+    
+    // restart: only the movements written meanwhile are applied
+    ledgerChangeStream.reopen();
+    var added = addMovements(random, now.plusSeconds(1), now.plusMinutes(30), 500);
+    ledgerChangeStream.complete();
+    var secondStart = new SimpleMeterRegistry();
+    newProjector(secondStart, true).project().blockLast(Duration.ofSeconds(30));
+    assertThat(secondStart.get("credits.balance-projection.rebuilds").counter().count()).isZero();
+    assertThat(count(secondStart, "applied")).isEqualTo(added);
+    assertThat(count(secondStart, "skipped")).isZero();
+    assertProjectionsMatchLedger();
+    
+    // a token saved before the last events (crash before saving it) replays them without counting them twice
+    changeStreamTokenRepository.save(firstToken).block();
+    var thirdStart = new SimpleMeterRegistry();
+    newProjector(thirdStart, true).project().blockLast(Duration.ofSeconds(30));
+    assertThat(count(thirdStart, "applied")).isZero();
+    assertThat(count(thirdStart, "skipped")).isEqualTo(added);
+    assertProjectionsMatchLedger();
+  }
+  
+  @Test
+  public void countsAMovementTheJournalFlushesLate(@TempDir Path directory) {
+    var now = LocalDateTime.now();
+    addMovements(new Random(20221018), now.minusDays(1), now, 200);
+    ledgerChangeStream.complete();
+    newProjector(new SimpleMeterRegistry(), true).project().blockLast(Duration.ofSeconds(30));
+    
+    // acknowledged an hour ago, before the rebuild checkpoint, and only flushed now
+    var journal = builder(new SimpleMeterRegistry()).journal(directory).journalSegmentSize(DataSize.ofMegabytes(1))
+        .journalCommitWindow(Duration.ofMillis(1)).journalFlushBatch(100).ledgerJournal();
+    var consumptiom = new Consumptiom();
+    consumptiom.setCreditId("credit-1");
+    consumptiom.setAmount(new BigDecimal("75.50"));
+    consumptiom.setRegisterDate(now.minusHours(1));
+    var id = journal.append(consumptiom).block().getId();
+    assertThat(journal.flush().block()).isEqualTo(1);
+    journal.close();
+    ledgerChangeStream.reopen();
+    ledgerChangeStream.record(consumptiomRepository.findById(id).block());
+    ledgerChangeStream.complete();
+    
+    assertThat(consumptiomRepository.findById(id).block().getRegisterDate()).isEqualTo(now.minusHours(1));
+    
+    var restart = new SimpleMeterRegistry();
+    newProjector(restart, true).project().blockLast(Duration.ofSeconds(30));
+    assertThat(count(restart, "applied")).isEqualTo(1d);
+    assertThat(count(restart, "skipped")).isZero();
+    assertProjectionsMatchLedger();
+  }
+  
+  @Test
+  public void pushesBalanceChangesToWatchers() {
+    var meterRegistry = new SimpleMeterRegistry();
+    var projector = newProjector(meterRegistry, true);
+    consumptiom("credit-1", new BigDecimal("100"), LocalDateTime.now().minusDays(1));
+    var projection = projector.project().subscribe();
+    
+    StepVerifier.create(projector.watchBalance("credit-1"))
+      .assertNext(balance -> assertThat(balance.getAvailable()).isEqualByComparingTo("999900"))
+      .then(() -> consumptiom("credit-1", new BigDecimal("10.25"), LocalDateTime.now()))
+      .assertNext(balance -> assertThat(balance.getUsed()).isEqualByComparingTo("110.25"))
+      .then(() -> consumptiom("credit-2", new BigDecimal("1"), LocalDateTime.now()))
+      .then(() -> paid("credit-1", new BigDecimal("60"), LocalDateTime.now()))
+      .assertNext(balance -> assertThat(balance.getAvailable()).isEqualByComparingTo("999949.75"))
+      .then(() -> assertThat(meterRegistry.get("credits.balance-projection.watched").gauge().value()).isEqualTo(1d))
+      .thenCancel()
+      .verify(Duration.ofSeconds(10));
+    
+    // a later watcher starts from the latest balance
+    StepVerifier.create(projector.watchBalance("credit-1").take(1))
+      .assertNext(balance -> assertThat(balance.getUsed()).isEqualByComparingTo("50.25"))
+      .verifyComplete();
+    assertThat(meterRegistry.get("credits.balance-projection.watched").gauge().value()).isZero();
+    projection.dispose();
+  }
+  
+  @Test
+  public void emitsCurrentBalanceWhenProjectionIsDisabled() {
+    consumptiom("credit-1", new BigDecimal("100"), LocalDateTime.now());
+    paid("credit-1", new BigDecimal("40"), LocalDateTime.now());
+    
+    StepVerifier.create(newProjector(new SimpleMeterRegistry(), false).watchBalance("credit-1"))
+      .assertNext(balance -> assertThat(balance.getUsed()).isEqualByComparingTo("60"))
+      .verifyComplete();
+    StepVerifier.create(newProjector(new SimpleMeterRegistry(), false).watchBalance("missing"))
+      .expectErrorMessage("Credit not found")
+      .verify();
+  }
+}
@@ -0,0 +1,85 @@
+package com.bank.bootcamp.credits.projection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import org.bson.BsonTimestamp;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import com.bank.bootcamp.credits.entity.ChangeStreamToken;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.repository.BalanceProjectionRepositoryImpl;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/*
+ * Change stream and conditional upsert against a real server. Change streams need a replica set, a single node one will do:
+ * mvn test -Dcredits.it.mongodb.uri=mongodb://localhost:27017/?replicaSet=rs0
+ */
+@EnabledIfSystemProperty(named = "credits.it.mongodb.uri", matches = ".*replicaSet=.+")
+public class MongoLedgerChangeStreamTests {
+  
+  private static final String DATABASE = "credits_change_stream";
+  
+  private static MongoClient client;
+  private static ReactiveMongoTemplate mongoTemplate;
+  
+  @BeforeAll
+  public static void setup() {
+    client = MongoClients.create(System.getProperty("credits.it.mongodb.uri"));
+    mongoTemplate = new ReactiveMongoTemplate(client, DATABASE);
+    mongoTemplate.getMongoDatabase().flatMap(database -> Mono.from(database.drop())).block();
+  }
+  
+  @AfterAll
+  public static void tearDown() {
+    if (client != null)
+      client.close();
+  }
+  
+  @Test
+  public void streamsLedgerInsertsAndResumes() {
+    var position = new ChangeStreamToken();
+    position.setStartAt(new BsonTimestamp((int) (System.currentTimeMillis() / 1000) - 1, 0).getValue());
+    var consumptiom = new Consumptiom();
+    consumptiom.setCreditId("credit-1");
+    consumptiom.setAmount(new BigDecimal("10.25"));
+    consumptiom.setRegisterDate(LocalDateTime.now());
+    consumptiom.setIngestedDate(consumptiom.getRegisterDate());
+    var paid = new Paid();
+    paid.setCreditId("credit-1");
+    paid.setAmount(new BigDecimal("4"));
+    paid.setCreatedDate(LocalDateTime.now());
+    paid.setIngestedDate(paid.getCreatedDate());
+    mongoTemplate.insert(consumptiom).then(mongoTemplate.insert(paid)).block();
+    
+    var changeStream = new MongoLedgerChangeStream(mongoTemplate);
+    var events = changeStream.listen(position).take(2).collectList().block(Duration.ofSeconds(30));
+    assertThat(events).extracting(LedgerEvent::getConsumptiom).containsExactly(1025L, 0L);
+    assertThat(events).extracting(LedgerEvent::getPaid).containsExactly(0L, 400L);
+    assertThat(events.get(1).getEventTime()).isGreaterThan(events.get(0).getEventTime());
+    
+    position.setResumeToken(events.get(0).getResumeToken());
+    StepVerifier.create(changeStream.listen(position).take(1))
+      .assertNext(event -> assertThat(event.getPaid()).isEqualTo(400L))
+      .verifyComplete();
+    
+    var repository = new BalanceProjectionRepositoryImpl(mongoTemplate);
+    var date = LocalDateTime.now();
+    StepVerifier.create(repository.addMovement("credit-1", 1025L, 0L, date, 2L))
+      .assertNext(projection -> assertThat(projection.getConsumptiomTotal()).isEqualByComparingTo("10.25"))
+      .verifyComplete();
+    // same or older event: skipped
+    StepVerifier.create(repository.addMovement("credit-1", 1025L, 0L, date, 2L)).verifyComplete();
+    StepVerifier.create(repository.addMovement("credit-1", 0L, 400L, date, 3L))
+      .assertNext(projection -> assertThat(projection.getPaidTotal()).isEqualByComparingTo("4"))
+      .verifyComplete();
+  }
+}
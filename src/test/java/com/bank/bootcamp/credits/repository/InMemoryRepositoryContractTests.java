@@ -0,0 +1,27 @@
+package com.bank.bootcamp.credits.repository;
+
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCreditRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+
+public class InMemoryRepositoryContractTests extends RepositoryContract {
+  
+  private final CreditRepository creditRepository = new InMemoryCreditRepository();
+  private final ConsumptiomRepository consumptiomRepository = new InMemoryConsumptiomRepository();
+  private final PaidRepository paidRepository = new InMemoryPaidRepository();
+  
+  @Override
+  protected CreditRepository creditRepository() {
+    return creditRepository;
+  }
+  
+  @Override
+  protected ConsumptiomRepository consumptiomRepository() {
+    return consumptiomRepository;
+  }
+  
+  @Override
+  protected PaidRepository paidRepository() {
+    return paidRepository;
+  }
+}
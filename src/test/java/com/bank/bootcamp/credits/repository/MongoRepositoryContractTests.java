@@ -0,0 +1,60 @@
+package com.bank.bootcamp.credits.repository;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.repository.support.ReactiveMongoRepositoryFactory;
+import org.springframework.data.repository.core.support.RepositoryComposition.RepositoryFragments;
+import com.bank.bootcamp.credits.config.MongoIndexInitializer;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import reactor.core.publisher.Mono;
+
+/*
+ * The repository contract against a local MongoDB, with the indexes of MongoIndexInitializer.
+ * Needs a server: mvn test -Dcredits.it.mongodb.uri=mongodb://localhost:27017
+ */
+@EnabledIfSystemProperty(named = "credits.it.mongodb.uri", matches = ".+")
+public class MongoRepositoryContractTests extends RepositoryContract {
+  
+  private static final String DATABASE = "credits_repository_contract";
+  
+  private static MongoClient client;
+  private static CreditRepository creditRepository;
+  private static ConsumptiomRepository consumptiomRepository;
+  private static PaidRepository paidRepository;
+  
+  @BeforeAll
+  public static void setup() {
+    client = MongoClients.create(System.getProperty("credits.it.mongodb.uri"));
+    var mongoTemplate = new ReactiveMongoTemplate(client, DATABASE);
+    mongoTemplate.getMongoDatabase().flatMap(database -> Mono.from(database.drop())).block();
+    new MongoIndexInitializer(mongoTemplate).ensureIndexes().block();
+    var factory = new ReactiveMongoRepositoryFactory(mongoTemplate);
+    creditRepository = factory.getRepository(CreditRepository.class, RepositoryFragments.just(new CreditRepositoryImpl(mongoTemplate)));
+    consumptiomRepository = factory.getRepository(ConsumptiomRepository.class);
+    paidRepository = factory.getRepository(PaidRepository.class);
+  }
+  
+  @AfterAll
+  public static void tearDown() {
+    if (client != null)
+      client.close();
+  }
+  
+  @Override
+  protected CreditRepository creditRepository() {
+    return creditRepository;
+  }
+  
+  @Override
+  protected ConsumptiomRepository consumptiomRepository() {
+    return consumptiomRepository;
+  }
+  
+  @Override
+  protected PaidRepository paidRepository() {
+    return paidRepository;
+  }
+}
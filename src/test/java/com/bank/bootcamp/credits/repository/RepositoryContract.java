@@ -0,0 +1,361 @@
+package com.bank.bootcamp.credits.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.data.domain.ExampleMatcher.StringMatcher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import com.bank.bootcamp.credits.dto.CreditTotalDTO;
+import com.bank.bootcamp.credits.dto.ExposureTotalDTO;
+import com.bank.bootcamp.credits.dto.LedgerDayDTO;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.money.Money;
+
+/*
+ * What the services expect of CreditRepository, ConsumptiomRepository and PaidRepository, run against
+ * each implementation (InMemoryRepositoryContractTests, MongoRepositoryContractTests) so they cannot drift apart.
+ * Dates have millisecond precision, as MongoDB stores them.
+ */
+public abstract class RepositoryContract {
+  
+  private static final LocalDateTime T0 = LocalDateTime.of(2022, 3, 10, 9, 15, 0, 125_000_000);
+  private static final String CREDIT_ID = "credit-1";
+  private static final String OTHER_CREDIT_ID = "credit-2";
+  
+  protected abstract CreditRepository creditRepository();
+  
+  protected abstract ConsumptiomRepository consumptiomRepository();
+  
+  protected abstract PaidRepository paidRepository();
+  
+  @BeforeEach
+  public void clean() {
+    creditRepository().deleteAll().block();
+    consumptiomRepository().deleteAll().block();
+    paidRepository().deleteAll().block();
+  }
+  
+  private Consumptiom consumptiom(String creditId, LocalDateTime date, String amount) {
+    var consumptiom = new Consumptiom();
+    consumptiom.setCreditId(creditId);
+    consumptiom.setRegisterDate(date);
+    consumptiom.setIngestedDate(date);
+    consumptiom.setAmount(new BigDecimal(amount));
+    return consumptiomRepository().save(consumptiom).block();
+  }
+  
+  private Paid paid(String creditId, LocalDateTime date, String amount) {
+    var paid = new Paid();
+    paid.setCreditId(creditId);
+    paid.setCreatedDate(date);
+    paid.setIngestedDate(date);
+    paid.setAmount(new BigDecimal(amount));
+    return paidRepository().save(paid).block();
+  }
+  
+  private Credit credit(String customerId, CreditType creditType, String cardNumber) {
+    var credit = new Credit();
+    credit.setCustomerId(customerId);
+    credit.setCreditType(creditType);
+    credit.setCardNumber(cardNumber);
+    credit.setLimit(new BigDecimal("1000.00"));
+    credit.setUsed(new BigDecimal("0.00"));
+    credit.setAvailable(new BigDecimal("1000.00"));
+    credit.setRegisterDate(T0);
+    return credit;
+  }
+  
+  @Test
+  public void sumsEveryRangeWithInclusiveUpperBounds() {
+    consumptiom(CREDIT_ID, T0, "10.25");
+    consumptiom(CREDIT_ID, T0.plusHours(1), "20.00");
+    consumptiom(CREDIT_ID, T0.plusHours(1), "0.50");
+    consumptiom(CREDIT_ID, T0.plusHours(2), "100.00");
+    consumptiom(OTHER_CREDIT_ID, T0, "7.00");
+    var repository = consumptiomRepository();
+    
+    assertThat(repository.getSumByCreditId(CREDIT_ID).block()).isEqualByComparingTo("130.75");
+    assertThat(repository.getSumByCreditId("missing").blockOptional()).isEmpty();
+    assertThat(repository.getSumByCreditIdUpTo(CREDIT_ID, T0.plusHours(1)).block()).isEqualByComparingTo("30.75");
+    assertThat(repository.getSumByCreditIdUpTo(CREDIT_ID, T0.minusNanos(1_000_000)).blockOptional()).isEmpty();
+    assertThat(repository.getSumByCreditIdBetween(CREDIT_ID, T0, T0.plusHours(1)).block()).isEqualByComparingTo("20.50");
+    assertThat(repository.getSumByCreditIdBetween(CREDIT_ID, T0.plusHours(1), T0.plusHours(1)).blockOptional()).isEmpty();
+    assertThat(repository.getSumByCreditIdAfter(CREDIT_ID, T0.plusHours(1)).block()).isEqualByComparingTo("100.00");
+    assertThat(repository.getSumByCreditIdAfter(CREDIT_ID, T0.plusHours(2)).blockOptional()).isEmpty();
+    assertThat(repository.getSumsByCreditIds(List.of(CREDIT_ID, OTHER_CREDIT_ID, "missing")).collectList().block())
+      .extracting(CreditTotalDTO::getId, total -> Money.toMinor(total.getTotal()))
+      .containsExactlyInAnyOrder(tuple(CREDIT_ID, 13075L), tuple(OTHER_CREDIT_ID, 700L));
+  }
+  
+  @Test
+  public void findsMovementsByIngestedDate() {
+    // written late by the ledger journal: dated at T0, ingested two hours later
+    var consumptiom = new Consumptiom();
+    consumptiom.setCreditId(CREDIT_ID);
+    consumptiom.setRegisterDate(T0);
+    consumptiom.setIngestedDate(T0.plusHours(2));
+    consumptiom.setAmount(new BigDecimal("10.25"));
+    consumptiomRepository().save(consumptiom).block();
+    var paid = new Paid();
+    paid.setCreditId(CREDIT_ID);
+    paid.setCreatedDate(T0);
+    paid.setIngestedDate(T0.plusHours(2));
+    paid.setAmount(new BigDecimal("4.00"));
+    paidRepository().save(paid).block();
+    
+    assertThat(consumptiomRepository().getSumByCreditIdUpTo(CREDIT_ID, T0.plusHours(1)).blockOptional()).isEmpty();
+    assertThat(consumptiomRepository().getSumByCreditIdBetween(CREDIT_ID, T0.plusHours(1), T0.plusHours(2)).block()).isEqualByComparingTo("10.25");
+    assertThat(consumptiomRepository().getSumByCreditIdAfter(CREDIT_ID, T0.plusHours(1)).block()).isEqualByComparingTo("10.25");
+    assertThat(paidRepository().getSumByCreditIdUpTo(CREDIT_ID, T0.plusHours(1)).blockOptional()).isEmpty();
+    assertThat(paidRepository().getSumByCreditIdAfter(CREDIT_ID, T0.plusHours(1)).block()).isEqualByComparingTo("4.00");
+    // found by its ingestion, counted in the day of its date
+    assertThat(consumptiomRepository().getDaysBetween(T0.plusHours(1), T0.plusHours(2), ZoneId.systemDefault().getId()).collectList().block())
+      .extracting(LedgerDayDTO::getCreditId, LedgerDayDTO::getDay)
+      .containsExactly(tuple(CREDIT_ID, T0.toLocalDate().toString()));
+    var day = T0.toLocalDate().atStartOfDay();
+    assertThat(consumptiomRepository().getDailyTotal(CREDIT_ID, day, day.plusDays(1), T0.plusHours(1), T0.plusHours(2)).block().getTotal())
+      .isEqualByComparingTo("10.25");
+    assertThat(consumptiomRepository().findArchivableByCreditId(CREDIT_ID, T0.plusHours(1), PageRequest.of(0, 10)).collectList().block()).isEmpty();
+    assertThat(consumptiomRepository().findArchivableByCreditId(CREDIT_ID, T0.plusHours(2), PageRequest.of(0, 10)).collectList().block())
+      .extracting(Consumptiom::getId).containsExactly(consumptiom.getId());
+  }
+  
+  @Test
+  public void sumsFollowReplacementsAndDeletes() {
+    var first = paid(CREDIT_ID, T0, "40.00");
+    var second = paid(CREDIT_ID, T0.plusMinutes(1), "2.00");
+    var repository = paidRepository();
+    assertThat(repository.getSumByCreditId(CREDIT_ID).block()).isEqualByComparingTo("42.00");
+    
+    first.setAmount(new BigDecimal("50.00"));
+    repository.save(first).block();
+    assertThat(repository.getSumByCreditId(CREDIT_ID).block()).isEqualByComparingTo("52.00");
+    
+    second.setCreditId(OTHER_CREDIT_ID);
+    repository.save(second).block();
+    assertThat(repository.getSumByCreditId(CREDIT_ID).block()).isEqualByComparingTo("50.00");
+    assertThat(repository.getSumByCreditId(OTHER_CREDIT_ID).block()).isEqualByComparingTo("2.00");
+    
+    repository.deleteById(first.getId()).block();
+    assertThat(repository.getSumByCreditId(CREDIT_ID).blockOptional()).isEmpty();
+    assertThat(repository.findAllByCreditId(CREDIT_ID).collectList().block()).isEmpty();
+    
+    repository.deleteAll().block();
+    assertThat(repository.getSumByCreditId(OTHER_CREDIT_ID).blockOptional()).isEmpty();
+    assertThat(repository.count().block()).isZero();
+  }
+  
+  @Test
+  public void pagesNewestFirstAndStreamsOldestFirstAcrossTies() {
+    for (int i = 0; i < 25; i++)
+      paid(CREDIT_ID, T0.plusSeconds(i / 3), "1.00");
+    paid(OTHER_CREDIT_ID, T0, "1.00");
+    var repository = paidRepository();
+    
+    var stream = repository.streamByCreditId(CREDIT_ID).collectList().block();
+    assertThat(stream).hasSize(25);
+    for (int i = 1; i < stream.size(); i++) {
+      var older = stream.get(i - 1);
+      var newer = stream.get(i);
+      assertThat(newer.getCreatedDate().isAfter(older.getCreatedDate())
+          || (newer.getCreatedDate().isEqual(older.getCreatedDate()) && newer.getId().compareTo(older.getId()) > 0)).isTrue();
+    }
+    
+    var pages = new ArrayList<Paid>();
+    var page = repository.findPageByCreditId(CREDIT_ID, PageRequest.of(0, 10)).collectList().block();
+    while (!page.isEmpty()) {
+      pages.addAll(page);
+      var last = page.get(page.size() - 1);
+      page = repository.findPageByCreditIdBefore(CREDIT_ID, last.getCreatedDate(), new ObjectId(last.getId()), PageRequest.of(0, 10))
+          .collectList().block();
+    }
+    Collections.reverse(pages);
+    assertThat(pages).extracting(Paid::getId).containsExactlyElementsOf(stream.stream().map(Paid::getId).collect(Collectors.toList()));
+  }
+  
+  @Test
+  public void readsDaysRangesAndBatches() {
+    var day = T0.toLocalDate().atStartOfDay();
+    var oldest = consumptiom(CREDIT_ID, day.minusDays(1).plusHours(23), "1.00");
+    var morning = consumptiom(CREDIT_ID, day.plusHours(8), "2.00");
+    var noon = consumptiom(CREDIT_ID, day.plusHours(12), "3.00");
+    consumptiom(CREDIT_ID, day.plusHours(18), "4.00");
+    consumptiom(OTHER_CREDIT_ID, day.plusDays(1), "5.00");
+    var repository = consumptiomRepository();
+    
+    assertThat(repository.getDaysBetween(day.minusDays(2), day.plusDays(1), ZoneId.systemDefault().getId()).collectList().block())
+      .extracting(LedgerDayDTO::getCreditId, LedgerDayDTO::getDay)
+      .containsExactlyInAnyOrder(
+          tuple(CREDIT_ID, day.minusDays(1).toLocalDate().toString()),
+          tuple(CREDIT_ID, day.toLocalDate().toString()),
+          tuple(OTHER_CREDIT_ID, day.plusDays(1).toLocalDate().toString()));
+    assertThat(repository.getDaysBetween(day.plusDays(1), day.plusDays(2), ZoneId.systemDefault().getId()).collectList().block()).isEmpty();
+    
+    var dailyTotal = repository.getDailyTotal(CREDIT_ID, day, day.plusDays(1), day.minusDays(1), day.plusHours(12)).block();
+    assertThat(dailyTotal.getTotal()).isEqualByComparingTo("5.00");
+    assertThat(dailyTotal.getCount()).isEqualTo(2);
+    assertThat(repository.getDailyTotal(CREDIT_ID, day, day.plusDays(1), day.plusHours(8), day.plusHours(18)).block().getCount()).isEqualTo(2);
+    assertThat(repository.getDailyTotal(CREDIT_ID, day, day.plusDays(1), day.minusDays(1), day.plusHours(6)).blockOptional()).isEmpty();
+    
+    assertThat(repository.findFirstByOrderByIngestedDateAsc().block().getId()).isEqualTo(oldest.getId());
+    assertThat(repository.streamByCreditIdBetween(CREDIT_ID, day.plusHours(8), day.plusHours(18)).collectList().block())
+      .extracting(Consumptiom::getId).containsExactly(morning.getId(), noon.getId());
+    assertThat(repository.findArchivableByCreditId(CREDIT_ID, day.plusHours(18), PageRequest.of(0, 2)).collectList().block())
+      .extracting(Consumptiom::getId).containsExactly(oldest.getId(), morning.getId());
+  }
+  
+  @Test
+  public void findsCreditsByCustomerAndTypeWithUniqueCardNumbers() {
+    var repository = creditRepository();
+    var personal = repository.save(credit("customer-1", CreditType.PERSONAL, "4000000000000001")).block();
+    repository.save(credit("customer-1", CreditType.BUSINESS, "4000000000000002")).block();
+    repository.save(credit("customer-2", CreditType.PERSONAL, "4000000000000003")).block();
+    
+    assertThat(repository.findAllByCustomerIdAndCreditType("customer-1", CreditType.PERSONAL).collectList().block())
+      .extracting(Credit::getId).containsExactly(personal.getId());
+    assertThatThrownBy(() -> repository.save(credit("customer-3", CreditType.PERSONAL, "4000000000000001")).block())
+      .isInstanceOf(DuplicateKeyException.class);
+    assertThat(repository.count().block()).isEqualTo(3);
+    
+    personal.setCustomerId("customer-3");
+    repository.save(personal).block();
+    assertThat(repository.findAllByCustomerIdAndCreditType("customer-1", CreditType.PERSONAL).collectList().block()).isEmpty();
+    assertThat(repository.findAllByCustomerIdAndCreditType("customer-3", CreditType.PERSONAL).collectList().block())
+      .extracting(Credit::getId).containsExactly(personal.getId());
+    
+    repository.deleteById(personal.getId()).block();
+    repository.save(credit("customer-4", CreditType.PERSONAL, "4000000000000001")).block();
+    assertThat(repository.findAllByCustomerIdAndCreditType("customer-3", CreditType.PERSONAL).collectList().block()).isEmpty();
+  }
+  
+  @Test
+  public void queriesByExampleAndSorts() {
+    var repository = creditRepository();
+    repository.save(credit("customer-1", CreditType.PERSONAL, "4000000000000003")).block();
+    repository.save(credit("customer-1", CreditType.BUSINESS, "4000000000000001")).block();
+    repository.save(credit("customer-2", CreditType.PERSONAL, "4000000000000002")).block();
+    repository.save(credit("Customer-10", CreditType.BUSINESS, null)).block();
+    
+    var probe = new Credit();
+    probe.setCustomerId("customer-1");
+    var byCustomer = Example.of(probe);
+    assertThat(repository.count(byCustomer).block()).isEqualTo(2);
+    assertThat(repository.findAll(byCustomer, Sort.by("cardNumber")).collectList().block())
+      .extracting(Credit::getCardNumber).containsExactly("4000000000000001", "4000000000000003");
+    assertThatThrownBy(() -> repository.findOne(byCustomer).block()).isInstanceOf(IncorrectResultSizeDataAccessException.class);
+    
+    probe.setCreditType(CreditType.BUSINESS);
+    assertThat(repository.findOne(Example.of(probe)).block().getCardNumber()).isEqualTo("4000000000000001");
+    assertThat(repository.findAll(Example.of(probe)).collectList().block()).hasSize(1);
+    probe.setCustomerId("customer-2");
+    assertThat(repository.exists(Example.of(probe)).block()).isFalse();
+    assertThat(repository.findOne(Example.of(probe)).blockOptional()).isEmpty();
+    
+    var prefix = new Credit();
+    prefix.setCustomerId("CUSTOMER-1");
+    var startingIgnoringCase = Example.of(prefix, ExampleMatcher.matching().withStringMatcher(StringMatcher.STARTING).withIgnoreCase());
+    assertThat(repository.count(startingIgnoringCase).block()).isEqualTo(3);
+    assertThat(repository.findBy(startingIgnoringCase, query -> query.sortBy(Sort.by(Direction.DESC, "cardNumber")).all()).collectList().block())
+      .extracting(Credit::getCardNumber).containsExactly("4000000000000003", "4000000000000001", null);
+    var page = repository.findBy(startingIgnoringCase, query -> query.sortBy(Sort.by("cardNumber")).page(PageRequest.of(0, 2))).block();
+    assertThat(page.getTotalElements()).isEqualTo(3);
+    assertThat(page.getContent()).extracting(Credit::getCardNumber).containsExactly(null, "4000000000000001");
+    
+    // nulls first, as MongoDB sorts them
+    assertThat(repository.findAll(Sort.by("cardNumber")).collectList().block())
+      .extracting(Credit::getCardNumber).containsExactly(null, "4000000000000001", "4000000000000002", "4000000000000003");
+    assertThat(repository.findAll(Sort.by("customerId").descending().and(Sort.by("cardNumber"))).collectList().block())
+      .extracting(Credit::getCustomerId, Credit::getCardNumber)
+      .containsExactly(tuple("customer-2", "4000000000000002"), tuple("customer-1", "4000000000000001"),
+          tuple("customer-1", "4000000000000003"), tuple("Customer-10", null));
+  }
+  
+  @Test
+  public void versionsEveryCreditWrite() {
+    var repository = creditRepository();
+    var credit = repository.save(credit("customer-1", CreditType.PERSONAL, "4000000000000001")).block();
+    assertThat(credit.getVersion()).isZero();
+    
+    var stale = repository.findById(credit.getId()).block();
+    credit.setLimit(new BigDecimal("2000.00"));
+    credit = repository.save(credit).block();
+    assertThat(credit.getVersion()).isEqualTo(1L);
+    assertThatThrownBy(() -> repository.save(stale).block()).isInstanceOf(OptimisticLockingFailureException.class);
+    var copy = credit("customer-1", CreditType.PERSONAL, "4000000000000009");
+    copy.setId(credit.getId());
+    assertThatThrownBy(() -> repository.save(copy).block()).isInstanceOf(DuplicateKeyException.class);
+    
+    credit = repository.addUsed(credit.getId(), 15_050).block();
+    assertThat(credit.getUsed()).isEqualByComparingTo("150.50");
+    assertThat(credit.getAvailable()).isEqualByComparingTo("849.50");
+    assertThat(credit.getVersion()).isEqualTo(2L);
+    
+    assertThat(repository.reserveCredit(credit.getId(), 84_951).blockOptional()).isEmpty();
+    credit = repository.reserveCredit(credit.getId(), 84_950).block();
+    assertThat(credit.getAvailable()).isEqualByComparingTo("0.00");
+    assertThat(credit.getVersion()).isEqualTo(3L);
+    
+    assertThat(repository.updateBalance(credit.getId(), 10_000, 2L).blockOptional()).isEmpty();
+    credit = repository.updateBalance(credit.getId(), 10_000, 3L).block();
+    assertThat(credit.getUsed()).isEqualByComparingTo("100.00");
+    assertThat(credit.getAvailable()).isEqualByComparingTo("1900.00");
+    assertThat(credit.getVersion()).isEqualTo(4L);
+    assertThat(repository.addUsed("missing", 100).blockOptional()).isEmpty();
+  }
+  
+  @Test
+  public void groupsExposureAndFindsChangedCredits() {
+    var repository = creditRepository();
+    for (var credit : List.of(credit("customer-1", CreditType.PERSONAL, "4000000000000001"),
+        credit("customer-1", CreditType.BUSINESS, "4000000000000002"), credit("customer-1", CreditType.BUSINESS, "4000000000000003"),
+        credit("customer-2", CreditType.PERSONAL, "4000000000000004"))) {
+      credit.setUpdatedDate(T0);
+      repository.save(credit).block();
+    }
+    var legacy = credit("customer-1", CreditType.BUSINESS, "4000000000000005");
+    legacy.setUsed(null);
+    legacy.setAvailable(null);
+    legacy.setUpdatedDate(T0);
+    legacy = repository.save(legacy).block();
+    var charged = repository.findAllByCustomerIdAndCreditType("customer-2", CreditType.PERSONAL).blockFirst();
+    repository.addUsed(charged.getId(), 25_000).block();
+    
+    assertThat(repository.getExposures().collectList().block())
+      .extracting(ExposureTotalDTO::getCustomerId, ExposureTotalDTO::getCreditType, ExposureTotalDTO::getCredits, ExposureTotalDTO::getLegacyCredits)
+      .containsExactlyInAnyOrder(tuple("customer-1", CreditType.PERSONAL, 1L, 0L), tuple("customer-1", CreditType.BUSINESS, 3L, 1L),
+          tuple("customer-2", CreditType.PERSONAL, 1L, 0L));
+    var business = repository.getExposure("customer-1", CreditType.BUSINESS).block();
+    assertThat(business.getLimit()).isEqualByComparingTo("3000.00");
+    assertThat(business.getUsed()).isEqualByComparingTo("0.00");
+    assertThat(business.getAvailable()).isEqualByComparingTo("2000.00");
+    var personal = repository.getExposure("customer-2", CreditType.PERSONAL).block();
+    assertThat(personal.getUsed()).isEqualByComparingTo("250.00");
+    assertThat(personal.getAvailable()).isEqualByComparingTo("750.00");
+    assertThat(repository.getExposure("customer-2", CreditType.BUSINESS).blockOptional()).isEmpty();
+    
+    repository.updateBalance(legacy.getId(), 10_000, legacy.getVersion()).block();
+    assertThat(repository.findChangedSince(T0).collectList().block())
+      .extracting(Credit::getCustomerId, Credit::getCreditType)
+      .containsExactlyInAnyOrder(tuple("customer-2", CreditType.PERSONAL), tuple("customer-1", CreditType.BUSINESS));
+  }
+}
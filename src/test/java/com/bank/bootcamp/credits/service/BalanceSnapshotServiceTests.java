@@ -0,0 +1,103 @@
+package com.bank.bootcamp.credits.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.repository.memory.InMemoryBalanceSnapshotRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class BalanceSnapshotServiceTests {
+
+  private static final LocalDateTime START = LocalDateTime.of(2020, 1, 1, 0, 0);
+  private static final int LEDGERS = 200;
+  
+  private InMemoryBalanceSnapshotRepository balanceSnapshotRepository;
+  private InMemoryConsumptiomRepository consumptiomRepository;
+  private InMemoryPaidRepository paidRepository;
+  private BalanceSnapshotService balanceSnapshotService;
+  
+  @BeforeEach
+  public void setup() {
+    balanceSnapshotRepository = new InMemoryBalanceSnapshotRepository();
+    consumptiomRepository = new InMemoryConsumptiomRepository();
+    paidRepository = new InMemoryPaidRepository();
+    balanceSnapshotService = new BalanceSnapshotService(balanceSnapshotRepository, consumptiomRepository, paidRepository,
+        new CreditMetrics(new SimpleMeterRegistry()));
+  }
+  
+  /*
+   * Appends count random movements dated after "after", returns the date of the last one.
+   * Some movements share their date with the previous one, so checkpoints land exactly on movements too.
+   */
+  private LocalDateTime addMovements(Random random, String creditId, LocalDateTime after, int count) {
+    var date = after;
+    for (int i = 0; i < count; i++) {
+      if (i == 0 || random.nextInt(4) > 0)
+        date = date.plusMinutes(1 + random.nextInt(60 * 24));
+      var amount = BigDecimal.valueOf(random.nextInt(1_000_000), 2);
+      if (random.nextBoolean()) {
+        var consumptiom = new Consumptiom();
+        consumptiom.setCreditId(creditId);
+        consumptiom.setAmount(amount);
+        consumptiom.setRegisterDate(date);
+        consumptiom.setIngestedDate(date);
+        consumptiomRepository.save(consumptiom).block();
+      } else {
+        var paid = new Paid();
+        paid.setCreditId(creditId);
+        paid.setAmount(amount);
+        paid.setCreatedDate(date);
+        paid.setIngestedDate(date);
+        paidRepository.save(paid).block();
+      }
+    }
+    return date;
+  }
+  
+  private long recompute(String creditId) {
+    var consumptioms = consumptiomRepository.findAllByCreditId(creditId).map(Consumptiom::getAmount).reduce(BigDecimal.ZERO, BigDecimal::add).block();
+    var paids = paidRepository.findAllByCreditId(creditId).map(Paid::getAmount).reduce(BigDecimal.ZERO, BigDecimal::add).block();
+    return Money.toMinor(consumptioms.subtract(paids));
+  }
+  
+  @Test
+  public void snapshotPlusTailMatchesFullRecomputation() {
+    var random = new Random(20220501);
+    for (int ledger = 0; ledger < LEDGERS; ledger++) {
+      var creditId = "credit-" + ledger;
+      var last = addMovements(random, creditId, START, random.nextInt(50));
+      assertThat(balanceSnapshotService.getCreditUsed(creditId).block()).isEqualTo(recompute(creditId));
+      
+      var checkpoint = START;
+      for (int round = 0; round < 1 + random.nextInt(5); round++) {
+        // checkpoints fall anywhere in the history, sometimes exactly on a movement or before the previous snapshot
+        checkpoint = random.nextInt(5) == 0 ? checkpoint.minusDays(1) : last.minusMinutes(random.nextInt(60 * 24 * 10));
+        var snapshot = balanceSnapshotService.takeSnapshot(creditId, checkpoint).block();
+        assertThat(snapshot.getCheckpoint()).isAfterOrEqualTo(checkpoint);
+        assertThat(balanceSnapshotService.getCreditUsed(creditId).block()).as(creditId).isEqualTo(recompute(creditId));
+        
+        last = addMovements(random, creditId, last.isAfter(snapshot.getCheckpoint()) ? last : snapshot.getCheckpoint(), random.nextInt(30));
+        assertThat(balanceSnapshotService.getCreditUsed(creditId).block()).as(creditId).isEqualTo(recompute(creditId));
+      }
+    }
+  }
+  
+  @Test
+  public void keepsNewerSnapshot() {
+    var random = new Random(7);
+    var last = addMovements(random, "credit-1", START, 40);
+    var snapshot = balanceSnapshotService.takeSnapshot("credit-1", last).block();
+    var older = balanceSnapshotService.takeSnapshot("credit-1", START).block();
+    assertThat(older).isEqualTo(snapshot);
+    assertThat(balanceSnapshotRepository.findById("credit-1").block().getCheckpoint()).isEqualTo(last);
+  }
+}
@@ -0,0 +1,195 @@
+package com.bank.bootcamp.credits.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import com.bank.bootcamp.credits.dto.LedgerPeriodDTO;
+import com.bank.bootcamp.credits.dto.MovementDTO;
+import com.bank.bootcamp.credits.dto.RollupGranularity;
+import com.bank.bootcamp.credits.entity.ArchivedConsumptiom;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.repository.memory.InMemoryArchivedConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryArchivedPaidRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryBalanceSnapshotRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCreditRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryLedgerRollupCheckpointRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryLedgerRollupRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+import com.bank.bootcamp.credits.validation.CreditRequestValidator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class LedgerArchiveServiceTests {
+  
+  private static final LocalDateTime START = LocalDateTime.of(2021, 1, 1, 0, 0);
+  private static final LocalDateTime NOW = START.plusDays(500);
+  
+  private InMemoryCreditRepository creditRepository;
+  private InMemoryConsumptiomRepository consumptiomRepository;
+  private InMemoryPaidRepository paidRepository;
+  private InMemoryArchivedConsumptiomRepository archivedConsumptiomRepository;
+  private InMemoryArchivedPaidRepository archivedPaidRepository;
+  private BalanceSnapshotService balanceSnapshotService;
+  private LedgerRollupService ledgerRollupService;
+  private StatementService statementService;
+  private LedgerArchiveService ledgerArchiveService;
+  
+  @BeforeEach
+  public void setup() {
+    creditRepository = new InMemoryCreditRepository();
+    consumptiomRepository = new InMemoryConsumptiomRepository();
+    paidRepository = new InMemoryPaidRepository();
+    archivedConsumptiomRepository = new InMemoryArchivedConsumptiomRepository();
+    archivedPaidRepository = new InMemoryArchivedPaidRepository();
+    var creditMetrics = new CreditMetrics(new SimpleMeterRegistry());
+    var validator = new CreditRequestValidator();
+    balanceSnapshotService = new BalanceSnapshotService(new InMemoryBalanceSnapshotRepository(), consumptiomRepository, paidRepository, creditMetrics);
+    ledgerRollupService = new LedgerRollupService(new InMemoryLedgerRollupRepository(), new InMemoryLedgerRollupCheckpointRepository(),
+        consumptiomRepository, paidRepository, creditMetrics, validator);
+    statementService = new StatementService(consumptiomRepository, paidRepository, archivedConsumptiomRepository, archivedPaidRepository,
+        creditMetrics, validator);
+    ledgerArchiveService = new LedgerArchiveService(creditRepository, consumptiomRepository, paidRepository,
+        archivedConsumptiomRepository, archivedPaidRepository, balanceSnapshotService, ledgerRollupService, creditMetrics);
+  }
+  
+  private String addCredit(boolean materialized) {
+    var credit = new Credit();
+    credit.setLimit(new BigDecimal("1000000"));
+    credit.setUsed(materialized ? BigDecimal.ZERO : null);
+    return creditRepository.save(credit).block().getId();
+  }
+  
+  private void addMovements(Random random, List<String> creditIds, int count) {
+    for (int i = 0; i < count; i++) {
+      var date = START.plusSeconds(random.nextInt(500 * 24 * 3600));
+      var creditId = creditIds.get(random.nextInt(creditIds.size()));
+      var amount = BigDecimal.valueOf(1 + random.nextInt(100_000), Money.SCALE);
+      if (random.nextInt(3) == 0) {
+        var paid = new Paid();
+        paid.setCreditId(creditId);
+        paid.setAmount(amount);
+        paid.setCreatedDate(date);
+        paid.setIngestedDate(date);
+        paidRepository.save(paid).block();
+      } else {
+        var consumptiom = new Consumptiom();
+        consumptiom.setCreditId(creditId);
+        consumptiom.setAmount(amount);
+        consumptiom.setRegisterDate(date);
+        consumptiom.setIngestedDate(date);
+        consumptiomRepository.save(consumptiom).block();
+      }
+    }
+  }
+  
+  private List<MovementDTO> pages(String creditId) {
+    var movements = new ArrayList<MovementDTO>();
+    String cursor = null;
+    do {
+      var page = statementService.getStatement(creditId, cursor, 100, true).block();
+      movements.addAll(page.getMovements());
+      cursor = page.getNextCursor();
+    } while (cursor != null);
+    return movements;
+  }
+  
+  private List<LedgerPeriodDTO> months(String creditId) {
+    return ledgerRollupService.getPeriods(creditId, START.toLocalDate(), NOW.toLocalDate(), RollupGranularity.MONTH).collectList().block();
+  }
+  
+  @Test
+  public void movesOldMovementsWithoutChangingBalancesOrHistory() {
+    var random = new Random(20220524);
+    var creditIds = List.of(addCredit(true), addCredit(true), addCredit(true));
+    var legacyId = addCredit(false);
+    addMovements(random, creditIds, 3000);
+    addMovements(random, List.of(legacyId), 200);
+    
+    // nothing moves before the rollups ran once
+    assertThat(ledgerArchiveService.archive(START.plusDays(400)).block()).isZero();
+    
+    var checkpoint = START.plusDays(450).plusHours(3);
+    ledgerRollupService.rollUp(checkpoint).block();
+    var used = new ArrayList<Long>();
+    var statements = new ArrayList<List<MovementDTO>>();
+    var periods = new ArrayList<List<LedgerPeriodDTO>>();
+    for (var creditId : creditIds) {
+      used.add(balanceSnapshotService.getCreditUsed(creditId).block());
+      statements.add(statementService.streamStatement(creditId, true).collectList().block());
+      periods.add(months(creditId));
+    }
+    
+    // the horizon is past the rollup checkpoint day, so the cutoff is that day
+    var cutoff = LocalDate.from(checkpoint).atStartOfDay();
+    var hot = consumptiomRepository.count().block() + paidRepository.count().block();
+    var moved = ledgerArchiveService.archive(NOW.minusDays(10)).block();
+    assertThat(moved).isPositive();
+    assertThat(archivedConsumptiomRepository.count().block() + archivedPaidRepository.count().block()).isEqualTo(moved);
+    assertThat(consumptiomRepository.count().block() + paidRepository.count().block()).isEqualTo(hot - moved);
+    assertThat(consumptiomRepository.findAll().filter(consumptiom -> !consumptiom.getCreditId().equals(legacyId))
+        .all(consumptiom -> !consumptiom.getRegisterDate().isBefore(cutoff)).block()).isTrue();
+    assertThat(paidRepository.findAll().filter(paid -> !paid.getCreditId().equals(legacyId))
+        .all(paid -> !paid.getCreatedDate().isBefore(cutoff)).block()).isTrue();
+    assertThat(archivedConsumptiomRepository.findAll().all(consumptiom -> consumptiom.getRegisterDate().isBefore(cutoff)).block()).isTrue();
+    assertThat(consumptiomRepository.findAllByCreditId(legacyId).count().block()
+        + paidRepository.findAllByCreditId(legacyId).count().block()).isEqualTo(200);
+    
+    for (int i = 0; i < creditIds.size(); i++) {
+      var creditId = creditIds.get(i);
+      assertThat(balanceSnapshotService.getCreditUsed(creditId).block()).isEqualTo(used.get(i));
+      assertThat(statementService.streamStatement(creditId, true).collectList().block()).isEqualTo(statements.get(i));
+      var newestFirst = new ArrayList<>(statements.get(i));
+      Collections.reverse(newestFirst);
+      assertThat(pages(creditId)).isEqualTo(newestFirst);
+      assertThat(statementService.streamStatement(creditId, false).collectList().block())
+        .isNotEmpty()
+        .allMatch(movement -> !movement.getDate().isBefore(cutoff));
+      assertThat(months(creditId)).isEqualTo(periods.get(i));
+    }
+    
+    // a rerun has nothing left to move
+    assertThat(ledgerArchiveService.archive(NOW.minusDays(10)).block()).isZero();
+  }
+  
+  @Test
+  public void finishesAnInterruptedMove() {
+    var creditId = addCredit(true);
+    addMovements(new Random(20220525), List.of(creditId), 1200);
+    ledgerRollupService.rollUp(NOW).block();
+    var statement = statementService.streamStatement(creditId, true).collectList().block();
+    
+    // a run that copied a batch and stopped before deleting it
+    var copied = consumptiomRepository.findArchivableByCreditId(creditId, START.plusDays(100), PageRequest.of(0, 50))
+        .map(consumptiom -> {
+          var archived = new ArchivedConsumptiom();
+          archived.setId(consumptiom.getId());
+          archived.setCreditId(consumptiom.getCreditId());
+          archived.setAmount(consumptiom.getAmount());
+          archived.setRegisterDate(consumptiom.getRegisterDate());
+          return archived;
+        })
+        .collectList().block();
+    archivedConsumptiomRepository.saveAll(copied).blockLast();
+    assertThat(statementService.streamStatement(creditId, true).collectList().block()).isEqualTo(statement);
+    assertThat(pages(creditId)).hasSameSizeAs(statement).extracting(MovementDTO::getId).doesNotHaveDuplicates();
+    
+    var used = balanceSnapshotService.getCreditUsed(creditId).block();
+    ledgerArchiveService.archiveCredit(creditId, START.plusDays(300)).block();
+    assertThat(consumptiomRepository.findAllByCreditId(creditId).all(consumptiom -> !consumptiom.getRegisterDate().isBefore(START.plusDays(300))).block()).isTrue();
+    assertThat(archivedConsumptiomRepository.findAll().map(ArchivedConsumptiom::getId).collectList().block()).doesNotHaveDuplicates();
+    assertThat(balanceSnapshotService.getCreditUsed(creditId).block()).isEqualTo(used);
+    assertThat(statementService.streamStatement(creditId, true).collectList().block()).isEqualTo(statement);
+  }
+}
@@ -0,0 +1,238 @@
+package com.bank.bootcamp.credits.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.bank.bootcamp.credits.dto.LedgerPeriodDTO;
+import com.bank.bootcamp.credits.dto.RollupGranularity;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.LedgerRollup;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryLedgerRollupCheckpointRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryLedgerRollupRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+import com.bank.bootcamp.credits.validation.CreditRequestValidator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.test.StepVerifier;
+
+public class LedgerRollupServiceTests {
+  
+  private static final LocalDateTime START = LocalDateTime.of(2021, 1, 1, 0, 0);
+  private static final int CREDITS = 10;
+  
+  private InMemoryConsumptiomRepository consumptiomRepository;
+  private InMemoryPaidRepository paidRepository;
+  private InMemoryLedgerRollupRepository ledgerRollupRepository;
+  private LedgerRollupService ledgerRollupService;
+  
+  @BeforeEach
+  public void setup() {
+    consumptiomRepository = new InMemoryConsumptiomRepository();
+    paidRepository = new InMemoryPaidRepository();
+    ledgerRollupRepository = new InMemoryLedgerRollupRepository();
+    ledgerRollupService = new LedgerRollupService(ledgerRollupRepository, new InMemoryLedgerRollupCheckpointRepository(),
+        consumptiomRepository, paidRepository, new CreditMetrics(new SimpleMeterRegistry()), new CreditRequestValidator());
+  }
+  
+  /*
+   * Random movements dated in (after, upTo], some exactly at midnight.
+   */
+  private void addMovements(Random random, LocalDateTime after, LocalDateTime upTo, int count) {
+    var span = java.time.Duration.between(after, upTo).getSeconds();
+    for (int i = 0; i < count; i++) {
+      var date = after.plusSeconds(1 + (long) (random.nextDouble() * (span - 1)));
+      if (random.nextInt(20) == 0 && date.toLocalDate().atStartOfDay().isAfter(after))
+        date = date.toLocalDate().atStartOfDay();
+      var creditId = "credit-" + random.nextInt(CREDITS);
+      var amount = BigDecimal.valueOf(1 + random.nextInt(1_000_000), Money.SCALE);
+      if (random.nextInt(3) == 0) {
+        var paid = new Paid();
+        paid.setCreditId(creditId);
+        paid.setAmount(amount);
+        paid.setCreatedDate(date);
+        paid.setIngestedDate(date);
+        paidRepository.save(paid).block();
+      } else {
+        var consumptiom = new Consumptiom();
+        consumptiom.setCreditId(creditId);
+        consumptiom.setAmount(amount);
+        consumptiom.setRegisterDate(date);
+        consumptiom.setIngestedDate(date);
+        consumptiomRepository.save(consumptiom).block();
+      }
+    }
+  }
+  
+  /*
+   * Periods recomputed from the raw ledgers.
+   */
+  private List<LedgerPeriodDTO> expected(String creditId, LocalDate from, LocalDate to, RollupGranularity granularity) {
+    var periods = new TreeMap<LocalDate, long[]>();
+    for (var consumptiom : consumptiomRepository.findAllByCreditId(creditId).toIterable()) {
+      var day = consumptiom.getRegisterDate().toLocalDate();
+      if (!day.isBefore(from) && !day.isAfter(to)) {
+        var totals = periods.computeIfAbsent(periodStart(day, granularity), start -> new long[4]);
+        totals[0] += Money.toMinor(consumptiom.getAmount());
+        totals[1]++;
+      }
+    }
+    for (var paid : paidRepository.findAllByCreditId(creditId).toIterable()) {
+      var day = paid.getCreatedDate().toLocalDate();
+      if (!day.isBefore(from) && !day.isAfter(to)) {
+        var totals = periods.computeIfAbsent(periodStart(day, granularity), start -> new long[4]);
+        totals[2] += Money.toMinor(paid.getAmount());
+        totals[3]++;
+      }
+    }
+    var expected = new ArrayList<LedgerPeriodDTO>();
+    periods.forEach((start, totals) -> {
+      var end = granularity == RollupGranularity.MONTH ? start.with(TemporalAdjusters.lastDayOfMonth()) : start;
+      var period = new LedgerPeriodDTO();
+      period.setCreditId(creditId);
+      period.setFrom(start.isBefore(from) ? from : start);
+      period.setTo(end.isAfter(to) ? to : end);
+      period.setConsumptiomTotal(Money.toDecimal(totals[0]));
+      period.setConsumptiomCount(totals[1]);
+      period.setPaidTotal(Money.toDecimal(totals[2]));
+      period.setPaidCount(totals[3]);
+      expected.add(period);
+    });
+    return expected;
+  }
+  
+  private static LocalDate periodStart(LocalDate day, RollupGranularity granularity) {
+    return granularity == RollupGranularity.MONTH ? day.withDayOfMonth(1) : day;
+  }
+  
+  private void assertRandomRangesMatchLedgers(Random random) {
+    for (int i = 0; i < 50; i++) {
+      var creditId = "credit-" + random.nextInt(CREDITS);
+      var from = START.toLocalDate().plusDays(random.nextInt(400) - 20);
+      var to = from.plusDays(random.nextInt(400));
+      var granularity = RollupGranularity.values()[random.nextInt(RollupGranularity.values().length)];
+      assertThat(ledgerRollupService.getPeriods(creditId, from, to, granularity).collectList().block())
+        .as("%s %s..%s %s", creditId, from, to, granularity)
+        .isEqualTo(expected(creditId, from, to, granularity));
+    }
+  }
+  
+  @Test
+  public void rangesCombineRollupsAndRecentMovements() {
+    var random = new Random(20220522);
+    var now = START.plusDays(300);
+    addMovements(random, START, now, 5000);
+    // nothing rolled up yet: every day comes from the ledgers
+    assertRandomRangesMatchLedgers(random);
+    
+    var checkpoint = START.plusDays(200).plusHours(13);
+    assertThat(ledgerRollupService.rollUp(checkpoint).block()).isPositive();
+    assertThat(ledgerRollupRepository.findAll().map(LedgerRollup::getCheckpoint).all(date -> !date.isAfter(checkpoint)).block()).isTrue();
+    assertRandomRangesMatchLedgers(random);
+    // rerun: nothing new to roll up
+    assertThat(ledgerRollupService.rollUp(checkpoint).block()).isZero();
+    
+    // movements keep coming after the checkpoint, part of them rolled up by the next run
+    addMovements(random, now, now.plusDays(30), 1000);
+    ledgerRollupService.rollUp(now.plusDays(10).plusMinutes(7)).block();
+    assertRandomRangesMatchLedgers(random);
+  }
+  
+  @Test
+  public void closedDaysAreReadFromRollupsOnly() {
+    var random = new Random(20220523);
+    addMovements(random, START, START.plusDays(365), 3000);
+    var checkpoint = START.plusDays(300).plusHours(5);
+    ledgerRollupService.rollUp(checkpoint).block();
+    var from = START.toLocalDate();
+    var to = from.plusDays(364);
+    var expected = expected("credit-1", from, to, RollupGranularity.MONTH);
+    
+    // drop every raw movement of the days before the checkpoint day, the answer must not change
+    var closedEnd = checkpoint.toLocalDate().atStartOfDay();
+    consumptiomRepository.findAll().filter(consumptiom -> consumptiom.getRegisterDate().isBefore(closedEnd))
+      .flatMap(consumptiomRepository::delete).blockLast();
+    paidRepository.findAll().filter(paid -> paid.getCreatedDate().isBefore(closedEnd))
+      .flatMap(paidRepository::delete).blockLast();
+    assertThat(ledgerRollupService.getPeriods("credit-1", from, to, RollupGranularity.MONTH).collectList().block())
+      .isEqualTo(expected)
+      .hasSize(12);
+    assertThat(ledgerRollupRepository.findAllByCreditIdAndDayBetween("credit-1", from, to).count().block()).isLessThanOrEqualTo(366L);
+  }
+  
+  @Test
+  public void addsAMovementFlushedAfterItsDayWasRolledUp() {
+    var random = new Random(20221018);
+    addMovements(random, START, START.plusDays(30), 500);
+    var checkpoint = START.plusDays(20).plusHours(5);
+    ledgerRollupService.rollUp(checkpoint).block();
+    var day = START.toLocalDate().plusDays(3);
+    var before = ledgerRollupService.getPeriods("credit-1", day, day, RollupGranularity.DAY).collectList().block();
+    
+    // the raw movements of the closed days are archived, then the ledger journal flushes one of them late
+    consumptiomRepository.findAll().filter(consumptiom -> consumptiom.getRegisterDate().isBefore(checkpoint.toLocalDate().atStartOfDay()))
+      .flatMap(consumptiomRepository::delete).blockLast();
+    var late = new Consumptiom();
+    late.setCreditId("credit-1");
+    late.setAmount(new BigDecimal("12.34"));
+    late.setRegisterDate(day.atTime(10, 0));
+    late.setIngestedDate(checkpoint.plusHours(1));
+    consumptiomRepository.save(late).block();
+    assertThat(ledgerRollupService.getPeriods("credit-1", day, day, RollupGranularity.DAY).collectList().block()).isEqualTo(before);
+    
+    ledgerRollupService.rollUp(checkpoint.plusHours(2)).block();
+    var after = ledgerRollupService.getPeriods("credit-1", day, day, RollupGranularity.DAY).collectList().block();
+    var previousTotal = before.isEmpty() ? BigDecimal.ZERO : before.get(0).getConsumptiomTotal();
+    var previousCount = before.isEmpty() ? 0L : before.get(0).getConsumptiomCount();
+    assertThat(after).hasSize(1);
+    assertThat(after.get(0).getConsumptiomTotal()).isEqualByComparingTo(previousTotal.add(new BigDecimal("12.34")));
+    assertThat(after.get(0).getConsumptiomCount()).isEqualTo(previousCount + 1);
+  }
+  
+  @Test
+  public void keepsTheNewestRollupOfADay() {
+    var day = START.toLocalDate();
+    var newer = new LedgerRollup();
+    newer.setId(LedgerRollup.id("credit-1", day));
+    newer.setCreditId("credit-1");
+    newer.setDay(day);
+    newer.setConsumptiomTotal(new BigDecimal("20"));
+    newer.setPaidTotal(BigDecimal.ZERO);
+    newer.setCheckpoint(START.plusHours(12));
+    var older = new LedgerRollup();
+    older.setId(newer.getId());
+    older.setCreditId("credit-1");
+    older.setDay(day);
+    older.setConsumptiomTotal(new BigDecimal("10"));
+    older.setPaidTotal(BigDecimal.ZERO);
+    older.setCheckpoint(START.plusHours(6));
+    
+    StepVerifier.create(ledgerRollupRepository.saveIfNewer(newer)).expectNext(newer).verifyComplete();
+    StepVerifier.create(ledgerRollupRepository.saveIfNewer(older)).verifyComplete();
+    assertThat(ledgerRollupRepository.findById(newer.getId()).block().getConsumptiomTotal()).isEqualByComparingTo("20");
+  }
+  
+  @Test
+  public void rejectsInvalidRanges() {
+    var day = START.toLocalDate();
+    StepVerifier.create(ledgerRollupService.getPeriods("credit-1", day, day.minusDays(1), RollupGranularity.DAY))
+      .expectErrorMessage("Range from must be a date on or before to")
+      .verify();
+    StepVerifier.create(ledgerRollupService.getPeriods("credit-1", day, day.plusDays(LedgerRollupService.MAX_RANGE_DAYS), null))
+      .expectErrorMessage("Range must span at most 1830 days")
+      .verify();
+    StepVerifier.create(ledgerRollupService.getPeriods("", day, day, null))
+      .expectErrorMessage("Credit ID is required")
+      .verify();
+  }
+}
@@ -0,0 +1,181 @@
+package com.bank.bootcamp.credits.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.bank.bootcamp.credits.dto.PortfolioExposureDTO;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Credit;
+import com.bank.bootcamp.credits.entity.CreditType;
+import com.bank.bootcamp.credits.entity.CustomerExposure;
+import com.bank.bootcamp.credits.exception.BankValidationException;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.money.Money;
+import com.bank.bootcamp.credits.repository.memory.InMemoryBalanceSnapshotRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCreditRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryCustomerExposureRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPortfolioExposureCheckpointRepository;
+import com.bank.bootcamp.credits.validation.CreditRequestValidator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.test.StepVerifier;
+
+public class PortfolioExposureServiceTests {
+  
+  /* credits written before the first refresh, out of the overlap of the next ones */
+  private static final LocalDateTime LAST_HOUR = LocalDateTime.now().minusHours(1);
+  
+  private SimpleMeterRegistry meterRegistry;
+  private InMemoryCreditRepository creditRepository;
+  private InMemoryConsumptiomRepository consumptiomRepository;
+  private InMemoryCustomerExposureRepository customerExposureRepository;
+  private PortfolioExposureService portfolioExposureService;
+  
+  @BeforeEach
+  public void setup() {
+    meterRegistry = new SimpleMeterRegistry();
+    creditRepository = new InMemoryCreditRepository();
+    consumptiomRepository = new InMemoryConsumptiomRepository();
+    customerExposureRepository = new InMemoryCustomerExposureRepository();
+    var paidRepository = new InMemoryPaidRepository();
+    var creditMetrics = new CreditMetrics(meterRegistry);
+    portfolioExposureService = new PortfolioExposureService(creditRepository, customerExposureRepository,
+        new InMemoryPortfolioExposureCheckpointRepository(),
+        new BalanceSnapshotService(new InMemoryBalanceSnapshotRepository(), consumptiomRepository, paidRepository, creditMetrics),
+        creditMetrics, new CreditRequestValidator());
+  }
+  
+  /*
+   * A credit with used in minor units, a legacy one (no materialized balance) has it in a consumptiom.
+   */
+  private Credit addCredit(String customerId, CreditType creditType, long limit, long used, boolean legacy) {
+    var credit = new Credit();
+    credit.setCustomerId(customerId);
+    credit.setCreditType(creditType);
+    credit.setLimit(Money.toDecimal(limit));
+    credit.setUsed(legacy ? null : Money.toDecimal(used));
+    credit.setAvailable(legacy ? null : Money.toDecimal(limit - used));
+    credit.setUpdatedDate(LAST_HOUR);
+    credit = creditRepository.save(credit).block();
+    if (legacy) {
+      var consumptiom = new Consumptiom();
+      consumptiom.setCreditId(credit.getId());
+      consumptiom.setAmount(Money.toDecimal(used));
+      consumptiom.setRegisterDate(LAST_HOUR);
+      consumptiom.setIngestedDate(LAST_HOUR);
+      consumptiomRepository.save(consumptiom).block();
+    }
+    return credit;
+  }
+  
+  private long getExposureCalls() {
+    var timer = meterRegistry.find("credits.repository").tag("method", "getExposure").timer();
+    return timer == null ? 0 : timer.count();
+  }
+  
+  private CustomerExposure exposure(String customerId, CreditType creditType) {
+    return customerExposureRepository.findById(CustomerExposure.id(customerId, creditType)).block();
+  }
+  
+  @Test
+  public void sumsTheBalancesOfEveryCustomerAndCreditType() {
+    var random = new Random(20221018);
+    // customerId:creditType -> { credits, limit, used } in minor units
+    var expected = new HashMap<String, long[]>();
+    for (int i = 0; i < 300; i++) {
+      var customerId = "customer-" + i;
+      var credits = new ArrayList<CreditType>(List.of(CreditType.PERSONAL));
+      for (int j = random.nextInt(4); j > 0; j--)
+        credits.add(CreditType.BUSINESS);
+      for (var creditType : credits) {
+        var limit = 100_000L * (1 + random.nextInt(50));
+        var used = (long) random.nextInt((int) limit);
+        addCredit(customerId, creditType, limit, used, random.nextInt(10) == 0);
+        var totals = expected.computeIfAbsent(CustomerExposure.id(customerId, creditType), id -> new long[3]);
+        totals[0]++;
+        totals[1] += limit;
+        totals[2] += used;
+      }
+    }
+    
+    var portfolio = portfolioExposureService.getPortfolioExposure().collectList().block();
+    assertThat(getExposureCalls()).isZero();
+    assertThat(customerExposureRepository.count().block()).isEqualTo(expected.size());
+    expected.forEach((id, totals) -> {
+      var exposure = customerExposureRepository.findById(id).block();
+      assertThat(exposure.getCredits()).as(id).isEqualTo(totals[0]);
+      assertThat(exposure.getLimit()).as(id).isEqualTo(Money.toDecimal(totals[1]));
+      assertThat(exposure.getUsed()).as(id).isEqualTo(Money.toDecimal(totals[2]));
+      assertThat(exposure.getAvailable()).as(id).isEqualTo(Money.toDecimal(totals[1] - totals[2]));
+    });
+    
+    assertThat(portfolio).extracting(PortfolioExposureDTO::getCreditType).containsExactly(CreditType.BUSINESS, CreditType.PERSONAL);
+    for (var total : portfolio) {
+      var sums = new long[3];
+      var customers = 0;
+      for (Map.Entry<String, long[]> entry : expected.entrySet()) {
+        if (!entry.getKey().endsWith(":" + total.getCreditType()))
+          continue;
+        customers++;
+        for (int k = 0; k < 3; k++)
+          sums[k] += entry.getValue()[k];
+      }
+      assertThat(total.getCustomers()).isEqualTo(customers);
+      assertThat(total.getCredits()).isEqualTo(sums[0]);
+      assertThat(total.getLimit()).isEqualByComparingTo(Money.toDecimal(sums[1]));
+      assertThat(total.getUsed()).isEqualByComparingTo(Money.toDecimal(sums[2]));
+      assertThat(total.getAvailable()).isEqualByComparingTo(Money.toDecimal(sums[1] - sums[2]));
+    }
+    
+    // sorted by credit type, and every customer has a personal credit
+    assertThat(portfolioExposureService.getCustomerExposure("customer-7").collectList().block())
+      .extracting(CustomerExposure::getCreditType)
+      .endsWith(CreditType.PERSONAL);
+  }
+  
+  @Test
+  public void recomputesOnlyTheCustomersWithChangedCredits() {
+    var credits = new ArrayList<Credit>();
+    for (int i = 0; i < 100; i++)
+      credits.add(addCredit("customer-" + i, CreditType.BUSINESS, 1_000_000, 0, false));
+    assertThat(portfolioExposureService.refresh().block()).isEqualTo(100);
+    var firstCheckpoint = exposure("customer-0", CreditType.BUSINESS).getCheckpoint();
+    
+    creditRepository.addUsed(credits.get(3).getId(), 25_000).block();
+    creditRepository.addUsed(credits.get(42).getId(), 10_000).block();
+    creditRepository.addUsed(credits.get(42).getId(), 5_000).block();
+    var added = addCredit("customer-42", CreditType.PERSONAL, 300_000, 0, false);
+    creditRepository.addUsed(added.getId(), 1_000).block();
+    
+    assertThat(portfolioExposureService.refresh().block()).isEqualTo(3);
+    assertThat(getExposureCalls()).isEqualTo(3);
+    assertThat(exposure("customer-3", CreditType.BUSINESS).getUsed()).isEqualByComparingTo("250.00");
+    assertThat(exposure("customer-42", CreditType.BUSINESS).getAvailable()).isEqualByComparingTo("9850.00");
+    assertThat(exposure("customer-42", CreditType.PERSONAL).getUsed()).isEqualByComparingTo("10.00");
+    assertThat(exposure("customer-0", CreditType.BUSINESS).getCheckpoint()).isEqualTo(firstCheckpoint);
+    assertThat(customerExposureRepository.count().block()).isEqualTo(101);
+    
+    var portfolio = portfolioExposureService.getPortfolioExposure().collectList().block();
+    assertThat(portfolio).filteredOn(total -> total.getCreditType() == CreditType.BUSINESS)
+      .singleElement()
+      .satisfies(total -> {
+        assertThat(total.getCustomers()).isEqualTo(100);
+        assertThat(total.getUsed()).isEqualByComparingTo(new BigDecimal("400.00"));
+      });
+  }
+  
+  @Test
+  public void rejectsAMissingCustomer() {
+    StepVerifier.create(portfolioExposureService.getCustomerExposure(""))
+      .expectError(BankValidationException.class)
+      .verify();
+  }
+}
@@ -0,0 +1,60 @@
+package com.bank.bootcamp.credits.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+public class SequenceCardNumberGeneratorTests {
+
+  private static final int THREADS = 8;
+  private static final int PER_THREAD = 500_000;
+  
+  @Test
+  public void generatesValidCardNumbers() {
+    var generator = new SequenceCardNumberGenerator();
+    for (int i = 0; i < 10_000; i++) {
+      var cardNumber = generator.generate();
+      assertThat(cardNumber).hasSize(16).startsWith("3353").containsOnlyDigits();
+      assertThat(isLuhnValid(cardNumber)).as(cardNumber).isTrue();
+    }
+  }
+  
+  @Test
+  public void generatesNoDuplicatesInParallel() {
+    var generator = new SequenceCardNumberGenerator();
+    var numbers = new long[THREADS * PER_THREAD];
+    IntStream.range(0, THREADS).parallel().forEach(thread -> {
+      for (int i = 0; i < PER_THREAD; i++)
+        numbers[thread * PER_THREAD + i] = Long.parseLong(generator.generate());
+    });
+    
+    Arrays.sort(numbers);
+    for (int i = 1; i < numbers.length; i++)
+      assertThat(numbers[i]).isNotEqualTo(numbers[i - 1]);
+  }
+  
+  @Test
+  public void wrapsAroundTheAccountRange() {
+    var generator = new SequenceCardNumberGenerator(99_999_999_999L);
+    var last = generator.generate();
+    var first = generator.generate();
+    assertThat(last).isNotEqualTo(first);
+    assertThat(isLuhnValid(last)).isTrue();
+    assertThat(isLuhnValid(first)).isTrue();
+  }
+  
+  private boolean isLuhnValid(String number) {
+    int sum = 0;
+    for (int i = 0; i < number.length(); i++) {
+      int digit = Character.getNumericValue(number.charAt(number.length() - 1 - i));
+      if (i % 2 == 1) {
+        digit *= 2;
+        if (digit > 9)
+          digit -= 9;
+      }
+      sum += digit;
+    }
+    return sum % 10 == 0;
+  }
+}
@@ -0,0 +1,171 @@
+package com.bank.bootcamp.credits.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.bank.bootcamp.credits.dto.MovementDTO;
+import com.bank.bootcamp.credits.entity.Consumptiom;
+import com.bank.bootcamp.credits.entity.Paid;
+import com.bank.bootcamp.credits.exception.BankValidationException;
+import com.bank.bootcamp.credits.metrics.CreditMetrics;
+import com.bank.bootcamp.credits.repository.ConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.PaidRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryArchivedConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryArchivedPaidRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryConsumptiomRepository;
+import com.bank.bootcamp.credits.repository.memory.InMemoryPaidRepository;
+import com.bank.bootcamp.credits.validation.CreditRequestValidator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+public class StatementServiceTests {
+  
+  private static final String CREDIT_ID = "credit-1";
+  private static final LocalDateTime START = LocalDateTime.of(2022, 1, 1, 0, 0);
+  
+  private InMemoryConsumptiomRepository consumptiomRepository;
+  private InMemoryPaidRepository paidRepository;
+  private StatementService statementService;
+  
+  @BeforeEach
+  public void setup() {
+    consumptiomRepository = new InMemoryConsumptiomRepository();
+    paidRepository = new InMemoryPaidRepository();
+    statementService = statementService(consumptiomRepository, paidRepository);
+  }
+  
+  private StatementService statementService(ConsumptiomRepository consumptiomRepository, PaidRepository paidRepository) {
+    return new StatementService(consumptiomRepository, paidRepository, new InMemoryArchivedConsumptiomRepository(),
+        new InMemoryArchivedPaidRepository(), new CreditMetrics(new SimpleMeterRegistry()), new CreditRequestValidator());
+  }
+  
+  private void addMovements(int count) {
+    for (int i = 0; i < count; i++) {
+      // every third movement shares its date with the previous one, so pages split on the id too
+      var date = START.plusMinutes(i - i / 3);
+      if (i % 2 == 0) {
+        var consumptiom = new Consumptiom();
+        consumptiom.setCreditId(CREDIT_ID);
+        consumptiom.setAmount(new BigDecimal("10"));
+        consumptiom.setRegisterDate(date);
+        consumptiomRepository.save(consumptiom).block();
+      } else {
+        var paid = new Paid();
+        paid.setCreditId(CREDIT_ID);
+        paid.setAmount(new BigDecimal("5"));
+        paid.setCreatedDate(date);
+        paidRepository.save(paid).block();
+      }
+    }
+  }
+  
+  @Test
+  public void pagesThroughMergedHistoryNewestFirst() {
+    addMovements(95);
+    var other = new Paid();
+    other.setCreditId("credit-2");
+    other.setAmount(new BigDecimal("1"));
+    other.setCreatedDate(START);
+    paidRepository.save(other).block();
+    
+    var movements = new ArrayList<MovementDTO>();
+    String cursor = null;
+    var pages = 0;
+    do {
+      var page = statementService.getStatement(CREDIT_ID, cursor, 10, false).block();
+      assertThat(page.getMovements()).hasSizeLessThanOrEqualTo(10);
+      movements.addAll(page.getMovements());
+      cursor = page.getNextCursor();
+      pages++;
+    } while (cursor != null);
+    
+    assertThat(pages).isEqualTo(10);
+    assertThat(movements).hasSize(95).extracting(MovementDTO::getId).doesNotHaveDuplicates();
+    assertThat(movements).extracting(MovementDTO::getCreditId).containsOnly(CREDIT_ID);
+    assertThat(movements).extracting(MovementDTO::getType).contains(MovementDTO.CONSUMPTIOM, MovementDTO.PAID);
+    for (int i = 1; i < movements.size(); i++) {
+      var newer = movements.get(i - 1);
+      var older = movements.get(i);
+      assertThat(newer.getDate().isAfter(older.getDate())
+          || (newer.getDate().isEqual(older.getDate()) && newer.getId().compareTo(older.getId()) > 0)).isTrue();
+    }
+  }
+  
+  @Test
+  public void rejectsInvalidCursorAndPageSize() {
+    StepVerifier.create(statementService.getStatement(CREDIT_ID, "not-a-cursor", 10, false))
+      .expectErrorMatches(e -> e instanceof BankValidationException && e.getMessage().equals("Statement cursor is not valid"))
+      .verify();
+    StepVerifier.create(statementService.getStatement(CREDIT_ID, null, StatementService.MAX_PAGE_SIZE + 1, false))
+      .expectError(BankValidationException.class)
+      .verify();
+    StepVerifier.create(statementService.getStatement("", null, null, false))
+      .expectError(BankValidationException.class)
+      .verify();
+  }
+  
+  @Test
+  public void cursorRoundTrips() {
+    var movement = new MovementDTO();
+    movement.setDate(START.plusSeconds(42).plusNanos(7_000_000));
+    movement.setId(ObjectId.get().toHexString());
+    var decoded = StatementService.decodeCursor(StatementService.encodeCursor(movement));
+    assertThat(decoded.getDate()).isEqualTo(movement.getDate());
+    assertThat(decoded.getId()).isEqualTo(movement.getId());
+  }
+  
+  @Test
+  public void streamsChronologicallyWithBoundedDemand() {
+    var total = 200_000;
+    var consumptiomRequested = new AtomicLong();
+    var paidRequested = new AtomicLong();
+    var consumptioms = mock(ConsumptiomRepository.class);
+    var paids = mock(PaidRepository.class);
+    when(consumptioms.streamByCreditId(CREDIT_ID)).thenReturn(Flux.range(0, total / 2)
+        .doOnRequest(n -> consumptiomRequested.addAndGet(n))
+        .map(i -> {
+          var consumptiom = new Consumptiom();
+          consumptiom.setId(String.format("c%08d", i));
+          consumptiom.setCreditId(CREDIT_ID);
+          consumptiom.setAmount(new BigDecimal("10"));
+          consumptiom.setRegisterDate(START.plusSeconds(2L * i));
+          return consumptiom;
+        }));
+    when(paids.streamByCreditId(CREDIT_ID)).thenReturn(Flux.range(0, total / 2)
+        .doOnRequest(n -> paidRequested.addAndGet(n))
+        .map(i -> {
+          var paid = new Paid();
+          paid.setId(String.format("p%08d", i));
+          paid.setCreditId(CREDIT_ID);
+          paid.setAmount(new BigDecimal("5"));
+          paid.setCreatedDate(START.plusSeconds(2L * i + 1));
+          return paid;
+        }));
+    var service = statementService(consumptioms, paids);
+    
+    // a slow client: the ledgers are only read as far as it asks, plus the merge prefetch
+    StepVerifier.create(service.streamStatement(CREDIT_ID, false), 10)
+      .expectNextCount(10)
+      .thenCancel()
+      .verify();
+    assertThat(consumptiomRequested.get()).isLessThanOrEqualTo(64);
+    assertThat(paidRequested.get()).isLessThanOrEqualTo(64);
+    
+    var previous = new MovementDTO[1];
+    StepVerifier.create(service.streamStatement(CREDIT_ID, false).doOnNext(movement -> {
+        if (previous[0] != null)
+          assertThat(movement.getDate()).isAfter(previous[0].getDate());
+        previous[0] = movement;
+      }).count())
+      .expectNext((long) total)
+      .verifyComplete();
+  }
+}
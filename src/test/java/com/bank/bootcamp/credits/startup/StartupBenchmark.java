@@ -0,0 +1,124 @@
+package com.bank.bootcamp.credits.startup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import com.bank.bootcamp.credits.CreditsApplication;
+
+/*
+ * Starts the service in a fresh JVM per run and measures, per mode (set of Spring profiles):
+ *  - time to first request: from launching the JVM to the first answered GET /credits/balanceById/{id},
+ *    so it includes what lazy beans defer to that request;
+ *  - resident memory (VmRSS) right after it.
+ * Modes without the inmemory profile start on the MongoDB of -Dstartup.mongodb.uri, where fast-start also builds
+ * the mapping metadata from its fixed entity set. Exits with 1 when the last mode exceeds the limits.
+ * Run with: mvn -Pstartup verify (-Dstartup.runs=5 -Dstartup.mongodb.uri=mongodb://localhost:27017 ..., see StartupSettings).
+ */
+public class StartupBenchmark {
+  
+  private static final Duration POLL_INTERVAL = Duration.ofMillis(10);
+  
+  public static void main(String[] args) throws Exception {
+    var settings = StartupSettings.fromSystemProperties();
+    var report = run(settings);
+    report.print(System.out);
+    var directory = Path.of(settings.getReportDirectory());
+    report.write(directory);
+    System.out.println("Report written to " + directory.toAbsolutePath());
+    System.exit(report.getViolations().isEmpty() ? 0 : 1);
+  }
+  
+  public static StartupReport run(StartupSettings settings) throws IOException, InterruptedException {
+    var report = new StartupReport();
+    for (var profiles : settings.getModes()) {
+      var times = new ArrayList<Long>();
+      var rss = new ArrayList<Long>();
+      for (int i = 0; i < settings.getRuns(); i++) {
+        var start = start(profiles, settings);
+        times.add(start[0]);
+        rss.add(start[1]);
+      }
+      report.add(profiles, times, rss);
+    }
+    report.evaluate(settings);
+    return report;
+  }
+  
+  /*
+   * { time to first request in ms, resident memory in MB }
+   */
+  private static long[] start(String profiles, StartupSettings settings) throws IOException, InterruptedException {
+    var port = freePort();
+    var command = new ArrayList<String>();
+    command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(settings.getJvmArgs());
+    // devtools would restart the application in its own class loader
+    command.add("-Dspring.devtools.restart.enabled=false");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(CreditsApplication.class.getName());
+    command.add("--spring.profiles.active=" + profiles);
+    if (!StartupSettings.isInMemory(profiles))
+      command.add("--spring.data.mongodb.uri=" + settings.getMongodbUri());
+    command.add("--server.port=" + port);
+    command.add("--spring.main.banner-mode=off");
+    var log = Files.createTempFile("startup", ".log");
+    var client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    var request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/credits/balanceById/startup"))
+        .timeout(settings.getTimeout())
+        .build();
+    
+    var launched = System.nanoTime();
+    var process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+    try {
+      while (true) {
+        if (!process.isAlive())
+          throw new IllegalStateException("The service (" + profiles + ") exited with " + process.exitValue() + ", see " + log);
+        if (System.nanoTime() - launched > settings.getTimeout().toNanos())
+          throw new IllegalStateException("The service (" + profiles + ") did not answer within " + settings.getTimeout() + ", see " + log);
+        try {
+          client.send(request, HttpResponse.BodyHandlers.discarding());
+          break;
+        } catch (IOException notListening) {
+          Thread.sleep(POLL_INTERVAL.toMillis());
+        }
+      }
+      var timeToFirstRequest = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launched);
+      var result = new long[] { timeToFirstRequest, residentMegabytes(process.pid()) };
+      Files.deleteIfExists(log);
+      return result;
+    } finally {
+      process.destroy();
+      if (!process.waitFor(30, TimeUnit.SECONDS))
+        process.destroyForcibly();
+    }
+  }
+  
+  private static int freePort() throws IOException {
+    try (var socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+  
+  /*
+   * VmRSS of /proc/<pid>/status (Linux), -1 elsewhere.
+   */
+  static long residentMegabytes(long pid) throws IOException {
+    var status = Path.of("/proc", String.valueOf(pid), "status");
+    if (!Files.exists(status))
+      return -1;
+    return Files.readAllLines(status).stream()
+        .filter(line -> line.startsWith("VmRSS:"))
+        .map(line -> Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024)
+        .findFirst()
+        .orElse(-1L);
+  }
+}
@@ -0,0 +1,81 @@
+package com.bank.bootcamp.credits.startup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.Data;
+
+/*
+ * Median time to first request and resident memory per mode, written as startup.json for the build to keep.
+ */
+@Data
+public class StartupReport {
+  
+  private final List<Mode> modes = new ArrayList<>();
+  private final List<String> violations = new ArrayList<>();
+  
+  @Data
+  public static class Mode {
+    private final String profiles;
+    private final List<Long> timeToFirstRequestMillis;
+    /* -1 where /proc is not available */
+    private final List<Long> rssMegabytes;
+    
+    public long getMedianTimeToFirstRequestMillis() {
+      return median(timeToFirstRequestMillis);
+    }
+    
+    public long getMedianRssMegabytes() {
+      return median(rssMegabytes);
+    }
+  }
+  
+  private static long median(List<Long> values) {
+    var sorted = values.stream().sorted().collect(Collectors.toList());
+    return sorted.get(sorted.size() / 2);
+  }
+  
+  public void add(String profiles, List<Long> timeToFirstRequestMillis, List<Long> rssMegabytes) {
+    modes.add(new Mode(profiles, List.copyOf(timeToFirstRequestMillis), List.copyOf(rssMegabytes)));
+  }
+  
+  /*
+   * The limits apply to the last mode, the one the service is meant to start in.
+   */
+  public List<String> evaluate(StartupSettings settings) {
+    violations.clear();
+    if (modes.isEmpty()) {
+      violations.add("No start was measured");
+      return violations;
+    }
+    var mode = modes.get(modes.size() - 1);
+    var maxMillis = settings.getMaxTimeToFirstRequest().toMillis();
+    if (mode.getMedianTimeToFirstRequestMillis() > maxMillis)
+      violations.add(String.format("%s time to first request %d ms > %d ms", mode.getProfiles(), mode.getMedianTimeToFirstRequestMillis(), maxMillis));
+    if (mode.getMedianRssMegabytes() > settings.getMaxRssMegabytes())
+      violations.add(String.format("%s resident memory %d MB > %d MB", mode.getProfiles(), mode.getMedianRssMegabytes(), settings.getMaxRssMegabytes()));
+    return violations;
+  }
+  
+  public void print(PrintStream out) {
+    out.printf("%-30s %12s %12s %12s%n", "profiles", "first req ms", "rss MB", "runs");
+    for (var mode : modes)
+      out.printf("%-30s %12d %12d %12d%n", mode.getProfiles(), mode.getMedianTimeToFirstRequestMillis(), mode.getMedianRssMegabytes(),
+          mode.getTimeToFirstRequestMillis().size());
+    if (violations.isEmpty())
+      out.println("Startup limits met");
+    else
+      violations.forEach(violation -> out.println("Startup limit exceeded: " + violation));
+  }
+  
+  public void write(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(directory.resolve("startup.json").toFile(), this);
+  }
+}
@@ -0,0 +1,63 @@
+package com.bank.bootcamp.credits.startup;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.Data;
+
+/*
+ * Read from -Dstartup.* system properties, the startup Maven profile passes them through.
+ */
+@Data
+public class StartupSettings {
+  
+  /* Spring profiles of each measured mode; without inmemory the service runs on mongodbUri */
+  private List<String> modes = List.of("inmemory", "inmemory,fast-start");
+  /* MongoDB of the modes without inmemory, when set they are measured by default after the inmemory ones */
+  private String mongodbUri = "";
+  /* starts per mode, the report keeps the median */
+  private int runs = 3;
+  /* extra options of the measured JVMs, e.g. -Xmx256m */
+  private List<String> jvmArgs = List.of();
+  private Duration timeout = Duration.ofSeconds(120);
+  /* limits checked against the median of the last mode */
+  private Duration maxTimeToFirstRequest = Duration.ofSeconds(30);
+  private long maxRssMegabytes = 768;
+  private String reportDirectory = "target/startup";
+  
+  public static StartupSettings fromSystemProperties() {
+    var settings = new StartupSettings();
+    settings.setMongodbUri(System.getProperty("startup.mongodb.uri", settings.mongodbUri).trim());
+    if (!settings.mongodbUri.isEmpty())
+      settings.setModes(List.of("inmemory", "inmemory,fast-start", "default", "fast-start"));
+    settings.setModes(list("startup.modes", ";", settings.modes));
+    settings.setRuns(Integer.getInteger("startup.runs", settings.runs));
+    settings.setJvmArgs(list("startup.jvm-args", " ", settings.jvmArgs));
+    settings.setTimeout(duration("startup.timeout", settings.timeout));
+    settings.setMaxTimeToFirstRequest(duration("startup.max-time-to-first-request", settings.maxTimeToFirstRequest));
+    settings.setMaxRssMegabytes(Long.getLong("startup.max-rss-mb", settings.maxRssMegabytes));
+    settings.setReportDirectory(System.getProperty("startup.report-directory", settings.reportDirectory));
+    for (var mode : settings.modes)
+      if (!isInMemory(mode) && settings.mongodbUri.isEmpty())
+        throw new IllegalArgumentException("The mode " + mode + " runs on MongoDB, set -Dstartup.mongodb.uri");
+    return settings;
+  }
+  
+  public static boolean isInMemory(String profiles) {
+    return Arrays.asList(profiles.split(",")).contains("inmemory");
+  }
+  
+  private static Duration duration(String property, Duration defaultValue) {
+    var value = System.getProperty(property, "");
+    return value.isBlank() ? defaultValue : Duration.parse(value);
+  }
+  
+  private static List<String> list(String property, String separator, List<String> defaultValue) {
+    var value = System.getProperty(property, "");
+    return value.isBlank() ? defaultValue : Arrays.stream(value.trim().split(separator))
+        .map(String::trim)
+        .filter(item -> !item.isEmpty())
+        .collect(Collectors.toList());
+  }
+}